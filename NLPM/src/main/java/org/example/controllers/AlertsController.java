@@ -5,11 +5,15 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.*;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.stage.FileChooser;
 import org.example.database.dao.AlertDAO;
 import org.example.models.SecurityAlert;
+import org.example.services.PacketCaptureService;
+import org.example.services.evidence.PcapRing;
 import javafx.scene.control.Alert;
 
 
+import java.io.File;
 import java.net.URL;
 import java.util.List;
 import java.util.ResourceBundle;
@@ -53,6 +57,9 @@ public class AlertsController implements Initializable {
     @FXML
     private Button refreshBtn;
 
+    @FXML
+    private Button evidenceBtn;
+
     private ObservableList<SecurityAlert> alertsList;
     private ObservableList<SecurityAlert> filteredAlertsList;
     private AlertDAO alertDAO;
@@ -66,6 +73,7 @@ public class AlertsController implements Initializable {
         loadAlerts();
 
         refreshBtn.setOnAction(e -> loadAlerts());
+        evidenceBtn.setOnAction(e -> exportEvidence());
         severityFilter.setOnAction(e -> applyFilters());
         searchField.textProperty().addListener((obs, oldVal, newVal) -> applyFilters());
     }
@@ -143,6 +151,44 @@ public class AlertsController implements Initializable {
         alertsTable.setItems(filteredAlertsList);
     }
 
+    /**
+     * Save the recorded packets around the selected alert as a pcap file
+     */
+    private void exportEvidence() {
+        SecurityAlert selected = alertsTable.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            showError("Please select an alert");
+            return;
+        }
+        PcapRing ring = PacketCaptureService.getInstance().getEvidenceRing();
+        if (ring == null) {
+            showError("Evidence recording is disabled (evidence.enabled in capture.properties)");
+            return;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Save alert evidence");
+        chooser.setInitialFileName(selected.getId() + ".pcap");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Capture files", "*.pcap", "*.pcapng"));
+        File file = chooser.showSaveDialog(alertsTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        int packets = ring.exportAround(selected, file.toPath());
+        if (packets < 0) {
+            showError("Failed to export evidence to " + file.getName());
+            return;
+        }
+        Alert info = new Alert(Alert.AlertType.INFORMATION);
+        info.setTitle("Evidence");
+        info.setHeaderText(null);
+        info.setContentText(packets == 0 ?
+                "No packets were recorded around this alert (they may have aged out of the ring)" :
+                String.format("Saved %,d packets to %s", packets, file.getName()));
+        info.showAndWait();
+    }
+
     private void showError(String message) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Error");
@@ -8,8 +8,12 @@ import javafx.scene.control.TableView;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.example.database.dao.AlertDAO;
+import org.example.database.dao.FlowDAO;
 import org.example.database.dao.TrafficDAO;
 import org.example.models.SecurityAlert;
+import org.example.services.PacketCaptureService;
+import org.example.services.capture.SamplingController;
+import org.example.services.capture.SamplingMode;
 
 import java.net.URL;
 import java.util.ResourceBundle;
@@ -28,6 +32,9 @@ public class DashboardController implements Initializable {
     @FXML
     private Label packetsAnalyzedLabel;
 
+    @FXML
+    private Label samplingLabel;
+
     @FXML
     private TableView<SecurityAlert> recentAlertsTable;
 
@@ -46,15 +53,18 @@ public class DashboardController implements Initializable {
     private ObservableList<SecurityAlert> alertsList;
     private AlertDAO alertDAO;
     private TrafficDAO trafficDAO;
+    private FlowDAO flowDAO;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         alertDAO = new AlertDAO();
         trafficDAO = new TrafficDAO();
+        flowDAO = new FlowDAO();
 
         initializeTable();
         loadStatistics();
         loadRecentAlerts();
+        loadSamplingState();
     }
 
     private void initializeTable() {
@@ -74,7 +84,8 @@ public class DashboardController implements Initializable {
             int totalAlerts = alertDAO.getTotalAlertsCount();
             int criticalAlerts = alertDAO.getAlertCountBySeverity("Critical");
             int warningAlerts = alertDAO.getAlertCountBySeverity("High") + alertDAO.getAlertCountBySeverity("Medium");
-            long packetsAnalyzed = trafficDAO.getTotalPacketsAnalyzed();
+            long packetsAnalyzed = PacketCaptureService.getInstance().isPacketLogging() ?
+                    trafficDAO.getTotalPacketsAnalyzed() : flowDAO.getTotalPacketsInFlows();
 
             // Update labels
             totalAlertsLabel.setText(String.valueOf(totalAlerts));
@@ -105,8 +116,24 @@ public class DashboardController implements Initializable {
         }
     }
 
+    private void loadSamplingState() {
+        SamplingController sampler = PacketCaptureService.getInstance().getSampler();
+        if (sampler == null || !sampler.isSampling()) {
+            samplingLabel.setText(sampler != null && sampler.getPacketsSkipped() > 0 ?
+                    String.format("Full capture (%,d packets skipped during overload)", sampler.getPacketsSkipped()) :
+                    "Full capture");
+            samplingLabel.setStyle("");
+            return;
+        }
+        samplingLabel.setText(String.format("Overloaded - sampling 1 in %d packets (%s), %,d skipped",
+                sampler.getRate(), sampler.getMode() == SamplingMode.FLOW_HASH ? "per flow" : "per packet",
+                sampler.getPacketsSkipped()));
+        samplingLabel.setStyle("-fx-text-fill: #FF9800;");
+    }
+
     public void refreshDashboard() {
         loadStatistics();
         loadRecentAlerts();
+        loadSamplingState();
     }
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ package org.example.controllers;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
+import org.example.services.PacketCaptureService;
+import org.example.services.PersistencePolicy;
 
 import java.net.URL;
 import java.util.ResourceBundle;
@@ -28,6 +30,9 @@ public class SettingsController implements Initializable {
     @FXML
     private ComboBox<String> logLevelCombo;
 
+    @FXML
+    private ComboBox<String> persistencePolicyCombo;
+
     @FXML
     private Button saveBtn;
 
@@ -48,6 +53,15 @@ public class SettingsController implements Initializable {
                 "DEBUG", "INFO", "WARNING", "ERROR", "CRITICAL"
         ));
         logLevelCombo.setValue("INFO");
+
+        // Persistence policy is switched on the running capture right away
+        for (PersistencePolicy policy : PersistencePolicy.values()) {
+            persistencePolicyCombo.getItems().add(policy.getDisplayName());
+        }
+        persistencePolicyCombo.setValue(
+                PacketCaptureService.getInstance().getPersistencePolicy().getDisplayName());
+        persistencePolicyCombo.setOnAction(e -> PacketCaptureService.getInstance().setPersistencePolicy(
+                PersistencePolicy.fromDisplayName(persistencePolicyCombo.getValue())));
     }
 
     private void loadSettings() {
@@ -6,13 +6,29 @@ import javafx.fxml.Initializable;
 import javafx.scene.control.*;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
+import org.example.database.dao.FlowDAO;
 import org.example.database.dao.TrafficDAO;
+import org.example.models.CaptureStatistics;
+import org.example.models.InterfaceStatistics;
+import org.example.models.StageStatistics;
 import org.example.models.TrafficData;
 import org.example.services.PacketCaptureService;
-
+import org.example.services.capture.CaptureProfile;
+import org.example.services.capture.DuplicateFilter;
+import org.example.services.capture.FragmentBudget;
+import org.example.services.capture.PcapBulkIngest;
+import org.example.services.capture.PcapDirectoryIngest;
+import org.example.services.capture.PcapReplaySource;
+import org.example.services.capture.ReplayMode;
+import org.example.services.inspection.ReassemblyBudget;
+
+import java.io.File;
 import java.net.URL;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -57,6 +73,9 @@ public class TrafficController implements Initializable {
     @FXML
     private Button stopMonitorBtn;
 
+    @FXML
+    private Button stopAllMonitorBtn;
+
     @FXML
     private Label statusLabel;
 
@@ -69,14 +88,43 @@ public class TrafficController implements Initializable {
     @FXML
     private Label threatsLabel;
 
+    @FXML
+    private Label dropStatsLabel;
+
+    @FXML
+    private Label interfaceStatsLabel;
+
+    @FXML
+    private TextField captureFilterField;
+
+    @FXML
+    private Button applyFilterBtn;
+
+    @FXML
+    private ComboBox<String> captureProfileSelector;
+
+    @FXML
+    private ComboBox<String> replaySpeedSelector;
+
+    @FXML
+    private Button replayBtn;
+
+    @FXML
+    private Button watchFolderBtn;
+
+    @FXML
+    private Label replayStatusLabel;
+
     private ObservableList<TrafficData> trafficList;
     private TrafficDAO trafficDAO;
+    private FlowDAO flowDAO;
     private PacketCaptureService captureService;
     private Timer refreshTimer;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         trafficDAO = new TrafficDAO();
+        flowDAO = new FlowDAO();
         captureService = PacketCaptureService.getInstance();
 
         initializeTable();
@@ -87,15 +135,15 @@ public class TrafficController implements Initializable {
 
     private void initializeTable() {
         protocolColumn.setCellValueFactory(cellData ->
-                new javafx.beans.property.SimpleStringProperty(cellData.getValue().getProtocol()));
+                new javafx.beans.property.SimpleStringProperty(cellData.getValue().getProtocol().name()));
         sourceIPColumn.setCellValueFactory(cellData ->
                 new javafx.beans.property.SimpleStringProperty(cellData.getValue().getSourceIP()));
-        sourcePortColumn.setCellValueFactory(cellData ->
-                new javafx.beans.property.SimpleStringProperty(cellData.getValue().getSourcePort()));
+        sourcePortColumn.setCellValueFactory(cellData -> new javafx.beans.property.SimpleStringProperty(
+                String.valueOf(cellData.getValue().getSourcePort())));
         destIPColumn.setCellValueFactory(cellData ->
                 new javafx.beans.property.SimpleStringProperty(cellData.getValue().getDestinationIP()));
-        destPortColumn.setCellValueFactory(cellData ->
-                new javafx.beans.property.SimpleStringProperty(cellData.getValue().getDestinationPort()));
+        destPortColumn.setCellValueFactory(cellData -> new javafx.beans.property.SimpleStringProperty(
+                String.valueOf(cellData.getValue().getDestinationPort())));
         packetSizeColumn.setCellValueFactory(cellData ->
                 new javafx.beans.property.SimpleLongProperty(cellData.getValue().getPacketSize()).asObject());
         timestampColumn.setCellValueFactory(cellData ->
@@ -114,6 +162,26 @@ public class TrafficController implements Initializable {
         startMonitorBtn.setOnAction(e -> startMonitoring());
         stopMonitorBtn.setOnAction(e -> stopMonitoring());
         stopMonitorBtn.setDisable(true);
+        stopAllMonitorBtn.setOnAction(e -> stopAllMonitoring());
+        stopAllMonitorBtn.setDisable(true);
+
+        replaySpeedSelector.setItems(FXCollections.observableArrayList(
+                "Max speed", "Bulk (parallel)", "Real time", "2x", "5x", "10x", "100x"
+        ));
+        replaySpeedSelector.setValue("Max speed");
+        replayBtn.setOnAction(e -> startReplay());
+        watchFolderBtn.setOnAction(e -> startWatchFolder());
+
+        captureFilterField.setText(captureService.getCaptureFilter());
+        applyFilterBtn.setOnAction(e -> applyCaptureFilter());
+
+        // Profile applies to interfaces started after the change
+        for (CaptureProfile profile : CaptureProfile.values()) {
+            captureProfileSelector.getItems().add(profile.getDisplayName());
+        }
+        captureProfileSelector.setValue(captureService.getCaptureProfile().getDisplayName());
+        captureProfileSelector.setOnAction(e -> captureService.setCaptureProfile(
+                CaptureProfile.fromDisplayName(captureProfileSelector.getValue())));
 
         // Initialize statistics labels
         if (packetsLabel != null) packetsLabel.setText("0");
@@ -131,7 +199,9 @@ public class TrafficController implements Initializable {
 
     private void loadTrafficData() {
         try {
-            List<TrafficData> traffic = trafficDAO.getRecentTraffic(5); // Last 5 minutes
+            // Without per-packet logging the table lists the flows of the last 5 minutes
+            List<TrafficData> traffic = captureService.isPacketLogging() ?
+                    trafficDAO.getRecentTraffic(5) : flowDAO.getRecentFlows(5);
             trafficList = FXCollections.observableArrayList(traffic);
             trafficTable.setItems(trafficList);
 
@@ -154,7 +224,11 @@ public class TrafficController implements Initializable {
             loadTrafficData();
         } else {
             try {
-                List<TrafficData> filtered = trafficDAO.getTrafficByProtocol(protocol);
+                List<TrafficData> filtered = captureService.isPacketLogging() ?
+                        trafficDAO.getTrafficByProtocol(protocol) :
+                        flowDAO.getRecentFlows(5).stream()
+                                .filter(flow -> flow.getProtocol().name().equals(protocol))
+                                .toList();
                 trafficList = FXCollections.observableArrayList(filtered);
                 trafficTable.setItems(trafficList);
             } catch (Exception e) {
@@ -177,34 +251,140 @@ public class TrafficController implements Initializable {
         boolean started = captureService.startCapture(interfaceName);
 
         if (started) {
-            statusLabel.setText("Status: Monitoring Active");
+            // Interface selector stays enabled so more interfaces can be added
+            updateMonitoringStatus();
+            stopMonitorBtn.setDisable(false);
+            stopAllMonitorBtn.setDisable(false);
+            replayBtn.setDisable(true);
+
+            // Start auto-refresh timer
+            if (refreshTimer == null) {
+                startAutoRefresh();
+            }
+
+            System.out.println("Network monitoring started on: " + interfaceName);
+        } else {
+            showError("Failed to start packet capture on " + interfaceName +
+                    ". Make sure you have administrator privileges and the interface is not already captured.");
+        }
+    }
+
+    private void updateMonitoringStatus() {
+        Set<String> active = captureService.getActiveInterfaces();
+        statusLabel.setText("Status: Monitoring Active (" + String.join(", ", active) + ")");
+        statusLabel.setStyle("-fx-text-fill: #4caf50;");
+    }
+
+    private void applyCaptureFilter() {
+        try {
+            if (!captureService.applyFilter(captureFilterField.getText())) {
+                showError("Failed to apply capture filter to the running capture");
+            }
+        } catch (IllegalArgumentException e) {
+            showError(e.getMessage());
+        }
+    }
+
+    private void startReplay() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Select capture file");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Capture files", "*.pcap", "*.pcapng", "*.cap"),
+                new FileChooser.ExtensionFilter("All files", "*.*"));
+        File file = chooser.showOpenDialog(trafficTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        String speed = replaySpeedSelector.getValue();
+        ReplayMode mode = ReplayMode.MULTIPLIED;
+        double multiplier = 1.0;
+        boolean bulk = speed.equals("Bulk (parallel)");
+        if (speed.equals("Max speed") || bulk) {
+            mode = ReplayMode.AS_FAST_AS_POSSIBLE;
+        } else if (speed.equals("Real time")) {
+            mode = ReplayMode.REAL_TIME;
+        } else {
+            multiplier = Double.parseDouble(speed.substring(0, speed.length() - 1));
+        }
+
+        boolean started = bulk ? captureService.startBulkIngest(file.getAbsolutePath()) :
+                captureService.startReplay(file.getAbsolutePath(), mode, multiplier);
+        if (started) {
+            statusLabel.setText("Status: Replaying " + file.getName());
             statusLabel.setStyle("-fx-text-fill: #4caf50;");
             startMonitorBtn.setDisable(true);
             stopMonitorBtn.setDisable(false);
+            stopAllMonitorBtn.setDisable(true);
             interfaceSelector.setDisable(true);
+            replayBtn.setDisable(true);
+            watchFolderBtn.setDisable(true);
 
-            // Start auto-refresh timer
             startAutoRefresh();
+        } else {
+            showError("Failed to open capture file: " + file.getName());
+        }
+    }
 
-            System.out.println("Network monitoring started on: " + interfaceName);
+    private void startWatchFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Select directory receiving capture files");
+        File directory = chooser.showDialog(trafficTable.getScene().getWindow());
+        if (directory == null) {
+            return;
+        }
+
+        if (captureService.startDirectoryIngest(directory.getAbsolutePath())) {
+            statusLabel.setText("Status: Watching " + directory.getName());
+            statusLabel.setStyle("-fx-text-fill: #4caf50;");
+            startMonitorBtn.setDisable(true);
+            stopMonitorBtn.setDisable(false);
+            stopAllMonitorBtn.setDisable(true);
+            interfaceSelector.setDisable(true);
+            replayBtn.setDisable(true);
+            watchFolderBtn.setDisable(true);
+
+            startAutoRefresh();
         } else {
-            showError("Failed to start packet capture. Make sure you have administrator privileges.");
+            showError("Failed to watch directory: " + directory.getName());
         }
     }
 
     private void stopMonitoring() {
+        // Stop only the selected interface while others keep running
+        String selectedInterface = interfaceSelector.getValue();
+        if (captureService.getReplaySource() == null && captureService.getBulkIngest() == null &&
+                captureService.getDirectoryIngest() == null && selectedInterface != null) {
+            String interfaceName = selectedInterface.split(" - ")[0];
+            captureService.stopCapture(interfaceName);
+            if (captureService.isCapturing()) {
+                updateMonitoringStatus();
+                System.out.println("Network monitoring stopped on: " + interfaceName);
+                return;
+            }
+        }
+        stopAllMonitoring();
+    }
+
+    private void stopAllMonitoring() {
         captureService.stopCapture();
+        resetControls();
+
+        // Stop auto-refresh
+        stopAutoRefresh();
+
+        System.out.println("Network monitoring stopped");
+    }
 
+    private void resetControls() {
         statusLabel.setText("Status: Monitoring Stopped");
         statusLabel.setStyle("-fx-text-fill: #f44336;");
         startMonitorBtn.setDisable(false);
         stopMonitorBtn.setDisable(true);
+        stopAllMonitorBtn.setDisable(true);
         interfaceSelector.setDisable(false);
-
-        // Stop auto-refresh
-        stopAutoRefresh();
-
-        System.out.println("Network monitoring stopped");
+        replayBtn.setDisable(false);
+        watchFolderBtn.setDisable(false);
     }
 
     private void startAutoRefresh() {
@@ -232,7 +412,7 @@ public class TrafficController implements Initializable {
             packetsLabel.setText(String.format("%,d", captureService.getPacketsAnalyzed()));
         }
         if (bytesLabel != null) {
-            long bytes = captureService.getBytesProcessed();
+            long bytes = captureService.getEstimatedBytes();
             String formatted = bytes > 1_000_000 ?
                     String.format("%.2f MB", bytes / 1_000_000.0) :
                     String.format("%.2f KB", bytes / 1_000.0);
@@ -242,6 +422,76 @@ public class TrafficController implements Initializable {
             threatsLabel.setText(String.valueOf(
                     org.example.services.DetectionEngine.getInstance().getTotalThreatsDetected()));
         }
+
+        updateDropStatistics();
+
+        PcapReplaySource replay = captureService.getReplaySource();
+        PcapBulkIngest ingest = captureService.getBulkIngest();
+        PcapDirectoryIngest directory = captureService.getDirectoryIngest();
+        if (directory != null) {
+            replayStatusLabel.setText(String.format("%d files ingested, %d in progress, %,d packets read",
+                    directory.getFilesCompleted(), directory.getFilesInProgress(), directory.getPacketsRead()));
+        } else if (replay != null || ingest != null) {
+            replayStatusLabel.setText(replay != null ?
+                    String.format("%,d packets read, %.0f packets/sec",
+                            replay.getPacketsRead(), replay.getPacketsPerSecond()) :
+                    String.format("%,d packets read, %.1f MB/s, %.0f packets/sec",
+                            ingest.getPacketsRead(), ingest.getMegabytesPerSecond(), ingest.getPacketsPerSecond()));
+
+            // Replay reached end of file
+            if (!captureService.isCapturing() && replayBtn.isDisabled()) {
+                resetControls();
+                stopAutoRefresh();
+            }
+        }
+    }
+
+    private void updateDropStatistics() {
+        CaptureStatistics stats = captureService.getCaptureStatistics();
+        StringBuilder text = new StringBuilder(String.format(
+                "Kernel: %,d received, %,d dropped, %,d dropped by interface",
+                stats.getKernelReceived(), stats.getKernelDropped(), stats.getInterfaceDropped()));
+        for (StageStatistics stage : stats.getStages()) {
+            text.append(String.format("  |  %s (%s): %,d dropped, queue %,d/%,d",
+                    stage.getName(), stage.getOverflowPolicy(), stage.getDropped(),
+                    stage.getQueueDepth(), stage.getQueueCapacity()));
+        }
+        FragmentBudget fragments = captureService.getFragmentBudget();
+        if (fragments != null) {
+            text.append(String.format("  |  Defrag: %,d reassembled, %,d timed out, %,d evicted, %,d overlaps",
+                    fragments.getDatagramsReassembled(), fragments.getTimeouts(),
+                    fragments.getEvictions() + fragments.getBudgetDrops(), fragments.getOverlaps()));
+        }
+        DuplicateFilter duplicates = captureService.getDuplicateFilter();
+        if (duplicates != null) {
+            text.append(String.format("  |  Duplicates: %,d suppressed", duplicates.getSuppressed()));
+        }
+        ReassemblyBudget reassembly = org.example.services.DetectionEngine.getInstance().getReassemblyBudget();
+        text.append(String.format("  |  Reassembly: %,d streams, %,d KB buffered, %,d evicted, %,d timed out",
+                reassembly.getActiveStreams(), reassembly.getMemoryUsed() / 1024,
+                reassembly.getStreamsEvicted(), reassembly.getStreamsTimedOut()));
+        dropStatsLabel.setText(text.toString());
+        dropStatsLabel.setStyle(stats.getTotalDropped() > 0 ? "-fx-text-fill: #f44336;" : "");
+
+        List<InterfaceStatistics> interfaces = captureService.getInterfaceStatistics();
+        if (interfaces.isEmpty()) {
+            interfaceStatsLabel.setText("No interface captured");
+            return;
+        }
+        StringBuilder perInterface = new StringBuilder();
+        for (InterfaceStatistics nif : interfaces) {
+            if (perInterface.length() > 0) {
+                perInterface.append("  |  ");
+            }
+            perInterface.append(String.format("%s: %,d packets, %,d kernel dropped, %,d pipeline dropped",
+                    nif.getInterfaceName(), nif.getPacketsCaptured(), nif.getKernelDropped(),
+                    nif.getPacketsDropped()));
+            if (duplicates != null) {
+                perInterface.append(String.format(", %,d duplicates",
+                        duplicates.getSuppressed(nif.getInterfaceName())));
+            }
+        }
+        interfaceStatsLabel.setText(perInterface.toString());
     }
 
     private void showError(String message) {
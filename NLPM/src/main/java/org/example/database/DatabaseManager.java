@@ -119,6 +119,24 @@ public class DatabaseManager {
                         "status VARCHAR(20), " +
                         "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
 
+                // Flow logs table (one row per conversation)
+                "CREATE TABLE IF NOT EXISTS " + schema + ".flow_logs (" +
+                        "flow_id BIGSERIAL PRIMARY KEY, " +
+                        "protocol VARCHAR(20) NOT NULL, " +
+                        "ip_protocol SMALLINT, " +
+                        "source_ip VARCHAR(45) NOT NULL, " +
+                        "source_port INTEGER, " +
+                        "destination_ip VARCHAR(45) NOT NULL, " +
+                        "destination_port INTEGER, " +
+                        "packets_out BIGINT, " +
+                        "bytes_out BIGINT, " +
+                        "packets_in BIGINT, " +
+                        "bytes_in BIGINT, " +
+                        "tcp_flags SMALLINT, " +
+                        "first_seen TIMESTAMP NOT NULL, " +
+                        "last_seen TIMESTAMP NOT NULL, " +
+                        "end_reason VARCHAR(10))",
+
                 // System stats table
                 "CREATE TABLE IF NOT EXISTS " + schema + ".system_stats (" +
                         "stat_id SERIAL PRIMARY KEY, " +
@@ -142,6 +160,8 @@ public class DatabaseManager {
                 "CREATE INDEX IF NOT EXISTS idx_alerts_created ON " + schema + ".alerts(created_at DESC)",
                 "CREATE INDEX IF NOT EXISTS idx_traffic_timestamp ON " + schema + ".traffic_logs(timestamp DESC)",
                 "CREATE INDEX IF NOT EXISTS idx_traffic_source_ip ON " + schema + ".traffic_logs(source_ip)",
+                "CREATE INDEX IF NOT EXISTS idx_flow_last_seen ON " + schema + ".flow_logs(last_seen DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_flow_source_ip ON " + schema + ".flow_logs(source_ip)",
 
                 // Insert default admin user if not exists
                 "INSERT INTO " + schema + ".users (username, password_hash, role, email) " +
@@ -0,0 +1,114 @@
+package org.example.database.dao;
+
+import org.example.database.DatabaseManager;
+import org.example.models.FlowRecord;
+import org.example.models.TrafficData;
+import org.example.models.TrafficProtocol;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FlowDAO {
+    private final DatabaseManager dbManager;
+    private final String schema;
+
+    public FlowDAO() {
+        this.dbManager = DatabaseManager.getInstance();
+        this.schema = dbManager.getSchema();
+    }
+
+    /**
+     * Insert flow records in one JDBC batch, returns the number of rows written
+     */
+    public int insertFlowBatch(List<FlowRecord> batch) {
+        String sql = "INSERT INTO " + schema + ".flow_logs " +
+                "(protocol, ip_protocol, source_ip, source_port, destination_ip, destination_port, " +
+                "packets_out, bytes_out, packets_in, bytes_in, tcp_flags, first_seen, last_seen, end_reason) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (FlowRecord flow : batch) {
+                pstmt.setString(1, flow.getProtocol());
+                pstmt.setInt(2, flow.getIpProtocol());
+                pstmt.setString(3, flow.getSourceIP());
+                pstmt.setInt(4, flow.getSourcePort());
+                pstmt.setString(5, flow.getDestinationIP());
+                pstmt.setInt(6, flow.getDestinationPort());
+                pstmt.setLong(7, flow.getPacketsOut());
+                pstmt.setLong(8, flow.getBytesOut());
+                pstmt.setLong(9, flow.getPacketsIn());
+                pstmt.setLong(10, flow.getBytesIn());
+                pstmt.setInt(11, flow.getTcpFlags());
+                pstmt.setTimestamp(12, Timestamp.valueOf(flow.getFirstSeen()));
+                pstmt.setTimestamp(13, Timestamp.valueOf(flow.getLastSeen()));
+                pstmt.setString(14, flow.getEndReason());
+                pstmt.addBatch();
+            }
+
+            int written = 0;
+            for (int count : pstmt.executeBatch()) {
+                written += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+            }
+            return written;
+        } catch (SQLException e) {
+            System.err.println("Error inserting flow batch: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Flows that ended in the last minutes, as rows for the traffic table
+     * (packet size column holds the bytes of the whole flow)
+     */
+    public List<TrafficData> getRecentFlows(int minutes) {
+        List<TrafficData> flows = new ArrayList<>();
+        String sql = "SELECT * FROM " + schema + ".flow_logs " +
+                "WHERE last_seen > CURRENT_TIMESTAMP - INTERVAL '" + minutes + " minutes' " +
+                "ORDER BY last_seen DESC LIMIT 1000";
+
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                long packets = rs.getLong("packets_out") + rs.getLong("packets_in");
+                flows.add(TrafficData.fromRow(
+                        TrafficProtocol.fromName(rs.getString("protocol")),
+                        rs.getString("source_ip"),
+                        rs.getInt("source_port"),
+                        rs.getString("destination_ip"),
+                        rs.getInt("destination_port"),
+                        rs.getLong("bytes_out") + rs.getLong("bytes_in"),
+                        rs.getTimestamp("last_seen").toInstant(),
+                        String.format("%,d pkts, %s", packets, rs.getString("end_reason"))));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching recent flows: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return flows;
+    }
+
+    public long getTotalPacketsInFlows() {
+        String sql = "SELECT COALESCE(SUM(packets_out + packets_in), 0) FROM " + schema + ".flow_logs";
+
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error counting flow packets: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+}
@@ -2,8 +2,10 @@ package org.example.database.dao;
 
 import org.example.database.DatabaseManager;
 import org.example.models.TrafficData;
+import org.example.models.TrafficProtocol;
 
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -80,18 +82,19 @@ public class TrafficDAO {
     public boolean insertTraffic(TrafficData traffic) {
         String sql = "INSERT INTO " + schema + ".traffic_logs " +
                 "(protocol, source_ip, source_port, destination_ip, destination_port, packet_size, status, timestamp) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, traffic.getProtocol());
+            pstmt.setString(1, traffic.getProtocol().name());
             pstmt.setString(2, traffic.getSourceIP());
-            pstmt.setInt(3, Integer.parseInt(traffic.getSourcePort()));
+            pstmt.setInt(3, traffic.getSourcePort());
             pstmt.setString(4, traffic.getDestinationIP());
-            pstmt.setInt(5, Integer.parseInt(traffic.getDestinationPort()));
+            pstmt.setInt(5, traffic.getDestinationPort());
             pstmt.setLong(6, traffic.getPacketSize());
             pstmt.setString(7, traffic.getStatus());
+            pstmt.setTimestamp(8, capturedAt(traffic));
 
             return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
@@ -101,6 +104,49 @@ public class TrafficDAO {
         }
     }
 
+    /**
+     * Insert records in one JDBC batch, returns the number of rows written
+     */
+    public int insertTrafficBatch(List<TrafficData> batch) {
+        String sql = "INSERT INTO " + schema + ".traffic_logs " +
+                "(protocol, source_ip, source_port, destination_ip, destination_port, packet_size, status, timestamp) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (TrafficData traffic : batch) {
+                pstmt.setString(1, traffic.getProtocol().name());
+                pstmt.setString(2, traffic.getSourceIP());
+                pstmt.setInt(3, traffic.getSourcePort());
+                pstmt.setString(4, traffic.getDestinationIP());
+                pstmt.setInt(5, traffic.getDestinationPort());
+                pstmt.setLong(6, traffic.getPacketSize());
+                pstmt.setString(7, traffic.getStatus());
+                pstmt.setTimestamp(8, capturedAt(traffic));
+                pstmt.addBatch();
+            }
+
+            int written = 0;
+            for (int count : pstmt.executeBatch()) {
+                written += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+            }
+            return written;
+        } catch (SQLException e) {
+            System.err.println("Error inserting traffic batch: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Capture time of the packet, so replayed and ingested traffic is
+     * logged at the time it was captured rather than when it was written
+     */
+    private static Timestamp capturedAt(TrafficData traffic) {
+        return Timestamp.from(Instant.ofEpochSecond(0, traffic.getTimestampNanos()));
+    }
+
     public long getTotalPacketsAnalyzed() {
         String sql = "SELECT COUNT(*) FROM " + schema + ".traffic_logs";
 
@@ -139,15 +185,14 @@ public class TrafficDAO {
     }
 
     private TrafficData extractTrafficFromResultSet(ResultSet rs) throws SQLException {
-        String protocol = rs.getString("protocol");
-        String sourceIP = rs.getString("source_ip");
-        String sourcePort = String.valueOf(rs.getInt("source_port"));
-        String destIP = rs.getString("destination_ip");
-        String destPort = String.valueOf(rs.getInt("destination_port"));
-        long packetSize = rs.getLong("packet_size");
-        String timestamp = rs.getTimestamp("timestamp").toLocalDateTime().toLocalTime().toString();
-        String status = rs.getString("status");
-
-        return new TrafficData(protocol, sourceIP, sourcePort, destIP, destPort, packetSize, timestamp, status);
+        return TrafficData.fromRow(
+                TrafficProtocol.fromName(rs.getString("protocol")),
+                rs.getString("source_ip"),
+                rs.getInt("source_port"),
+                rs.getString("destination_ip"),
+                rs.getInt("destination_port"),
+                rs.getLong("packet_size"),
+                rs.getTimestamp("timestamp").toInstant(),
+                rs.getString("status"));
     }
-}
\ No newline at end of file
+}
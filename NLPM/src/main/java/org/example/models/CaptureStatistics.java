@@ -0,0 +1,51 @@
+package org.example.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where packets went: libpcap/kernel counters plus every user-space stage
+ */
+public class CaptureStatistics {
+    private long kernelReceived;
+    private long kernelDropped;
+    private long interfaceDropped;
+    private long packetsCaptured;
+    private final List<StageStatistics> stages = new ArrayList<>();
+
+    // Getters and Setters
+    public long getKernelReceived() { return kernelReceived; }
+    public void setKernelReceived(long kernelReceived) { this.kernelReceived = kernelReceived; }
+
+    public long getKernelDropped() { return kernelDropped; }
+    public void setKernelDropped(long kernelDropped) { this.kernelDropped = kernelDropped; }
+
+    public long getInterfaceDropped() { return interfaceDropped; }
+    public void setInterfaceDropped(long interfaceDropped) { this.interfaceDropped = interfaceDropped; }
+
+    public long getPacketsCaptured() { return packetsCaptured; }
+    public void setPacketsCaptured(long packetsCaptured) { this.packetsCaptured = packetsCaptured; }
+
+    public List<StageStatistics> getStages() { return stages; }
+    public void addStage(StageStatistics stage) { stages.add(stage); }
+
+    public StageStatistics getStage(String name) {
+        for (StageStatistics stage : stages) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Packets lost anywhere between the wire and the last stage
+     */
+    public long getTotalDropped() {
+        long total = kernelDropped + interfaceDropped;
+        for (StageStatistics stage : stages) {
+            total += stage.getDropped();
+        }
+        return total;
+    }
+}
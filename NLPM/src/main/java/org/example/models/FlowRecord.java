@@ -0,0 +1,100 @@
+package org.example.models;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * One conversation between two endpoints, seen from the side that sent the
+ * first packet ("out" = initiator to responder, "in" = the replies)
+ */
+public class FlowRecord {
+    public static final String END_FIN = "FIN";
+    public static final String END_RST = "RST";
+    public static final String END_IDLE = "IDLE";
+    public static final String END_ACTIVE = "ACTIVE";
+    public static final String END_CAPTURE_STOP = "STOP";
+
+    private final int ipVersion;
+    private final long sourceHigh, sourceLow;
+    private final long destinationHigh, destinationLow;
+    private final int sourcePort;
+    private final int destinationPort;
+    private final int ipProtocol;
+    private final String protocol;
+    private final long packetsOut, bytesOut;
+    private final long packetsIn, bytesIn;
+    private final int tcpFlags;
+    private final long firstSeenNanos;
+    private final long lastSeenNanos;
+    private final String endReason;
+
+    public FlowRecord(int ipVersion, long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                      int sourcePort, int destinationPort, int ipProtocol, String protocol,
+                      long packetsOut, long bytesOut, long packetsIn, long bytesIn, int tcpFlags,
+                      long firstSeenNanos, long lastSeenNanos, String endReason) {
+        this.ipVersion = ipVersion;
+        this.sourceHigh = sourceHigh;
+        this.sourceLow = sourceLow;
+        this.destinationHigh = destinationHigh;
+        this.destinationLow = destinationLow;
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
+        this.ipProtocol = ipProtocol;
+        this.protocol = protocol;
+        this.packetsOut = packetsOut;
+        this.bytesOut = bytesOut;
+        this.packetsIn = packetsIn;
+        this.bytesIn = bytesIn;
+        this.tcpFlags = tcpFlags;
+        this.firstSeenNanos = firstSeenNanos;
+        this.lastSeenNanos = lastSeenNanos;
+        this.endReason = endReason;
+    }
+
+    // Getters
+    public int getIpVersion() { return ipVersion; }
+    /** IPv4 addresses are held in the low 32 bits of the low word */
+    public long getSourceHigh() { return sourceHigh; }
+    public long getSourceLow() { return sourceLow; }
+    public long getDestinationHigh() { return destinationHigh; }
+    public long getDestinationLow() { return destinationLow; }
+    public int getSourcePort() { return sourcePort; }
+    public int getDestinationPort() { return destinationPort; }
+    public int getIpProtocol() { return ipProtocol; }
+    /** Display protocol (TCP, HTTP, DNS, ...) */
+    public String getProtocol() { return protocol; }
+    public long getPacketsOut() { return packetsOut; }
+    public long getBytesOut() { return bytesOut; }
+    public long getPacketsIn() { return packetsIn; }
+    public long getBytesIn() { return bytesIn; }
+    public long getPackets() { return packetsOut + packetsIn; }
+    public long getBytes() { return bytesOut + bytesIn; }
+    /** TCP flags seen in either direction, OR-ed together */
+    public int getTcpFlags() { return tcpFlags; }
+    public long getFirstSeenNanos() { return firstSeenNanos; }
+    public long getLastSeenNanos() { return lastSeenNanos; }
+    /** Why the record was emitted: FIN, RST, IDLE, ACTIVE (long flow split) or STOP */
+    public String getEndReason() { return endReason; }
+
+    public String getSourceIP() {
+        return ipVersion == 4 ? IpAddress.formatIpv4((int) sourceLow) : IpAddress.formatIpv6(sourceHigh, sourceLow);
+    }
+
+    public String getDestinationIP() {
+        return ipVersion == 4 ? IpAddress.formatIpv4((int) destinationLow) :
+                IpAddress.formatIpv6(destinationHigh, destinationLow);
+    }
+
+    public LocalDateTime getFirstSeen() {
+        return toLocalDateTime(firstSeenNanos);
+    }
+
+    public LocalDateTime getLastSeen() {
+        return toLocalDateTime(lastSeenNanos);
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochNanos) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.models;
+
+/**
+ * Key of a host in tracking maps: IP version and the whole address (IPv4
+ * in the low 32 bits of low), so no two hosts can share an entry.
+ * Comparable, so hash maps keep buckets of colliding IPv6 keys as trees.
+ */
+public final class HostKey implements Comparable<HostKey> {
+    private final int version;
+    private final long high;
+    private final long low;
+
+    private HostKey(int version, long high, long low) {
+        this.version = version;
+        this.high = high;
+        this.low = low;
+    }
+
+    public static HostKey of(int version, long high, long low) {
+        return version == 4 ? new HostKey(4, 0, low & 0xffffffffL) : new HostKey(6, high, low);
+    }
+
+    /**
+     * Key of an address literal; throws IllegalArgumentException for
+     * anything else
+     */
+    public static HostKey parse(String literal) {
+        byte[] address = IpAddress.parse(literal);
+        return address.length == 4 ? of(4, 0, IpAddress.toLong(address, 0)) :
+                of(6, IpAddress.toLong(address, 0), IpAddress.toLong(address, 8));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof HostKey)) {
+            return false;
+        }
+        HostKey key = (HostKey) other;
+        return low == key.low && high == key.high && version == key.version;
+    }
+
+    @Override
+    public int hashCode() {
+        return (Long.hashCode(high) * 31 + Long.hashCode(low)) * 31 + version;
+    }
+
+    @Override
+    public int compareTo(HostKey other) {
+        int order = Integer.compare(version, other.version);
+        if (order == 0) {
+            order = Long.compareUnsigned(high, other.high);
+        }
+        return order != 0 ? order : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public String toString() {
+        return version == 4 ? IpAddress.formatIpv4((int) low) : IpAddress.formatIpv6(high, low);
+    }
+}
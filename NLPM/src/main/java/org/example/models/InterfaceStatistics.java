@@ -0,0 +1,36 @@
+package org.example.models;
+
+/**
+ * Capture counters of one network interface
+ */
+public class InterfaceStatistics {
+    private final String interfaceName;
+    private final long packetsCaptured;
+    private final long bytesCaptured;
+    private final long packetsDropped;
+    private final long kernelReceived;
+    private final long kernelDropped;
+    private final long interfaceDropped;
+
+    public InterfaceStatistics(String interfaceName, long packetsCaptured, long bytesCaptured,
+                               long packetsDropped, long kernelReceived, long kernelDropped,
+                               long interfaceDropped) {
+        this.interfaceName = interfaceName;
+        this.packetsCaptured = packetsCaptured;
+        this.bytesCaptured = bytesCaptured;
+        this.packetsDropped = packetsDropped;
+        this.kernelReceived = kernelReceived;
+        this.kernelDropped = kernelDropped;
+        this.interfaceDropped = interfaceDropped;
+    }
+
+    // Getters
+    public String getInterfaceName() { return interfaceName; }
+    public long getPacketsCaptured() { return packetsCaptured; }
+    public long getBytesCaptured() { return bytesCaptured; }
+    /** Packets this interface could not hand to the pipeline */
+    public long getPacketsDropped() { return packetsDropped; }
+    public long getKernelReceived() { return kernelReceived; }
+    public long getKernelDropped() { return kernelDropped; }
+    public long getInterfaceDropped() { return interfaceDropped; }
+}
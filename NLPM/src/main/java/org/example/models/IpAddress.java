@@ -0,0 +1,90 @@
+package org.example.models;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.regex.Pattern;
+
+/**
+ * Text formatting for IP addresses held as primitives
+ * (IPv4 as an int, IPv6 as two longs)
+ */
+public final class IpAddress {
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private IpAddress() {
+    }
+
+    /**
+     * Bytes of an IPv4 (4) or IPv6 (16) address literal; host names are
+     * rejected rather than resolved
+     */
+    public static byte[] parse(String literal) {
+        if (literal == null || !(literal.indexOf(':') >= 0 || IPV4_LITERAL.matcher(literal).matches())) {
+            throw new IllegalArgumentException("Not an IP address: " + literal);
+        }
+        try {
+            return InetAddress.getByName(literal).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Not an IP address: " + literal);
+        }
+    }
+
+    /**
+     * Big-endian value of up to 8 bytes from offset
+     */
+    public static long toLong(byte[] address, int offset) {
+        long value = 0;
+        for (int i = offset; i < Math.min(address.length, offset + 8); i++) {
+            value = (value << 8) | (address[i] & 0xff);
+        }
+        return value;
+    }
+
+    public static String formatIpv4(int address) {
+        return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "." +
+                ((address >>> 8) & 0xff) + "." + (address & 0xff);
+    }
+
+    /**
+     * RFC 5952 form: lowercase hex, longest zero run compressed to "::"
+     */
+    public static String formatIpv6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - 16 * i)) & 0xffff;
+            groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xffff;
+        }
+
+        // Find the longest run of zero groups (length >= 2)
+        int bestStart = -1, bestLength = 0;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < 8 && groups[i] == 0) {
+                i++;
+            }
+            if (i - start > bestLength && i - start >= 2) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.models;
+
+/**
+ * Snapshot of one processing stage's hand-off queue
+ */
+public class StageStatistics {
+    private final String name;
+    private final String overflowPolicy;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final long offered;
+    private final long accepted;
+    private final long dropped;
+
+    public StageStatistics(String name, String overflowPolicy, int queueDepth, int queueCapacity,
+                           long offered, long accepted, long dropped) {
+        this.name = name;
+        this.overflowPolicy = overflowPolicy;
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.offered = offered;
+        this.accepted = accepted;
+        this.dropped = dropped;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public String getOverflowPolicy() { return overflowPolicy; }
+    public int getQueueDepth() { return queueDepth; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public long getOffered() { return offered; }
+    public long getAccepted() { return accepted; }
+    public long getDropped() { return dropped; }
+}
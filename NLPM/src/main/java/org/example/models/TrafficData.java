@@ -1,50 +1,145 @@
 package org.example.models;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One packet (or one flow row from the database) as seen by detection and
+ * the traffic table. Addresses, ports and time are kept as primitives;
+ * their text forms are rendered on first use by the UI or the DAO only.
+ */
 public class TrafficData {
-    private String protocol;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final int ipVersion;
+    private final long sourceHigh, sourceLow;
+    private final long destinationHigh, destinationLow;
+    private final int sourcePort;
+    private final int destinationPort;
+    private final TrafficProtocol protocol;
+    private final long packetSize;
+    private final long timestampNanos;
+    private String status;
+
+    // Rendered lazily; a race only renders the same string twice
     private String sourceIP;
-    private String sourcePort;
     private String destinationIP;
-    private String destinationPort;
-    private long packetSize;
     private String timestamp;
-    private String status;
 
-    public TrafficData(String protocol, String sourceIP, String sourcePort,
-                       String destinationIP, String destinationPort,
-                       long packetSize, String timestamp, String status) {
-        this.protocol = protocol;
-        this.sourceIP = sourceIP;
+    /**
+     * IPv4 addresses are held in the low 32 bits of the low word
+     */
+    public TrafficData(int ipVersion, long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                       int sourcePort, int destinationPort, TrafficProtocol protocol,
+                       long packetSize, long timestampNanos, String status) {
+        this.ipVersion = ipVersion;
+        this.sourceHigh = sourceHigh;
+        this.sourceLow = sourceLow;
+        this.destinationHigh = destinationHigh;
+        this.destinationLow = destinationLow;
         this.sourcePort = sourcePort;
-        this.destinationIP = destinationIP;
         this.destinationPort = destinationPort;
+        this.protocol = protocol;
         this.packetSize = packetSize;
-        this.timestamp = timestamp;
+        this.timestampNanos = timestampNanos;
         this.status = status;
     }
 
-    // Getters and Setters
-    public String getProtocol() { return protocol; }
-    public void setProtocol(String protocol) { this.protocol = protocol; }
+    /**
+     * Row read back from the database, addresses given as text
+     */
+    public static TrafficData fromRow(TrafficProtocol protocol, String sourceIP, int sourcePort,
+                                      String destinationIP, int destinationPort, long packetSize,
+                                      Instant capturedAt, String status) {
+        byte[] source = parseOrUnspecified(sourceIP);
+        byte[] destination = parseOrUnspecified(destinationIP);
+        long timestampNanos = capturedAt.getEpochSecond() * 1_000_000_000L + capturedAt.getNano();
+        boolean v4 = source.length == 4 && destination.length == 4;
+        TrafficData traffic = new TrafficData(v4 ? 4 : 6,
+                v4 ? 0 : IpAddress.toLong(source, 0), IpAddress.toLong(source, v4 ? 0 : 8),
+                v4 ? 0 : IpAddress.toLong(destination, 0), IpAddress.toLong(destination, v4 ? 0 : 8),
+                sourcePort, destinationPort, protocol, packetSize, timestampNanos, status);
+        traffic.sourceIP = sourceIP;
+        traffic.destinationIP = destinationIP;
+        return traffic;
+    }
 
-    public String getSourceIP() { return sourceIP; }
-    public void setSourceIP(String sourceIP) { this.sourceIP = sourceIP; }
+    private static byte[] parseOrUnspecified(String address) {
+        try {
+            return IpAddress.parse(address);
+        } catch (IllegalArgumentException e) {
+            return new byte[4]; // keeps the stored text, primitives read 0.0.0.0
+        }
+    }
 
-    public String getSourcePort() { return sourcePort; }
-    public void setSourcePort(String sourcePort) { this.sourcePort = sourcePort; }
+    // Primitive accessors, used by detection and persistence
+    public int getIpVersion() { return ipVersion; }
+    public long getSourceHigh() { return sourceHigh; }
+    public long getSourceLow() { return sourceLow; }
+    public long getDestinationHigh() { return destinationHigh; }
+    public long getDestinationLow() { return destinationLow; }
+    public int getSourcePort() { return sourcePort; }
+    public int getDestinationPort() { return destinationPort; }
+    public TrafficProtocol getProtocol() { return protocol; }
+    public long getPacketSize() { return packetSize; }
+    public long getTimestampNanos() { return timestampNanos; }
 
-    public String getDestinationIP() { return destinationIP; }
-    public void setDestinationIP(String destinationIP) { this.destinationIP = destinationIP; }
+    /**
+     * Tracking key of the source host
+     */
+    public HostKey getSourceKey() {
+        return HostKey.of(ipVersion, sourceHigh, sourceLow);
+    }
 
-    public String getDestinationPort() { return destinationPort; }
-    public void setDestinationPort(String destinationPort) { this.destinationPort = destinationPort; }
+    public HostKey getDestinationKey() {
+        return HostKey.of(ipVersion, destinationHigh, destinationLow);
+    }
 
-    public long getPacketSize() { return packetSize; }
-    public void setPacketSize(long packetSize) { this.packetSize = packetSize; }
+    /**
+     * Loopback, link-local and private (RFC 1918 / ULA) source address
+     */
+    public boolean isSourceLocal() {
+        if (ipVersion == 4) {
+            int address = (int) sourceLow;
+            int first = address >>> 24;
+            return first == 127 || first == 10 || address >>> 16 == 0xc0a8 || address >>> 20 == 0xac1 ||
+                    address >>> 16 == 0xa9fe || address == 0;
+        }
+        // ::1, link-local fe80::/10 and unique local fc00::/7
+        return (sourceHigh == 0 && sourceLow == 1) || sourceHigh >>> 54 == 0x3fa || sourceHigh >>> 57 == 0x7e;
+    }
+
+    // Text forms, rendered on first use
+    public String getSourceIP() {
+        if (sourceIP == null) {
+            sourceIP = format(sourceHigh, sourceLow);
+        }
+        return sourceIP;
+    }
 
-    public String getTimestamp() { return timestamp; }
-    public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+    public String getDestinationIP() {
+        if (destinationIP == null) {
+            destinationIP = format(destinationHigh, destinationLow);
+        }
+        return destinationIP;
+    }
+
+    /**
+     * Capture time as HH:mm:ss
+     */
+    public String getTimestamp() {
+        if (timestamp == null) {
+            timestamp = TIME_FORMAT.format(Instant.ofEpochSecond(0, timestampNanos));
+        }
+        return timestamp;
+    }
 
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+
+    private String format(long high, long low) {
+        return ipVersion == 4 ? IpAddress.formatIpv4((int) low) : IpAddress.formatIpv6(high, low);
+    }
 }
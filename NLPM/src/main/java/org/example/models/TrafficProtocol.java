@@ -0,0 +1,61 @@
+package org.example.models;
+
+/**
+ * Protocol shown for a packet: the transport protocol, or the application
+ * protocol guessed from a well-known destination port
+ */
+public enum TrafficProtocol {
+    TCP, UDP, ICMP, HTTP, HTTPS, SSH, FTP, RDP, DNS, DHCP, UNKNOWN;
+
+    private static final int IP_TCP = 6;
+    private static final int IP_UDP = 17;
+    private static final int IP_ICMP = 1;
+    private static final int IP_ICMPV6 = 58;
+
+    /**
+     * Classify by IP protocol number and destination port
+     * (transportDecoded false: ports are not known)
+     */
+    public static TrafficProtocol classify(int ipProtocol, int destinationPort, boolean transportDecoded) {
+        if (!transportDecoded) {
+            return UNKNOWN;
+        }
+        switch (ipProtocol) {
+            case IP_TCP:
+                switch (destinationPort) {
+                    case 80: return HTTP;
+                    case 443: return HTTPS;
+                    case 22: return SSH;
+                    case 21: return FTP;
+                    case 3389: return RDP;
+                    default: return TCP;
+                }
+            case IP_UDP:
+                switch (destinationPort) {
+                    case 53: return DNS;
+                    case 67:
+                    case 68: return DHCP;
+                    default: return UDP;
+                }
+            case IP_ICMP:
+            case IP_ICMPV6:
+                return ICMP;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    /**
+     * Protocol stored in the database, UNKNOWN for anything unexpected
+     */
+    public static TrafficProtocol fromName(String name) {
+        if (name != null) {
+            for (TrafficProtocol protocol : values()) {
+                if (protocol.name().equals(name)) {
+                    return protocol;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.services;
+
+import org.example.models.StageStatistics;
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.HandoffQueue;
+import org.example.services.capture.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Output stage (database, flow export): records wait in a bounded queue and
+ * are written in batches by a single writer thread, so a slow sink can never
+ * grow the heap without limit. Queue settings are read from capture.properties
+ * under the given prefix (queue-size, batch-size, overflow-policy, sample-rate).
+ */
+public abstract class BatchWriter<T> {
+    private final String stageName;
+    private final HandoffQueue<T> queue;
+    private final int batchSize;
+    private final Thread thread;
+    private volatile boolean running;
+    private volatile long recordsWritten = 0;
+
+    protected BatchWriter(String stageName, String threadName, String configPrefix) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        this.stageName = stageName;
+        this.queue = new HandoffQueue<>(stageName,
+                config.getInt(configPrefix + ".queue-size", 50000),
+                config.getEnum(configPrefix + ".overflow-policy", OverflowPolicy.class, OverflowPolicy.DROP_OLDEST),
+                config.getInt(configPrefix + ".sample-rate", 10));
+        this.batchSize = Math.max(1, config.getInt(configPrefix + ".batch-size", 500));
+        this.thread = new Thread(this::writeLoop, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Insert one batch, returns the number of rows written
+     */
+    protected abstract int write(List<T> batch);
+
+    /**
+     * Called on the writer thread when the queue is empty, about every 10ms
+     */
+    protected void idle() {
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Queue a record for insertion, returns false if the overflow policy dropped it
+     */
+    public boolean submit(T record) {
+        return queue.offer(record);
+    }
+
+    private void writeLoop() {
+        List<T> batch = new ArrayList<>(batchSize);
+        while (true) {
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                if (!running) {
+                    return;
+                }
+                idle();
+                LockSupport.parkNanos(10_000_000); // 10ms
+                continue;
+            }
+
+            try {
+                recordsWritten += write(batch);
+            } catch (Exception e) {
+                System.err.println("Error storing " + stageName + " records: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Flush what is queued and stop the writer thread
+     */
+    public void stop() {
+        running = false;
+        queue.close();
+        try {
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public StageStatistics getStageStatistics() {
+        return new StageStatistics(stageName, queue.getPolicy().name(), queue.size(), queue.capacity(),
+                queue.getOffered(), queue.getAccepted(), queue.getDropped());
+    }
+}
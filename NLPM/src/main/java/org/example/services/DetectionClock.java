@@ -0,0 +1,165 @@
+package org.example.services;
+
+import org.example.services.capture.CaptureConfig;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time source of the detection engine: detection windows, alert rate
+ * limits, alert timestamps and expiry of tracking state.
+ * With event time, a packet is judged by its own capture timestamp and
+ * state expires by a watermark that only advances with the packets seen,
+ * so replaying a capture at any speed raises the same alerts.
+ */
+public interface DetectionClock {
+
+    enum Mode {
+        /** System time when the packet is analyzed */
+        WALL_CLOCK,
+        /** Capture timestamp of the packet (pcap header) */
+        EVENT_TIME
+    }
+
+    /**
+     * Record that a packet with this capture time was seen
+     */
+    void observe(long timestampNanos);
+
+    /**
+     * Time of a packet in epoch millis, as used for its detection windows
+     */
+    long packetTime(long timestampNanos);
+
+    /**
+     * Epoch millis up to which tracking state may be expired
+     */
+    long watermark();
+
+    /**
+     * Register a source read alongside others (a file of a directory
+     * ingest) whose first packet has this capture time: the watermark does
+     * not pass the time it has reached until it is closed. Ignored by the
+     * wall clock.
+     */
+    default Source openSource(long startNanos) {
+        return Source.NONE;
+    }
+
+    interface Source {
+        Source NONE = new Source() {
+            @Override
+            public void advance(long timestampNanos) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /**
+         * Record that the source has been read up to this capture time
+         */
+        void advance(long timestampNanos);
+
+        void close();
+    }
+
+    /**
+     * New clock as set in capture.properties; event-time clocks start
+     * without a watermark, so one is created per capture session
+     */
+    static DetectionClock fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (config.getEnum("detection.clock", Mode.class, Mode.EVENT_TIME) == Mode.WALL_CLOCK) {
+            return new WallClock();
+        }
+        return new EventTimeClock(config.getLong("detection.allowed-lateness-ms", 5000));
+    }
+
+    final class WallClock implements DetectionClock {
+        @Override
+        public void observe(long timestampNanos) {
+        }
+
+        @Override
+        public long packetTime(long timestampNanos) {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long watermark() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The watermark trails the latest packet time by the allowed lateness:
+     * workers may run slightly apart, and a source's state must not expire
+     * while an older packet of it can still arrive. With several sources
+     * open it trails the one furthest behind instead.
+     */
+    final class EventTimeClock implements DetectionClock {
+        private final long allowedLatenessMs;
+        private final AtomicLong latestMs = new AtomicLong(Long.MIN_VALUE);
+        private final CopyOnWriteArrayList<SourcePosition> sources = new CopyOnWriteArrayList<>();
+
+        public EventTimeClock(long allowedLatenessMs) {
+            this.allowedLatenessMs = Math.max(0, allowedLatenessMs);
+        }
+
+        @Override
+        public void observe(long timestampNanos) {
+            long time = timestampNanos / 1_000_000L;
+            // Plain read first, the atomic update is rare once time has settled
+            if (time > latestMs.get()) {
+                latestMs.accumulateAndGet(time, Math::max);
+            }
+        }
+
+        @Override
+        public long packetTime(long timestampNanos) {
+            return timestampNanos / 1_000_000L;
+        }
+
+        @Override
+        public long watermark() {
+            long latest = latestMs.get();
+            if (latest == Long.MIN_VALUE) {
+                return Long.MIN_VALUE;
+            }
+            for (SourcePosition source : sources) {
+                latest = Math.min(latest, source.positionMs.get());
+            }
+            return latest - allowedLatenessMs;
+        }
+
+        @Override
+        public Source openSource(long startNanos) {
+            SourcePosition source = new SourcePosition(startNanos / 1_000_000L);
+            sources.add(source);
+            return source;
+        }
+
+        private final class SourcePosition implements Source {
+            private final AtomicLong positionMs;
+
+            SourcePosition(long startMs) {
+                positionMs = new AtomicLong(startMs);
+            }
+
+            @Override
+            public void advance(long timestampNanos) {
+                long time = timestampNanos / 1_000_000L;
+                if (time > positionMs.get()) {
+                    positionMs.accumulateAndGet(time, Math::max);
+                }
+            }
+
+            @Override
+            public void close() {
+                sources.remove(this);
+            }
+        }
+    }
+}
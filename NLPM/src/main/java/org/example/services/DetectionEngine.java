@@ -1,50 +1,87 @@
 package org.example.services;
 
+import org.example.models.HostKey;
 import org.example.models.SecurityAlert;
 import org.example.models.TrafficData;
 import org.example.database.dao.AlertDAO;
-import org.pcap4j.packet.*;
-
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.CapturedPacket;
+import org.example.services.capture.HeaderDecoder;
+import org.example.services.inspection.ReassemblyBudget;
+import org.example.services.rules.Rule;
+import org.example.services.rules.RuleLoader;
+import org.example.services.rules.RuleSet;
+
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Advanced detection engine for identifying network threats
- * Implements multiple detection strategies:
+ * Runs the detection rules (see detection.rules), built in:
  * - Port Scan Detection
  * - DDoS Detection
  * - Brute Force Detection
- * - SQL Injection Detection (in HTTP traffic)
+ * - SQL Injection, XSS and Command Injection Detection (payload content)
  * - Suspicious Traffic Patterns
+ * A rule file set in capture.properties replaces them and is reloaded
+ * when it changes.
  */
 public class DetectionEngine {
     private static DetectionEngine instance;
     private AlertDAO alertDAO;
     private AlertNotificationService notificationService;
 
-    // Detection thresholds
-    private static final int PORT_SCAN_THRESHOLD = 20; // ports per IP in time window
-    private static final int BRUTE_FORCE_THRESHOLD = 10; // failed attempts
-    private static final int DDOS_PACKET_THRESHOLD = 1000; // packets per second
-    private static final int CONNECTION_THRESHOLD = 100; // connections per IP
-    private static final long TIME_WINDOW_MS = 60000; // 1 minute window
-
-    // Tracking maps
-    private Map<String, Set<Integer>> portScanTracker; // IP -> ports accessed
-    private Map<String, List<Long>> connectionTracker; // IP -> timestamps
-    private Map<String, Integer> bruteForceTracker; // IP -> failed attempts
-    private Map<String, Long> lastAlertTime; // IP -> last alert timestamp
+    private static final long ALERT_INTERVAL_MS = 5000; // per source and alert type
+    private static final long CLEANUP_INTERVAL_MS = 60000;
+
+    // Tracking maps, keyed by the source host
+    private Map<String, Long> lastAlertTime; // IP:type -> last alert timestamp
+    private final Map<HostKey, Long> alertedSources = new ConcurrentHashMap<>(); // IP -> last alert of any type
+    private static final long ALERTED_SOURCE_RETENTION_MS = 24 * 3600_000L;
+
+    // Blacklisted IPs (key -> address text)
+    private Map<HostKey, String> blacklistedIPs;
+    private final Set<HostKey> sessionOffenders = ConcurrentHashMap.newKeySet(); // added by DDoS detection
+
+    // Statistics (updated from all pipeline workers)
+    private final AtomicLong totalThreatsDetected = new AtomicLong();
+    private final AtomicLong totalPacketsAnalyzed = new AtomicLong();
+
+    // Detection rules, compiled; a reload swaps in a new set between packets
+    private final RuleLoader ruleLoader = RuleLoader.fromConfig();
+    private final AtomicReference<RuleSet> rules = new AtomicReference<>();
+    private final List<Consumer<RuleSet>> ruleListeners = new CopyOnWriteArrayList<>();
+    private final RuleSet.AlertSink ruleAlerts = new RuleSet.AlertSink() {
+        @Override
+        public boolean shouldAlert(TrafficData traffic, Rule rule) {
+            return shouldGenerateAlert(traffic, rule.getKey());
+        }
 
-    // Blacklisted IPs
-    private Set<String> blacklistedIPs;
+        @Override
+        public void alert(Rule rule, TrafficData traffic, String description) {
+            generateAlert(rule.getAlertType(), rule.getSeverity(), traffic, description);
+            // Blacklist repeated offenders
+            HostKey srcIp = traffic.getSourceKey();
+            if (rule.isBlacklist() && blacklistedIPs.putIfAbsent(srcIp, traffic.getSourceIP()) == null) {
+                sessionOffenders.add(srcIp);
+            }
+        }
+    };
 
-    // Statistics
-    private long totalThreatsDetected = 0;
-    private long totalPacketsAnalyzed = 0;
+    // Packet time and expiry; replaced at the start of each capture session
+    private volatile DetectionClock clock = DetectionClock.fromConfig();
+    private final AtomicLong nextCleanup = new AtomicLong(Long.MIN_VALUE);
 
     private ScheduledExecutorService cleanupScheduler;
 
@@ -52,11 +89,15 @@ public class DetectionEngine {
         this.alertDAO = new AlertDAO();
         this.notificationService = AlertNotificationService.getInstance();
 
-        this.portScanTracker = new ConcurrentHashMap<>();
-        this.connectionTracker = new ConcurrentHashMap<>();
-        this.bruteForceTracker = new ConcurrentHashMap<>();
         this.lastAlertTime = new ConcurrentHashMap<>();
-        this.blacklistedIPs = ConcurrentHashMap.newKeySet();
+        this.blacklistedIPs = new ConcurrentHashMap<>();
+
+        if (!reloadRules()) {
+            // A broken rule file must not leave the engine without rules
+            System.err.println("Falling back to the built-in detection rules");
+            rules.set(RuleSet.compile(RuleLoader.loadBuiltIn(), new RuleLoader(null).getSource(), null,
+                    ReassemblyBudget.fromConfig()));
+        }
 
         // Start cleanup task to remove old entries
         startCleanupTask();
@@ -70,293 +111,121 @@ public class DetectionEngine {
     }
 
     /**
-     * Main analysis method - checks packet against all detection rules
+     * Main analysis method - checks packet against all detection rules.
+     * Header detectors only use the traffic record; the payload is read
+     * from the raw frame through the decoded headers.
      */
-    public void analyzeTraffic(TrafficData traffic, Packet packet) {
-        totalPacketsAnalyzed++;
-
-        String srcIp = traffic.getSourceIP();
-        String dstIp = traffic.getDestinationIP();
+    public void analyzeTraffic(TrafficData traffic, CapturedPacket packet, HeaderDecoder headers) {
+        totalPacketsAnalyzed.incrementAndGet();
+        DetectionClock clock = this.clock;
+        clock.observe(traffic.getTimestampNanos());
+        cleanupIfDue(clock);
 
         // Skip analysis for local/private traffic if configured
-        if (isLocalIP(srcIp)) {
+        if (traffic.isSourceLocal()) {
             return;
         }
 
         // Check if IP is blacklisted
-        if (blacklistedIPs.contains(srcIp)) {
-            generateAlert("Blacklisted IP", "Critical", srcIp, dstIp,
+        if (blacklistedIPs.containsKey(traffic.getSourceKey())) {
+            generateAlert("Blacklisted IP", "Critical", traffic,
                     "Traffic from blacklisted IP address");
             return;
         }
 
-        // Run detection algorithms
-        detectPortScan(traffic);
-        detectDDoS(traffic);
-        detectBruteForce(traffic);
-        detectSuspiciousTraffic(traffic);
+        // Overlapping fragments with different bytes: the rules below see the
+        // bytes received first, the destination may have kept the others
+        if (packet != null && packet.hasConflictingFragments() &&
+                shouldGenerateAlert(traffic, "Fragment Overlap")) {
+            generateAlert("Fragment Overlap", "High", traffic,
+                    "IPv4 fragments overlap with different bytes (possible IDS evasion)");
+        }
 
-        // Analyze packet payload for signatures
-        analyzePacketPayload(packet, traffic);
+        // Run the detection rules. Under overload sampling each packet
+        // stands for sampleWeight packets, so counting aggregates scale by it
+        // and distinct aggregates count a value seen once as sampleWeight
+        rules.get().evaluate(traffic, packet, headers, clock.packetTime(traffic.getTimestampNanos()), ruleAlerts);
     }
 
     /**
-     * Detect port scanning activity
+     * Load and compile the rules and swap them in; windows of unchanged
+     * rules carry over. On a read or syntax error the current rules stay.
+     * Returns false if the rules could not be loaded.
      */
-    private void detectPortScan(TrafficData traffic) {
-        String srcIp = traffic.getSourceIP();
-        int dstPort;
-
+    public synchronized boolean reloadRules() {
         try {
-            dstPort = Integer.parseInt(traffic.getDestinationPort());
-        } catch (NumberFormatException e) {
-            return;
-        }
-
-        // Track ports accessed by this IP
-        portScanTracker.computeIfAbsent(srcIp, k -> ConcurrentHashMap.newKeySet())
-                .add(dstPort);
-
-        Set<Integer> portsAccessed = portScanTracker.get(srcIp);
-
-        // If IP has accessed many different ports in short time
-        if (portsAccessed.size() >= PORT_SCAN_THRESHOLD) {
-            if (shouldGenerateAlert(srcIp, "PortScan")) {
-                generateAlert(
-                        "Port Scan",
-                        "High",
-                        srcIp,
-                        traffic.getDestinationIP(),
-                        String.format("Port scan detected: %d unique ports accessed",
-                                portsAccessed.size())
-                );
-
-                // Reset counter after alert
-                portsAccessed.clear();
+            RuleSet current = rules.get();
+            RuleSet next = RuleSet.compile(ruleLoader.load(), ruleLoader.getSource(), current,
+                    ReassemblyBudget.fromConfig());
+            rules.set(next);
+            System.out.println("Loaded " + next);
+            for (Consumer<RuleSet> listener : ruleListeners) {
+                listener.accept(next);
             }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not load detection rules" +
+                    (rules.get() != null ? ", keeping the current ones: " : ": ") + e.getMessage());
+            return false;
         }
     }
 
-    /**
-     * Detect DDoS attacks based on packet rate
-     */
-    private void detectDDoS(TrafficData traffic) {
-        String srcIp = traffic.getSourceIP();
-        long currentTime = System.currentTimeMillis();
-
-        // Track connection timestamps
-        connectionTracker.computeIfAbsent(srcIp, k -> new ArrayList<>())
-                .add(currentTime);
-
-        List<Long> timestamps = connectionTracker.get(srcIp);
-
-        // Remove old timestamps outside time window
-        timestamps.removeIf(ts -> currentTime - ts > TIME_WINDOW_MS);
-
-        // Check if rate exceeds threshold
-        if (timestamps.size() >= DDOS_PACKET_THRESHOLD) {
-            if (shouldGenerateAlert(srcIp, "DDoS")) {
-                generateAlert(
-                        "DDoS Attack",
-                        "Critical",
-                        srcIp,
-                        traffic.getDestinationIP(),
-                        String.format("Possible DDoS attack: %d packets in 60 seconds",
-                                timestamps.size())
-                );
-
-                // Add to blacklist for repeated offenders
-                blacklistedIPs.add(srcIp);
-                timestamps.clear();
-            }
-        }
+    public RuleSet getRules() {
+        return rules.get();
     }
 
     /**
-     * Detect brute force attacks on authentication services
+     * Receive every rule set swapped in by a reload
      */
-    private void detectBruteForce(TrafficData traffic) {
-        String protocol = traffic.getProtocol();
-        String srcIp = traffic.getSourceIP();
-
-        // Check if targeting authentication services
-        int dstPort;
-        try {
-            dstPort = Integer.parseInt(traffic.getDestinationPort());
-        } catch (NumberFormatException e) {
-            return;
-        }
-
-        // Common auth ports: SSH(22), RDP(3389), FTP(21), Telnet(23)
-        if (dstPort == 22 || dstPort == 3389 || dstPort == 21 || dstPort == 23) {
-            bruteForceTracker.merge(srcIp, 1, Integer::sum);
-
-            int attempts = bruteForceTracker.get(srcIp);
-
-            if (attempts >= BRUTE_FORCE_THRESHOLD) {
-                if (shouldGenerateAlert(srcIp, "BruteForce")) {
-                    generateAlert(
-                            "Brute Force",
-                            "High",
-                            srcIp,
-                            traffic.getDestinationIP(),
-                            String.format("Brute force attack detected on port %d: %d attempts",
-                                    dstPort, attempts)
-                    );
-
-                    bruteForceTracker.put(srcIp, 0);
-                }
-            }
-        }
+    public void addRuleListener(Consumer<RuleSet> listener) {
+        ruleListeners.add(listener);
     }
 
     /**
-     * Detect suspicious traffic patterns
+     * Start detection for a new capture session: forget the per-source
+     * windows, counters and rate limits of the previous one and run on a
+     * fresh clock, so a replayed capture gives the same alerts every time.
+     * Offenders blacklisted by DDoS detection are released as well; the
+     * addresses blacklisted by the user stay.
      */
-    private void detectSuspiciousTraffic(TrafficData traffic) {
-        int dstPort;
-        try {
-            dstPort = Integer.parseInt(traffic.getDestinationPort());
-        } catch (NumberFormatException e) {
-            return;
-        }
-
-        // Check for suspicious ports
-        List<Integer> suspiciousPorts = Arrays.asList(
-                1337, 31337, // Common trojan ports
-                6667, 6668, 6669, // IRC (often used by botnets)
-                12345, 12346, // NetBus
-                20034, // NetBus Pro
-                9996, 9997, 9998, 9999 // Various backdoors
-        );
-
-        if (suspiciousPorts.contains(dstPort)) {
-            if (shouldGenerateAlert(traffic.getSourceIP(), "Suspicious")) {
-                generateAlert(
-                        "Suspicious Traffic",
-                        "Medium",
-                        traffic.getSourceIP(),
-                        traffic.getDestinationIP(),
-                        String.format("Traffic detected on suspicious port: %d", dstPort)
-                );
-            }
-        }
+    public void startSession(DetectionClock sessionClock) {
+        clock = sessionClock;
+        nextCleanup.set(Long.MIN_VALUE);
+        rules.get().clearState();
+        lastAlertTime.clear();
+        alertedSources.clear();
+        sessionOffenders.forEach(blacklistedIPs::remove);
+        sessionOffenders.clear();
+        resetStreams();
+    }
 
-        // Check for unusual packet sizes (could indicate data exfiltration)
-        if (traffic.getPacketSize() > 60000) { // Very large packets
-            if (shouldGenerateAlert(traffic.getSourceIP(), "LargePacket")) {
-                generateAlert(
-                        "Data Exfiltration",
-                        "Medium",
-                        traffic.getSourceIP(),
-                        traffic.getDestinationIP(),
-                        String.format("Unusually large packet detected: %d bytes",
-                                traffic.getPacketSize())
-                );
-            }
-        }
+    public DetectionClock getClock() {
+        return clock;
     }
 
     /**
-     * Analyze packet payload for attack signatures
+     * Drop all reassembled TCP streams, e.g. when a new capture starts
      */
-    private void analyzePacketPayload(Packet packet, TrafficData traffic) {
-        // Get payload
-        byte[] payload = packet.getPayload() != null ?
-                packet.getPayload().getRawData() : null;
-
-        if (payload == null || payload.length == 0) {
-            return;
-        }
-
-        String payloadStr = new String(payload).toLowerCase();
-
-        // SQL Injection patterns
-        String[] sqlPatterns = {
-                "' or '1'='1",
-                "' or 1=1--",
-                "union select",
-                "drop table",
-                "insert into",
-                "delete from",
-                "exec(",
-                "execute("
-        };
-
-        for (String pattern : sqlPatterns) {
-            if (payloadStr.contains(pattern)) {
-                if (shouldGenerateAlert(traffic.getSourceIP(), "SQLInjection")) {
-                    generateAlert(
-                            "SQL Injection",
-                            "Critical",
-                            traffic.getSourceIP(),
-                            traffic.getDestinationIP(),
-                            "SQL injection attempt detected in packet payload"
-                    );
-                }
-                break;
-            }
-        }
-
-        // XSS patterns
-        String[] xssPatterns = {
-                "<script>",
-                "javascript:",
-                "onerror=",
-                "onload=",
-                "<iframe"
-        };
-
-        for (String pattern : xssPatterns) {
-            if (payloadStr.contains(pattern)) {
-                if (shouldGenerateAlert(traffic.getSourceIP(), "XSS")) {
-                    generateAlert(
-                            "XSS Attack",
-                            "High",
-                            traffic.getSourceIP(),
-                            traffic.getDestinationIP(),
-                            "Cross-Site Scripting attempt detected"
-                    );
-                }
-                break;
-            }
-        }
+    public void resetStreams() {
+        rules.get().resetStreams(ReassemblyBudget.fromConfig());
+    }
 
-        // Command injection patterns
-        String[] cmdPatterns = {
-                "; ls",
-                "| cat",
-                "&& dir",
-                "| whoami",
-                "; wget",
-                "| curl"
-        };
-
-        for (String pattern : cmdPatterns) {
-            if (payloadStr.contains(pattern)) {
-                if (shouldGenerateAlert(traffic.getSourceIP(), "CmdInjection")) {
-                    generateAlert(
-                            "Command Injection",
-                            "Critical",
-                            traffic.getSourceIP(),
-                            traffic.getDestinationIP(),
-                            "Command injection attempt detected"
-                    );
-                }
-                break;
-            }
-        }
+    public ReassemblyBudget getReassemblyBudget() {
+        return rules.get().getReassemblyBudget();
     }
 
     /**
      * Generate and store security alert
      */
-    private void generateAlert(String type, String severity, String srcIp,
-                               String dstIp, String description) {
-        totalThreatsDetected++;
+    private void generateAlert(String type, String severity, TrafficData traffic, String description) {
+        totalThreatsDetected.incrementAndGet();
+        long time = clock.packetTime(traffic.getTimestampNanos());
+        alertedSources.merge(traffic.getSourceKey(), time, Math::max);
+        String srcIp = traffic.getSourceIP();
+        String dstIp = traffic.getDestinationIP();
 
         String alertId = "ALT-" + String.format("%05d",
-                (int)(System.currentTimeMillis() % 100000));
+                (int)(time % 100000));
 
         SecurityAlert alert = new SecurityAlert(
                 alertId,
@@ -365,7 +234,7 @@ public class DetectionEngine {
                 srcIp,
                 dstIp,
                 description,
-                LocalDateTime.now()
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault())
         );
 
         // Store in database
@@ -383,13 +252,13 @@ public class DetectionEngine {
     /**
      * Check if alert should be generated (rate limiting)
      */
-    private boolean shouldGenerateAlert(String ip, String alertType) {
-        String key = ip + ":" + alertType;
-        long currentTime = System.currentTimeMillis();
+    private boolean shouldGenerateAlert(TrafficData traffic, String alertType) {
+        String key = traffic.getSourceKey() + ":" + alertType;
+        long currentTime = clock.packetTime(traffic.getTimestampNanos());
         Long lastAlert = lastAlertTime.get(key);
 
         // Only generate alert if enough time has passed (5 seconds)
-        if (lastAlert == null || currentTime - lastAlert > 5000) {
+        if (lastAlert == null || currentTime - lastAlert > ALERT_INTERVAL_MS) {
             lastAlertTime.put(key, currentTime);
             return true;
         }
@@ -398,63 +267,88 @@ public class DetectionEngine {
     }
 
     /**
-     * Check if IP is local/private
-     */
-    private boolean isLocalIP(String ip) {
-        return ip.startsWith("127.") ||
-                ip.startsWith("192.168.") ||
-                ip.startsWith("10.") ||
-                ip.startsWith("172.16.") ||
-                ip.equals("0.0.0.0") ||
-                ip.equals("::1");
-    }
-
-    /**
-     * Periodic cleanup of old tracking data
+     * Periodic cleanup of old tracking data. Runs whenever the clock's
+     * watermark has moved a minute on: from the packet that moves it, or
+     * from the scheduler while no traffic arrives. The same scheduler
+     * watches the rule file for changes.
      */
     private void startCleanupTask() {
         cleanupScheduler = Executors.newScheduledThreadPool(1);
-        cleanupScheduler.scheduleAtFixedRate(() -> {
-            try {
-                long currentTime = System.currentTimeMillis();
+        cleanupScheduler.scheduleAtFixedRate(() -> cleanupIfDue(clock), 1, 1, TimeUnit.MINUTES);
 
-                // Clean connection tracker
-                connectionTracker.forEach((ip, timestamps) -> {
-                    timestamps.removeIf(ts -> currentTime - ts > TIME_WINDOW_MS);
-                });
+        int reloadSeconds = CaptureConfig.getInstance().getInt("detection.rules.reload-seconds", 5);
+        if (ruleLoader.isFile() && reloadSeconds > 0) {
+            cleanupScheduler.scheduleWithFixedDelay(() -> {
+                if (ruleLoader.hasChanged()) {
+                    reloadRules();
+                }
+            }, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+        }
+    }
 
-                // Clean brute force tracker
-                bruteForceTracker.entrySet()
-                        .removeIf(entry -> entry.getValue() == 0);
+    private void cleanupIfDue(DetectionClock clock) {
+        long watermark = clock.watermark();
+        long due = nextCleanup.get();
+        if (watermark == Long.MIN_VALUE || watermark < due) {
+            return;
+        }
+        if (due == Long.MIN_VALUE) {
+            // First packet of the session
+            nextCleanup.compareAndSet(due, watermark + CLEANUP_INTERVAL_MS);
+        } else if (nextCleanup.compareAndSet(due, watermark + CLEANUP_INTERVAL_MS)) {
+            cleanup(watermark);
+        }
+    }
 
-                // Clean alert rate limiter
-                lastAlertTime.entrySet()
-                        .removeIf(entry -> currentTime - entry.getValue() > 300000); // 5 min
+    private void cleanup(long currentTime) {
+        try {
+            // Clean rule aggregates
+            rules.get().cleanup(currentTime);
+
+            // Clean alert rate limiter
+            lastAlertTime.entrySet()
+                    .removeIf(entry -> currentTime - entry.getValue() > 300000); // 5 min
+            alertedSources.entrySet()
+                    .removeIf(entry -> currentTime - entry.getValue() > ALERTED_SOURCE_RETENTION_MS);
+        } catch (Exception e) {
+            System.err.println("Error in cleanup task: " + e.getMessage());
+        }
+    }
 
-            } catch (Exception e) {
-                System.err.println("Error in cleanup task: " + e.getMessage());
-            }
-        }, 1, 1, TimeUnit.MINUTES);
+    /**
+     * True if an alert was raised for traffic from this host within
+     * withinMillis of the packet time (remembered for at most a day)
+     */
+    public boolean hasRecentAlert(HostKey ipKey, long timestampNanos, long withinMillis) {
+        Long last = alertedSources.get(ipKey);
+        return last != null && clock.packetTime(timestampNanos) - last <= withinMillis;
     }
 
     public long getTotalThreatsDetected() {
-        return totalThreatsDetected;
+        return totalThreatsDetected.get();
     }
 
     public long getTotalPacketsAnalyzed() {
-        return totalPacketsAnalyzed;
+        return totalPacketsAnalyzed.get();
     }
 
+    /**
+     * Throws IllegalArgumentException if ip is not an address literal
+     */
     public void addToBlacklist(String ip) {
-        blacklistedIPs.add(ip);
+        HostKey key = HostKey.parse(ip);
+        blacklistedIPs.put(key, ip);
+        sessionOffenders.remove(key);
     }
 
     public void removeFromBlacklist(String ip) {
-        blacklistedIPs.remove(ip);
+        HostKey key = HostKey.parse(ip);
+        blacklistedIPs.remove(key);
+        sessionOffenders.remove(key);
     }
 
     public Set<String> getBlacklistedIPs() {
-        return new HashSet<>(blacklistedIPs);
+        return new HashSet<>(blacklistedIPs.values());
     }
 
     /**
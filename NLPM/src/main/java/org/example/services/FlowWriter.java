@@ -0,0 +1,25 @@
+package org.example.services;
+
+import org.example.database.dao.FlowDAO;
+import org.example.models.FlowRecord;
+
+import java.util.List;
+
+/**
+ * Database stage for finished flows (flow_logs rows)
+ */
+public class FlowWriter extends BatchWriter<FlowRecord> {
+    public static final String STAGE_NAME = "Flows";
+
+    private final FlowDAO flowDAO;
+
+    public FlowWriter(FlowDAO flowDAO) {
+        super(STAGE_NAME, "flow-writer", "flow-persistence");
+        this.flowDAO = flowDAO;
+    }
+
+    @Override
+    protected int write(List<FlowRecord> batch) {
+        return flowDAO.insertFlowBatch(batch);
+    }
+}
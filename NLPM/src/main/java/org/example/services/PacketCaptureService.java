@@ -1,14 +1,47 @@
 package org.example.services;
 
+import org.example.database.dao.FlowDAO;
 import org.example.database.dao.TrafficDAO;
+import org.example.models.FlowRecord;
+import org.example.models.CaptureStatistics;
+import org.example.models.InterfaceStatistics;
 import org.example.models.TrafficData;
-import org.pcap4j.core.*;
-import org.pcap4j.packet.*;
-
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import org.example.models.TrafficProtocol;
+import org.example.services.capture.BpfFilterBuilder;
+import org.example.services.capture.CaptureBackend;
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.CaptureProfile;
+import org.example.services.capture.CapturedPacket;
+import org.example.services.capture.DuplicateFilter;
+import org.example.services.capture.FragmentBudget;
+import org.example.services.capture.HeaderDecoder;
+import org.example.services.capture.CaptureSource;
+import org.example.services.capture.PacketPipeline;
+import org.example.services.capture.PcapBulkIngest;
+import org.example.services.capture.PcapDirectoryIngest;
+import org.example.services.capture.PcapReplaySource;
+import org.example.services.capture.ReplayMode;
+import org.example.services.capture.SamplingController;
+import org.example.services.evidence.PcapRing;
+import org.example.services.flow.FlowExporter;
+import org.example.services.flow.FlowTable;
+import org.example.services.rules.RuleSet;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.Pcaps;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -16,21 +49,74 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
             public class PacketCaptureService {
                 private static PacketCaptureService instance;
-                private PcapHandle handle;
                 private ExecutorService executorService;
                 private AtomicBoolean isCapturing;
                 private TrafficDAO trafficDAO;
+                private TrafficWriter trafficWriter;
+                private FlowWriter flowWriter;
+                private FlowTable flowTable;
+                private FlowExporter flowExporter; // null = export disabled
+                private PcapRing evidenceRing; // null = not recording
+                private volatile PersistencePolicy persistencePolicy;
+                private static final long OFFLINE_STOP_TIMEOUT_MS = 10_000;
+                private final int sampledOneIn;
+                private final long alertHoldMillis;
                 private DetectionEngine detectionEngine;
-                private PacketListener packetListener;
-
-                private long packetsAnalyzed = 0;
-                private long bytesProcessed = 0;
+                private PacketPipeline pipeline;
+                private PcapReplaySource replaySource;
+                private PcapBulkIngest bulkIngest;
+                private PcapDirectoryIngest directoryIngest;
+                private OfflineTask offlineTask; // replay or bulk ingest on the executor
+                private String captureFilter; // null = use capture.properties
+                private CaptureProfile captureProfile;
+                private CaptureBackend captureBackend;
+
+                // One capture loop per interface, all feeding the shared pipeline
+                private final Map<String, CaptureSource> liveSources = new ConcurrentSkipListMap<>();
+
+                // Counters of interfaces already stopped during this session
+                private long stoppedPacketsCaptured = 0;
+                private long stoppedKernelReceived = 0;
+                private long stoppedKernelDropped = 0;
+                private long stoppedInterfaceDropped = 0;
 
                 private PacketCaptureService() {
                     this.isCapturing = new AtomicBoolean(false);
-                    this.executorService = Executors.newFixedThreadPool(2);
+                    this.executorService = Executors.newSingleThreadExecutor();
                     this.trafficDAO = new TrafficDAO();
+                    this.trafficWriter = new TrafficWriter(trafficDAO);
+                    this.trafficWriter.start();
+                    this.flowWriter = new FlowWriter(new FlowDAO());
+                    this.flowWriter.start();
+                    this.flowTable = FlowTable.fromConfig();
+                    this.flowTable.addListener(record -> {
+                        if (persistencePolicy.storesFlows()) {
+                            flowWriter.submit(record);
+                        }
+                    });
+                    this.flowExporter = FlowExporter.fromConfig();
+                    if (flowExporter != null) {
+                        flowExporter.start();
+                        flowTable.addListener(flowExporter::submit);
+                    }
+                    this.evidenceRing = PcapRing.fromConfig();
+                    if (evidenceRing != null) {
+                        evidenceRing.start();
+                    }
+                    this.flowTable.start();
+                    CaptureConfig config = CaptureConfig.getInstance();
+                    this.persistencePolicy = config.getEnum("persistence.policy",
+                            PersistencePolicy.class, PersistencePolicy.FLOWS_ONLY);
+                    this.sampledOneIn = Math.max(1, config.getInt("persistence.sampled-one-in", 100));
+                    this.alertHoldMillis = config.getLong("persistence.alert-hold-minutes", 30) * 60_000;
                     this.detectionEngine = DetectionEngine.getInstance();
+                    this.captureProfile = CaptureConfig.getInstance().getCaptureProfile();
+                    this.captureBackend = CaptureConfig.getInstance().getCaptureBackend();
+                    if (captureBackend == CaptureBackend.AF_PACKET && !CaptureBackend.isAfPacketSupported()) {
+                        System.err.println("AF_PACKET capture needs Linux, using libpcap");
+                        captureBackend = CaptureBackend.PCAP;
+                    }
+                    this.detectionEngine.addRuleListener(this::refreshPayloadPorts);
                 }
 
                 public static synchronized PacketCaptureService getInstance() {
@@ -41,196 +127,417 @@ import java.util.concurrent.atomic.AtomicBoolean;
                 }
 
                 /**
-                 * Start capturing packets on specified network interface
+                 * Start capturing packets on specified network interface.
+                 * Several interfaces can be captured at once; they share one
+                 * pipeline so detection sees traffic from all of them.
                  */
-                public boolean startCapture(String deviceName) {
-                    if (isCapturing.get()) {
-                        System.out.println("Packet capture already running");
+                public synchronized boolean startCapture(String deviceName) {
+                    boolean offline = replaySource != null || bulkIngest != null || directoryIngest != null;
+                    if (offline && isCapturing.get()) {
+                        System.out.println("Replay running, live capture not started");
+                        return false;
+                    }
+                    if (liveSources.containsKey(deviceName)) {
+                        System.out.println("Packet capture already running on " + deviceName);
                         return false;
                     }
 
+                    String filter;
                     try {
-                        // Get network interface
-                        PcapNetworkInterface nif = getNetworkInterface(deviceName);
-                        if (nif == null) {
-                            System.err.println("Network interface not found: " + deviceName);
-                            return false;
+                        filter = captureFilter != null ? captureFilter : BpfFilterBuilder.expressionFromConfig();
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Failed to start packet capture: " + e.getMessage());
+                        return false;
+                    }
+
+                    // First interface opens the session and its pipeline
+                    boolean newSession = !isCapturing.get();
+                    if (newSession) {
+                        startSession(null, null, null);
+                    }
+
+                    CaptureSource source = captureBackend.createSource(deviceName, pipeline, captureProfile);
+                    source.setPayloadPorts(payloadPorts(detectionEngine.getRules()));
+                    if (!source.open(filter)) {
+                        if (newSession) {
+                            finishSession();
                         }
+                        return false;
+                    }
 
-                        // Open interface for capturing
-                        int snapLen = 65536; // Capture all packets
-                        PcapNetworkInterface.PromiscuousMode mode =
-                                PcapNetworkInterface.PromiscuousMode.PROMISCUOUS;
+                    liveSources.put(deviceName, source);
+                    source.start();
 
-                        int timeout = 10; // 10ms timeout
+                    System.out.println("Packet capture started on interface: " + deviceName +
+                            " (" + liveSources.size() + " active)");
+                    return true;
+                }
 
-                        handle = nif.openLive(snapLen, mode, timeout);
+                /**
+                 * Stop capturing on one interface. The pipeline keeps running
+                 * until the last interface is stopped.
+                 */
+                public synchronized void stopCapture(String deviceName) {
+                    CaptureSource source = liveSources.remove(deviceName);
+                    if (source == null) {
+                        return;
+                    }
 
-                        // Set filter if needed (optional - capture all traffic)
-                        // String filter = "tcp or udp or icmp";
-                        // handle.setFilter(filter, BpfCompileMode.OPTIMIZE);
+                    retire(source);
+                    System.out.println("Packet capture stopped on interface: " + deviceName);
 
-                        isCapturing.set(true);
+                    if (liveSources.isEmpty() && replaySource == null && bulkIngest == null &&
+                            directoryIngest == null) {
+                        finishSession();
+                    }
+                }
 
-                        // Start packet capture in separate thread
-                        executorService.submit(() -> {
-                            try {
-                                capturePackets();
-                            } catch (Exception e) {
-                                System.err.println("Error during packet capture: " + e.getMessage());
-                                e.printStackTrace();
-                            }
-                        });
+                private void startSession(PcapReplaySource replay, PcapBulkIngest ingest,
+                                          PcapDirectoryIngest directory) {
+                    // Workers run processing and detection off the capture threads
+                    replaySource = replay;
+                    bulkIngest = ingest;
+                    directoryIngest = directory;
+                    detectionEngine.startSession(DetectionClock.fromConfig());
+                    pipeline = PacketPipeline.fromConfig(this::processPacket);
+                    if (evidenceRing != null && replay == null && ingest == null && directory == null) {
+                        pipeline.setRecorder(evidenceRing::submit);
+                    }
+                    pipeline.start();
+                    stoppedPacketsCaptured = 0;
+                    stoppedKernelReceived = 0;
+                    stoppedKernelDropped = 0;
+                    stoppedInterfaceDropped = 0;
+                    isCapturing.set(true);
+                }
 
-                        System.out.println("Packet capture started on interface: " + nif.getName());
-                        return true;
+                private void retire(CaptureSource source) {
+                    source.stop();
+                    InterfaceStatistics stats = source.getStatistics();
+                    stoppedPacketsCaptured += stats.getPacketsCaptured();
+                    stoppedKernelReceived += stats.getKernelReceived();
+                    stoppedKernelDropped += stats.getKernelDropped();
+                    stoppedInterfaceDropped += stats.getInterfaceDropped();
+                }
 
-                    } catch (PcapNativeException e) {
-                        System.err.println("Failed to start packet capture: " + e.getMessage());
-                        e.printStackTrace();
-                        return false;
+                /**
+                 * Validate and install a new BPF filter, swapping it on every
+                 * running interface. An empty expression captures everything.
+                 * Throws IllegalArgumentException if libpcap rejects the expression.
+                 */
+                public synchronized boolean applyFilter(String expression) {
+                    String filter = expression == null ? "" : expression.trim();
+                    for (CaptureSource source : liveSources.values()) {
+                        BpfFilterBuilder.validate(filter, source.getDataLinkType());
+                    }
+                    if (liveSources.isEmpty()) {
+                        BpfFilterBuilder.validate(filter, DataLinkType.EN10MB);
+                    }
+
+                    captureFilter = filter;
+                    boolean applied = true;
+                    for (CaptureSource source : liveSources.values()) {
+                        applied &= source.setFilter(filter);
                     }
+                    if (!liveSources.isEmpty()) {
+                        System.out.println("Capture filter changed to: " +
+                                (filter.isEmpty() ? "(none)" : filter));
+                    }
+                    return applied;
                 }
 
                 /**
-                 * Stop packet capture
+                 * Ports whose payload the adaptive profile keeps: those the
+                 * rules reading payloads name, and capture.payload-ports for
+                 * the rules that name none
                  */
-                public void stopCapture() {
-                    if (!isCapturing.get()) {
-                        return;
+                private static List<String> payloadPorts(RuleSet rules) {
+                    return rules.getPayloadPorts(CaptureConfig.getInstance().getPayloadPorts());
+                }
+
+                /**
+                 * Follow a rule reload on the interfaces capturing adaptively
+                 */
+                private synchronized void refreshPayloadPorts(RuleSet rules) {
+                    List<String> ports = payloadPorts(rules);
+                    for (CaptureSource source : liveSources.values()) {
+                        if (source.getProfile() == CaptureProfile.ADAPTIVE && source.setPayloadPorts(ports)) {
+                            System.out.println("Payload ports on " + source.getInterfaceName() + ": " +
+                                    (ports.isEmpty() ? "(none)" : String.join(",", ports)));
+                        }
                     }
+                }
 
-                    isCapturing.set(false);
+                /**
+                 * Filter used by the running capture or the next one
+                 */
+                public String getCaptureFilter() {
+                    if (captureFilter != null) {
+                        return captureFilter;
+                    }
+                    try {
+                        return BpfFilterBuilder.expressionFromConfig();
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid capture filter configuration: " + e.getMessage());
+                        return "";
+                    }
+                }
 
-                    if (handle != null && handle.isOpen()) {
-                        handle.close();
+                /**
+                 * Profile used by interfaces started from now on
+                 */
+                public synchronized void setCaptureProfile(CaptureProfile profile) {
+                    captureProfile = profile;
+                }
+
+                public CaptureProfile getCaptureProfile() {
+                    return captureProfile;
+                }
+
+                public CaptureBackend getCaptureBackend() {
+                    return captureBackend;
+                }
+
+                /**
+                 * Replay a pcap/pcapng file through the same processing and detection path
+                 */
+                public synchronized boolean startReplay(String filePath, ReplayMode mode, double speed) {
+                    if (isCapturing.get()) {
+                        System.out.println("Packet capture already running");
+                        return false;
                     }
 
-                    System.out.println("Packet capture stopped");
-                    System.out.println("Total packets analyzed: " + packetsAnalyzed);
-                    System.out.println("Total bytes processed: " + bytesProcessed);
+                    PcapReplaySource source = new PcapReplaySource(filePath, mode, speed);
+                    if (!source.open()) {
+                        return false;
+                    }
+
+                    startSession(source, null, null);
+                    PacketPipeline replayPipeline = pipeline;
+
+                    OfflineTask task = new OfflineTask();
+                    offlineTask = task;
+                    task.submit(executorService, () -> {
+                        long start = System.nanoTime();
+                        try {
+                            source.replay(replayPipeline);
+                        } catch (Exception e) {
+                            System.err.println("Error during replay: " + e.getMessage());
+                            e.printStackTrace();
+                        }
+
+                        // Drain the pipeline so the rate covers full processing
+                        finishOffline(task);
+                        double seconds = Math.max(1, System.nanoTime() - start) / 1_000_000_000.0;
+                        System.out.println(String.format(
+                                "Replay finished: %d packets processed in %.2f s (%.0f packets/sec)",
+                                getPacketsAnalyzed(), seconds, getPacketsAnalyzed() / seconds));
+                    }, source::close);
+
+                    System.out.println("Replaying " + filePath + " (" + mode.getDisplayName() +
+                            (mode == ReplayMode.MULTIPLIED ? ", " + speed + "x" : "") + ")");
+                    return true;
                 }
 
                 /**
-                 * Main packet capture loop
+                 * Ingest a large classic pcap file as fast as possible: chunks are
+                 * parsed and decoded in parallel, detection runs on the pipeline
                  */
-                private void capturePackets() {
-                    PacketListener listener = packet -> {
+                public synchronized boolean startBulkIngest(String filePath) {
+                    if (isCapturing.get()) {
+                        System.out.println("Packet capture already running");
+                        return false;
+                    }
+
+                    PcapBulkIngest ingest = PcapBulkIngest.fromConfig(filePath);
+                    if (!ingest.open()) {
+                        return false;
+                    }
+
+                    startSession(null, ingest, null);
+                    PacketPipeline ingestPipeline = pipeline;
+
+                    OfflineTask task = new OfflineTask();
+                    offlineTask = task;
+                    task.submit(executorService, () -> {
                         try {
-                            processPacket(packet);
+                            ingest.ingest(ingestPipeline);
                         } catch (Exception e) {
-                            System.err.println("Error processing packet: " + e.getMessage());
+                            System.err.println("Error during bulk ingest: " + e.getMessage());
+                            e.printStackTrace();
                         }
-                    };
 
-                    try {
-                        while (isCapturing.get()) {
-                            handle.loop(100, listener);
+                        finishOffline(task);
+                        System.out.println(String.format(
+                                "Bulk ingest finished: %d packets, %.1f MB in %.2f s (%.1f MB/s, %.0f packets/sec)",
+                                ingest.getPacketsRead(), ingest.getBytesRead() / 1_000_000.0,
+                                ingest.getElapsedSeconds(), ingest.getMegabytesPerSecond(),
+                                ingest.getPacketsPerSecond()));
+                    }, ingest::close);
+
+                    System.out.println("Bulk ingest of " + filePath + " with " + ingest.getParallelism() +
+                            " parser threads");
+                    return true;
+                }
+
+                /**
+                 * Watch a directory for rotated pcap files and ingest each one once,
+                 * resuming from the saved offsets. Runs until the capture is stopped.
+                 */
+                public synchronized boolean startDirectoryIngest(String directoryPath) {
+                    if (isCapturing.get()) {
+                        System.out.println("Packet capture already running");
+                        return false;
+                    }
+
+                    PcapDirectoryIngest directory = PcapDirectoryIngest.fromConfig(directoryPath);
+                    if (!directory.open()) {
+                        return false;
+                    }
+
+                    startSession(null, null, directory);
+                    directory.start(pipeline, detectionEngine.getClock());
+                    return true;
+                }
+
+                /**
+                 * Stop packet capture on all interfaces, or the running replay.
+                 * A replay or bulk ingest is cancelled and awaited before the
+                 * pipeline is torn down, so nothing is put into a stopped one.
+                 */
+                public void stopCapture() {
+                    OfflineTask task;
+                    PacketPipeline session;
+                    synchronized (this) {
+                        if (!isCapturing.get()) {
+                            return;
+                        }
+
+                        if (replaySource != null) {
+                            replaySource.stop();
+                        }
+                        if (bulkIngest != null) {
+                            bulkIngest.stop();
+                        }
+                        if (directoryIngest != null) {
+                            directoryIngest.stop();
+                        }
+                        task = offlineTask;
+                        session = pipeline;
+                    }
+
+                    // Outside the lock: a task ending on its own takes it to finish the session
+                    if (task != null && !task.cancelAndAwait(OFFLINE_STOP_TIMEOUT_MS)) {
+                        System.err.println("Replay did not stop within " + OFFLINE_STOP_TIMEOUT_MS +
+                                " ms, stopping the pipeline anyway");
+                    }
+
+                    synchronized (this) {
+                        if (!isCapturing.get() || pipeline != session) {
+                            return;
                         }
-                    } catch (InterruptedException e) {
-                        // Thread interrupted → arrêt propre
-                        Thread.currentThread().interrupt();
-                        System.out.println("Packet capture thread interrupted");
-                    } catch (NotOpenException | PcapNativeException e) {
-                        System.err.println("Packet capture error: " + e.getMessage());
-                        e.printStackTrace();
+                        offlineTask = null;
+                        for (CaptureSource source : liveSources.values()) {
+                            retire(source);
+                        }
+                        liveSources.clear();
+
+                        finishSession();
                     }
                 }
 
+                /**
+                 * End the session of a replay or bulk ingest that read its whole
+                 * file (runs on the task, after its last packet was put)
+                 */
+                private synchronized void finishOffline(OfflineTask task) {
+                    if (offlineTask != task || !isCapturing.get()) {
+                        return;
+                    }
+                    offlineTask = null;
+                    finishSession();
+                }
 
                 /**
-                 * Process captured packet
+                 * Drain the pipeline once no source feeds it any more
                  */
-                private void processPacket(Packet packet) {
-                    packetsAnalyzed++;
-                    bytesProcessed += packet.length();
-
-                    // Extract IP packet
-                    IpV4Packet ipPacket = packet.get(IpV4Packet.class);
-                    if (ipPacket == null) {
-                        return; // Skip non-IPv4 packets
-                    }
-
-                    String srcIp = ipPacket.getHeader().getSrcAddr().getHostAddress();
-                    String dstIp = ipPacket.getHeader().getDstAddr().getHostAddress();
-
-                    // Extract transport layer info
-                    String protocol = "UNKNOWN";
-                    int srcPort = 0;
-                    int dstPort = 0;
-
-                    // Check TCP
-                    TcpPacket tcpPacket = packet.get(TcpPacket.class);
-                    if (tcpPacket != null) {
-                        protocol = "TCP";
-                        srcPort = tcpPacket.getHeader().getSrcPort().valueAsInt();
-                        dstPort = tcpPacket.getHeader().getDstPort().valueAsInt();
-                    } else {
-                        // Check UDP
-                        UdpPacket udpPacket = packet.get(UdpPacket.class);
-                        if (udpPacket != null) {
-                            protocol = "UDP";
-                            srcPort = udpPacket.getHeader().getSrcPort().valueAsInt();
-                            dstPort = udpPacket.getHeader().getDstPort().valueAsInt();
-                        } else {
-                            // Check ICMP
-                            IcmpV4CommonPacket icmpPacket = packet.get(IcmpV4CommonPacket.class);
-                            if (icmpPacket != null) {
-                                protocol = "ICMP";
-                            }
-                        }
+                private void finishSession() {
+                    isCapturing.set(false);
+
+                    if (pipeline != null) {
+                        pipeline.stop();
                     }
+                    // Workers are drained, every packet is in its flow now
+                    flowTable.flush(FlowRecord.END_CAPTURE_STOP);
 
-                    // Determine protocol for common ports
-                    if (protocol.equals("TCP")) {
-                        if (dstPort == 80) protocol = "HTTP";
-                        else if (dstPort == 443) protocol = "HTTPS";
-                        else if (dstPort == 22) protocol = "SSH";
-                        else if (dstPort == 21) protocol = "FTP";
-                        else if (dstPort == 3389) protocol = "RDP";
-                    } else if (protocol.equals("UDP")) {
-                        if (dstPort == 53) protocol = "DNS";
-                        else if (dstPort == 67 || dstPort == 68) protocol = "DHCP";
+                    System.out.println("Packet capture stopped");
+                    System.out.println("Total packets analyzed: " + getPacketsAnalyzed());
+                    System.out.println("Total bytes processed: " + getBytesProcessed());
+                    CaptureStatistics stats = getCaptureStatistics();
+                    System.out.println(String.format(
+                            "Packets dropped: kernel %d, interface %d, pipeline %d, database %d",
+                            stats.getKernelDropped(), stats.getInterfaceDropped(), getPacketsDropped(),
+                            stats.getStage(TrafficWriter.STAGE_NAME).getDropped()));
+                }
+
+                /**
+                 * Process captured packet (runs on a pipeline worker thread)
+                 */
+                private void processPacket(CapturedPacket captured, HeaderDecoder headers) {
+                    // Headers are decoded in place from the raw frame, no pcap4j objects
+                    if (!headers.isIpv4() && !headers.isIpv6()) {
+                        return; // Skip non-IP packets
                     }
 
-                    // Create traffic data object
-                    String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-                    String status = "Allowed"; // Default status
+                    // Protocol from the transport header and well-known ports
+                    TrafficProtocol protocol = TrafficProtocol.classify(headers.getProtocol(),
+                            headers.getDestinationPort(), headers.hasTransport());
 
+                    // Primitive record, addresses and time are only rendered as text
+                    // by the UI or the database writer.
+                    // Use the capture time so replayed traffic keeps its original time
                     TrafficData trafficData = new TrafficData(
+                            headers.isIpv4() ? 4 : 6,
+                            headers.getSourceHigh(),
+                            headers.getSourceLow(),
+                            headers.getDestinationHigh(),
+                            headers.getDestinationLow(),
+                            headers.getSourcePort(),
+                            headers.getDestinationPort(),
                             protocol,
-                            srcIp,
-                            String.valueOf(srcPort),
-                            dstIp,
-                            String.valueOf(dstPort),
-                            packet.length(),
-                            timestamp,
-                            status
+                            captured.getLength(),
+                            captured.getTimestampNanos(),
+                            "Allowed" // Default status
                     );
 
-                    // Store in database (async to avoid blocking)
-                    executorService.submit(() -> {
-                        try {
-                            trafficDAO.insertTraffic(trafficData);
-                        } catch (Exception e) {
-                            System.err.println("Error storing traffic data: " + e.getMessage());
-                        }
-                    });
+                    // Every packet is accounted to its flow; flow records are stored
+                    flowTable.update(headers, protocol.name(), captured.getLength(), captured.getSampleWeight(),
+                            captured.getTimestampNanos());
 
                     // Run through detection engine
-                    detectionEngine.analyzeTraffic(trafficData, packet);
+                    detectionEngine.analyzeTraffic(trafficData, captured, headers);
+
+                    // Per-packet rows as the policy allows (bounded queue, batched by the writer thread);
+                    // after detection, so the packet raising an alert is kept for its source
+                    if (shouldStorePacket(trafficData)) {
+                        trafficWriter.submit(trafficData);
+                    }
                 }
 
-                /**
-                 * Get network interface by name
-                 */
-                private PcapNetworkInterface getNetworkInterface(String name) throws PcapNativeException {
-                    for (PcapNetworkInterface nif : Pcaps.findAllDevs()) {
-                        if (nif.getName().equals(name)) {
-                            return nif;
-                        }
+                private boolean shouldStorePacket(TrafficData traffic) {
+                    switch (persistencePolicy) {
+                        case ALL:
+                            return true;
+                        case SAMPLED:
+                            return ThreadLocalRandom.current().nextInt(sampledOneIn) == 0;
+                        case ALERTED_SOURCES:
+                            long time = traffic.getTimestampNanos();
+                            return detectionEngine.hasRecentAlert(traffic.getSourceKey(), time, alertHoldMillis) ||
+                                    detectionEngine.hasRecentAlert(traffic.getDestinationKey(), time,
+                                            alertHoldMillis);
+                        default:
+                            return false;
                     }
-                    return null;
                 }
 
                 /**
@@ -253,12 +560,168 @@ import java.util.concurrent.atomic.AtomicBoolean;
                     return isCapturing.get();
                 }
 
+                /**
+                 * Active or last finished replay, null if none was started
+                 */
+                public PcapReplaySource getReplaySource() {
+                    return replaySource;
+                }
+
+                /**
+                 * Active or last finished bulk ingest, null if none was started
+                 */
+                public PcapBulkIngest getBulkIngest() {
+                    return bulkIngest;
+                }
+
+                /**
+                 * Active or last stopped directory ingest, null if none was started
+                 */
+                public PcapDirectoryIngest getDirectoryIngest() {
+                    return directoryIngest;
+                }
+
+                /**
+                 * Interfaces currently being captured
+                 */
+                public Set<String> getActiveInterfaces() {
+                    return Collections.unmodifiableSet(liveSources.keySet());
+                }
+
+                /**
+                 * Counters of each running interface
+                 */
+                public List<InterfaceStatistics> getInterfaceStatistics() {
+                    List<InterfaceStatistics> result = new ArrayList<>();
+                    for (CaptureSource source : liveSources.values()) {
+                        result.add(source.getStatistics());
+                    }
+                    return result;
+                }
+
+                public long getPacketsCaptured() {
+                    long total = stoppedPacketsCaptured;
+                    for (CaptureSource source : liveSources.values()) {
+                        total += source.getStatistics().getPacketsCaptured();
+                    }
+                    return total;
+                }
+
                 public long getPacketsAnalyzed() {
-                    return packetsAnalyzed;
+                    return pipeline != null ? pipeline.getPacketsProcessed() : 0;
                 }
 
                 public long getBytesProcessed() {
-                    return bytesProcessed;
+                    return pipeline != null ? pipeline.getBytesProcessed() : 0;
+                }
+
+                /**
+                 * Bytes seen on the wire, scaling sampled packets by their weight
+                 */
+                public long getEstimatedBytes() {
+                    return pipeline != null ? pipeline.getEstimatedBytes() : 0;
+                }
+
+                /**
+                 * IPv4 defragmentation counters of the current or last session, null if disabled
+                 */
+                public FragmentBudget getFragmentBudget() {
+                    return pipeline != null ? pipeline.getFragmentBudget() : null;
+                }
+
+                /**
+                 * Duplicate suppression counters of the current or last session, null if disabled
+                 */
+                public DuplicateFilter getDuplicateFilter() {
+                    return pipeline != null ? pipeline.getDuplicateFilter() : null;
+                }
+
+                /**
+                 * Overload sampling state of the current or last session, null if disabled
+                 */
+                public SamplingController getSampler() {
+                    return pipeline != null ? pipeline.getSampler() : null;
+                }
+
+                public long getPacketsDropped() {
+                    return pipeline != null ? pipeline.getDroppedPackets() : 0;
+                }
+
+                /**
+                 * Packet accounting from the kernel through every user-space stage,
+                 * summed over all interfaces of the current or last session
+                 */
+                public synchronized CaptureStatistics getCaptureStatistics() {
+                    CaptureStatistics stats = new CaptureStatistics();
+                    long received = stoppedKernelReceived;
+                    long dropped = stoppedKernelDropped;
+                    long droppedByIf = stoppedInterfaceDropped;
+                    long captured = stoppedPacketsCaptured;
+                    for (CaptureSource source : liveSources.values()) {
+                        InterfaceStatistics nif = source.getStatistics();
+                        received += nif.getKernelReceived();
+                        dropped += nif.getKernelDropped();
+                        droppedByIf += nif.getInterfaceDropped();
+                        captured += nif.getPacketsCaptured();
+                    }
+                    stats.setPacketsCaptured(captured);
+                    stats.setKernelReceived(received);
+                    stats.setKernelDropped(dropped);
+                    stats.setInterfaceDropped(droppedByIf);
+
+                    if (pipeline != null) {
+                        stats.addStage(pipeline.getStageStatistics());
+                    }
+                    stats.addStage(trafficWriter.getStageStatistics());
+                    stats.addStage(flowWriter.getStageStatistics());
+                    if (flowExporter != null) {
+                        stats.addStage(flowExporter.getStageStatistics());
+                    }
+                    if (evidenceRing != null) {
+                        stats.addStage(evidenceRing.getStageStatistics());
+                    }
+                    return stats;
+                }
+
+                /**
+                 * What is written to the database from now on; takes effect for
+                 * the next packet and the next flow record
+                 */
+                public void setPersistencePolicy(PersistencePolicy policy) {
+                    if (policy != persistencePolicy) {
+                        persistencePolicy = policy;
+                        System.out.println("Persistence policy changed to: " + policy.getDisplayName());
+                    }
+                }
+
+                public PersistencePolicy getPersistencePolicy() {
+                    return persistencePolicy;
+                }
+
+                /**
+                 * True when every packet is also stored in traffic_logs, so the
+                 * views can count and list packets rather than flows
+                 */
+                public boolean isPacketLogging() {
+                    return persistencePolicy == PersistencePolicy.ALL;
+                }
+
+                public FlowTable getFlowTable() {
+                    return flowTable;
+                }
+
+                /**
+                 * IPFIX / NetFlow v9 exporter, null when export is disabled
+                 */
+                public FlowExporter getFlowExporter() {
+                    return flowExporter;
+                }
+
+                /**
+                 * On-disk packet ring for alert evidence, null when recording is disabled
+                 */
+                public PcapRing getEvidenceRing() {
+                    return evidenceRing;
                 }
 
                 /**
@@ -266,6 +729,63 @@ import java.util.concurrent.atomic.AtomicBoolean;
                  */
                 public void shutdown() {
                     stopCapture();
+                    flowTable.stop();
+                    flowWriter.stop();
+                    if (flowExporter != null) {
+                        flowExporter.stop();
+                    }
+                    if (evidenceRing != null) {
+                        evidenceRing.stop();
+                    }
+                    trafficWriter.stop();
                     executorService.shutdown();
                 }
+
+                /**
+                 * Replay or bulk ingest running on the executor. Cancelling a
+                 * task that has not started keeps it from running and releases
+                 * its file; one that runs is interrupted, in case it waits on a
+                 * full queue, and awaited.
+                 */
+                private static final class OfflineTask {
+                    private final AtomicBoolean claimed = new AtomicBoolean(false);
+                    private final CountDownLatch finished = new CountDownLatch(1);
+                    private Future<?> future;
+                    private Runnable release;
+
+                    /**
+                     * release closes what the body would have closed when done
+                     */
+                    void submit(ExecutorService executor, Runnable body, Runnable release) {
+                        this.release = release;
+                        future = executor.submit(() -> {
+                            if (!claimed.compareAndSet(false, true)) {
+                                return;
+                            }
+                            try {
+                                body.run();
+                            } finally {
+                                finished.countDown();
+                            }
+                        });
+                    }
+
+                    /**
+                     * Returns false if the task still runs after the timeout
+                     */
+                    boolean cancelAndAwait(long timeoutMillis) {
+                        if (claimed.compareAndSet(false, true)) {
+                            future.cancel(false);
+                            release.run();
+                            return true;
+                        }
+                        future.cancel(true);
+                        try {
+                            return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                }
             }
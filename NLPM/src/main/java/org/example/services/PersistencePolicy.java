@@ -0,0 +1,48 @@
+package org.example.services;
+
+/**
+ * Which captured traffic is written to the database. Detection always
+ * sees every packet; only what is stored changes.
+ */
+public enum PersistencePolicy {
+    /** Every packet in traffic_logs, plus flow records */
+    ALL("All packets"),
+    /** One packet in persistence.sampled-one-in, plus flow records */
+    SAMPLED("Sampled packets"),
+    /** Packets to or from hosts with a recent alert, plus flow records */
+    ALERTED_SOURCES("Alerted sources only"),
+    /** Flow records only */
+    FLOWS_ONLY("Flow summaries only"),
+    /** Nothing is stored */
+    NONE("Nothing");
+
+    private final String displayName;
+
+    PersistencePolicy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * True if some packets go to traffic_logs
+     */
+    public boolean storesPackets() {
+        return this == ALL || this == SAMPLED || this == ALERTED_SOURCES;
+    }
+
+    public boolean storesFlows() {
+        return this != NONE;
+    }
+
+    public static PersistencePolicy fromDisplayName(String displayName) {
+        for (PersistencePolicy policy : values()) {
+            if (policy.displayName.equals(displayName)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown persistence policy: " + displayName);
+    }
+}
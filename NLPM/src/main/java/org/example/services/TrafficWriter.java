@@ -0,0 +1,25 @@
+package org.example.services;
+
+import org.example.database.dao.TrafficDAO;
+import org.example.models.TrafficData;
+
+import java.util.List;
+
+/**
+ * Database stage for per-packet traffic_logs rows
+ */
+public class TrafficWriter extends BatchWriter<TrafficData> {
+    public static final String STAGE_NAME = "Database";
+
+    private final TrafficDAO trafficDAO;
+
+    public TrafficWriter(TrafficDAO trafficDAO) {
+        super(STAGE_NAME, "traffic-writer", "persistence");
+        this.trafficDAO = trafficDAO;
+    }
+
+    @Override
+    protected int write(List<TrafficData> batch) {
+        return trafficDAO.insertTrafficBatch(batch);
+    }
+}
@@ -0,0 +1,336 @@
+package org.example.services.capture;
+
+import com.sun.jna.LastErrorException;
+import org.example.models.InterfaceStatistics;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Linux capture backend: AF_PACKET sockets with TPACKET_V3 mmap rings.
+ * The kernel writes frames into shared memory blocks and the capture thread
+ * walks each full block from Java, so there is no native call per packet.
+ * With fanout-sockets above one, several sockets (each with its own ring
+ * and thread) join a fanout group and the kernel spreads packets between
+ * them; HASH fanout keeps both directions of a flow on one socket.
+ * The capture profile is applied when frames are copied out of the ring:
+ * the kernel always delivers whole frames.
+ */
+public class AfPacketCaptureSource implements CaptureSource {
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final int POLL_TIMEOUT_MS = 100;
+    private static final int ARPHRD_ETHER = 1;
+    private static final int ARPHRD_LOOPBACK = 772;
+    private static final int ARPHRD_NONE = 0xfffe; // tun devices: bare IP packets
+
+    /** Kernel fanout modes, in PACKET_FANOUT_* order */
+    public enum FanoutMode { HASH, LB, CPU }
+
+    private final String interfaceName;
+    private final PacketPipeline pipeline;
+    private final CaptureProfile profile;
+    private final List<Reader> readers = new ArrayList<>();
+    private volatile BitSet payloadPorts = new BitSet(65536);
+    private int headerSnapLength;
+    private int linkType;
+    private volatile boolean running;
+
+    public AfPacketCaptureSource(String interfaceName, PacketPipeline pipeline, CaptureProfile profile) {
+        this.interfaceName = interfaceName;
+        this.pipeline = pipeline;
+        this.profile = profile;
+    }
+
+    @Override
+    public boolean open(String filter) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        headerSnapLength = config.getHeaderSnapLength();
+
+        int blockSize = config.getInt("afpacket.block-size-kb", 1024) << 10;
+        int blockCount = config.getInt("afpacket.block-count", 64);
+        int frameSize = config.getInt("afpacket.frame-size", 2048);
+        int blockTimeoutMs = config.getInt("afpacket.block-timeout-ms", 10);
+        int sockets = Math.max(1, config.getInt("afpacket.fanout-sockets", 1));
+        FanoutMode fanoutMode = config.getEnum("afpacket.fanout-mode", FanoutMode.class, FanoutMode.HASH);
+
+        try {
+            linkType = linkType();
+            if (linkType < 0) {
+                System.err.println("AF_PACKET capture supports Ethernet, loopback and tun interfaces only: " +
+                        interfaceName);
+                return false;
+            }
+            int ifIndex = LinuxPacketSocket.interfaceIndex(interfaceName);
+            if (ifIndex == 0) {
+                System.err.println("Network interface not found: " + interfaceName);
+                return false;
+            }
+
+            // Group ids are system-wide: derive one from this process and interface
+            int groupId = (int) (ProcessHandle.current().pid() * 31 + ifIndex);
+            for (int i = 0; i < sockets; i++) {
+                LinuxPacketSocket socket = new LinuxPacketSocket(blockSize, blockCount);
+                readers.add(new Reader(socket));
+                socket.open(ifIndex, linkType, frameSize, blockTimeoutMs, true,
+                        BpfFilterBuilder.withVlanTags(filter, linkType));
+                if (sockets > 1) {
+                    socket.joinFanout(groupId, fanoutMode.ordinal());
+                }
+            }
+            System.out.println("AF_PACKET capture on " + interfaceName + ": " + sockets + " socket(s), " +
+                    blockCount + " x " + (blockSize >> 10) + " KB ring each, profile " + profile.getDisplayName() +
+                    (filter == null || filter.isEmpty() ? "" : ", filter: " + filter));
+            return true;
+        } catch (LastErrorException | IllegalArgumentException | IOException | UnsatisfiedLinkError e) {
+            System.err.println("Failed to open AF_PACKET capture on " + interfaceName + ": " + e.getMessage());
+            for (Reader reader : readers) {
+                reader.socket.close();
+            }
+            readers.clear();
+            return false;
+        }
+    }
+
+    /**
+     * DLT of the frames the interface delivers, mapped from its hardware
+     * type as libpcap does (loopback frames carry a zeroed Ethernet
+     * header); -1 if not supported
+     */
+    private int linkType() throws IOException {
+        String type = Files.readString(Paths.get("/sys/class/net", interfaceName, "type")).trim();
+        switch (Integer.parseInt(type)) {
+            case ARPHRD_ETHER:
+            case ARPHRD_LOOPBACK:
+                return HeaderDecoder.DLT_EN10MB;
+            case ARPHRD_NONE:
+                return HeaderDecoder.DLT_RAW;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < readers.size(); i++) {
+            Reader reader = readers.get(i);
+            reader.thread = new Thread(reader::capturePackets,
+                    "capture-" + interfaceName + (readers.size() > 1 ? "-" + i : ""));
+            reader.thread.setDaemon(true);
+            reader.thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Reader reader : readers) {
+            if (reader.thread != null) {
+                try {
+                    reader.thread.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Unmap the ring only once nothing reads it any more
+            boolean exited = reader.thread == null || !reader.thread.isAlive();
+            if (!exited) {
+                System.err.println("Capture thread " + reader.thread.getName() + " did not stop, leaking its " +
+                        ((long) reader.socket.getBlockSize() * reader.socket.getBlockCount() >> 10) +
+                        " KB ring mapping");
+            }
+            reader.socket.close(exited);
+        }
+    }
+
+    @Override
+    public boolean setFilter(String filter) {
+        boolean applied = true;
+        for (Reader reader : readers) {
+            try {
+                reader.socket.setFilter(BpfFilterBuilder.withVlanTags(filter, linkType));
+            } catch (LastErrorException | IllegalArgumentException e) {
+                System.err.println("Failed to apply capture filter on " + interfaceName + ": " + e.getMessage());
+                applied = false;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Replace the port bitmap; readers pick it up from their next frame
+     */
+    @Override
+    public boolean setPayloadPorts(List<String> ports) {
+        BitSet next = new BitSet(65536);
+        for (String spec : ports) {
+            String[] bounds = spec.trim().split("-");
+            int low = Integer.parseInt(bounds[0].trim());
+            int high = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : low;
+            next.set(low, high + 1);
+        }
+        payloadPorts = next;
+        return true;
+    }
+
+    @Override
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    @Override
+    public CaptureProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public DataLinkType getDataLinkType() {
+        return DataLinkType.getInstance(linkType);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public InterfaceStatistics getStatistics() {
+        long captured = 0, bytes = 0, dropped = 0, received = 0, kernelDropped = 0;
+        for (Reader reader : readers) {
+            captured += reader.packetsCaptured;
+            bytes += reader.bytesCaptured;
+            dropped += reader.packetsDropped;
+            if (running) {
+                reader.socket.readStatistics();
+            }
+            received += reader.socket.getKernelPackets();
+            kernelDropped += reader.socket.getKernelDrops();
+        }
+        return new InterfaceStatistics(interfaceName, captured, bytes, dropped, received, kernelDropped, 0);
+    }
+
+    /**
+     * One socket and the thread draining its ring
+     */
+    private class Reader {
+        private final LinuxPacketSocket socket;
+        private final HeaderDecoder decoder = new HeaderDecoder();
+        private Thread thread;
+
+        // Written only by the capture thread
+        private volatile long packetsCaptured = 0;
+        private volatile long bytesCaptured = 0;
+        private volatile long packetsDropped = 0;
+
+        Reader(LinuxPacketSocket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Take blocks in ring order as the kernel retires them
+         */
+        void capturePackets() {
+            ByteBuffer ring = socket.getRing();
+            int blockSize = socket.getBlockSize();
+            int blockCount = socket.getBlockCount();
+            int block = 0;
+            try {
+                while (running) {
+                    int base = block * blockSize;
+                    int status = (int) INT.getAcquire(ring, base + LinuxPacketSocket.BLOCK_STATUS);
+                    if ((status & LinuxPacketSocket.TP_STATUS_USER) == 0) {
+                        socket.await(POLL_TIMEOUT_MS);
+                        continue;
+                    }
+                    readBlock(ring, base);
+                    // Hand the block back only after every frame was copied out
+                    INT.setRelease(ring, base + LinuxPacketSocket.BLOCK_STATUS, LinuxPacketSocket.TP_STATUS_KERNEL);
+                    block = (block + 1) % blockCount;
+                }
+            } catch (LastErrorException e) {
+                if (running) {
+                    System.err.println("Packet capture error on " + interfaceName + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private void readBlock(ByteBuffer ring, int base) {
+            int count = ring.getInt(base + LinuxPacketSocket.BLOCK_NUM_PACKETS);
+            int frame = base + ring.getInt(base + LinuxPacketSocket.BLOCK_FIRST_PACKET);
+            for (int i = 0; i < count; i++) {
+                int snapLength = ring.getInt(frame + LinuxPacketSocket.FRAME_SNAPLEN);
+                int originalLength = ring.getInt(frame + LinuxPacketSocket.FRAME_LEN);
+                long timestampNanos = Integer.toUnsignedLong(ring.getInt(frame + LinuxPacketSocket.FRAME_SEC)) *
+                        1_000_000_000L + ring.getInt(frame + LinuxPacketSocket.FRAME_NSEC);
+                int status = ring.getInt(frame + LinuxPacketSocket.FRAME_STATUS);
+                int data = frame + Short.toUnsignedInt(ring.getShort(frame + LinuxPacketSocket.FRAME_MAC));
+
+                byte[] bytes = copyFrame(ring, frame, data, snapLength, status);
+                if ((status & LinuxPacketSocket.TP_STATUS_VLAN_VALID) != 0) {
+                    originalLength += 4;
+                }
+                deliver(bytes, originalLength, timestampNanos);
+                frame += ring.getInt(frame + LinuxPacketSocket.FRAME_NEXT_OFFSET);
+            }
+        }
+
+        /**
+         * Copy a frame out of the ring, putting back the 802.1Q tag the
+         * kernel moved into the frame header
+         */
+        private byte[] copyFrame(ByteBuffer ring, int frame, int data, int length, int status) {
+            if ((status & LinuxPacketSocket.TP_STATUS_VLAN_VALID) == 0 || length < 12) {
+                byte[] bytes = new byte[length];
+                ring.get(data, bytes, 0, length);
+                return bytes;
+            }
+            int tpid = (status & LinuxPacketSocket.TP_STATUS_VLAN_TPID_VALID) != 0 ?
+                    Short.toUnsignedInt(ring.getShort(frame + LinuxPacketSocket.FRAME_VLAN_TPID)) : 0x8100;
+            int tci = ring.getInt(frame + LinuxPacketSocket.FRAME_VLAN_TCI) & 0xffff;
+            byte[] bytes = new byte[length + 4];
+            ring.get(data, bytes, 0, 12);
+            bytes[12] = (byte) (tpid >>> 8);
+            bytes[13] = (byte) tpid;
+            bytes[14] = (byte) (tci >>> 8);
+            bytes[15] = (byte) tci;
+            ring.get(data + 12, bytes, 16, length - 12);
+            return bytes;
+        }
+
+        private void deliver(byte[] bytes, int originalLength, long timestampNanos) {
+            boolean payloadCaptured = true;
+            if (profile == CaptureProfile.HEADER_ONLY || (profile == CaptureProfile.ADAPTIVE && !onPayloadPort(bytes))) {
+                if (bytes.length > headerSnapLength) {
+                    bytes = Arrays.copyOf(bytes, headerSnapLength);
+                }
+                payloadCaptured = false;
+            }
+
+            packetsCaptured++;
+            bytesCaptured += originalLength;
+            CapturedPacket packet = new CapturedPacket(bytes, originalLength, linkType,
+                    timestampNanos, payloadCaptured);
+            packet.setInterfaceName(interfaceName);
+            if (!pipeline.offer(packet)) {
+                packetsDropped++;
+            }
+        }
+
+        private boolean onPayloadPort(byte[] bytes) {
+            if (!decoder.decode(bytes, bytes.length, linkType) || !decoder.hasTransport()) {
+                return false;
+            }
+            return payloadPorts.get(decoder.getSourcePort()) || payloadPorts.get(decoder.getDestinationPort());
+        }
+    }
+}
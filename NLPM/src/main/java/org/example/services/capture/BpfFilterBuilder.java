@@ -0,0 +1,247 @@
+package org.example.services.capture;
+
+import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.Pcaps;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Builds kernel-side BPF capture filters so unwanted traffic is discarded
+ * before it is copied to user space.
+ *
+ * Generated expression: [vlan] and [protocols] and [ports] and not [home networks]
+ * Without VLAN ids it would only match untagged frames; capture sources
+ * install filters through {@link #withVlanTags} to match tagged ones too.
+ */
+public class BpfFilterBuilder {
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern VLAN = Pattern.compile("\\bvlan\\b");
+    private static final Set<String> PROTOCOLS = Set.of("tcp", "udp", "icmp", "icmp6", "ip", "ip6", "arp");
+
+    private final List<String> excludedSourceNetworks = new ArrayList<>();
+    private final List<String> protocols = new ArrayList<>();
+    private final List<String> ports = new ArrayList<>();
+    private Integer vlan;
+
+    /**
+     * Build a filter from the filter.* keys in capture.properties
+     */
+    public static BpfFilterBuilder fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        BpfFilterBuilder builder = new BpfFilterBuilder();
+
+        if (config.getBoolean("filter.exclude-home-networks", false)) {
+            builder.excludeSourceNetworks(split(config.getString("filter.home-networks", "")));
+        }
+        builder.protocols(split(config.getString("filter.protocols", "")));
+        builder.ports(split(config.getString("filter.ports", "")));
+        for (String vlan : split(config.getString("filter.vlans", ""))) {
+            try {
+                builder.vlan(Integer.parseInt(vlan));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid VLAN id: " + vlan);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Configured expression: filter.expression if set, otherwise the generated one
+     */
+    public static String expressionFromConfig() {
+        String explicit = CaptureConfig.getInstance().getString("filter.expression", "");
+        return explicit.isEmpty() ? fromConfig().build() : explicit;
+    }
+
+    /**
+     * Drop packets whose source is in one of these networks (CIDR notation)
+     */
+    public BpfFilterBuilder excludeSourceNetworks(List<String> networks) {
+        for (String network : networks) {
+            validateNetwork(network);
+            excludedSourceNetworks.add(network);
+        }
+        return this;
+    }
+
+    /**
+     * Keep only these protocols (tcp, udp, icmp, icmp6, ip, ip6, arp)
+     */
+    public BpfFilterBuilder protocols(List<String> protocolNames) {
+        for (String protocol : protocolNames) {
+            String name = protocol.toLowerCase();
+            if (!PROTOCOLS.contains(name)) {
+                throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+            }
+            protocols.add(name);
+        }
+        return this;
+    }
+
+    /**
+     * Keep only traffic on these ports; entries are "80" or ranges "1000-2000"
+     */
+    public BpfFilterBuilder ports(List<String> portSpecs) {
+        for (String spec : portSpecs) {
+            String[] bounds = spec.split("-");
+            if (bounds.length > 2) {
+                throw new IllegalArgumentException("Invalid port range: " + spec);
+            }
+            int low = parsePort(bounds[0]);
+            int high = bounds.length == 2 ? parsePort(bounds[1]) : low;
+            if (high < low) {
+                throw new IllegalArgumentException("Invalid port range: " + spec);
+            }
+            ports.add(low == high ? "port " + low : "portrange " + low + "-" + high);
+        }
+        return this;
+    }
+
+    /**
+     * Keep only frames tagged with this VLAN id. Only one id is supported:
+     * every vlan primitive moves libpcap past another tag, so in
+     * "vlan 10 or vlan 20" the second test reads a QinQ inner tag.
+     */
+    public BpfFilterBuilder vlan(int vlanId) {
+        if (vlanId < 0 || vlanId > 4095) {
+            throw new IllegalArgumentException("Invalid VLAN id: " + vlanId);
+        }
+        if (vlan != null && vlan != vlanId) {
+            throw new IllegalArgumentException("Only one VLAN id can be filtered on, got " + vlan + " and " + vlanId +
+                    " (each vlan primitive reads the next tag in, so further ids would test QinQ inner tags)");
+        }
+        vlan = vlanId;
+        return this;
+    }
+
+    /**
+     * Compose the BPF expression, empty string means "capture everything".
+     * The VLAN clause comes first because libpcap shifts the offsets of
+     * every following primitive past the 802.1Q tag.
+     */
+    public String build() {
+        List<String> clauses = new ArrayList<>();
+        if (vlan != null) {
+            clauses.add("vlan " + vlan);
+        }
+        if (!protocols.isEmpty()) {
+            clauses.add(join(protocols));
+        }
+        if (!ports.isEmpty()) {
+            clauses.add(join(ports));
+        }
+        if (!excludedSourceNetworks.isEmpty()) {
+            clauses.add("not " + join(excludedSourceNetworks.stream().map(net -> "src net " + net).toList()));
+        }
+        return String.join(" and ", clauses);
+    }
+
+    /**
+     * Combine expressions with "and", skipping empty ones
+     */
+    public static String and(String... expressions) {
+        List<String> clauses = new ArrayList<>();
+        for (String expression : expressions) {
+            if (expression != null && !expression.isBlank()) {
+                clauses.add(expression);
+            }
+        }
+        if (clauses.size() == 1) {
+            return clauses.get(0);
+        }
+        return String.join(" and ", clauses.stream().map(clause -> "(" + clause + ")").toList());
+    }
+
+    /**
+     * Expression to install on an Ethernet capture: "X or (vlan and X)",
+     * so 802.1Q-tagged frames match as untagged ones do. The vlan keyword
+     * moves the offsets of every primitive after it, so this is applied
+     * to the complete filter. Expressions naming vlan themselves, empty
+     * ones and other link types are returned unchanged.
+     */
+    public static String withVlanTags(String expression, int linkType) {
+        if (expression == null || expression.isBlank() || linkType != HeaderDecoder.DLT_EN10MB ||
+                VLAN.matcher(expression).find()) {
+            return expression;
+        }
+        return "(" + expression + ") or (vlan and (" + expression + "))";
+    }
+
+    /**
+     * Check that libpcap accepts the expression by compiling it once
+     */
+    public static void validate(String expression, DataLinkType dataLinkType) {
+        if (expression == null || expression.isBlank()) {
+            return;
+        }
+        try {
+            BpfProgram program = Pcaps.compileFilter(65536, dataLinkType, expression,
+                    BpfProgram.BpfCompileMode.OPTIMIZE, PcapHandle.PCAP_NETMASK_UNKNOWN);
+            program.free();
+        } catch (PcapNativeException e) {
+            throw new IllegalArgumentException("Invalid capture filter '" + expression + "': " + e.getMessage());
+        }
+    }
+
+    private static String join(List<String> terms) {
+        return terms.size() == 1 ? terms.get(0) : "(" + String.join(" or ", terms) + ")";
+    }
+
+    private static List<String> split(String value) {
+        if (value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value.trim());
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid port: " + value);
+    }
+
+    private static void validateNetwork(String network) {
+        String[] parts = network.split("/");
+        boolean ipv4 = IPV4.matcher(parts[0]).matches();
+        if (parts.length > 2 || (!ipv4 && !parts[0].contains(":"))) {
+            throw new IllegalArgumentException("Invalid network: " + network);
+        }
+        try {
+            if (ipv4) {
+                for (String octet : parts[0].split("\\.")) {
+                    if (Integer.parseInt(octet) > 255) {
+                        throw new IllegalArgumentException("Invalid network: " + network);
+                    }
+                }
+            } else {
+                // Contains ':' so it is parsed as an IPv6 literal, never looked up in DNS
+                InetAddress.getByName(parts[0]);
+            }
+            if (parts.length == 2) {
+                int prefix = Integer.parseInt(parts[1]);
+                if (prefix < 0 || prefix > (ipv4 ? 32 : 128)) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + network);
+                }
+            }
+        } catch (UnknownHostException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid network: " + network);
+        }
+    }
+}
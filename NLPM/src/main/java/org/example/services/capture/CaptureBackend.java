@@ -0,0 +1,25 @@
+package org.example.services.capture;
+
+/**
+ * How live packets get from the kernel to the pipeline
+ */
+public enum CaptureBackend {
+    /** libpcap through pcap4j, one callback per packet (all platforms) */
+    PCAP,
+    /** Linux AF_PACKET socket with a TPACKET_V3 mmap ring, read block by block */
+    AF_PACKET;
+
+    /**
+     * Create the capture source of this backend for one interface
+     */
+    public CaptureSource createSource(String interfaceName, PacketPipeline pipeline, CaptureProfile profile) {
+        if (this == AF_PACKET) {
+            return new AfPacketCaptureSource(interfaceName, pipeline, profile);
+        }
+        return new LiveCaptureSource(interfaceName, pipeline, profile);
+    }
+
+    public static boolean isAfPacketSupported() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("linux");
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.services.capture;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Capture and pipeline settings loaded from capture.properties
+ */
+public class CaptureConfig {
+    private static CaptureConfig instance;
+    private Properties properties;
+
+    private CaptureConfig() {
+        loadConfiguration();
+    }
+
+    public static synchronized CaptureConfig getInstance() {
+        if (instance == null) {
+            instance = new CaptureConfig();
+        }
+        return instance;
+    }
+
+    /**
+     * Load capture configuration, falling back to defaults if missing
+     */
+    private void loadConfiguration() {
+        properties = new Properties();
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream("capture.properties")) {
+            if (input == null) {
+                System.err.println("Unable to find capture.properties, using defaults");
+                return;
+            }
+            properties.load(input);
+        } catch (Exception e) {
+            System.err.println("Failed to load capture configuration: " + e.getMessage());
+        }
+    }
+
+    public int getWorkerCount() {
+        int workers = getInt("pipeline.workers", 0);
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getRingSize() {
+        return getInt("pipeline.ring-size", 8192);
+    }
+
+    public ShardKey getShardKey() {
+        return getEnum("pipeline.shard-key", ShardKey.class, ShardKey.SOURCE_IP);
+    }
+
+    public CaptureBackend getCaptureBackend() {
+        return getEnum("capture.backend", CaptureBackend.class, CaptureBackend.PCAP);
+    }
+
+    public CaptureProfile getCaptureProfile() {
+        return getEnum("capture.profile", CaptureProfile.class, CaptureProfile.FULL);
+    }
+
+    /**
+     * Snapshot length of header-only capture: Ethernet + VLAN + IPv4/IPv6 + TCP
+     */
+    public int getHeaderSnapLength() {
+        return Math.max(64, getInt("capture.header-snaplen", 128));
+    }
+
+    /**
+     * Ports whose payload is inspected in the adaptive profile for the
+     * payload rules that name no port
+     */
+    public List<String> getPayloadPorts() {
+        return getList("capture.payload-ports");
+    }
+
+    public List<String> getList(String key) {
+        String value = getString(key, "");
+        if (value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    public String getString(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue).trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        try {
+            return Enum.valueOf(type, getString(key, defaultValue.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.services.capture;
+
+/**
+ * How much of each frame live capture copies to user space
+ */
+public enum CaptureProfile {
+    /** Headers only (capture.header-snaplen bytes), payload rules are skipped */
+    HEADER_ONLY("Headers only"),
+    /** Whole frames, every packet goes through payload inspection */
+    FULL("Full inspection"),
+    /** Whole frames only on capture.payload-ports, headers only elsewhere */
+    ADAPTIVE("Adaptive");
+
+    public static final int FULL_SNAPLEN = 65536;
+
+    private final String displayName;
+
+    CaptureProfile(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public static CaptureProfile fromDisplayName(String displayName) {
+        for (CaptureProfile profile : values()) {
+            if (profile.displayName.equals(displayName)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown capture profile: " + displayName);
+    }
+}
@@ -0,0 +1,47 @@
+package org.example.services.capture;
+
+import org.example.models.InterfaceStatistics;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.List;
+
+/**
+ * Live capture on one network interface feeding the shared packet pipeline.
+ * Implemented by the libpcap backend (LiveCaptureSource) and the Linux
+ * AF_PACKET ring backend (AfPacketCaptureSource).
+ */
+public interface CaptureSource {
+
+    /**
+     * Open the interface and install the capture filter (empty = none)
+     */
+    boolean open(String filter);
+
+    void start();
+
+    /**
+     * Stop the loops, wait for the capture threads and release the interface
+     */
+    void stop();
+
+    /**
+     * Swap the BPF filter while capturing
+     */
+    boolean setFilter(String filter);
+
+    /**
+     * Ports whose payload the adaptive profile keeps, as port specs
+     * (80, 6660-6669); set before open and again when the rules change
+     */
+    boolean setPayloadPorts(List<String> ports);
+
+    String getInterfaceName();
+
+    CaptureProfile getProfile();
+
+    DataLinkType getDataLinkType();
+
+    boolean isRunning();
+
+    InterfaceStatistics getStatistics();
+}
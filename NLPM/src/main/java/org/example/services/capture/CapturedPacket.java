@@ -0,0 +1,131 @@
+package org.example.services.capture;
+
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.factory.PacketFactories;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.sql.Timestamp;
+
+/**
+ * A raw frame handed from the capture thread to a pipeline worker.
+ * Header fields are read through {@link HeaderDecoder}; the pcap4j
+ * object model is only built if {@link #getPacket()} is called.
+ */
+public class CapturedPacket {
+    private final byte[] data;
+    private final int originalLength;
+    private final int linkType;
+    private final long timestampNanos;
+    private final boolean payloadCaptured;
+    private int sampleWeight = 1;
+    private String interfaceName;
+    private boolean conflictingFragments;
+    private Runnable onProcessed;
+    private Packet packet;
+
+    public CapturedPacket(byte[] data, int originalLength, int linkType, long timestampNanos) {
+        this(data, originalLength, linkType, timestampNanos, true);
+    }
+
+    public CapturedPacket(byte[] data, int originalLength, int linkType, long timestampNanos,
+                          boolean payloadCaptured) {
+        this.data = data;
+        this.originalLength = originalLength;
+        this.linkType = linkType;
+        this.timestampNanos = timestampNanos;
+        this.payloadCaptured = payloadCaptured;
+    }
+
+    /**
+     * Captured bytes (may be shorter than the frame on the wire)
+     */
+    public byte[] getData() { return data; }
+
+    public int getCapturedLength() { return data.length; }
+
+    /**
+     * Frame length on the wire
+     */
+    public int getLength() { return originalLength; }
+
+    public int getLinkType() { return linkType; }
+
+    public long getTimestampNanos() { return timestampNanos; }
+
+    /**
+     * False when the frame came from a header-only capture, so whatever
+     * payload bytes it holds are a truncated prefix not worth inspecting
+     */
+    public boolean isPayloadCaptured() { return payloadCaptured; }
+
+    /**
+     * Number of packets this one stands for while sampling is active.
+     * Set by the capture thread before the packet is queued.
+     */
+    public int getSampleWeight() { return sampleWeight; }
+
+    public void setSampleWeight(int sampleWeight) { this.sampleWeight = sampleWeight; }
+
+    /**
+     * Interface the packet was captured on, null for file input
+     */
+    public String getInterfaceName() { return interfaceName; }
+
+    public void setInterfaceName(String interfaceName) { this.interfaceName = interfaceName; }
+
+    /**
+     * True for a datagram reassembled from fragments that overlapped with
+     * different bytes; it holds the bytes received first, which the
+     * destination host need not have kept
+     */
+    public boolean hasConflictingFragments() { return conflictingFragments; }
+
+    public void setConflictingFragments(boolean conflictingFragments) {
+        this.conflictingFragments = conflictingFragments;
+    }
+
+    /**
+     * Run once the pipeline is done with the packet: a worker processed or
+     * discarded it, or it was absorbed into a datagram being reassembled.
+     * Null if nobody waits for it.
+     */
+    public Runnable getOnProcessed() { return onProcessed; }
+
+    public void setOnProcessed(Runnable onProcessed) { this.onProcessed = onProcessed; }
+
+    public void processed() {
+        if (onProcessed != null) {
+            onProcessed.run();
+        }
+    }
+
+    /**
+     * Full pcap4j decode, built on first use only. Called from the worker
+     * that owns this packet, so no synchronization is needed.
+     */
+    public Packet getPacket() {
+        if (packet == null) {
+            DataLinkType dataLinkType = DataLinkType.getInstance(linkType);
+            packet = PacketFactories.getFactory(Packet.class, DataLinkType.class)
+                    .newInstance(data, 0, data.length, dataLinkType);
+        }
+        return packet;
+    }
+
+    /**
+     * Convert a pcap header timestamp to epoch nanoseconds
+     */
+    public static long toEpochNanos(Timestamp timestamp) {
+        if (timestamp == null) {
+            return System.currentTimeMillis() * 1_000_000L;
+        }
+        return Math.floorDiv(timestamp.getTime(), 1000L) * 1_000_000_000L + timestamp.getNanos();
+    }
+
+    /**
+     * Original length reported by libpcap for the packet just read
+     */
+    public static int originalLength(Integer reported, byte[] data) {
+        return reported != null ? reported : data.length;
+    }
+}
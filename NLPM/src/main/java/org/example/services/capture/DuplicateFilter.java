@@ -0,0 +1,74 @@
+package org.example.services.capture;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings and counters shared by the duplicate windows of all pipeline
+ * workers. SPAN ports often mirror a frame twice (ingress and egress copy);
+ * both copies hash to the same worker, which drops the second one before
+ * detection sees it.
+ */
+public class DuplicateFilter {
+    static final String FILE_INPUT = "(file)";
+
+    private final int tableSize;
+    private final long windowNanos;
+    private final int payloadPrefix;
+
+    final LongAdder packetsChecked = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> suppressedByInterface = new ConcurrentHashMap<>();
+
+    public DuplicateFilter(int tableSize, long windowNanos, int payloadPrefix) {
+        this.tableSize = tableSize;
+        this.windowNanos = windowNanos;
+        this.payloadPrefix = payloadPrefix;
+    }
+
+    /**
+     * Build settings from capture.properties, null if suppression is disabled
+     */
+    public static DuplicateFilter fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (!config.getBoolean("dedup.enabled", false)) {
+            return null;
+        }
+        return new DuplicateFilter(
+                config.getInt("dedup.table-size", 16384),
+                config.getLong("dedup.window-ms", 20) * 1_000_000L,
+                config.getInt("dedup.payload-prefix", 64));
+    }
+
+    void countSuppressed(CapturedPacket packet) {
+        suppressed.increment();
+        String source = packet.getInterfaceName() != null ? packet.getInterfaceName() : FILE_INPUT;
+        suppressedByInterface.computeIfAbsent(source, key -> new LongAdder()).increment();
+    }
+
+    int getTableSize() { return tableSize; }
+    long getWindowNanos() { return windowNanos; }
+    int getPayloadPrefix() { return payloadPrefix; }
+
+    public long getPacketsChecked() { return packetsChecked.sum(); }
+    public long getSuppressed() { return suppressed.sum(); }
+
+    /**
+     * Duplicates dropped for one interface
+     */
+    public long getSuppressed(String interfaceName) {
+        LongAdder count = suppressedByInterface.get(interfaceName);
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * Duplicates dropped per interface; file input is counted as "(file)"
+     */
+    public Map<String, Long> getSuppressedByInterface() {
+        Map<String, Long> counts = new TreeMap<>();
+        suppressedByInterface.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.services.capture;
+
+/**
+ * Short-window duplicate detection for one pipeline worker.
+ * Each IP packet is reduced to a 64-bit fingerprint of the fields a
+ * mirror copy keeps unchanged (addresses, IP ID and fragment offset,
+ * protocol, ports, the whole TCP header with window and options, and a
+ * payload prefix; not the TTL or IP checksum, which a routed copy may
+ * change). IPv6 has no IP ID outside fragments, so its packets add the
+ * flow label and the whole payload instead of a prefix, or two segments
+ * differing only past the prefix would collide. Fingerprints are kept in a
+ * fixed 4-way set-associative table together with their packet time, so
+ * memory does not grow with traffic: the oldest entry of a full set is
+ * replaced. A packet seen again within the window is a duplicate.
+ * Not thread-safe: both copies of a frame hash to the same worker.
+ */
+public class DuplicateWindow {
+    private static final int WAYS = 4;
+
+    private final DuplicateFilter filter;
+    private final long[] fingerprints;
+    private final long[] seenNanos;
+    private final int setMask;
+    private final long windowNanos;
+    private final int payloadPrefix;
+
+    public DuplicateWindow(DuplicateFilter filter) {
+        this.filter = filter;
+        int sets = Integer.highestOneBit(Math.max(1, filter.getTableSize() / WAYS - 1)) << 1;
+        this.fingerprints = new long[sets * WAYS];
+        this.seenNanos = new long[sets * WAYS];
+        this.setMask = sets - 1;
+        this.windowNanos = filter.getWindowNanos();
+        this.payloadPrefix = filter.getPayloadPrefix();
+    }
+
+    /**
+     * True if the same packet was seen within the window; counts it as
+     * suppressed. The headers must be decoded from this packet.
+     */
+    public boolean isDuplicate(CapturedPacket packet, HeaderDecoder headers) {
+        if (!headers.isIpv4() && !headers.isIpv6()) {
+            return false;
+        }
+        filter.packetsChecked.increment();
+        long fingerprint = fingerprint(headers);
+        long now = packet.getTimestampNanos();
+
+        int base = ((int) (fingerprint >>> 32) & setMask) * WAYS;
+        int oldest = base;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (fingerprints[slot] == fingerprint) {
+                // Copies from two interfaces may arrive slightly out of order
+                boolean duplicate = Math.abs(now - seenNanos[slot]) <= windowNanos;
+                seenNanos[slot] = Math.max(now, seenNanos[slot]);
+                if (duplicate) {
+                    filter.countSuppressed(packet);
+                }
+                return duplicate;
+            }
+            if (fingerprints[slot] == 0) {
+                oldest = slot;
+                break;
+            }
+            if (seenNanos[slot] < seenNanos[oldest]) {
+                oldest = slot;
+            }
+        }
+        fingerprints[oldest] = fingerprint;
+        seenNanos[oldest] = now;
+        return false;
+    }
+
+    private long fingerprint(HeaderDecoder headers) {
+        long hash = headers.getProtocol();
+        hash = mix(hash, headers.getSourceHigh());
+        hash = mix(hash, headers.getSourceLow());
+        hash = mix(hash, headers.getDestinationHigh());
+        hash = mix(hash, headers.getDestinationLow());
+        hash = mix(hash, ((long) headers.getIpId() << 32) | ((long) headers.getFragmentOffset() << 1) |
+                (headers.hasMoreFragments() ? 1 : 0));
+        hash = mix(hash, headers.getIpTotalLength());
+
+        byte[] data = headers.getData();
+        int payload = headers.getIpOffset() + headers.getIpHeaderLength();
+        if (headers.hasTransport()) {
+            hash = mix(hash, ((long) headers.getSourcePort() << 16) | headers.getDestinationPort());
+            if (headers.getProtocol() == HeaderDecoder.PROTO_TCP) {
+                // Sequence, ack, flags, window, checksum, urgent pointer and options
+                hash = mixBytes(hash, data, headers.getTransportOffset(), headers.getPayloadOffset());
+            }
+            payload = headers.getPayloadOffset();
+        }
+
+        int end = Math.min(headers.getLength(), payload + payloadPrefix);
+        if (headers.isIpv6()) {
+            int ip = headers.getIpOffset();
+            hash = mix(hash, ((data[ip + 1] & 0x0f) << 16) | ((data[ip + 2] & 0xff) << 8) | (data[ip + 3] & 0xff));
+            end = Math.min(headers.getLength(), ip + headers.getIpTotalLength());
+        }
+        hash = mixBytes(hash, data, payload, end);
+
+        // Finalizer of MurmurHash3; 0 marks an empty slot
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Mix data[from, end) in 8-byte words
+     */
+    private static long mixBytes(long hash, byte[] data, int from, int end) {
+        long word = 0;
+        for (int i = from; i < end; i++) {
+            word = (word << 8) | (data[i] & 0xff);
+            if (((i - from) & 7) == 7) {
+                hash = mix(hash, word);
+                word = 0;
+            }
+        }
+        return mix(hash, word);
+    }
+
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.services.capture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits and counters shared by the IPv4 defragmenters of all pipeline workers
+ */
+public class FragmentBudget {
+    private final int tableSize;
+    private final long memoryCap;
+    private final long perSourceCap;
+    private final long timeoutNanos;
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> perSource = new ConcurrentHashMap<>();
+
+    final LongAdder fragmentsReceived = new LongAdder();
+    final LongAdder datagramsReassembled = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder overlaps = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder budgetDrops = new LongAdder();
+    final LongAdder invalid = new LongAdder();
+
+    public FragmentBudget(int tableSize, long memoryCap, long perSourceCap, long timeoutNanos) {
+        this.tableSize = tableSize;
+        this.memoryCap = memoryCap;
+        this.perSourceCap = perSourceCap;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Build limits from capture.properties, null if defragmentation is disabled
+     */
+    public static FragmentBudget fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (!config.getBoolean("defrag.enabled", true)) {
+            return null;
+        }
+        return new FragmentBudget(
+                config.getInt("defrag.table-size", 4096),
+                config.getLong("defrag.memory-cap-kb", 16 * 1024) * 1024,
+                config.getLong("defrag.per-source-cap-kb", 1024) * 1024,
+                config.getLong("defrag.timeout-seconds", 30) * 1_000_000_000L);
+    }
+
+    /**
+     * Reserve memory for a datagram from this source, false if either the
+     * global or the per-source budget would be exceeded
+     */
+    boolean tryReserve(int source, long bytes) {
+        long used = memoryUsed.addAndGet(bytes);
+        if (used > memoryCap) {
+            memoryUsed.addAndGet(-bytes);
+            return false;
+        }
+        boolean[] granted = {true};
+        perSource.compute(source, (key, current) -> {
+            long total = (current == null ? 0 : current) + bytes;
+            if (total > perSourceCap) {
+                granted[0] = false;
+                return current;
+            }
+            return total;
+        });
+        if (!granted[0]) {
+            memoryUsed.addAndGet(-bytes);
+        }
+        return granted[0];
+    }
+
+    void release(int source, long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        memoryUsed.addAndGet(-bytes);
+        perSource.computeIfPresent(source, (key, current) -> current - bytes <= 0 ? null : current - bytes);
+    }
+
+    int getTableSize() { return tableSize; }
+    long getTimeoutNanos() { return timeoutNanos; }
+
+    public long getMemoryCap() { return memoryCap; }
+    public long getMemoryUsed() { return memoryUsed.get(); }
+    public long getFragmentsReceived() { return fragmentsReceived.sum(); }
+    public long getDatagramsReassembled() { return datagramsReassembled.sum(); }
+    /** Incomplete datagrams discarded after the timeout */
+    public long getTimeouts() { return timeouts.sum(); }
+    /** Incomplete datagrams pushed out of a full table */
+    public long getEvictions() { return evictions.sum(); }
+    /** Datagrams discarded because fragments overlapped with different data */
+    public long getOverlaps() { return overlaps.sum(); }
+    public long getDuplicates() { return duplicates.sum(); }
+    /** Datagrams discarded by the global or per-source memory budget */
+    public long getBudgetDrops() { return budgetDrops.sum(); }
+    /** Malformed fragments (bad length, beyond 65535 bytes) */
+    public long getInvalid() { return invalid.sum(); }
+}
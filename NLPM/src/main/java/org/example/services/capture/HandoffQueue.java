@@ -0,0 +1,141 @@
+package org.example.services.capture;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded hand-off between two processing stages with an explicit
+ * overflow policy and counters for everything offered, accepted and dropped.
+ */
+public class HandoffQueue<E> {
+    private static final int SPIN_TRIES = 200;
+    private static final long PARK_NANOS = 100_000; // 100us
+
+    private final String name;
+    private final RingBuffer<E> ring;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private volatile boolean closed;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public HandoffQueue(String name, int capacity, OverflowPolicy policy, int sampleRate) {
+        this.name = name;
+        this.ring = new RingBuffer<>(capacity);
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Offer an item according to the overflow policy.
+     * Returns true if the item was queued.
+     */
+    public boolean offer(E item) {
+        offered.increment();
+        switch (policy) {
+            case BLOCK:
+                return enqueueWaiting(item, () -> !closed);
+            case DROP_OLDEST:
+                for (int attempt = 0; attempt < 8; attempt++) {
+                    if (enqueue(item)) {
+                        return true;
+                    }
+                    if (ring.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                break;
+            case SAMPLE:
+                // Past half full, only every sampleRate-th item is let in
+                if (ring.size() >= ring.capacity() / 2 &&
+                        sampleCounter.incrementAndGet() % sampleRate != 0) {
+                    break;
+                }
+                if (enqueue(item)) {
+                    return true;
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                if (enqueue(item)) {
+                    return true;
+                }
+                break;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private boolean enqueue(E item) {
+        if (ring.offer(item)) {
+            accepted.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queue an item waiting for space regardless of policy (used by sources
+     * such as file replay that must not lose packets)
+     */
+    public boolean put(E item, BooleanSupplier keepWaiting) {
+        offered.increment();
+        return enqueueWaiting(item, keepWaiting);
+    }
+
+    private boolean enqueueWaiting(E item, BooleanSupplier keepWaiting) {
+        int tries = 0;
+        while (!ring.offer(item)) {
+            if (!keepWaiting.getAsBoolean()) {
+                dropped.increment();
+                return false;
+            }
+            if (++tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        accepted.increment();
+        return true;
+    }
+
+    public E poll() {
+        return ring.poll();
+    }
+
+    /**
+     * Move up to max queued items into the list, returns how many were moved
+     */
+    public int drainTo(List<E> target, int max) {
+        int count = 0;
+        E item;
+        while (count < max && (item = ring.poll()) != null) {
+            target.add(item);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Release producers blocked on a full queue
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public String getName() { return name; }
+    public OverflowPolicy getPolicy() { return policy; }
+    public int size() { return ring.size(); }
+    public int capacity() { return ring.capacity(); }
+    public boolean isEmpty() { return ring.isEmpty(); }
+    public long getOffered() { return offered.sum(); }
+    public long getAccepted() { return accepted.sum(); }
+    public long getDropped() { return dropped.sum(); }
+}
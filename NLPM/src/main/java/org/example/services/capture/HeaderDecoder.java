@@ -0,0 +1,347 @@
+package org.example.services.capture;
+
+import org.example.models.IpAddress;
+
+/**
+ * Reusable flyweight that decodes link, network and transport headers
+ * straight from the raw frame by offset. Decoding allocates nothing: all
+ * fields are primitives overwritten by each call to {@link #decode}.
+ * One instance per thread.
+ *
+ * Supports Ethernet (with 802.1Q / 802.1ad tags), Linux cooked capture,
+ * BSD loopback and raw IP link types; IPv4 and IPv6 (extension headers
+ * skipped); TCP, UDP, ICMP and ICMPv6.
+ */
+public class HeaderDecoder {
+    // pcap link-layer header types
+    public static final int DLT_NULL = 0;
+    public static final int DLT_EN10MB = 1;
+    public static final int DLT_RAW = 101;
+    // Raw IP under the values bpf.h gives DLT_RAW (14 on OpenBSD, 12 elsewhere)
+    public static final int DLT_RAW_BSD = 12;
+    public static final int DLT_RAW_OPENBSD = 14;
+    public static final int DLT_LOOP = 108;
+    public static final int DLT_LINUX_SLL = 113;
+
+    public static final int PROTO_ICMP = 1;
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+    public static final int PROTO_ICMPV6 = 58;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
+    public static final int TCP_URG = 0x20;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86dd;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88a8;
+
+    private byte[] data;
+    private int length;
+
+    private int vlanId;
+    private int ipVersion;
+    private int ipOffset;
+    private int ipHeaderLength;
+    private int ipTotalLength;
+    private int protocol;
+    private int ttl;
+    private int ipId;
+    private int fragmentOffset;
+    private boolean moreFragments;
+    private long srcHigh, srcLow;
+    private long dstHigh, dstLow;
+
+    private boolean transportDecoded;
+    private int transportOffset;
+    private int srcPort;
+    private int dstPort;
+    private long tcpSequence;
+    private long tcpAcknowledgment;
+    private int tcpFlags;
+    private int icmpType;
+    private int icmpCode;
+    private int payloadOffset;
+    private int payloadLength;
+
+    /**
+     * Decode headers of one frame. Returns false if the frame is not IP
+     * or is too short; field values are then undefined.
+     */
+    public boolean decode(byte[] frame, int frameLength, int linkType) {
+        this.data = frame;
+        this.length = Math.min(frameLength, frame.length);
+        reset();
+
+        int offset;
+        int etherType;
+        switch (linkType) {
+            case DLT_EN10MB:
+                if (length < 14) {
+                    return false;
+                }
+                etherType = u16(12);
+                offset = 14;
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && offset + 4 <= length) {
+                    if (vlanId == 0) {
+                        vlanId = u16(offset) & 0x0fff;
+                    }
+                    etherType = u16(offset + 2);
+                    offset += 4;
+                }
+                break;
+            case DLT_LINUX_SLL:
+                if (length < 16) {
+                    return false;
+                }
+                etherType = u16(14);
+                offset = 16;
+                break;
+            case DLT_NULL:
+            case DLT_LOOP:
+                if (length < 4) {
+                    return false;
+                }
+                offset = 4;
+                etherType = ipEtherType(offset);
+                break;
+            case DLT_RAW:
+            case DLT_RAW_BSD:
+            case DLT_RAW_OPENBSD:
+                offset = 0;
+                etherType = ipEtherType(offset);
+                break;
+            default:
+                return false;
+        }
+
+        if (etherType == ETHERTYPE_IPV4) {
+            return decodeIpv4(offset);
+        }
+        if (etherType == ETHERTYPE_IPV6) {
+            return decodeIpv6(offset);
+        }
+        return false;
+    }
+
+    private void reset() {
+        vlanId = 0;
+        ipVersion = 0;
+        protocol = 0;
+        ttl = 0;
+        ipId = 0;
+        fragmentOffset = 0;
+        moreFragments = false;
+        srcHigh = srcLow = dstHigh = dstLow = 0;
+        transportDecoded = false;
+        transportOffset = 0;
+        srcPort = dstPort = 0;
+        tcpSequence = tcpAcknowledgment = 0;
+        tcpFlags = 0;
+        icmpType = icmpCode = 0;
+        payloadOffset = payloadLength = 0;
+    }
+
+    /**
+     * Link types without an EtherType: infer it from the IP version nibble
+     */
+    private int ipEtherType(int offset) {
+        if (offset >= length) {
+            return 0;
+        }
+        int version = (data[offset] & 0xff) >>> 4;
+        return version == 4 ? ETHERTYPE_IPV4 : version == 6 ? ETHERTYPE_IPV6 : 0;
+    }
+
+    private boolean decodeIpv4(int offset) {
+        if (offset + 20 > length) {
+            return false;
+        }
+        int versionIhl = data[offset] & 0xff;
+        if (versionIhl >>> 4 != 4) {
+            return false;
+        }
+        int headerLength = (versionIhl & 0x0f) * 4;
+        if (headerLength < 20) {
+            return false;
+        }
+        ipVersion = 4;
+        ipOffset = offset;
+        ipHeaderLength = headerLength;
+        ipTotalLength = u16(offset + 2);
+        ipId = u16(offset + 4);
+        int flagsFragment = u16(offset + 6);
+        moreFragments = (flagsFragment & 0x2000) != 0;
+        fragmentOffset = (flagsFragment & 0x1fff) * 8;
+        ttl = data[offset + 8] & 0xff;
+        protocol = data[offset + 9] & 0xff;
+        srcLow = u32(offset + 12) & 0xffffffffL;
+        dstLow = u32(offset + 16) & 0xffffffffL;
+
+        // Non-first fragments carry no transport header
+        if (fragmentOffset == 0) {
+            decodeTransport(offset + ipHeaderLength, ipEnd());
+        }
+        return true;
+    }
+
+    private boolean decodeIpv6(int offset) {
+        if (offset + 40 > length || (data[offset] & 0xff) >>> 4 != 6) {
+            return false;
+        }
+        ipVersion = 6;
+        ipOffset = offset;
+        ipHeaderLength = 40;
+        ipTotalLength = 40 + u16(offset + 4);
+        ttl = data[offset + 7] & 0xff;
+        srcHigh = u64(offset + 8);
+        srcLow = u64(offset + 16);
+        dstHigh = u64(offset + 24);
+        dstLow = u64(offset + 32);
+
+        // Walk extension headers up to the upper-layer protocol
+        int next = data[offset + 6] & 0xff;
+        int position = offset + 40;
+        while (position + 8 <= length) {
+            if (next == 0 || next == 43 || next == 60) {
+                int headerLength = ((data[position + 1] & 0xff) + 1) * 8;
+                next = data[position] & 0xff;
+                position += headerLength;
+            } else if (next == 44) {
+                // Fragment header
+                int fragment = u16(position + 2);
+                fragmentOffset = (fragment & 0xfff8);
+                moreFragments = (fragment & 0x1) != 0;
+                ipId = u32(position + 4);
+                next = data[position] & 0xff;
+                position += 8;
+            } else if (next == 51) {
+                int headerLength = ((data[position + 1] & 0xff) + 2) * 4;
+                next = data[position] & 0xff;
+                position += headerLength;
+            } else {
+                break;
+            }
+        }
+        protocol = next;
+        ipHeaderLength = position - offset;
+        if (fragmentOffset == 0) {
+            decodeTransport(position, ipEnd());
+        }
+        return true;
+    }
+
+    private void decodeTransport(int offset, int end) {
+        transportOffset = offset;
+        switch (protocol) {
+            case PROTO_TCP:
+                if (offset + 20 > end) {
+                    return;
+                }
+                srcPort = u16(offset);
+                dstPort = u16(offset + 2);
+                tcpSequence = u32(offset + 4) & 0xffffffffL;
+                tcpAcknowledgment = u32(offset + 8) & 0xffffffffL;
+                int dataOffset = ((data[offset + 12] & 0xff) >>> 4) * 4;
+                tcpFlags = data[offset + 13] & 0xff;
+                setPayload(offset + Math.max(20, dataOffset), end);
+                break;
+            case PROTO_UDP:
+                if (offset + 8 > end) {
+                    return;
+                }
+                srcPort = u16(offset);
+                dstPort = u16(offset + 2);
+                setPayload(offset + 8, end);
+                break;
+            case PROTO_ICMP:
+            case PROTO_ICMPV6:
+                if (offset + 8 > end) {
+                    return;
+                }
+                icmpType = data[offset] & 0xff;
+                icmpCode = data[offset + 1] & 0xff;
+                setPayload(offset + 8, end);
+                break;
+            default:
+                setPayload(offset, end);
+                return;
+        }
+        transportDecoded = true;
+    }
+
+    private void setPayload(int offset, int end) {
+        payloadOffset = Math.min(offset, end);
+        payloadLength = Math.max(0, end - payloadOffset);
+    }
+
+    /**
+     * End of the IP datagram within the captured bytes (drops Ethernet padding)
+     */
+    private int ipEnd() {
+        int declared = ipOffset + ipTotalLength;
+        return ipTotalLength == 0 || declared > length ? length : declared;
+    }
+
+    private int u16(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private int u32(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) |
+                ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private long u64(int offset) {
+        return ((long) u32(offset) << 32) | (u32(offset + 4) & 0xffffffffL);
+    }
+
+    public byte[] getData() { return data; }
+    public int getLength() { return length; }
+
+    public boolean isIpv4() { return ipVersion == 4; }
+    public boolean isIpv6() { return ipVersion == 6; }
+    public int getVlanId() { return vlanId; }
+    public int getIpOffset() { return ipOffset; }
+    public int getIpHeaderLength() { return ipHeaderLength; }
+    public int getIpTotalLength() { return ipTotalLength; }
+    public int getProtocol() { return protocol; }
+    public int getTtl() { return ttl; }
+    public int getIpId() { return ipId; }
+    public int getFragmentOffset() { return fragmentOffset; }
+    public boolean hasMoreFragments() { return moreFragments; }
+    public boolean isFragment() { return moreFragments || fragmentOffset != 0; }
+
+    /** IPv4 address in the low 32 bits; IPv6 as two 64-bit halves */
+    public long getSourceHigh() { return srcHigh; }
+    public long getSourceLow() { return srcLow; }
+    public long getDestinationHigh() { return dstHigh; }
+    public long getDestinationLow() { return dstLow; }
+    public int getSourceIpv4() { return (int) srcLow; }
+    public int getDestinationIpv4() { return (int) dstLow; }
+
+    /** True if TCP/UDP/ICMP headers were decoded (false for non-first fragments) */
+    public boolean hasTransport() { return transportDecoded; }
+    public int getTransportOffset() { return transportOffset; }
+    public int getSourcePort() { return srcPort; }
+    public int getDestinationPort() { return dstPort; }
+    public long getTcpSequence() { return tcpSequence; }
+    public long getTcpAcknowledgment() { return tcpAcknowledgment; }
+    public int getTcpFlags() { return tcpFlags; }
+    public int getIcmpType() { return icmpType; }
+    public int getIcmpCode() { return icmpCode; }
+    public int getPayloadOffset() { return payloadOffset; }
+    public int getPayloadLength() { return payloadLength; }
+
+    public String formatSourceIp() {
+        return ipVersion == 4 ? IpAddress.formatIpv4((int) srcLow) : IpAddress.formatIpv6(srcHigh, srcLow);
+    }
+
+    public String formatDestinationIp() {
+        return ipVersion == 4 ? IpAddress.formatIpv4((int) dstLow) : IpAddress.formatIpv6(dstHigh, dstLow);
+    }
+}
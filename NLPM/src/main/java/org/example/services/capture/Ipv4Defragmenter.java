@@ -0,0 +1,299 @@
+package org.example.services.capture;
+
+import java.util.Arrays;
+
+/**
+ * IPv4 fragment reassembly for one pipeline worker, or before sharding.
+ * Incomplete datagrams live in a fixed-size open-addressed table; when the
+ * probe window is full the oldest entry is evicted. Payload memory is taken
+ * from the shared global and per-source budgets. Overlaps keep the bytes
+ * received first, as TCP reassembly does; when an overlap carries different
+ * bytes (Teardrop-style evasion) the datagram is still reassembled and
+ * passed on, marked so detection can alert that the receiving host may see
+ * other bytes. Exact duplicates are ignored. Expiry uses packet time.
+ * Not thread-safe: all fragments of a datagram hash to the same worker, or
+ * are reassembled under the pipeline's lock before sharding.
+ */
+public class Ipv4Defragmenter {
+    private static final int MAX_PROBES = 8;
+    private static final int MAX_IP_LENGTH = 65535;
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final FragmentBudget budget;
+    private final Slot[] table;
+    private final int mask;
+    private long lastSweepNanos = 0;
+
+    public Ipv4Defragmenter(FragmentBudget budget) {
+        this.budget = budget;
+        int size = Integer.highestOneBit(Math.max(MAX_PROBES, budget.getTableSize() - 1)) << 1;
+        this.table = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            table[i] = new Slot();
+        }
+    }
+
+    /**
+     * Add a fragment. Returns the reassembled datagram once the last
+     * missing fragment arrives, null while it is incomplete or discarded.
+     * A fragment contradicting the datagram's known end is ignored.
+     * The headers must be decoded from this packet.
+     */
+    public CapturedPacket add(CapturedPacket packet, HeaderDecoder headers) {
+        budget.fragmentsReceived.increment();
+        long now = packet.getTimestampNanos();
+        sweep(now);
+
+        int start = headers.getFragmentOffset();
+        int headerEnd = headers.getIpOffset() + headers.getIpHeaderLength();
+        int length = Math.min(headers.getIpTotalLength(), headers.getLength() - headers.getIpOffset())
+                - headers.getIpHeaderLength();
+        int end = start + length;
+        boolean last = !headers.hasMoreFragments();
+
+        // Non-last fragments must be a multiple of 8 bytes, and nothing may
+        // extend past the maximum IP datagram (ping of death)
+        if (length <= 0 || (!last && (length & 7) != 0) ||
+                end + headers.getIpHeaderLength() > MAX_IP_LENGTH) {
+            budget.invalid.increment();
+            return null;
+        }
+
+        int source = headers.getSourceIpv4();
+        int destination = headers.getDestinationIpv4();
+        Slot slot = lookup(source, destination, headers.getIpId(), headers.getProtocol(), now);
+
+        // The first end seen wins: a last fragment ending elsewhere, or data
+        // past the end, contradicts fragments already received
+        boolean conflict = last ? slot.totalLength >= 0 && slot.totalLength != end || end < slot.highestEnd
+                : slot.totalLength >= 0 && end > slot.totalLength;
+        if (conflict) {
+            slot.conflict = true;
+            budget.overlaps.increment();
+            return null;
+        }
+        if (last) {
+            slot.totalLength = end;
+        }
+
+        if (!slot.ensureCapacity(end)) {
+            release(slot);
+            budget.budgetDrops.increment();
+            return null;
+        }
+        byte[] data = headers.getData();
+        switch (slot.merge(start, end, data, headerEnd)) {
+            case DUPLICATE:
+                budget.duplicates.increment();
+                return null;
+            case CONFLICT:
+                slot.conflict = true;
+                budget.overlaps.increment();
+                break;
+            default:
+                break;
+        }
+        slot.highestEnd = Math.max(slot.highestEnd, end);
+        slot.payloadCaptured &= packet.isPayloadCaptured();
+
+        // Keep link and IP header of the first fragment for the output frame
+        if (start == 0 && slot.header == null) {
+            slot.header = Arrays.copyOfRange(data, 0, headerEnd);
+            slot.ipOffset = headers.getIpOffset();
+        }
+
+        if (slot.totalLength < 0 || slot.receivedBytes != slot.totalLength || slot.header == null) {
+            return null;
+        }
+
+        CapturedPacket datagram = slot.assemble(packet.getLinkType(), now);
+        release(slot);
+        budget.datagramsReassembled.increment();
+        return datagram;
+    }
+
+    private Slot lookup(int source, int destination, int id, int protocol, long now) {
+        int h = ShardKey.mix(((source * 31 + destination) * 31 + id) * 31 + protocol);
+        Slot free = null;
+        Slot oldest = null;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            Slot slot = table[(h + probe) & mask];
+            if (slot.used && now - slot.firstNanos > budget.getTimeoutNanos()) {
+                release(slot);
+                budget.timeouts.increment();
+            }
+            if (!slot.used) {
+                if (free == null) {
+                    free = slot;
+                }
+                continue;
+            }
+            if (slot.matches(source, destination, id, protocol)) {
+                return slot;
+            }
+            if (oldest == null || slot.firstNanos < oldest.firstNanos) {
+                oldest = slot;
+            }
+        }
+
+        if (free == null) {
+            release(oldest);
+            budget.evictions.increment();
+            free = oldest;
+        }
+        free.open(source, destination, id, protocol, now);
+        return free;
+    }
+
+    /**
+     * Expire incomplete datagrams, at most once per second of packet time
+     */
+    private void sweep(long now) {
+        if (now - lastSweepNanos < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        lastSweepNanos = now;
+        for (Slot slot : table) {
+            if (slot.used && now - slot.firstNanos > budget.getTimeoutNanos()) {
+                release(slot);
+                budget.timeouts.increment();
+            }
+        }
+    }
+
+    private void release(Slot slot) {
+        budget.release(slot.source, slot.reserved);
+        slot.clear();
+    }
+
+    private enum Overlap { NONE, DUPLICATE, CONFLICT }
+
+    /**
+     * One datagram being reassembled. Received ranges are tracked in
+     * 8-byte blocks, the unit of the fragment offset field.
+     */
+    private class Slot {
+        private final long[] blocks = new long[(MAX_IP_LENGTH + 7) / 8 / 64 + 1];
+        private boolean used;
+        private int source, destination, id, protocol;
+        private long firstNanos;
+        private byte[] header;
+        private int ipOffset;
+        private byte[] payload;
+        private int reserved;
+        private int receivedBytes;
+        private int highestEnd;
+        private int totalLength;
+        private boolean payloadCaptured;
+        private boolean conflict;
+
+        void open(int source, int destination, int id, int protocol, long now) {
+            this.used = true;
+            this.source = source;
+            this.destination = destination;
+            this.id = id;
+            this.protocol = protocol;
+            this.firstNanos = now;
+            this.totalLength = -1;
+            this.payloadCaptured = true;
+        }
+
+        boolean matches(int source, int destination, int id, int protocol) {
+            return this.id == id && this.source == source && this.destination == destination &&
+                    this.protocol == protocol;
+        }
+
+        /**
+         * Copy the blocks of a fragment not received yet; blocks received
+         * before keep their bytes. DUPLICATE if nothing was new, CONFLICT if
+         * a byte differs from the one received first.
+         */
+        Overlap merge(int start, int end, byte[] data, int offset) {
+            boolean added = false;
+            boolean differs = false;
+            for (int block = start >>> 3; block <= (end - 1) >>> 3; block++) {
+                int from = Math.max(start, block << 3);
+                int to = Math.min(end, (block + 1) << 3);
+                int source = offset + from - start;
+                if ((blocks[block >>> 6] & (1L << block)) == 0) {
+                    System.arraycopy(data, source, payload, from, to - from);
+                    blocks[block >>> 6] |= 1L << block;
+                    receivedBytes += to - from;
+                    added = true;
+                } else {
+                    // Only the last block of the datagram can be partly received
+                    int seen = Math.min(to, highestEnd);
+                    differs |= from < seen && !Arrays.equals(payload, from, seen, data, source, source + seen - from);
+                }
+            }
+            return differs ? Overlap.CONFLICT : added ? Overlap.NONE : Overlap.DUPLICATE;
+        }
+
+        /**
+         * Grow the payload buffer, taking the growth from the budgets
+         */
+        boolean ensureCapacity(int end) {
+            if (payload != null && payload.length >= end) {
+                return true;
+            }
+            int capacity = Math.min(MAX_IP_LENGTH, Math.max(end, payload == null ? 1500 : payload.length * 2));
+            if (!budget.tryReserve(source, capacity - reserved)) {
+                return false;
+            }
+            reserved = capacity;
+            payload = payload == null ? new byte[capacity] : Arrays.copyOf(payload, capacity);
+            return true;
+        }
+
+        /**
+         * Build one unfragmented frame: first fragment's link and IP header
+         * with fragment fields cleared, followed by the whole payload
+         */
+        CapturedPacket assemble(int linkType, long now) {
+            byte[] frame = Arrays.copyOf(header, header.length + totalLength);
+            System.arraycopy(payload, 0, frame, header.length, totalLength);
+
+            int ipHeaderLength = header.length - ipOffset;
+            int ipLength = ipHeaderLength + totalLength;
+            frame[ipOffset + 2] = (byte) (ipLength >>> 8);
+            frame[ipOffset + 3] = (byte) ipLength;
+            frame[ipOffset + 6] = 0;
+            frame[ipOffset + 7] = 0;
+            frame[ipOffset + 10] = 0;
+            frame[ipOffset + 11] = 0;
+            int checksum = checksum(frame, ipOffset, ipHeaderLength);
+            frame[ipOffset + 10] = (byte) (checksum >>> 8);
+            frame[ipOffset + 11] = (byte) checksum;
+
+            CapturedPacket datagram = new CapturedPacket(frame, frame.length, linkType, now, payloadCaptured);
+            datagram.setConflictingFragments(conflict);
+            return datagram;
+        }
+
+        void clear() {
+            if (used) {
+                Arrays.fill(blocks, 0);
+            }
+            used = false;
+            header = null;
+            payload = null;
+            reserved = 0;
+            receivedBytes = 0;
+            highestEnd = 0;
+            totalLength = -1;
+            conflict = false;
+        }
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length - 1; i += 2) {
+            sum += ((data[offset + i] & 0xff) << 8) | (data[offset + i + 1] & 0xff);
+        }
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return ~sum & 0xffff;
+    }
+}
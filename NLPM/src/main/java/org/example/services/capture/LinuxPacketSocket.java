@@ -0,0 +1,267 @@
+package org.example.services.capture;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * AF_PACKET socket with a TPACKET_V3 receive ring mapped into the process.
+ * The kernel fills whole blocks of frames; the capture thread hands a
+ * block back by clearing its status word. Only the calls setting the
+ * socket up and poll() cross into native code, the frames themselves are
+ * read through a direct ByteBuffer over the ring.
+ * Struct layouts are those of 64-bit Linux.
+ */
+class LinuxPacketSocket {
+    private static final int AF_PACKET = 17;
+    private static final int SOCK_RAW = 3;
+    private static final int ETH_P_ALL = 0x0003;
+    private static final int SOL_SOCKET = 1;
+    private static final int SO_ATTACH_FILTER = 26;
+    private static final int SO_DETACH_FILTER = 27;
+    private static final int SOL_PACKET = 263;
+    private static final int PACKET_ADD_MEMBERSHIP = 1;
+    private static final int PACKET_RX_RING = 5;
+    private static final int PACKET_STATISTICS = 6;
+    private static final int PACKET_VERSION = 10;
+    private static final int PACKET_FANOUT = 18;
+    private static final int PACKET_MR_PROMISC = 1;
+    private static final int TPACKET_V3 = 2;
+    private static final int PROT_READ_WRITE = 0x3;
+    private static final int MAP_SHARED = 0x1;
+    private static final int POLLIN = 0x1;
+    private static final int POLLERR = 0x8;
+
+    // tpacket_block_desc / tpacket_hdr_v1 offsets
+    static final int BLOCK_STATUS = 8;
+    static final int BLOCK_NUM_PACKETS = 12;
+    static final int BLOCK_FIRST_PACKET = 16;
+    static final int TP_STATUS_KERNEL = 0;
+    static final int TP_STATUS_USER = 1;
+
+    // tpacket3_hdr offsets
+    static final int FRAME_NEXT_OFFSET = 0;
+    static final int FRAME_SEC = 4;
+    static final int FRAME_NSEC = 8;
+    static final int FRAME_SNAPLEN = 12;
+    static final int FRAME_LEN = 16;
+    static final int FRAME_STATUS = 20;
+    static final int FRAME_MAC = 24;
+    static final int FRAME_VLAN_TCI = 32;
+    static final int FRAME_VLAN_TPID = 36;
+    static final int TP_STATUS_VLAN_VALID = 0x10;
+    static final int TP_STATUS_VLAN_TPID_VALID = 0x40;
+
+    /**
+     * The libc calls used; errors surface as LastErrorException with errno
+     */
+    interface LibC extends Library {
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        int socket(int domain, int type, int protocol) throws LastErrorException;
+        int setsockopt(int fd, int level, int name, Pointer value, int length) throws LastErrorException;
+        int getsockopt(int fd, int level, int name, Pointer value, IntByReference length) throws LastErrorException;
+        int bind(int fd, Pointer address, int length) throws LastErrorException;
+        Pointer mmap(Pointer address, long length, int protection, int flags, int fd, long offset)
+                throws LastErrorException;
+        int munmap(Pointer address, long length) throws LastErrorException;
+        int poll(Pointer fds, int count, int timeoutMs) throws LastErrorException;
+        int close(int fd) throws LastErrorException;
+        int if_nametoindex(String name);
+    }
+
+    /**
+     * libpcap's compiler, to turn a filter expression into classic BPF
+     * that the socket runs in the kernel
+     */
+    interface LibPcap extends Library {
+        LibPcap INSTANCE = Native.load(System.getProperty("os.name").startsWith("Windows") ? "wpcap" : "pcap",
+                LibPcap.class);
+
+        int pcap_compile_nopcap(int snapLength, int linkType, Pointer program, String expression,
+                                int optimize, int netmask);
+        void pcap_freecode(Pointer program);
+    }
+
+    private final int blockSize;
+    private final int blockCount;
+    private int fd = -1;
+    private int linkType;
+    private Pointer ring;
+    private ByteBuffer buffer;
+    private final Memory pollFd = new Memory(8);
+
+    // PACKET_STATISTICS resets on every read, so totals are kept here
+    private long kernelPackets = 0;
+    private long kernelDrops = 0;
+
+    LinuxPacketSocket(int blockSize, int blockCount) {
+        this.blockSize = blockSize;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Create the socket and its ring, bound to one interface. As libpcap
+     * does, the socket is created with protocol 0, which receives nothing,
+     * and only starts receiving when bound with ETH_P_ALL: created with
+     * ETH_P_ALL it would queue packets from every interface, unfiltered,
+     * before the filter and the bind were in place. Filters are compiled
+     * for linkType, the DLT of the frames the interface delivers.
+     */
+    void open(int ifIndex, int linkType, int frameSize, int blockTimeoutMs, boolean promiscuous, String filter) {
+        LibC libc = LibC.INSTANCE;
+        this.linkType = linkType;
+        fd = libc.socket(AF_PACKET, SOCK_RAW, 0);
+
+        setIntOption(SOL_PACKET, PACKET_VERSION, TPACKET_V3);
+
+        Memory request = new Memory(28); // tpacket_req3
+        request.setInt(0, blockSize);
+        request.setInt(4, blockCount);
+        request.setInt(8, frameSize);
+        request.setInt(12, (int) ((long) blockSize * blockCount / frameSize));
+        request.setInt(16, blockTimeoutMs);
+        request.setInt(20, 0); // tp_sizeof_priv
+        request.setInt(24, 0); // tp_feature_req_word
+        libc.setsockopt(fd, SOL_PACKET, PACKET_RX_RING, request, 28);
+
+        long ringSize = (long) blockSize * blockCount;
+        ring = libc.mmap(null, ringSize, PROT_READ_WRITE, MAP_SHARED, fd, 0);
+        buffer = ring.getByteBuffer(0, ringSize).order(ByteOrder.nativeOrder());
+
+        setFilter(filter);
+
+        int protocol = Short.toUnsignedInt(Short.reverseBytes((short) ETH_P_ALL)); // htons
+        Memory address = new Memory(20); // sockaddr_ll
+        address.clear();
+        address.setShort(0, (short) AF_PACKET);
+        address.setShort(2, (short) protocol);
+        address.setInt(4, ifIndex);
+        libc.bind(fd, address, 20);
+
+        if (promiscuous) {
+            Memory membership = new Memory(16); // packet_mreq
+            membership.clear();
+            membership.setInt(0, ifIndex);
+            membership.setShort(4, (short) PACKET_MR_PROMISC);
+            libc.setsockopt(fd, SOL_PACKET, PACKET_ADD_MEMBERSHIP, membership, 16);
+        }
+
+        pollFd.setInt(0, fd);
+    }
+
+    /**
+     * Spread packets over every socket joined to the group id
+     * (mode: PACKET_FANOUT_HASH 0, LB 1, CPU 2)
+     */
+    void joinFanout(int groupId, int mode) {
+        setIntOption(SOL_PACKET, PACKET_FANOUT, (groupId & 0xffff) | (mode << 16));
+    }
+
+    /**
+     * Compile the expression with libpcap and attach it to the socket
+     * (empty = accept everything)
+     */
+    void setFilter(String filter) {
+        if (filter == null || filter.isBlank()) {
+            try {
+                setIntOption(SOL_SOCKET, SO_DETACH_FILTER, 0);
+            } catch (LastErrorException ignored) {
+                // No filter attached
+            }
+            return;
+        }
+        String expression = filter;
+        Memory program = new Memory(16); // struct bpf_program
+        program.clear();
+        if (LibPcap.INSTANCE.pcap_compile_nopcap(65535, linkType, program, expression, 1, -1) != 0) {
+            throw new IllegalArgumentException("Invalid capture filter '" + expression + "'");
+        }
+        try {
+            Memory fprog = new Memory(16); // struct sock_fprog, same layout
+            fprog.clear();
+            fprog.setShort(0, (short) program.getInt(0));
+            fprog.setPointer(8, program.getPointer(8));
+            LibC.INSTANCE.setsockopt(fd, SOL_SOCKET, SO_ATTACH_FILTER, fprog, 16);
+        } finally {
+            LibPcap.INSTANCE.pcap_freecode(program);
+        }
+    }
+
+    /**
+     * Wait up to timeoutMs for the kernel to hand over a block
+     */
+    void await(int timeoutMs) {
+        pollFd.setShort(4, (short) (POLLIN | POLLERR));
+        pollFd.setShort(6, (short) 0);
+        LibC.INSTANCE.poll(pollFd, 1, timeoutMs);
+    }
+
+    synchronized void readStatistics() {
+        if (fd < 0) {
+            return;
+        }
+        Memory stats = new Memory(12); // tpacket_stats_v3
+        IntByReference length = new IntByReference(12);
+        try {
+            LibC.INSTANCE.getsockopt(fd, SOL_PACKET, PACKET_STATISTICS, stats, length);
+            kernelPackets += Integer.toUnsignedLong(stats.getInt(0));
+            kernelDrops += Integer.toUnsignedLong(stats.getInt(4));
+        } catch (LastErrorException ignored) {
+        }
+    }
+
+    synchronized void close() {
+        close(true);
+    }
+
+    /**
+     * Close the socket, unmapping the ring only if unmap is set: a thread
+     * still reading the ring would crash the JVM on the unmapped memory,
+     * so its mapping is left in place (the kernel keeps it valid after
+     * the socket is closed)
+     */
+    synchronized void close(boolean unmap) {
+        if (fd < 0) {
+            return;
+        }
+        readStatistics();
+        if (ring != null && unmap) {
+            LibC.INSTANCE.munmap(ring, (long) blockSize * blockCount);
+        }
+        ring = null;
+        buffer = null;
+        LibC.INSTANCE.close(fd);
+        fd = -1;
+    }
+
+    private void setIntOption(int level, int name, int value) {
+        Memory option = new Memory(4);
+        option.setInt(0, value);
+        LibC.INSTANCE.setsockopt(fd, level, name, option, 4);
+    }
+
+    static int interfaceIndex(String name) {
+        return LibC.INSTANCE.if_nametoindex(name);
+    }
+
+    ByteBuffer getRing() { return buffer; }
+    int getBlockSize() { return blockSize; }
+    int getBlockCount() { return blockCount; }
+
+    /**
+     * Packets the kernel passed to the socket (including drops)
+     */
+    synchronized long getKernelPackets() { return kernelPackets; }
+
+    /**
+     * Packets dropped because the ring was full
+     */
+    synchronized long getKernelDrops() { return kernelDrops; }
+}
@@ -0,0 +1,309 @@
+package org.example.services.capture;
+
+import org.example.models.InterfaceStatistics;
+import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.PcapNetworkInterface;
+import org.pcap4j.core.PcapStat;
+import org.pcap4j.core.Pcaps;
+import org.pcap4j.core.RawPacketListener;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * libpcap capture loop for one network interface, running on its own thread
+ * and feeding the shared packet pipeline.
+ * The adaptive profile opens two handles on the interface: a full-length
+ * one filtered to the payload ports and a header-only one for the rest,
+ * so the kernel never copies payloads no rule will look at. The payload
+ * ports follow the rules: a reload swaps the filters of both handles.
+ */
+public class LiveCaptureSource implements CaptureSource {
+    private final String interfaceName;
+    private final PacketPipeline pipeline;
+    private final CaptureProfile profile;
+    private final List<Tap> taps = new ArrayList<>();
+    private List<String> payloadPorts = List.of();
+    private String filter = "";
+    private volatile boolean running;
+
+    public LiveCaptureSource(String interfaceName, PacketPipeline pipeline, CaptureProfile profile) {
+        this.interfaceName = interfaceName;
+        this.pipeline = pipeline;
+        this.profile = profile;
+    }
+
+    /**
+     * Open the interface and install the capture filter (empty = none)
+     */
+    @Override
+    public boolean open(String filter) {
+        int headerSnapLength = CaptureConfig.getInstance().getHeaderSnapLength();
+        this.filter = filter;
+
+        switch (profile) {
+            case HEADER_ONLY:
+                taps.add(new Tap(headerSnapLength, false, ""));
+                break;
+            case ADAPTIVE:
+                if (payloadPorts.isEmpty()) {
+                    taps.add(new Tap(headerSnapLength, false, ""));
+                    break;
+                }
+                String ports = new BpfFilterBuilder().ports(payloadPorts).build();
+                taps.add(new Tap(CaptureProfile.FULL_SNAPLEN, true, ports));
+                taps.add(new Tap(headerSnapLength, false, "not " + ports));
+                break;
+            default:
+                taps.add(new Tap(CaptureProfile.FULL_SNAPLEN, true, ""));
+                break;
+        }
+
+        try {
+            PcapNetworkInterface nif = Pcaps.getDevByName(interfaceName);
+            if (nif == null) {
+                System.err.println("Network interface not found: " + interfaceName);
+                return false;
+            }
+
+            for (Tap tap : taps) {
+                tap.open(nif, filter);
+            }
+            System.out.println("Capture profile on " + interfaceName + ": " + profile.getDisplayName());
+            return true;
+        } catch (PcapNativeException | NotOpenException e) {
+            System.err.println("Failed to open " + interfaceName + ": " + e.getMessage());
+            for (Tap tap : taps) {
+                tap.close();
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < taps.size(); i++) {
+            Tap tap = taps.get(i);
+            tap.thread = new Thread(tap::capturePackets,
+                    "capture-" + interfaceName + (taps.size() > 1 ? "-" + i : ""));
+            tap.thread.setDaemon(true);
+            tap.thread.start();
+        }
+    }
+
+    /**
+     * Stop the loops, wait for the capture threads and close the handles
+     */
+    @Override
+    public void stop() {
+        running = false;
+        for (Tap tap : taps) {
+            tap.stop();
+        }
+    }
+
+    /**
+     * Swap the BPF filter on the running handles
+     */
+    @Override
+    public boolean setFilter(String filter) {
+        this.filter = filter;
+        boolean applied = true;
+        for (Tap tap : taps) {
+            try {
+                tap.handle.setFilter(tap.filterFor(filter), BpfProgram.BpfCompileMode.OPTIMIZE);
+            } catch (PcapNativeException | NotOpenException e) {
+                System.err.println("Failed to apply capture filter on " + interfaceName + ": " + e.getMessage());
+                applied = false;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Swap the port filters of the adaptive handles. The payload handle
+     * is widened before the header handle is narrowed, so a packet in
+     * between is seen twice rather than not at all.
+     */
+    @Override
+    public boolean setPayloadPorts(List<String> ports) {
+        payloadPorts = List.copyOf(ports);
+        if (profile != CaptureProfile.ADAPTIVE || taps.isEmpty()) {
+            return true;
+        }
+        if (taps.size() < 2 || ports.isEmpty()) {
+            // One handle or two: changed by opening the interface again
+            System.out.println("Payload ports of " + interfaceName + " apply when its capture restarts");
+            return false;
+        }
+        String expression = new BpfFilterBuilder().ports(ports).build();
+        taps.get(0).profileFilter = expression;
+        taps.get(1).profileFilter = "not " + expression;
+        return setFilter(filter);
+    }
+
+    @Override
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    @Override
+    public CaptureProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public DataLinkType getDataLinkType() {
+        for (Tap tap : taps) {
+            if (tap.handle != null) {
+                return tap.handle.getDlt();
+            }
+        }
+        return DataLinkType.EN10MB;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public InterfaceStatistics getStatistics() {
+        long captured = 0, bytes = 0, dropped = 0, received = 0, kernelDropped = 0, ifDropped = 0;
+        for (Tap tap : taps) {
+            captured += tap.packetsCaptured;
+            bytes += tap.bytesCaptured;
+            dropped += tap.packetsDropped;
+            PcapStat kernel = running ? tap.readKernelStats() : tap.lastKernelStats;
+            if (kernel != null) {
+                received += kernel.getNumPacketsReceived();
+                kernelDropped += kernel.getNumPacketsDropped();
+                ifDropped += kernel.getNumPacketsDroppedByIf();
+            }
+        }
+        return new InterfaceStatistics(interfaceName, captured, bytes, dropped,
+                received, kernelDropped, ifDropped);
+    }
+
+    /**
+     * One pcap handle with its own snapshot length and capture thread
+     */
+    private class Tap {
+        private final int snapLength;
+        private final boolean payloadCaptured;
+        private String profileFilter;
+        private PcapHandle handle;
+        private Thread thread;
+
+        // Written only by the capture thread
+        private volatile long packetsCaptured = 0;
+        private volatile long bytesCaptured = 0;
+        private volatile long packetsDropped = 0;
+
+        // libpcap counters saved when the handle is closed
+        private PcapStat lastKernelStats;
+
+        Tap(int snapLength, boolean payloadCaptured, String profileFilter) {
+            this.snapLength = snapLength;
+            this.payloadCaptured = payloadCaptured;
+            this.profileFilter = profileFilter;
+        }
+
+        void open(PcapNetworkInterface nif, String filter) throws PcapNativeException, NotOpenException {
+            PcapNetworkInterface.PromiscuousMode mode =
+                    PcapNetworkInterface.PromiscuousMode.PROMISCUOUS;
+            int timeout = 10; // 10ms timeout
+
+            handle = nif.openLive(snapLength, mode, timeout);
+
+            // Discard unwanted traffic in the kernel before it is copied to us
+            String expression = filterFor(filter);
+            if (!expression.isEmpty()) {
+                handle.setFilter(expression, BpfProgram.BpfCompileMode.OPTIMIZE);
+                System.out.println("Capture filter on " + interfaceName + " (snaplen " + snapLength + "): " +
+                        expression);
+            }
+        }
+
+        String filterFor(String filter) {
+            String expression = BpfFilterBuilder.and(filter, profileFilter);
+            return BpfFilterBuilder.withVlanTags(expression, handle.getDlt().value());
+        }
+
+        /**
+         * Main packet capture loop - only hands packets to the pipeline
+         */
+        void capturePackets() {
+            int linkType = handle.getDlt().value();
+            RawPacketListener listener = data -> {
+                int originalLength = CapturedPacket.originalLength(handle.getOriginalLength(), data);
+                long timestampNanos = CapturedPacket.toEpochNanos(handle.getTimestamp());
+                packetsCaptured++;
+                bytesCaptured += originalLength;
+                CapturedPacket packet = new CapturedPacket(data, originalLength, linkType, timestampNanos,
+                        payloadCaptured);
+                packet.setInterfaceName(interfaceName);
+                if (!pipeline.offer(packet)) {
+                    packetsDropped++;
+                }
+            };
+
+            try {
+                while (running) {
+                    handle.loop(100, listener);
+                }
+            } catch (InterruptedException e) {
+                // breakLoop() or thread interrupted → clean stop
+                Thread.currentThread().interrupt();
+            } catch (NotOpenException | PcapNativeException e) {
+                if (running) {
+                    System.err.println("Packet capture error on " + interfaceName + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void stop() {
+            if (handle == null || !handle.isOpen()) {
+                return;
+            }
+
+            lastKernelStats = readKernelStats();
+            try {
+                handle.breakLoop();
+            } catch (NotOpenException ignored) {
+            }
+            if (thread != null) {
+                try {
+                    thread.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handle.close();
+        }
+
+        void close() {
+            if (handle != null && handle.isOpen()) {
+                handle.close();
+            }
+        }
+
+        PcapStat readKernelStats() {
+            PcapHandle current = handle;
+            if (current == null || !current.isOpen()) {
+                return null;
+            }
+            try {
+                return current.getStats();
+            } catch (PcapNativeException | NotOpenException e) {
+                return null;
+            }
+        }
+    }
+}
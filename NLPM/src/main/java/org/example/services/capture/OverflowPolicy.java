@@ -0,0 +1,15 @@
+package org.example.services.capture;
+
+/**
+ * What a hand-off queue does when a producer outruns its consumer
+ */
+public enum OverflowPolicy {
+    /** Producer waits for space (nothing is lost, capture may fall behind) */
+    BLOCK,
+    /** Incoming item is discarded */
+    DROP_NEWEST,
+    /** Oldest queued item is discarded to make room */
+    DROP_OLDEST,
+    /** Above half full only 1 in N items is accepted; full queue drops */
+    SAMPLE
+}
@@ -0,0 +1,14 @@
+package org.example.services.capture;
+
+/**
+ * Work done by a pipeline worker for each packet
+ */
+public interface PacketHandler {
+
+    /**
+     * @param packet  the captured frame
+     * @param headers worker-owned decoder already positioned on this frame;
+     *                only valid for the duration of the call
+     */
+    void handle(CapturedPacket packet, HeaderDecoder headers);
+}
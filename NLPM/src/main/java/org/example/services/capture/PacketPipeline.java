@@ -0,0 +1,392 @@
+package org.example.services.capture;
+
+import org.example.models.StageStatistics;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Multi-core packet processing pipeline.
+ * The capture thread only hashes each packet to a worker and drops it into
+ * that worker's bounded queue; the workers run processing and detection.
+ * Sharding by source IP keeps all per-IP detection state on one worker.
+ * Sharding by five-tuple needs ports, which only the first fragment of an
+ * IPv4 datagram has: fragments are then reassembled before sharding, so a
+ * datagram reaches the worker holding the rest of its flow.
+ */
+public class PacketPipeline {
+    public static final String STAGE_NAME = "Pipeline";
+
+    private static final int SPIN_TRIES = 200;
+    private static final long IDLE_PARK_NANOS = 100_000; // 100us
+
+    private final Worker[] workers;
+    private final ShardKey shardKey;
+    private final OverflowPolicy overflowPolicy;
+    private final PacketHandler handler;
+    private SamplingController sampler; // null = never sample
+    private volatile Consumer<CapturedPacket> recorder; // null = not recorded
+    private FragmentBudget fragmentBudget; // null = fragments pass through
+    private Ipv4Defragmenter shardDefragmenter; // null = fragments reassembled by the workers
+    private DuplicateFilter duplicateFilter; // null = duplicates pass through
+    private volatile boolean running;
+
+    // Each capture thread decodes headers for sharding with its own flyweight
+    private final ThreadLocal<HeaderDecoder> producerDecoder = ThreadLocal.withInitial(HeaderDecoder::new);
+
+    public PacketPipeline(int workerCount, int ringSize, ShardKey shardKey,
+                          OverflowPolicy overflowPolicy, int sampleRate, PacketHandler handler) {
+        this.shardKey = shardKey;
+        this.overflowPolicy = overflowPolicy;
+        this.handler = handler;
+        this.workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, new HandoffQueue<>(STAGE_NAME + "-" + i, ringSize,
+                    overflowPolicy, sampleRate));
+        }
+    }
+
+    /**
+     * Build a pipeline from capture.properties
+     */
+    public static PacketPipeline fromConfig(PacketHandler handler) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        PacketPipeline pipeline = new PacketPipeline(config.getWorkerCount(), config.getRingSize(),
+                config.getShardKey(),
+                config.getEnum("pipeline.overflow-policy", OverflowPolicy.class, OverflowPolicy.DROP_NEWEST),
+                config.getInt("pipeline.sample-rate", 10), handler);
+        pipeline.sampler = SamplingController.fromConfig(pipeline);
+        pipeline.fragmentBudget = FragmentBudget.fromConfig();
+        if (pipeline.fragmentBudget != null && pipeline.shardKey == ShardKey.FIVE_TUPLE) {
+            pipeline.shardDefragmenter = new Ipv4Defragmenter(pipeline.fragmentBudget);
+        }
+        pipeline.duplicateFilter = DuplicateFilter.fromConfig();
+        return pipeline;
+    }
+
+    public void start() {
+        running = true;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        if (sampler != null) {
+            sampler.start();
+        }
+        System.out.println("Packet pipeline started: " + workers.length + " workers, " +
+                workers[0].queue.capacity() + " slots per ring, sharded by " + shardKey +
+                ", overflow policy " + overflowPolicy);
+    }
+
+    /**
+     * Hand a packet to its worker according to the overflow policy.
+     * Under overload some packets are skipped by the sampling controller.
+     * Returns false if the packet was dropped.
+     */
+    public boolean offer(CapturedPacket packet) {
+        Consumer<CapturedPacket> recorder = this.recorder;
+        if (recorder != null) {
+            recorder.accept(packet); // before sampling: evidence keeps every packet
+        }
+        HeaderDecoder headers = producerDecoder.get();
+        boolean decoded = headers.decode(packet.getData(), packet.getCapturedLength(), packet.getLinkType());
+        if (isHeldForSharding(packet, headers, decoded)) {
+            packet = reassembleHeld(packet, headers);
+            if (packet == null) {
+                return true; // held until its datagram is complete
+            }
+        }
+        if (sampler != null) {
+            int weight = sampler.sample(headers, decoded);
+            if (weight == 0) {
+                packet.processed();
+                return true; // deliberately skipped, accounted by the sampler
+            }
+            packet.setSampleWeight(weight);
+        }
+        return workerFor(headers, decoded).queue.offer(packet);
+    }
+
+    /**
+     * Hand a packet to its worker, waiting for ring space instead of dropping.
+     * Never sampled: offline input can simply be read more slowly.
+     * Returns false if keepWaiting turned false before the packet was queued.
+     */
+    public boolean put(CapturedPacket packet, BooleanSupplier keepWaiting) {
+        HeaderDecoder headers = producerDecoder.get();
+        boolean decoded = headers.decode(packet.getData(), packet.getCapturedLength(), packet.getLinkType());
+        if (isHeldForSharding(packet, headers, decoded)) {
+            packet = reassembleHeld(packet, headers);
+            if (packet == null) {
+                return true; // held until its datagram is complete
+            }
+        }
+        return workerFor(headers, decoded).queue.put(packet, keepWaiting);
+    }
+
+    /**
+     * Reassemble a fragment taken by offer() or put(); a datagram completed
+     * takes over the callback of the fragment that completed it
+     */
+    private CapturedPacket reassembleHeld(CapturedPacket fragment, HeaderDecoder headers) {
+        CapturedPacket datagram = reassemble(fragment, headers);
+        if (datagram == null) {
+            fragment.processed();
+        } else {
+            datagram.setOnProcessed(fragment.getOnProcessed());
+        }
+        return datagram;
+    }
+
+    /**
+     * True for an IPv4 fragment that has to be reassembled before it can be
+     * sharded; callers sharding with workerIndex() pass it to reassemble()
+     * in capture order instead
+     */
+    public boolean isHeldForSharding(CapturedPacket packet, HeaderDecoder headers, boolean decoded) {
+        return shardDefragmenter != null && decoded && headers.isIpv4() && headers.isFragment() &&
+                packet.getCapturedLength() >= packet.getLength();
+    }
+
+    /**
+     * Add a fragment held for sharding. Returns the reassembled datagram,
+     * with the headers decoded from it, or null while it is incomplete.
+     * Capture threads share the defragmenter, hence the lock; fragments
+     * are rare enough for it not to matter.
+     */
+    public CapturedPacket reassemble(CapturedPacket fragment, HeaderDecoder headers) {
+        CapturedPacket datagram;
+        synchronized (shardDefragmenter) {
+            datagram = shardDefragmenter.add(fragment, headers);
+        }
+        if (datagram != null) {
+            headers.decode(datagram.getData(), datagram.getCapturedLength(), datagram.getLinkType());
+        }
+        return datagram;
+    }
+
+    /**
+     * Hand a packet to a worker picked by the caller with workerIndex(),
+     * waiting for ring space. Lets bulk ingest decode and shard in parallel
+     * while keeping one producer, and so file order, per worker.
+     */
+    public boolean put(CapturedPacket packet, int worker, BooleanSupplier keepWaiting) {
+        return workers[worker].queue.put(packet, keepWaiting);
+    }
+
+    /**
+     * Worker a decoded packet is sharded to
+     */
+    public int workerIndex(HeaderDecoder headers, boolean decoded) {
+        int hash = decoded ? shardKey.hash(headers) : 0;
+        return Math.floorMod(hash, workers.length);
+    }
+
+    private Worker workerFor(HeaderDecoder headers, boolean decoded) {
+        return workers[workerIndex(headers, decoded)];
+    }
+
+    /**
+     * Stop accepting work, let workers drain their rings and wait for them
+     */
+    public void stop() {
+        running = false;
+        if (sampler != null) {
+            sampler.stop();
+        }
+        for (Worker worker : workers) {
+            worker.queue.close();
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public long getPacketsProcessed() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.packetsProcessed;
+        }
+        return total;
+    }
+
+    public long getBytesProcessed() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.bytesProcessed;
+        }
+        return total;
+    }
+
+    public long getDroppedPackets() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.queue.getDropped();
+        }
+        return total;
+    }
+
+    /**
+     * Packets currently waiting in all rings
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    public int getQueueCapacity() {
+        return workers.length * workers[0].queue.capacity();
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Also hand every live packet to the recorder (evidence ring)
+     */
+    public void setRecorder(Consumer<CapturedPacket> recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Overload sampling controller, null if sampling is disabled
+     */
+    public SamplingController getSampler() {
+        return sampler;
+    }
+
+    /**
+     * Duplicate suppression counters, null if suppression is disabled
+     */
+    public DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * IPv4 defragmentation counters, null if defragmentation is disabled
+     */
+    public FragmentBudget getFragmentBudget() {
+        return fragmentBudget;
+    }
+
+    /**
+     * Packets processed scaled by their sample weight
+     */
+    public long getEstimatedPackets() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.estimatedPackets;
+        }
+        return total;
+    }
+
+    public long getEstimatedBytes() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.estimatedBytes;
+        }
+        return total;
+    }
+
+    /**
+     * Counters of all worker queues combined into one stage
+     */
+    public StageStatistics getStageStatistics() {
+        long offered = 0, accepted = 0, dropped = 0;
+        for (Worker worker : workers) {
+            offered += worker.queue.getOffered();
+            accepted += worker.queue.getAccepted();
+            dropped += worker.queue.getDropped();
+        }
+        return new StageStatistics(STAGE_NAME, overflowPolicy.name(), getQueueDepth(),
+                getQueueCapacity(), offered, accepted, dropped);
+    }
+
+    /**
+     * Worker thread consuming one queue. Counters are written only by the
+     * owning thread and summed by readers.
+     */
+    private class Worker implements Runnable {
+        private final HandoffQueue<CapturedPacket> queue;
+        private final HeaderDecoder decoder = new HeaderDecoder();
+        private final Thread thread;
+        private volatile long packetsProcessed;
+        private volatile long bytesProcessed;
+        private volatile long estimatedPackets;
+        private volatile long estimatedBytes;
+
+        Worker(int index, HandoffQueue<CapturedPacket> queue) {
+            this.queue = queue;
+            this.thread = new Thread(this, "packet-worker-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // Fragments of one datagram always hash to the same worker, unless
+            // they were reassembled before sharding
+            Ipv4Defragmenter defragmenter = fragmentBudget != null && shardDefragmenter == null ?
+                    new Ipv4Defragmenter(fragmentBudget) : null;
+            // So do both mirror copies of a frame
+            DuplicateWindow duplicates = duplicateFilter != null ? new DuplicateWindow(duplicateFilter) : null;
+            int idle = 0;
+            while (true) {
+                CapturedPacket packet = queue.poll();
+                if (packet == null) {
+                    if (!running) {
+                        return;
+                    }
+                    if (++idle < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    continue;
+                }
+
+                idle = 0;
+                try {
+                    decoder.decode(packet.getData(), packet.getCapturedLength(), packet.getLinkType());
+                    if (duplicates != null && duplicates.isDuplicate(packet, decoder)) {
+                        continue; // mirrored copy, neither processed nor counted
+                    }
+
+                    // Hold IPv4 fragments back until the whole datagram is there
+                    // (truncated captures cannot be reassembled and pass through)
+                    CapturedPacket datagram = packet;
+                    if (defragmenter != null && decoder.isIpv4() && decoder.isFragment() &&
+                            packet.getCapturedLength() >= packet.getLength()) {
+                        datagram = defragmenter.add(packet, decoder);
+                        if (datagram != null) {
+                            datagram.setSampleWeight(packet.getSampleWeight());
+                            decoder.decode(datagram.getData(), datagram.getCapturedLength(),
+                                    datagram.getLinkType());
+                        }
+                    }
+
+                    if (datagram != null) {
+                        handler.handle(datagram, decoder);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error processing packet: " + e.getMessage());
+                } finally {
+                    packet.processed();
+                }
+                packetsProcessed++;
+                bytesProcessed += packet.getLength();
+                estimatedPackets += packet.getSampleWeight();
+                estimatedBytes += (long) packet.getLength() * packet.getSampleWeight();
+            }
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package org.example.services.capture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel ingest of a large classic pcap file for incident response.
+ * The file is split into chunks at record boundaries, found by resyncing
+ * on plausible record headers near each nominal split offset. Chunks are
+ * memory-mapped, parsed and decoded in parallel on a ForkJoinPool, and each
+ * packet is tagged with the pipeline worker it shards to.
+ * Ordering: one feeder thread per worker queues that worker's packets chunk
+ * by chunk, so every worker sees its packets (all packets of a source IP
+ * with the default sharding) in file order, as the time-window detectors
+ * and stream reassembly expect. Packets of different workers may be
+ * processed in any relative order. IPv4 fragments that the pipeline
+ * reassembles before sharding are collected per chunk and reassembled in
+ * file order; each datagram is queued where its last fragment was read.
+ * Every chunk must end exactly where the next one starts. A resynced
+ * boundary that was not a record start is caught there, and the chunk
+ * after it is parsed again sequentially from where the previous one ended.
+ * pcapng files are not supported here; they go through PcapReplaySource.
+ */
+public class PcapBulkIngest {
+    private static final int GLOBAL_HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 16;
+    private static final int MAX_RECORD_LENGTH = 262144;
+    private static final int RESYNC_WINDOW = 4 << 20;
+    // Largest region mapped at once; longer chunks are mapped piecewise
+    private static final int MAX_MAPPING = 1 << 30;
+    // Consecutive plausible headers required to accept a resync position
+    private static final int RESYNC_CHAIN = 3;
+    private static final long MAX_TIME_SKEW_SECONDS = 366L * 86400;
+    private static final List<CapturedPacket> END = new ArrayList<>();
+
+    private final String filePath;
+    private final int parallelism;
+    private final long chunkBytes;
+    private FileChannel channel;
+    private long fileSize;
+    private ByteOrder order;
+    private boolean nanosecond;
+    private int maxCapturedLength;
+    private int linkType;
+    private long firstSeconds;
+    private volatile boolean running;
+
+    private final LongAdder packetsRead = new LongAdder();
+    private final LongAdder fileBytesRead = new LongAdder();
+    private volatile int chunkCount = 0;
+    private volatile int chunksReparsed = 0;
+    private long startNanos;
+    private long endNanos;
+
+    public PcapBulkIngest(String filePath, int parallelism, long chunkBytes) {
+        this.filePath = filePath;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.chunkBytes = Math.max(1 << 20, chunkBytes);
+    }
+
+    /**
+     * Bulk ingest with the parallelism and chunk size from capture.properties
+     */
+    public static PcapBulkIngest fromConfig(String filePath) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        return new PcapBulkIngest(filePath, config.getInt("ingest.parallelism", 0),
+                config.getLong("ingest.chunk-size-mb", 16) << 20);
+    }
+
+    /**
+     * Open the file and read the global header. Returns false for files
+     * that are not classic pcap (e.g. pcapng).
+     */
+    public boolean open() {
+        try {
+            channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(GLOBAL_HEADER_LENGTH + RECORD_HEADER_LENGTH);
+            channel.read(header, 0);
+            if (header.position() < GLOBAL_HEADER_LENGTH) {
+                System.err.println("Not a pcap file: " + filePath);
+                channel.close();
+                return false;
+            }
+
+            int magic = header.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+            switch (magic) {
+                case 0xa1b2c3d4: order = ByteOrder.LITTLE_ENDIAN; nanosecond = false; break;
+                case 0xa1b23c4d: order = ByteOrder.LITTLE_ENDIAN; nanosecond = true; break;
+                case 0xd4c3b2a1: order = ByteOrder.BIG_ENDIAN; nanosecond = false; break;
+                case 0x4d3cb2a1: order = ByteOrder.BIG_ENDIAN; nanosecond = true; break;
+                default:
+                    System.err.println("Bulk ingest reads classic pcap files only (not pcapng): " + filePath);
+                    channel.close();
+                    return false;
+            }
+            header.order(order);
+            int snapLength = header.getInt(16);
+            maxCapturedLength = snapLength > 0 ?
+                    Math.min(Math.max(snapLength, MAX_RECORD_LENGTH), MAX_MAPPING) : MAX_RECORD_LENGTH;
+            linkType = header.getInt(20) & 0x0fffffff;
+            firstSeconds = header.position() >= GLOBAL_HEADER_LENGTH + 4 ?
+                    Integer.toUnsignedLong(header.getInt(GLOBAL_HEADER_LENGTH)) : 0;
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to open capture file " + filePath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the whole file into the pipeline (blocks until done or stop)
+     */
+    public void ingest(PacketPipeline pipeline) {
+        running = true;
+        startNanos = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        int workers = pipeline.getWorkerCount();
+        List<BlockingQueue<List<CapturedPacket>>> feeds = new ArrayList<>();
+        List<Thread> feeders = new ArrayList<>();
+
+        try {
+            long[] bounds = chunkBoundaries();
+            chunkCount = bounds.length - 1;
+
+            for (int w = 0; w < workers; w++) {
+                BlockingQueue<List<CapturedPacket>> feed = new ArrayBlockingQueue<>(2);
+                int worker = w;
+                Thread feeder = new Thread(() -> feed(pipeline, worker, feed), "ingest-feeder-" + w);
+                feeder.setDaemon(true);
+                feeder.start();
+                feeds.add(feed);
+                feeders.add(feeder);
+            }
+
+            // Parse a few chunks ahead, hand them to the feeders in file order
+            ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            HeaderDecoder decoder = new HeaderDecoder();
+            int next = 0;
+            while (next < chunkCount && pending.size() < parallelism * 2) {
+                pending.add(submit(pool, pipeline, bounds[next], bounds[next + 1]));
+                next++;
+            }
+            // File offset where the previous chunk's last record ended
+            long offset = bounds[0];
+            for (int i = 0; running && i < chunkCount; i++) {
+                Chunk chunk = pending.poll().join();
+                if (next < chunkCount) {
+                    pending.add(submit(pool, pipeline, bounds[next], bounds[next + 1]));
+                    next++;
+                }
+                if (offset >= bounds[i + 1]) {
+                    continue; // a record of the previous chunk covers this one
+                }
+                if (offset != bounds[i]) {
+                    // The boundary was not a record start: the parallel parse is discarded
+                    System.err.println("Bulk ingest: chunk " + i + " of " + filePath + " starts at " + offset +
+                            ", not at the resynced offset " + bounds[i] + "; parsing it sequentially");
+                    chunksReparsed++;
+                    chunk = parseChunk(pipeline, offset, bounds[i + 1], fileSize);
+                }
+                List<List<CapturedPacket>> buckets = chunk.reassemble(pipeline, decoder);
+                for (int w = 0; w < workers; w++) {
+                    if (!buckets.get(w).isEmpty()) {
+                        feeds.get(w).put(buckets.get(w));
+                    }
+                }
+                // An unreadable record loses the rest of its chunk only
+                long end = Math.max(chunk.end, bounds[i + 1]);
+                packetsRead.add(chunk.packets);
+                fileBytesRead.add(end - offset);
+                offset = end;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Bulk ingest error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stopping capture interrupts this thread: the feeders are ended
+            // and awaited all the same, the caller tears the pipeline down next
+            boolean interrupted = Thread.interrupted();
+            pool.shutdownNow();
+            for (BlockingQueue<List<CapturedPacket>> feed : feeds) {
+                while (true) {
+                    try {
+                        feed.put(END);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            for (Thread feeder : feeders) {
+                while (feeder.isAlive()) {
+                    try {
+                        feeder.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            endNanos = System.nanoTime();
+            running = false;
+            close();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Release the file of an ingest that never started; ingest() closes it
+     * itself when done
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private ForkJoinTask<Chunk> submit(ForkJoinPool pool, PacketPipeline pipeline, long start, long limit) {
+        return pool.submit(() -> parseChunk(pipeline, start, limit, fileSize));
+    }
+
+    /**
+     * Single producer of one worker: keeps that worker's packets in file order
+     */
+    private void feed(PacketPipeline pipeline, int worker, BlockingQueue<List<CapturedPacket>> feed) {
+        try {
+            while (true) {
+                List<CapturedPacket> packets = feed.take();
+                if (packets == END) {
+                    return;
+                }
+                for (CapturedPacket packet : packets) {
+                    if (!running || !pipeline.put(packet, worker, () -> running)) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Chunk start offsets plus the file size: the first record at or after
+     * every multiple of the chunk size
+     */
+    private long[] chunkBoundaries() throws IOException {
+        List<Long> starts = new ArrayList<>();
+        starts.add((long) GLOBAL_HEADER_LENGTH);
+        for (long nominal = GLOBAL_HEADER_LENGTH + chunkBytes; nominal < fileSize; nominal += chunkBytes) {
+            long start = resync(nominal);
+            if (start > starts.get(starts.size() - 1) && start < fileSize) {
+                starts.add(start);
+            }
+        }
+        long[] bounds = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            bounds[i] = starts.get(i);
+        }
+        bounds[starts.size()] = fileSize;
+        return bounds;
+    }
+
+    /**
+     * First offset at or after nominal where RESYNC_CHAIN plausible record
+     * headers follow each other, -1 if none in the search window (the
+     * boundary is then dropped and the previous chunk grows)
+     */
+    private long resync(long nominal) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate((int) Math.min(RESYNC_WINDOW, fileSize - nominal)).order(order);
+        while (window.hasRemaining() && channel.read(window, nominal + window.position()) > 0) {
+            // read until full
+        }
+        int limit = window.position();
+        for (int offset = 0; offset + RECORD_HEADER_LENGTH <= limit; offset++) {
+            if (isChain(window, offset, limit, nominal)) {
+                return nominal + offset;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isChain(ByteBuffer window, int offset, int limit, long base) {
+        int position = offset;
+        for (int k = 0; k < RESYNC_CHAIN; k++) {
+            if (base + position == fileSize) {
+                return k > 0; // chain ends exactly at end of file
+            }
+            if (position + RECORD_HEADER_LENGTH > limit) {
+                return k > 0;
+            }
+            int capturedLength = plausibleRecord(window, position);
+            if (capturedLength < 0) {
+                return false;
+            }
+            position += RECORD_HEADER_LENGTH + capturedLength;
+        }
+        return true;
+    }
+
+    /**
+     * Captured length of the record header at offset, -1 if it cannot be one
+     */
+    private int plausibleRecord(ByteBuffer buffer, int offset) {
+        long seconds = Integer.toUnsignedLong(buffer.getInt(offset));
+        long fraction = Integer.toUnsignedLong(buffer.getInt(offset + 4));
+        long capturedLength = Integer.toUnsignedLong(buffer.getInt(offset + 8));
+        long originalLength = Integer.toUnsignedLong(buffer.getInt(offset + 12));
+        if (fraction >= (nanosecond ? 1_000_000_000L : 1_000_000L) ||
+                capturedLength == 0 || capturedLength > maxCapturedLength ||
+                originalLength < capturedLength || originalLength > MAX_RECORD_LENGTH ||
+                Math.abs(seconds - firstSeconds) > MAX_TIME_SKEW_SECONDS) {
+            return -1;
+        }
+        return (int) capturedLength;
+    }
+
+    /**
+     * Copy and decode the records starting from start up to limit, bucketed
+     * by pipeline worker. The last record may run past limit, up to end;
+     * the chunk stops early at a record that cannot be read.
+     */
+    private Chunk parseChunk(PacketPipeline pipeline, long start, long limit, long end) {
+        Chunk chunk = new Chunk(pipeline.getWorkerCount(), start);
+        if (!running) {
+            return chunk;
+        }
+
+        HeaderDecoder decoder = new HeaderDecoder();
+        MappedByteBuffer mapped = map(start, end);
+        long base = start;
+        long offset = start;
+        while (offset < limit && offset + RECORD_HEADER_LENGTH <= end) {
+            if (offset + RECORD_HEADER_LENGTH > base + mapped.capacity()) {
+                mapped = map(offset, end);
+                base = offset;
+            }
+            int position = (int) (offset - base);
+            long seconds = Integer.toUnsignedLong(mapped.getInt(position));
+            long fraction = Integer.toUnsignedLong(mapped.getInt(position + 4));
+            int capturedLength = mapped.getInt(position + 8);
+            int originalLength = mapped.getInt(position + 12);
+            if (capturedLength < 0 || capturedLength > maxCapturedLength ||
+                    offset + RECORD_HEADER_LENGTH + capturedLength > end) {
+                break; // truncated or corrupt record
+            }
+            if (position + RECORD_HEADER_LENGTH + capturedLength > mapped.capacity()) {
+                mapped = map(offset, end);
+                base = offset;
+                position = 0;
+            }
+
+            byte[] data = new byte[capturedLength];
+            mapped.get(position + RECORD_HEADER_LENGTH, data, 0, capturedLength);
+            long timestampNanos = seconds * 1_000_000_000L + (nanosecond ? fraction : fraction * 1000);
+            CapturedPacket packet = new CapturedPacket(data, Math.max(originalLength, capturedLength),
+                    linkType, timestampNanos);
+
+            boolean decoded = decoder.decode(data, capturedLength, linkType);
+            if (pipeline.isHeldForSharding(packet, decoder, decoded)) {
+                chunk.hold(packet);
+            } else {
+                chunk.buckets.get(pipeline.workerIndex(decoder, decoded)).add(packet);
+            }
+            offset += RECORD_HEADER_LENGTH + capturedLength;
+            chunk.packets++;
+        }
+        chunk.end = offset;
+        return chunk;
+    }
+
+    /**
+     * Map the file from start, at most MAX_MAPPING bytes and not past end
+     */
+    private MappedByteBuffer map(long start, long end) {
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(end - start, MAX_MAPPING + RECORD_HEADER_LENGTH));
+            mapped.order(order);
+            return mapped;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Packets of one chunk by worker, the fragments held back for
+     * reassembly with the bucket sizes at the point each was read, and
+     * where its records ended
+     */
+    private static final class Chunk {
+        private final List<List<CapturedPacket>> buckets = new ArrayList<>();
+        private final List<CapturedPacket> held = new ArrayList<>();
+        private final List<int[]> heldAt = new ArrayList<>();
+        private long end;
+        private int packets;
+
+        Chunk(int workers, long start) {
+            for (int i = 0; i < workers; i++) {
+                buckets.add(new ArrayList<>());
+            }
+            end = start;
+        }
+
+        void hold(CapturedPacket fragment) {
+            int[] sizes = new int[buckets.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = buckets.get(i).size();
+            }
+            held.add(fragment);
+            heldAt.add(sizes);
+        }
+
+        /**
+         * Reassemble the held fragments, in file order since chunks are
+         * handed over one by one, and insert the datagrams completed
+         */
+        List<List<CapturedPacket>> reassemble(PacketPipeline pipeline, HeaderDecoder decoder) {
+            if (held.isEmpty()) {
+                return buckets;
+            }
+            List<List<CapturedPacket>> merged = new ArrayList<>();
+            for (List<CapturedPacket> bucket : buckets) {
+                merged.add(new ArrayList<>(bucket.size()));
+            }
+            int[] copied = new int[buckets.size()];
+            for (int i = 0; i < held.size(); i++) {
+                CapturedPacket fragment = held.get(i);
+                decoder.decode(fragment.getData(), fragment.getCapturedLength(), fragment.getLinkType());
+                CapturedPacket datagram = pipeline.reassemble(fragment, decoder);
+                if (datagram == null) {
+                    continue;
+                }
+                int worker = pipeline.workerIndex(decoder, true);
+                int at = heldAt.get(i)[worker];
+                merged.get(worker).addAll(buckets.get(worker).subList(copied[worker], at));
+                merged.get(worker).add(datagram);
+                copied[worker] = at;
+            }
+            for (int w = 0; w < merged.size(); w++) {
+                merged.get(w).addAll(buckets.get(w).subList(copied[w], buckets.get(w).size()));
+            }
+            return merged;
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Chunks parsed again because their resynced start was not a record
+     */
+    public int getChunksReparsed() {
+        return chunksReparsed;
+    }
+
+    public long getPacketsRead() {
+        return packetsRead.sum();
+    }
+
+    /**
+     * Bytes of the file parsed so far
+     */
+    public long getBytesRead() {
+        return fileBytesRead.sum();
+    }
+
+    public double getElapsedSeconds() {
+        long end = running || endNanos == 0 ? System.nanoTime() : endNanos;
+        return Math.max(1, end - startNanos) / 1_000_000_000.0;
+    }
+
+    public double getMegabytesPerSecond() {
+        return getBytesRead() / 1_000_000.0 / getElapsedSeconds();
+    }
+
+    public double getPacketsPerSecond() {
+        return getPacketsRead() / getElapsedSeconds();
+    }
+}
@@ -0,0 +1,650 @@
+package org.example.services.capture;
+
+import org.example.services.DetectionClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Ingest of rotated classic pcap files dropped into a directory.
+ * A WatchService reports new and growing files; a file is read once it has
+ * not changed for settle-seconds, so files still being copied are left
+ * alone. Up to parallelism files are read at once, oldest first packet
+ * first, all feeding the shared pipeline; each file holds back the
+ * event-time watermark at the capture time it has reached, so a newer file
+ * never expires state an older one still needs.
+ * The checkpoint file records for every file the offset up to which the
+ * pipeline workers processed its records, and the file it was: names are
+ * reused by rotation, so a file is recognized by its inode and a hash of
+ * its first record. A restart resumes in the middle of a file; a finished
+ * file is read again only from its end, once its size or modification time
+ * changes.
+ */
+public class PcapDirectoryIngest {
+    private static final int GLOBAL_HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 16;
+    private static final int MAX_RECORD_LENGTH = 262144;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final String DONE = "done";
+    private static final String OPEN = "open";
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    private final Path directory;
+    private final Path checkpointFile;
+    private final PathMatcher matcher;
+    private final int parallelism;
+    private final long settleMillis;
+    private final long checkpointIntervalMillis;
+
+    // file name -> checkpoint of the last file with that name
+    private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+    // file name -> records of a file being read that the workers still hold
+    private final Map<String, Progress> active = new ConcurrentHashMap<>();
+    // files seen by the watcher -> when they last changed
+    private final Map<Path, Long> candidates = new ConcurrentHashMap<>();
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private final Object checkpointLock = new Object();
+
+    private PacketPipeline pipeline;
+    private DetectionClock clock;
+    private WatchService watchService;
+    private ExecutorService readers;
+    private Thread watcherThread;
+    private volatile boolean running;
+    private volatile boolean checkpointsChanged;
+    private long lastCheckpointSave;
+
+    private final LongAdder packetsRead = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final AtomicInteger filesCompleted = new AtomicInteger();
+
+    public PcapDirectoryIngest(Path directory, Path checkpointFile, String pattern, int parallelism,
+                               long settleMillis, long checkpointIntervalMillis) {
+        this.directory = directory;
+        this.checkpointFile = checkpointFile;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        this.parallelism = Math.max(1, parallelism);
+        this.settleMillis = settleMillis;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * Directory ingest with the settings of capture.properties. The
+     * checkpoint file defaults to .ingest-checkpoints inside the directory.
+     */
+    public static PcapDirectoryIngest fromConfig(String directory) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        Path path = Paths.get(directory);
+        String checkpoint = config.getString("ingest.watch.checkpoint-file", "");
+        return new PcapDirectoryIngest(path,
+                checkpoint.isEmpty() ? path.resolve(".ingest-checkpoints") : Paths.get(checkpoint),
+                config.getString("ingest.watch.pattern", "*.{pcap,cap}"),
+                config.getInt("ingest.watch.parallelism", 2),
+                config.getLong("ingest.watch.settle-seconds", 5) * 1000,
+                config.getLong("ingest.watch.checkpoint-interval-seconds", 5) * 1000);
+    }
+
+    /**
+     * Register the watch and load the checkpoints of an earlier run
+     */
+    public boolean open() {
+        if (!Files.isDirectory(directory)) {
+            System.err.println("Ingest directory not found: " + directory);
+            return false;
+        }
+        try {
+            loadCheckpoints();
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to watch " + directory + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Start reading into the pipeline; clock is the detection clock of the
+     * session, which tracks the files being read
+     */
+    public void start(PacketPipeline pipeline, DetectionClock clock) {
+        this.pipeline = pipeline;
+        this.clock = clock;
+        running = true;
+        readers = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "ingest-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcherThread = new Thread(this::watch, "ingest-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        System.out.println("Watching " + directory + " for capture files (" +
+                parallelism + " at a time, oldest first, " +
+                countDone() + " already ingested)");
+    }
+
+    /**
+     * Stop reading; files in progress keep their offsets for the next run
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        readers.shutdown();
+        try {
+            watcherThread.join(2000);
+            readers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveCheckpoints();
+    }
+
+    private void watch() {
+        scanDirectory();
+        try {
+            while (running) {
+                WatchKey key = watchService.poll(1, TimeUnit.SECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanDirectory();
+                        } else {
+                            offerCandidate(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                submitSettled();
+                if (checkpointsChanged &&
+                        System.currentTimeMillis() - lastCheckpointSave >= checkpointIntervalMillis) {
+                    saveCheckpoints();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stop() closed the watch
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pick up files that arrived while nothing was watching
+     */
+    private void scanDirectory() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                offerCandidate(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue a file unless it was finished and has not changed since
+     */
+    private void offerCandidate(Path file) {
+        if (!matcher.matches(file.getFileName())) {
+            return;
+        }
+        Checkpoint checkpoint = checkpoints.get(file.getFileName().toString());
+        try {
+            if (checkpoint != null && checkpoint.isFinished(Files.readAttributes(file, BasicFileAttributes.class))) {
+                return;
+            }
+        } catch (IOException e) {
+            return; // gone again
+        }
+        candidates.put(file, System.currentTimeMillis());
+    }
+
+    /**
+     * Hand files that stopped changing to the reader pool, the oldest first
+     * and no more than there are free readers
+     */
+    private void submitSettled() {
+        if (inProgress.size() >= parallelism) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<Path, Long> settled = new TreeMap<>();
+        for (Map.Entry<Path, Long> candidate : candidates.entrySet()) {
+            Path file = candidate.getKey();
+            try {
+                if (!Files.isRegularFile(file)) {
+                    candidates.remove(file);
+                    continue;
+                }
+                long changed = Math.max(candidate.getValue(), Files.getLastModifiedTime(file).toMillis());
+                if (now - changed < settleMillis) {
+                    continue;
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            settled.put(file, firstTimestamp(file));
+        }
+        List<Path> oldestFirst = new ArrayList<>(settled.keySet());
+        oldestFirst.sort(Comparator.comparing(settled::get));
+        for (Path file : oldestFirst) {
+            String name = file.getFileName().toString();
+            if (inProgress.size() >= parallelism) {
+                return;
+            }
+            if (inProgress.add(name)) {
+                candidates.remove(file);
+                // Held from now on, so the watermark cannot pass the file before its reader starts
+                DetectionClock.Source source = clock.openSource(settled.get(file));
+                readers.submit(() -> readFile(file, name, source));
+            }
+        }
+    }
+
+    /**
+     * Feed one file into the pipeline from its checkpoint onwards. It is
+     * finished once the workers processed every record and its size and
+     * modification time are still those it settled with; a file that
+     * changed while it was read is queued again to read the rest.
+     */
+    private void readFile(Path file, String name, DetectionClock.Source source) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BasicFileAttributes settled = Files.readAttributes(file, BasicFileAttributes.class);
+            ByteBuffer header = ByteBuffer.allocate(GLOBAL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // read until full
+            }
+            ByteOrder order;
+            boolean nanosecond;
+            switch (header.position() == GLOBAL_HEADER_LENGTH ? header.getInt(0) : 0) {
+                case 0xa1b2c3d4: order = ByteOrder.LITTLE_ENDIAN; nanosecond = false; break;
+                case 0xa1b23c4d: order = ByteOrder.LITTLE_ENDIAN; nanosecond = true; break;
+                case 0xd4c3b2a1: order = ByteOrder.BIG_ENDIAN; nanosecond = false; break;
+                case 0x4d3cb2a1: order = ByteOrder.BIG_ENDIAN; nanosecond = true; break;
+                default:
+                    System.err.println("Skipping " + file + ": not a classic pcap file");
+                    finish(name, new Checkpoint("-", 0, true, settled));
+                    return;
+            }
+            int linkType = header.order(order).getInt(20) & 0x0fffffff;
+
+            String identity = identity(settled, channel, order);
+            Checkpoint checkpoint = checkpoints.get(name);
+            long position = GLOBAL_HEADER_LENGTH;
+            if (checkpoint != null && checkpoint.identity.equals(identity)) {
+                position = checkpoint.offset;
+            } else if (checkpoint != null) {
+                System.out.println(name + " is a new file under a known name, reading it from the start");
+            }
+            if (position > GLOBAL_HEADER_LENGTH) {
+                System.out.println("Resuming " + name + " at byte " + position);
+            }
+
+            Progress progress = new Progress(identity, position);
+            active.put(name, progress);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).order(order);
+            buffer.flip();
+            long bufferStart = position;
+            long packets = 0;
+            try {
+                while (running) {
+                    int capturedLength = buffer.remaining() >= RECORD_HEADER_LENGTH ?
+                            buffer.getInt(buffer.position() + 8) : 0;
+                    if (capturedLength < 0 || capturedLength > MAX_RECORD_LENGTH) {
+                        System.err.println("Corrupt record in " + file + " at byte " +
+                                (bufferStart + buffer.position()) + ", rest of file skipped");
+                        break;
+                    }
+                    if (buffer.remaining() < RECORD_HEADER_LENGTH + capturedLength) {
+                        // Refill from the start of the current record
+                        bufferStart += buffer.position();
+                        buffer.compact();
+                        int read = channel.read(buffer, bufferStart + buffer.position());
+                        buffer.flip();
+                        if (read <= 0) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    long recordStart = bufferStart + buffer.position();
+                    long seconds = Integer.toUnsignedLong(buffer.getInt());
+                    long fraction = Integer.toUnsignedLong(buffer.getInt());
+                    buffer.getInt(); // captured length, checked above
+                    int originalLength = buffer.getInt();
+                    byte[] data = new byte[capturedLength];
+                    buffer.get(data);
+                    long timestampNanos = seconds * 1_000_000_000L + (nanosecond ? fraction : fraction * 1000);
+                    CapturedPacket packet = new CapturedPacket(data, Math.max(originalLength, capturedLength),
+                            linkType, timestampNanos);
+                    source.advance(timestampNanos);
+                    progress.queue(packet, recordStart);
+                    if (!pipeline.put(packet, () -> running)) {
+                        // Not queued: read this record again next time
+                        progress.notQueued(recordStart);
+                        buffer.position(buffer.position() - RECORD_HEADER_LENGTH - capturedLength);
+                        break;
+                    }
+                    progress.queued(bufferStart + buffer.position());
+                    packetsRead.increment();
+                    bytesRead.add(RECORD_HEADER_LENGTH + capturedLength);
+                    if (++packets % 1000 == 0) {
+                        checkpointsChanged = true;
+                    }
+                }
+
+                // A partial last record is read again if the file grows
+                long end = bufferStart + buffer.position();
+                awaitProcessed(progress);
+                BasicFileAttributes now = Files.readAttributes(file, BasicFileAttributes.class);
+                active.remove(name); // before its checkpoint is saved over the one of the progress
+                if (running && progress.isDrained() && now.size() == settled.size() &&
+                        now.lastModifiedTime().equals(settled.lastModifiedTime())) {
+                    finish(name, new Checkpoint(identity, end, true, settled));
+                    System.out.println("Ingested " + name + ": " + packets + " packets");
+                } else {
+                    checkpoint(name, new Checkpoint(identity, progress.committed(), false, null));
+                    if (running) {
+                        candidates.put(file, System.currentTimeMillis()); // still being written
+                    }
+                }
+            } finally {
+                active.remove(name);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read " + file + ": " + e.getMessage());
+        } finally {
+            source.close();
+            inProgress.remove(name);
+        }
+    }
+
+    /**
+     * Wait until the workers processed every record queued from the file
+     */
+    private void awaitProcessed(Progress progress) {
+        while (running && !progress.isDrained()) {
+            try {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * What the file is beyond its name: its file key (device and inode
+     * where the platform has them) and a CRC of the global header and
+     * first record, which stay the same while the file grows
+     */
+    private static String identity(BasicFileAttributes attributes, FileChannel channel, ByteOrder order)
+            throws IOException {
+        ByteBuffer first = ByteBuffer.allocate(GLOBAL_HEADER_LENGTH + RECORD_HEADER_LENGTH).order(order);
+        readFully(channel, first, 0);
+        int length = first.position();
+        if (length == first.capacity()) {
+            int capturedLength = first.getInt(GLOBAL_HEADER_LENGTH + 8);
+            length += Math.max(0, Math.min(capturedLength, MAX_RECORD_LENGTH));
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(length);
+        readFully(channel, prefix, 0);
+        CRC32 crc = new CRC32();
+        crc.update(prefix.flip());
+        return String.valueOf(attributes.fileKey()).replace(' ', '_') + "/" + Long.toHexString(crc.getValue());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // read until full
+        }
+    }
+
+    /**
+     * Capture time of the first record, for reading files in order
+     */
+    private static long firstTimestamp(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(GLOBAL_HEADER_LENGTH + 8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, start, 0);
+            if (start.position() < start.capacity()) {
+                return Long.MAX_VALUE;
+            }
+            int magic = start.getInt(0);
+            if (magic == 0xd4c3b2a1 || magic == 0x4d3cb2a1) {
+                start.order(ByteOrder.BIG_ENDIAN);
+            }
+            boolean nanosecond = magic == 0xa1b23c4d || magic == 0x4d3cb2a1;
+            long fraction = Integer.toUnsignedLong(start.getInt(GLOBAL_HEADER_LENGTH + 4));
+            return Integer.toUnsignedLong(start.getInt(GLOBAL_HEADER_LENGTH)) * 1_000_000_000L +
+                    (nanosecond ? fraction : fraction * 1000);
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private void checkpoint(String name, Checkpoint checkpoint) {
+        checkpoints.put(name, checkpoint);
+        checkpointsChanged = true;
+    }
+
+    private void finish(String name, Checkpoint checkpoint) {
+        checkpoints.put(name, checkpoint);
+        filesCompleted.incrementAndGet();
+        checkpointsChanged = true;
+        saveCheckpoints();
+    }
+
+    private void loadCheckpoints() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            properties.load(in);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                checkpoints.put(name, Checkpoint.parse(properties.getProperty(name)));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring checkpoint of " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write all offsets, those of files being read as far as the workers
+     * got, to a temporary file and move it over the old one, so a crash
+     * never leaves a half written checkpoint file
+     */
+    private void saveCheckpoints() {
+        synchronized (checkpointLock) {
+            checkpointsChanged = false;
+            lastCheckpointSave = System.currentTimeMillis();
+            Map<String, String> entries = new TreeMap<>();
+            checkpoints.forEach((name, checkpoint) -> entries.put(name, checkpoint.format()));
+            active.forEach((name, progress) -> entries.put(name,
+                    new Checkpoint(progress.identity, progress.committed(), false, null).format()));
+            Properties properties = new Properties();
+            properties.putAll(entries);
+            Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temporary)) {
+                    properties.store(out, "open|done, offset of the next record, size, mtime, file id");
+                }
+                Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to save ingest checkpoints: " + e.getMessage());
+            }
+        }
+    }
+
+    private long countDone() {
+        return checkpoints.values().stream().filter(checkpoint -> checkpoint.done).count();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Files finished during this run
+     */
+    public int getFilesCompleted() {
+        return filesCompleted.get();
+    }
+
+    public int getFilesInProgress() {
+        return inProgress.size();
+    }
+
+    public long getPacketsRead() {
+        return packetsRead.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Saved state of one file name: which file it was, the offset of the
+     * next record to read, and for a finished file the size and
+     * modification time it was finished with
+     */
+    private static final class Checkpoint {
+        private final String identity;
+        private final long offset;
+        private final boolean done;
+        private final long size;
+        private final long modified;
+
+        Checkpoint(String identity, long offset, boolean done, BasicFileAttributes attributes) {
+            this(identity, offset, done, attributes != null ? attributes.size() : 0,
+                    attributes != null ? attributes.lastModifiedTime().toMillis() : 0);
+        }
+
+        private Checkpoint(String identity, long offset, boolean done, long size, long modified) {
+            this.identity = identity;
+            this.offset = offset;
+            this.done = done;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean isFinished(BasicFileAttributes attributes) {
+            return done && attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        }
+
+        String format() {
+            return (done ? DONE : OPEN) + " " + offset + " " + size + " " + modified + " " + identity;
+        }
+
+        /**
+         * Throws IllegalArgumentException for a malformed entry
+         */
+        static Checkpoint parse(String text) {
+            String[] fields = text.trim().split(" ", 5);
+            if (fields.length != 5 || !(DONE.equals(fields[0]) || OPEN.equals(fields[0]))) {
+                throw new IllegalArgumentException("invalid checkpoint: " + text);
+            }
+            return new Checkpoint(fields[4], Long.parseLong(fields[1]), DONE.equals(fields[0]),
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+        }
+    }
+
+    /**
+     * Records of a file between the reader and the pipeline workers. The
+     * checkpoint may pass a record only once it and every record before it
+     * were processed; workers finish their queues in any relative order.
+     */
+    private static final class Progress {
+        private final String identity;
+        private final ConcurrentSkipListSet<Long> outstanding = new ConcurrentSkipListSet<>();
+        private volatile long queuedEnd;
+
+        Progress(String identity, long start) {
+            this.identity = identity;
+            this.queuedEnd = start;
+        }
+
+        /**
+         * Track a record before it is queued; the worker done with it
+         * removes it
+         */
+        void queue(CapturedPacket packet, long start) {
+            outstanding.add(start);
+            packet.setOnProcessed(() -> outstanding.remove(start));
+        }
+
+        void queued(long end) {
+            queuedEnd = end;
+        }
+
+        void notQueued(long start) {
+            outstanding.remove(start);
+        }
+
+        /**
+         * Offset before which every record was processed. The end is read
+         * first: a record queued meanwhile starts at or after it.
+         */
+        long committed() {
+            long end = queuedEnd;
+            Long first = outstanding.ceiling(Long.MIN_VALUE);
+            return first != null ? Math.min(first, end) : end;
+        }
+
+        boolean isDrained() {
+            return outstanding.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.services.capture;
+
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.Pcaps;
+
+import java.io.EOFException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a pcap or pcapng file into the packet pipeline.
+ * Packets keep their original capture timestamps; pacing between them
+ * follows the selected replay mode. Nothing is dropped: when the
+ * pipeline is full the reader waits, so the measured rate is the
+ * sustainable processing rate.
+ */
+public class PcapReplaySource {
+    // Longest sleep between checks for stop() during a gap in the capture
+    private static final long MAX_PARK_NANOS = 50_000_000L;
+
+    private final String filePath;
+    private final ReplayMode mode;
+    private final double speed;
+    private PcapHandle handle;
+    private volatile boolean running;
+
+    private volatile long packetsRead = 0;
+    private volatile long bytesRead = 0;
+    private long startNanos;
+    private long endNanos;
+    private long firstPacketNanos;
+
+    public PcapReplaySource(String filePath, ReplayMode mode, double speed) {
+        this.filePath = filePath;
+        this.mode = mode;
+        this.speed = mode == ReplayMode.REAL_TIME ? 1.0 : speed;
+    }
+
+    /**
+     * Open the capture file (libpcap reads both pcap and pcapng)
+     */
+    public boolean open() {
+        try {
+            try {
+                handle = Pcaps.openOffline(filePath, PcapHandle.TimestampPrecision.NANO);
+            } catch (PcapNativeException e) {
+                // Older libpcap without nanosecond support
+                handle = Pcaps.openOffline(filePath);
+            }
+            return true;
+        } catch (PcapNativeException e) {
+            System.err.println("Failed to open capture file " + filePath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the whole file into the pipeline (blocks until EOF or stop)
+     */
+    public void replay(PacketPipeline pipeline) {
+        begin();
+        int linkType = handle.getDlt().value();
+
+        try {
+            while (running) {
+                byte[] data;
+                try {
+                    data = handle.getNextRawPacketEx();
+                } catch (TimeoutException e) {
+                    continue;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                long timestampNanos = CapturedPacket.toEpochNanos(handle.getTimestamp());
+                pace(timestampNanos);
+
+                CapturedPacket packet = new CapturedPacket(data,
+                        CapturedPacket.originalLength(handle.getOriginalLength(), data), linkType, timestampNanos);
+                packetsRead++;
+                bytesRead += packet.getLength();
+                if (!pipeline.put(packet, () -> running)) {
+                    break;
+                }
+            }
+        } catch (PcapNativeException | NotOpenException e) {
+            System.err.println("Replay error: " + e.getMessage());
+        } finally {
+            endNanos = System.nanoTime();
+            running = false;
+            close();
+        }
+    }
+
+    void begin() {
+        running = true;
+        startNanos = System.nanoTime();
+        firstPacketNanos = -1;
+    }
+
+    /**
+     * Wait until a packet with this capture time is due: as far after the
+     * start of the replay as after the first packet, divided by the speed
+     */
+    void pace(long timestampNanos) {
+        if (mode == ReplayMode.AS_FAST_AS_POSSIBLE) {
+            return;
+        }
+        if (firstPacketNanos < 0) {
+            firstPacketNanos = timestampNanos;
+        }
+        long target = startNanos + (long) ((timestampNanos - firstPacketNanos) / speed);
+        long remaining;
+        while (running && (remaining = target - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(Math.min(remaining, MAX_PARK_NANOS));
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Release the file of a replay that never started; replay() closes it
+     * itself when done
+     */
+    public void close() {
+        if (handle != null) {
+            handle.close();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public ReplayMode getMode() {
+        return mode;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getPacketsRead() {
+        return packetsRead;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Wall-clock seconds spent reading (so far, or in total once finished)
+     */
+    public double getElapsedSeconds() {
+        long end = running ? System.nanoTime() : endNanos;
+        return Math.max(1, end - startNanos) / 1_000_000_000.0;
+    }
+
+    public double getPacketsPerSecond() {
+        return packetsRead / getElapsedSeconds();
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.services.capture;
+
+/**
+ * Playback speed for offline pcap replay
+ */
+public enum ReplayMode {
+    AS_FAST_AS_POSSIBLE("Max speed"),
+    REAL_TIME("Real time"),
+    MULTIPLIED("Nx speed");
+
+    private final String displayName;
+
+    ReplayMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
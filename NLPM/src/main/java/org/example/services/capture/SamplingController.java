@@ -0,0 +1,179 @@
+package org.example.services.capture;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overload controller for live capture.
+ * Periodically measures how full the pipeline rings are; above the high
+ * watermark the sampling rate doubles (1-in-2, 1-in-4, ...), and after the
+ * rings stay below the low watermark for a few checks it halves again until
+ * every packet is kept. Kept packets carry the rate as their sample weight
+ * so volumetric detectors can scale their counts back up.
+ */
+public class SamplingController {
+    private final PacketPipeline pipeline;
+    private final SamplingMode mode;
+    private final int maxRate;
+    private final double highWatermark;
+    private final double lowWatermark;
+    private final long intervalMs;
+    private final int stepDownChecks;
+
+    private volatile int rate = 1; // power of two, 1 = full capture
+    private int calmChecks = 0;
+    private final LongAdder packetsSkipped = new LongAdder();
+    private ScheduledExecutorService scheduler;
+
+    // Packet counter of each capture thread for COUNT sampling
+    private final ThreadLocal<int[]> counter = ThreadLocal.withInitial(() -> new int[1]);
+
+    public SamplingController(PacketPipeline pipeline, SamplingMode mode, int maxRate,
+                              double highWatermark, double lowWatermark, long intervalMs, int stepDownChecks) {
+        this.pipeline = pipeline;
+        this.mode = mode;
+        this.maxRate = Integer.highestOneBit(Math.max(1, maxRate));
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.intervalMs = Math.max(50, intervalMs);
+        this.stepDownChecks = Math.max(1, stepDownChecks);
+    }
+
+    /**
+     * Build a controller from capture.properties, null if sampling is disabled
+     */
+    public static SamplingController fromConfig(PacketPipeline pipeline) {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (!config.getBoolean("sampling.enabled", true)) {
+            return null;
+        }
+        return new SamplingController(pipeline,
+                config.getEnum("sampling.mode", SamplingMode.class, SamplingMode.FLOW_HASH),
+                config.getInt("sampling.max-rate", 64),
+                config.getInt("sampling.high-watermark-percent", 50) / 100.0,
+                config.getInt("sampling.low-watermark-percent", 10) / 100.0,
+                config.getLong("sampling.interval-ms", 500),
+                config.getInt("sampling.step-down-checks", 4));
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sampling-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::evaluate, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        rate = 1;
+    }
+
+    /**
+     * Decide whether a packet is kept. Returns its sample weight, or 0 if
+     * it is skipped. Called on the capture thread with decoded headers.
+     */
+    public int sample(HeaderDecoder headers, boolean decoded) {
+        int current = rate;
+        if (current == 1) {
+            return 1;
+        }
+
+        boolean keep;
+        if (mode == SamplingMode.FLOW_HASH && decoded) {
+            // Rehash so the kept flows do not all land on the same workers
+            keep = (ShardKey.mix(flowHash(headers) ^ 0x9e3779b9) & (current - 1)) == 0;
+        } else {
+            keep = (++counter.get()[0] & (current - 1)) == 0;
+        }
+
+        if (keep) {
+            return current;
+        }
+        packetsSkipped.increment();
+        return 0;
+    }
+
+    /**
+     * Five-tuple hash that is the same for both directions: the lower
+     * endpoint comes first, as in the flow table's keys, so a kept flow
+     * keeps its replies too. Fragments are hashed without ports.
+     */
+    static int flowHash(HeaderDecoder headers) {
+        long srcHigh = headers.getSourceHigh(), srcLow = headers.getSourceLow();
+        long dstHigh = headers.getDestinationHigh(), dstLow = headers.getDestinationLow();
+        boolean ports = !headers.isFragment();
+        int srcPort = ports ? headers.getSourcePort() : 0;
+        int dstPort = ports ? headers.getDestinationPort() : 0;
+
+        int order = Long.compareUnsigned(srcHigh, dstHigh);
+        if (order == 0) {
+            order = Long.compareUnsigned(srcLow, dstLow);
+        }
+        if (order == 0) {
+            order = Integer.compare(srcPort, dstPort);
+        }
+        int h;
+        if (order <= 0) {
+            h = Long.hashCode(srcHigh) * 31 + Long.hashCode(srcLow);
+            h = 31 * (31 * h + Long.hashCode(dstHigh)) + Long.hashCode(dstLow);
+            h = 31 * (31 * h + srcPort) + dstPort;
+        } else {
+            h = Long.hashCode(dstHigh) * 31 + Long.hashCode(dstLow);
+            h = 31 * (31 * h + Long.hashCode(srcHigh)) + Long.hashCode(srcLow);
+            h = 31 * (31 * h + dstPort) + srcPort;
+        }
+        return 31 * h + headers.getProtocol();
+    }
+
+    /**
+     * Step the sampling rate up or down from the current ring occupancy
+     */
+    void evaluate() {
+        double fill = (double) pipeline.getQueueDepth() / pipeline.getQueueCapacity();
+        int current = rate;
+
+        if (fill >= highWatermark) {
+            calmChecks = 0;
+            if (current < maxRate) {
+                rate = current * 2;
+                System.out.println(String.format("Pipeline %.0f%% full, sampling 1 in %d packets (%s)",
+                        fill * 100, rate, mode));
+            }
+        } else if (fill <= lowWatermark && current > 1) {
+            if (++calmChecks >= stepDownChecks) {
+                calmChecks = 0;
+                rate = current / 2;
+                System.out.println(rate == 1 ?
+                        "Pipeline load back to normal, full capture resumed" :
+                        "Pipeline load dropping, sampling 1 in " + rate + " packets");
+            }
+        } else {
+            calmChecks = 0;
+        }
+    }
+
+    public boolean isSampling() {
+        return rate > 1;
+    }
+
+    /**
+     * Current N of 1-in-N sampling (1 = full capture)
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    public SamplingMode getMode() {
+        return mode;
+    }
+
+    public long getPacketsSkipped() {
+        return packetsSkipped.sum();
+    }
+}
@@ -0,0 +1,11 @@
+package org.example.services.capture;
+
+/**
+ * How the overload controller thins out traffic
+ */
+public enum SamplingMode {
+    /** Keep every Nth packet per capture thread */
+    COUNT,
+    /** Keep whole flows, both directions, whose five-tuple hash falls in 1/N of the hash space */
+    FLOW_HASH
+}
@@ -0,0 +1,41 @@
+package org.example.services.capture;
+
+/**
+ * Strategy used to pick the pipeline worker for a packet
+ */
+public enum ShardKey {
+    SOURCE_IP,
+    FIVE_TUPLE;
+
+    /**
+     * Hash header fields selected by this key. Fragments are hashed on
+     * addresses and protocol only, since only the first one has ports.
+     */
+    public int hash(HeaderDecoder headers) {
+        int h = Long.hashCode(headers.getSourceHigh()) * 31 + Long.hashCode(headers.getSourceLow());
+        if (this == SOURCE_IP) {
+            return mix(h);
+        }
+
+        h = 31 * h + Long.hashCode(headers.getDestinationHigh());
+        h = 31 * h + Long.hashCode(headers.getDestinationLow());
+        h = 31 * h + headers.getProtocol();
+        if (!headers.isFragment()) {
+            h = 31 * h + headers.getSourcePort();
+            h = 31 * h + headers.getDestinationPort();
+        }
+        return mix(h);
+    }
+
+    /**
+     * Spread hash bits so consecutive addresses land on different workers
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,535 @@
+package org.example.services.evidence;
+
+import org.example.models.SecurityAlert;
+import org.example.services.BatchWriter;
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.CapturedPacket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Continuous capture-to-disk ring for alert evidence.
+ * Live packets are queued by the capture threads and appended by the writer
+ * thread to fixed-size pcap segment files through a large buffer. When the
+ * ring exceeds its size or age budget the oldest segments are deleted.
+ * Each segment keeps a time index, so the packets around an alert are read
+ * from a few offsets instead of scanning whole files.
+ * A pcap file holds one link type, so interfaces of different link types
+ * (Ethernet and raw IP tunnels, say) each write their own open segment.
+ * Exports merge the segments by timestamp, into a pcapng file with one
+ * interface per link type when the window holds more than one.
+ */
+public class PcapRing extends BatchWriter<CapturedPacket> {
+    public static final String STAGE_NAME = "Evidence";
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int SNAPLEN = 262144;
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+    // How far past the end of the window a read continues for late timestamps
+    private static final long REORDER_SLACK_MILLIS = 1000;
+    private static final int PCAPNG_SECTION_HEADER = 0x0a0d0d0a;
+    private static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+    private final long indexIntervalMillis;
+    private final long windowBeforeMillis;
+    private final long windowAfterMillis;
+
+    // Guarded by this: written by the writer thread, read by exports
+    private final Deque<PcapSegment> segments = new ArrayDeque<>();
+    // Segment being written per link type
+    private final Map<Integer, OpenSegment> open = new LinkedHashMap<>();
+    private long totalBytes = 0;
+    private long nextNumber = 0;
+    private long lastFlushNanos = 0;
+    private boolean dirty = false;
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(PcapSegment.RECORD_HEADER_LENGTH)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private volatile long packetsRecorded = 0;
+    private volatile long segmentsDeleted = 0;
+
+    public PcapRing(Path directory, long segmentBytes, long segmentMillis, long maxTotalBytes, long maxAgeMillis,
+                    long indexIntervalMillis, long windowBeforeMillis, long windowAfterMillis) {
+        super(STAGE_NAME, "evidence-writer", "evidence");
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.indexIntervalMillis = indexIntervalMillis;
+        this.windowBeforeMillis = windowBeforeMillis;
+        this.windowAfterMillis = windowAfterMillis;
+    }
+
+    /**
+     * Build the ring from capture.properties, or null if recording is disabled
+     */
+    public static PcapRing fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (!config.getBoolean("evidence.enabled", false)) {
+            return null;
+        }
+        return new PcapRing(
+                Paths.get(config.getString("evidence.directory", "evidence")),
+                config.getLong("evidence.segment-size-mb", 64) << 20,
+                config.getLong("evidence.segment-seconds", 300) * 1000,
+                config.getLong("evidence.max-size-mb", 1024) << 20,
+                config.getLong("evidence.max-age-minutes", 60) * 60_000,
+                Math.max(1, config.getLong("evidence.index-interval-ms", 100)),
+                config.getLong("evidence.window-before-seconds", 30) * 1000,
+                config.getLong("evidence.window-after-seconds", 10) * 1000);
+    }
+
+    /**
+     * Adopt segments of earlier runs and start the writer thread
+     */
+    @Override
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            loadSegments();
+        } catch (IOException e) {
+            System.err.println("Failed to open evidence directory " + directory + ": " + e.getMessage());
+        }
+        super.start();
+        System.out.println("Recording evidence to " + directory.toAbsolutePath() + " (" +
+                (maxTotalBytes >> 20) + " MB, " + (maxAgeMillis / 60_000) + " min)");
+    }
+
+    private synchronized void loadSegments() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.pcap")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(8, name.length() - 5)), path);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        for (var entry : files.entrySet()) {
+            PcapSegment segment = PcapSegment.load(entry.getKey(), entry.getValue(), indexIntervalMillis);
+            if (segment != null) {
+                segments.addLast(segment);
+                totalBytes += segment.getSize();
+            }
+            nextNumber = entry.getKey() + 1;
+        }
+        enforceBudget(System.currentTimeMillis());
+    }
+
+    @Override
+    protected synchronized int write(List<CapturedPacket> batch) {
+        int written = 0;
+        for (CapturedPacket packet : batch) {
+            try {
+                append(packet);
+                written++;
+            } catch (IOException e) {
+                System.err.println("Error writing evidence segment: " + e.getMessage());
+                close(open.remove(packet.getLinkType()));
+            }
+        }
+        packetsRecorded += written;
+        return written;
+    }
+
+    private void append(CapturedPacket packet) throws IOException {
+        long nanos = packet.getTimestampNanos();
+        long millis = nanos / 1_000_000;
+        int length = Math.min(packet.getCapturedLength(), SNAPLEN);
+        int recordLength = PcapSegment.RECORD_HEADER_LENGTH + length;
+
+        OpenSegment target = open.get(packet.getLinkType());
+        if (target == null || target.segment.getSize() + recordLength > segmentBytes ||
+                millis - target.segment.getFirstMillis() >= segmentMillis) {
+            target = rotate(packet.getLinkType(), millis);
+        }
+
+        recordHeader.clear();
+        recordHeader.putInt((int) (nanos / 1_000_000_000L));
+        recordHeader.putInt((int) (nanos % 1_000_000_000L / 1000));
+        recordHeader.putInt(length);
+        recordHeader.putInt(packet.getLength());
+        target.out.write(recordHeader.array());
+        target.out.write(packet.getData(), 0, length);
+        target.segment.append(millis, recordLength);
+        totalBytes += recordLength;
+        dirty = true;
+    }
+
+    private OpenSegment rotate(int linkType, long nowMillis) throws IOException {
+        close(open.remove(linkType));
+        long number = nextNumber++;
+        Path path = directory.resolve(String.format("segment-%08d.pcap", number));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), WRITE_BUFFER_SIZE);
+
+        ByteBuffer header = ByteBuffer.allocate(PcapSegment.GLOBAL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PcapSegment.PCAP_MAGIC);
+        header.putShort((short) 2);
+        header.putShort((short) 4);
+        header.putInt(0); // thiszone
+        header.putInt(0); // sigfigs
+        header.putInt(SNAPLEN);
+        header.putInt(linkType);
+        out.write(header.array());
+
+        OpenSegment target = new OpenSegment(new PcapSegment(number, path, linkType, indexIntervalMillis), out);
+        open.put(linkType, target);
+        segments.addLast(target.segment);
+        totalBytes += PcapSegment.GLOBAL_HEADER_LENGTH;
+        enforceBudget(nowMillis);
+        return target;
+    }
+
+    private void close(OpenSegment target) {
+        if (target == null) {
+            return;
+        }
+        try {
+            target.out.close();
+            target.segment.writeIndex();
+        } catch (IOException e) {
+            System.err.println("Error closing evidence segment " + target.segment.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the oldest closed segments beyond the size or age budget
+     */
+    private void enforceBudget(long nowMillis) {
+        Iterator<PcapSegment> oldestFirst = segments.iterator();
+        while (oldestFirst.hasNext()) {
+            PcapSegment oldest = oldestFirst.next();
+            if (totalBytes <= maxTotalBytes && oldest.getLastMillis() >= nowMillis - maxAgeMillis) {
+                break;
+            }
+            if (isOpen(oldest)) {
+                continue; // still written, deleted once closed
+            }
+            oldestFirst.remove();
+            totalBytes -= oldest.getSize();
+            oldest.delete();
+            segmentsDeleted++;
+        }
+    }
+
+    private boolean isOpen(PcapSegment segment) {
+        OpenSegment target = open.get(segment.getLinkType());
+        return target != null && target.segment == segment;
+    }
+
+    /**
+     * Make written packets visible to exports about once a second
+     */
+    @Override
+    protected synchronized void idle() {
+        if (dirty && System.nanoTime() - lastFlushNanos >= FLUSH_INTERVAL_NANOS) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        for (OpenSegment target : open.values()) {
+            try {
+                target.out.flush();
+            } catch (IOException e) {
+                System.err.println("Error flushing evidence segment: " + e.getMessage());
+            }
+        }
+        dirty = false;
+        lastFlushNanos = System.nanoTime();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        synchronized (this) {
+            open.values().forEach(this::close);
+            open.clear();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Write the packets recorded around an alert to a pcap file
+     * (evidence.window-before/after-seconds around its timestamp)
+     */
+    public int exportAround(SecurityAlert alert, Path output) {
+        long millis = alert.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return export(millis - windowBeforeMillis, millis + windowAfterMillis, output);
+    }
+
+    /**
+     * Write the packets with timestamps in [fromMillis, toMillis] to a pcap
+     * file, or pcapng when they span several link types, in timestamp
+     * order. Returns the number of packets written, -1 on error.
+     */
+    public int export(long fromMillis, long toMillis, Path output) {
+        // Snapshot under the lock; the files are only appended to, so reading
+        // up to the flushed size needs no further locking
+        Map<Integer, RecordReader> readers = new LinkedHashMap<>();
+        synchronized (this) {
+            if (dirty) {
+                flush();
+            }
+            for (PcapSegment segment : segments) {
+                if (segment.overlaps(fromMillis - REORDER_SLACK_MILLIS, toMillis + REORDER_SLACK_MILLIS)) {
+                    readers.computeIfAbsent(segment.getLinkType(), linkType -> new RecordReader(fromMillis, toMillis))
+                            .add(segment.getPath(), segment.seek(fromMillis), segment.getSize());
+                }
+            }
+        }
+
+        int packets = 0;
+        // Each link type's segments are read in order; the link types with
+        // packets in the window are merged
+        List<RecordReader> active = new ArrayList<>();
+        List<Integer> linkTypes = new ArrayList<>();
+        try {
+            for (var entry : readers.entrySet()) {
+                if (entry.getValue().next()) {
+                    entry.getValue().interfaceId = active.size();
+                    active.add(entry.getValue());
+                    linkTypes.add(entry.getKey());
+                }
+            }
+        } catch (IOException e) {
+            readers.values().forEach(RecordReader::close);
+            System.err.println("Failed to read evidence: " + e.getMessage());
+            return -1;
+        }
+        if (active.isEmpty()) {
+            System.out.println("No recorded packets between " + fromMillis + " and " + toMillis);
+            return 0;
+        }
+
+        boolean pcapng = linkTypes.size() > 1;
+        try (OutputStream target = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+            if (pcapng) {
+                writePcapngHeaders(target, linkTypes);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(PcapSegment.GLOBAL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(PcapSegment.PCAP_MAGIC).putShort((short) 2).putShort((short) 4)
+                        .putInt(0).putInt(0).putInt(SNAPLEN).putInt(linkTypes.get(0));
+                target.write(header.array());
+            }
+
+            while (!active.isEmpty()) {
+                RecordReader earliest = active.get(0);
+                for (RecordReader reader : active) {
+                    if (reader.micros() < earliest.micros()) {
+                        earliest = reader;
+                    }
+                }
+                if (pcapng) {
+                    earliest.writeEnhancedPacket(target);
+                } else {
+                    earliest.writeRecord(target);
+                }
+                packets++;
+                if (!earliest.next()) {
+                    active.remove(earliest);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to export evidence to " + output + ": " + e.getMessage());
+            return -1;
+        } finally {
+            readers.values().forEach(RecordReader::close);
+        }
+        System.out.println("Exported " + packets + " packets of evidence to " + output);
+        return packets;
+    }
+
+    /**
+     * Section header, then one interface description per link type in the
+     * order of the interface ids
+     */
+    private static void writePcapngHeaders(OutputStream target, List<Integer> linkTypes) throws IOException {
+        ByteBuffer section = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+        section.putInt(PCAPNG_SECTION_HEADER).putInt(28).putInt(0x1a2b3c4d)
+                .putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        target.write(section.array());
+        for (int linkType : linkTypes) {
+            ByteBuffer description = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            description.putInt(PCAPNG_INTERFACE_DESCRIPTION).putInt(20).putShort((short) linkType)
+                    .putShort((short) 0).putInt(SNAPLEN).putInt(20);
+            target.write(description.array());
+        }
+    }
+
+    /**
+     * Segment being written: the segment and its buffered output
+     */
+    private static final class OpenSegment {
+        final PcapSegment segment;
+        final OutputStream out;
+
+        OpenSegment(PcapSegment segment, OutputStream out) {
+            this.segment = segment;
+            this.out = out;
+        }
+    }
+
+    /**
+     * Records of one link type's segments in [fromMillis, toMillis], read
+     * segment by segment from the offsets the indexes give
+     */
+    private static final class RecordReader {
+        private final long fromMillis;
+        private final long toMillis;
+        private final List<Path> paths = new ArrayList<>();
+        private final List<long[]> ranges = new ArrayList<>(); // {start offset, end offset}
+        private final ByteBuffer record = ByteBuffer.allocate(PcapSegment.RECORD_HEADER_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] data = new byte[SNAPLEN];
+        private int next = 0;
+        private InputStream in;
+        private long position;
+        private long end;
+        private int length;
+        // Index of the link type's interface description in a pcapng export
+        int interfaceId;
+
+        RecordReader(long fromMillis, long toMillis) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        void add(Path path, long start, long end) {
+            paths.add(path);
+            ranges.add(new long[]{start, end});
+        }
+
+        /**
+         * Read the next record in the window, false after the last one
+         */
+        boolean next() throws IOException {
+            while (true) {
+                if (in == null && !openNext()) {
+                    return false;
+                }
+                if (position + PcapSegment.RECORD_HEADER_LENGTH > end ||
+                        in.readNBytes(record.array(), 0, PcapSegment.RECORD_HEADER_LENGTH) <
+                                PcapSegment.RECORD_HEADER_LENGTH) {
+                    close();
+                    continue;
+                }
+                length = record.getInt(8);
+                long millis = PcapSegment.recordMillis(record);
+                if (length < 0 || length > SNAPLEN || millis > toMillis + REORDER_SLACK_MILLIS ||
+                        in.readNBytes(data, 0, length) < length) {
+                    close();
+                    continue;
+                }
+                position += PcapSegment.RECORD_HEADER_LENGTH + length;
+                if (millis >= fromMillis && millis <= toMillis) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean openNext() throws IOException {
+            while (next < paths.size()) {
+                long[] range = ranges.get(next);
+                Path path = paths.get(next++);
+                try {
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                    channel.position(range[0]);
+                    in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+                    position = range[0];
+                    end = range[1];
+                    return true;
+                } catch (NoSuchFileException e) {
+                    // Segment aged out while exporting
+                }
+            }
+            return false;
+        }
+
+        long micros() {
+            return (record.getInt(0) & 0xffffffffL) * 1_000_000 + record.getInt(4);
+        }
+
+        void writeRecord(OutputStream target) throws IOException {
+            target.write(record.array());
+            target.write(data, 0, length);
+        }
+
+        /**
+         * The record as a pcapng enhanced packet block, microsecond timestamps
+         */
+        void writeEnhancedPacket(OutputStream target) throws IOException {
+            int padded = (length + 3) & ~3;
+            int blockLength = 32 + padded;
+            long micros = micros();
+            ByteBuffer header = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(PCAPNG_ENHANCED_PACKET).putInt(blockLength).putInt(interfaceId)
+                    .putInt((int) (micros >>> 32)).putInt((int) micros).putInt(length).putInt(record.getInt(12));
+            target.write(header.array());
+            target.write(data, 0, length);
+            target.write(new byte[padded - length]);
+            target.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(blockLength).array());
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+                in = null;
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getPacketsRecorded() {
+        return packetsRecorded;
+    }
+
+    public long getSegmentsDeleted() {
+        return segmentsDeleted;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+}
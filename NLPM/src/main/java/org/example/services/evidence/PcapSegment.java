@@ -0,0 +1,187 @@
+package org.example.services.evidence;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * One pcap file of the evidence ring with its time index.
+ * Every index-interval milliseconds of packet time the index remembers the
+ * time and file offset of the first packet, so a lookup is a binary search
+ * plus a short sequential read. The index is saved next to the segment
+ * (.idx) when the segment is closed.
+ */
+class PcapSegment {
+    static final int GLOBAL_HEADER_LENGTH = 24;
+    static final int RECORD_HEADER_LENGTH = 16;
+    static final int PCAP_MAGIC = 0xa1b2c3d4; // microsecond timestamps
+    private static final int INDEX_MAGIC = 0x49445831; // "IDX1"
+
+    private final long number;
+    private final Path path;
+    private final int linkType;
+    private final long indexIntervalMillis;
+    private long size;
+    private long firstMillis = Long.MAX_VALUE;
+    private long lastMillis = Long.MIN_VALUE;
+    private long[] indexMillis = new long[64];
+    private long[] indexOffsets = new long[64];
+    private int indexSize = 0;
+
+    PcapSegment(long number, Path path, int linkType, long indexIntervalMillis) {
+        this.number = number;
+        this.path = path;
+        this.linkType = linkType;
+        this.indexIntervalMillis = indexIntervalMillis;
+        this.size = GLOBAL_HEADER_LENGTH;
+    }
+
+    /**
+     * Account a record written at the current end of the file
+     */
+    void append(long millis, int recordLength) {
+        if (indexSize == 0 || millis >= indexMillis[indexSize - 1] + indexIntervalMillis) {
+            if (indexSize == indexMillis.length) {
+                indexMillis = Arrays.copyOf(indexMillis, indexSize * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            }
+            indexMillis[indexSize] = millis;
+            indexOffsets[indexSize] = size;
+            indexSize++;
+        }
+        firstMillis = Math.min(firstMillis, millis);
+        lastMillis = Math.max(lastMillis, millis);
+        size += recordLength;
+    }
+
+    /**
+     * File offset to start reading for packets at or after the given time
+     */
+    long seek(long millis) {
+        int low = 0, high = indexSize - 1, found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexMillis[mid] <= millis) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // Packets of several interfaces are not strictly ordered: start one
+        // index entry earlier so slightly late timestamps are not missed
+        return found <= 0 ? GLOBAL_HEADER_LENGTH : indexOffsets[found - 1];
+    }
+
+    boolean overlaps(long fromMillis, long toMillis) {
+        return indexSize > 0 && firstMillis <= toMillis && lastMillis >= fromMillis;
+    }
+
+    void writeIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(indexPath(path)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(linkType);
+            out.writeLong(size);
+            out.writeLong(firstMillis);
+            out.writeLong(lastMillis);
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                out.writeLong(indexMillis[i]);
+                out.writeLong(indexOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Load a segment left by an earlier run, from its index file or, when
+     * that is missing or stale (crash while writing), by reading the record
+     * headers once. Returns null if the file is not a usable pcap.
+     */
+    static PcapSegment load(long number, Path path, long indexIntervalMillis) throws IOException {
+        long fileSize = Files.size(path);
+        Path index = indexPath(path);
+        if (Files.exists(index)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+                if (in.readInt() == INDEX_MAGIC) {
+                    PcapSegment segment = new PcapSegment(number, path, in.readInt(), indexIntervalMillis);
+                    segment.size = in.readLong();
+                    segment.firstMillis = in.readLong();
+                    segment.lastMillis = in.readLong();
+                    int count = in.readInt();
+                    segment.indexMillis = new long[Math.max(1, count)];
+                    segment.indexOffsets = new long[Math.max(1, count)];
+                    for (int i = 0; i < count; i++) {
+                        segment.indexMillis[i] = in.readLong();
+                        segment.indexOffsets[i] = in.readLong();
+                    }
+                    segment.indexSize = count;
+                    if (segment.size == fileSize) {
+                        return segment;
+                    }
+                }
+            } catch (EOFException e) {
+                // Truncated index, rebuild below
+            }
+        }
+        return scan(number, path, fileSize, indexIntervalMillis);
+    }
+
+    private static PcapSegment scan(long number, Path path, long fileSize, long indexIntervalMillis)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            ByteBuffer header = ByteBuffer.allocate(GLOBAL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            if (in.readNBytes(header.array(), 0, GLOBAL_HEADER_LENGTH) < GLOBAL_HEADER_LENGTH ||
+                    header.getInt(0) != PCAP_MAGIC) {
+                return null;
+            }
+            PcapSegment segment = new PcapSegment(number, path, header.getInt(20), indexIntervalMillis);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            while (segment.size + RECORD_HEADER_LENGTH <= fileSize) {
+                if (in.readNBytes(record.array(), 0, RECORD_HEADER_LENGTH) < RECORD_HEADER_LENGTH) {
+                    break;
+                }
+                int capturedLength = record.getInt(8);
+                if (capturedLength < 0 || segment.size + RECORD_HEADER_LENGTH + capturedLength > fileSize) {
+                    break; // partial record at the end
+                }
+                in.skipNBytes(capturedLength);
+                segment.append(recordMillis(record), RECORD_HEADER_LENGTH + capturedLength);
+            }
+            segment.writeIndex();
+            return segment;
+        }
+    }
+
+    static long recordMillis(ByteBuffer recordHeader) {
+        return (recordHeader.getInt(0) & 0xffffffffL) * 1000 + recordHeader.getInt(4) / 1000;
+    }
+
+    static Path indexPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - ".pcap".length()) + ".idx");
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(indexPath(path));
+        } catch (IOException e) {
+            System.err.println("Failed to delete evidence segment " + path + ": " + e.getMessage());
+        }
+    }
+
+    long getNumber() { return number; }
+    Path getPath() { return path; }
+    int getLinkType() { return linkType; }
+    long getSize() { return size; }
+    long getFirstMillis() { return firstMillis; }
+    long getLastMillis() { return lastMillis; }
+}
@@ -0,0 +1,35 @@
+package org.example.services.flow;
+
+/**
+ * Wire format of exported flow records
+ */
+public enum ExportFormat {
+    IPFIX(10, 2),
+    NETFLOW_V9(9, 0);
+
+    private final int version;
+    private final int templateSetId;
+
+    ExportFormat(int version, int templateSetId) {
+        this.version = version;
+        this.templateSetId = templateSetId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Set (FlowSet) id announcing templates
+     */
+    public int getTemplateSetId() {
+        return templateSetId;
+    }
+
+    /**
+     * Size of the message header
+     */
+    public int getHeaderLength() {
+        return this == IPFIX ? 16 : 20;
+    }
+}
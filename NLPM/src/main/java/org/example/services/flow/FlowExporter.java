@@ -0,0 +1,385 @@
+package org.example.services.flow;
+
+import org.example.models.FlowRecord;
+import org.example.services.BatchWriter;
+import org.example.services.capture.CaptureConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+
+/**
+ * Exports finished flows to an IPFIX or NetFlow v9 collector over UDP.
+ * Records are encoded by the writer thread into datagrams of at most
+ * max-datagram-size bytes and sent through one connected DatagramChannel.
+ * Each direction of a flow becomes its own record (collectors expect
+ * unidirectional flows). Templates go out with the first datagram and again
+ * every template-refresh interval, also while no flows are exported, since
+ * a collector that restarts has no other way to learn them over UDP.
+ */
+public class FlowExporter extends BatchWriter<FlowRecord> {
+    public static final String STAGE_NAME = "Export";
+
+    private static final int TEMPLATE_IPV4 = 256;
+    private static final int TEMPLATE_IPV6 = 257;
+
+    // Information element ids, the same numbers in NetFlow v9 and IPFIX
+    private static final int OCTET_DELTA_COUNT = 1;
+    private static final int PACKET_DELTA_COUNT = 2;
+    private static final int PROTOCOL_IDENTIFIER = 4;
+    private static final int TCP_CONTROL_BITS = 6;
+    private static final int SOURCE_PORT = 7;
+    private static final int SOURCE_IPV4 = 8;
+    private static final int DESTINATION_PORT = 11;
+    private static final int DESTINATION_IPV4 = 12;
+    private static final int LAST_SWITCHED = 21;
+    private static final int FIRST_SWITCHED = 22;
+    private static final int SOURCE_IPV6 = 27;
+    private static final int DESTINATION_IPV6 = 28;
+    private static final int FLOW_END_REASON = 136;
+    private static final int FLOW_START_MILLISECONDS = 152;
+    private static final int FLOW_END_MILLISECONDS = 153;
+
+    // IPFIX flowEndReason values
+    private static final int END_IDLE_TIMEOUT = 1;
+    private static final int END_ACTIVE_TIMEOUT = 2;
+    private static final int END_OF_FLOW = 3;
+    private static final int END_FORCED = 4;
+
+    private final ExportFormat format;
+    private final InetSocketAddress collector;
+    private final int observationDomainId;
+    private final long templateRefreshNanos;
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final int[][] ipv4Fields;
+    private final int[][] ipv6Fields;
+    private final int ipv4RecordLength;
+    private final int ipv6RecordLength;
+
+    // NetFlow v9 times are milliseconds since the exporter started
+    private final long bootMillis = System.currentTimeMillis();
+
+    // Message being built, touched only by the writer thread
+    private int setStart = -1;
+    private int setId = -1;
+    private int recordCount;     // v9 header count: template and data records
+    private int dataRecordCount; // IPFIX sequence advances by data records
+    private long sequence = 0;
+    private long lastTemplateNanos;
+    private boolean templatesSent = false;
+    private boolean failing = false;
+
+    private volatile long datagramsSent = 0;
+    private volatile long datagramsFailed = 0;
+    private volatile long recordsExported = 0;
+
+    public FlowExporter(ExportFormat format, InetSocketAddress collector, int observationDomainId,
+                        long templateRefreshNanos, int maxDatagramSize) throws IOException {
+        super(STAGE_NAME, "flow-exporter", "export");
+        this.format = format;
+        this.collector = collector;
+        this.observationDomainId = observationDomainId;
+        this.templateRefreshNanos = templateRefreshNanos;
+        this.buffer = ByteBuffer.allocate(Math.max(512, Math.min(65507, maxDatagramSize)));
+        this.ipv4Fields = fields(false);
+        this.ipv6Fields = fields(true);
+        this.ipv4RecordLength = recordLength(ipv4Fields);
+        this.ipv6RecordLength = recordLength(ipv6Fields);
+
+        // Connected, so the kernel resolves the route once and reports an
+        // unreachable collector on the next send
+        this.channel = DatagramChannel.open();
+        this.channel.connect(collector);
+    }
+
+    /**
+     * Build the exporter from capture.properties, or null if export is disabled
+     */
+    public static FlowExporter fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        if (!config.getBoolean("export.enabled", false)) {
+            return null;
+        }
+
+        ExportFormat format = config.getEnum("export.format", ExportFormat.class, ExportFormat.IPFIX);
+        String host = config.getString("export.collector-host", "127.0.0.1");
+        int port = config.getInt("export.collector-port", format == ExportFormat.IPFIX ? 4739 : 2055);
+        InetSocketAddress collector = new InetSocketAddress(host, port);
+        if (collector.isUnresolved()) {
+            System.err.println("Flow collector host not found: " + host);
+            return null;
+        }
+
+        try {
+            FlowExporter exporter = new FlowExporter(format, collector,
+                    config.getInt("export.observation-domain-id", 1),
+                    config.getLong("export.template-refresh-seconds", 60) * 1_000_000_000L,
+                    config.getInt("export.max-datagram-size", 1400));
+            System.out.println("Exporting flows as " + format + " to " + host + ":" + port);
+            return exporter;
+        } catch (IOException e) {
+            System.err.println("Failed to open flow export channel: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private int[][] fields(boolean ipv6) {
+        int addressLength = ipv6 ? 16 : 4;
+        int[][] common = {
+                {ipv6 ? SOURCE_IPV6 : SOURCE_IPV4, addressLength},
+                {ipv6 ? DESTINATION_IPV6 : DESTINATION_IPV4, addressLength},
+                {SOURCE_PORT, 2},
+                {DESTINATION_PORT, 2},
+                {PROTOCOL_IDENTIFIER, 1},
+                {TCP_CONTROL_BITS, 1},
+                {PACKET_DELTA_COUNT, 8},
+                {OCTET_DELTA_COUNT, 8},
+        };
+        int[][] times = format == ExportFormat.IPFIX ?
+                new int[][]{{FLOW_START_MILLISECONDS, 8}, {FLOW_END_MILLISECONDS, 8}, {FLOW_END_REASON, 1}} :
+                new int[][]{{FIRST_SWITCHED, 4}, {LAST_SWITCHED, 4}};
+
+        int[][] fields = new int[common.length + times.length][];
+        System.arraycopy(common, 0, fields, 0, common.length);
+        System.arraycopy(times, 0, fields, common.length, times.length);
+        return fields;
+    }
+
+    private static int recordLength(int[][] fields) {
+        int length = 0;
+        for (int[] field : fields) {
+            length += field[1];
+        }
+        return length;
+    }
+
+    @Override
+    protected int write(List<FlowRecord> batch) {
+        begin();
+        int exported = 0;
+        for (FlowRecord flow : batch) {
+            if (flow.getPacketsOut() > 0) {
+                put(flow, false);
+                exported++;
+            }
+            if (flow.getPacketsIn() > 0) {
+                put(flow, true);
+                exported++;
+            }
+        }
+        send();
+        recordsExported += exported;
+        return batch.size();
+    }
+
+    /**
+     * Keep templates fresh at the collector while no flows end
+     */
+    @Override
+    protected void idle() {
+        if (templatesDue()) {
+            begin();
+            send();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing flow export channel: " + e.getMessage());
+        }
+    }
+
+    private boolean templatesDue() {
+        return !templatesSent || System.nanoTime() - lastTemplateNanos >= templateRefreshNanos;
+    }
+
+    /**
+     * Start a new message, with the templates when they are due
+     */
+    private void begin() {
+        buffer.clear();
+        buffer.position(format.getHeaderLength());
+        setStart = -1;
+        setId = -1;
+        recordCount = 0;
+        dataRecordCount = 0;
+
+        if (templatesDue()) {
+            openSet(format.getTemplateSetId());
+            putTemplate(TEMPLATE_IPV4, ipv4Fields);
+            putTemplate(TEMPLATE_IPV6, ipv6Fields);
+            closeSet();
+            templatesSent = true;
+            lastTemplateNanos = System.nanoTime();
+        }
+    }
+
+    private void putTemplate(int templateId, int[][] fields) {
+        buffer.putShort((short) templateId);
+        buffer.putShort((short) fields.length);
+        for (int[] field : fields) {
+            buffer.putShort((short) field[0]);
+            buffer.putShort((short) field[1]);
+        }
+        recordCount++;
+    }
+
+    /**
+     * Encode one direction of a flow, sending the message first if it is full
+     */
+    private void put(FlowRecord flow, boolean reverse) {
+        boolean ipv6 = flow.getIpVersion() == 6;
+        int templateId = ipv6 ? TEMPLATE_IPV6 : TEMPLATE_IPV4;
+        // Room for the record, a new set header and the final padding
+        int needed = (ipv6 ? ipv6RecordLength : ipv4RecordLength) + (setId == templateId ? 0 : 4) + 3;
+        if (buffer.remaining() < needed) {
+            send();
+            begin();
+        }
+        openSet(templateId);
+
+        long sourceHigh = reverse ? flow.getDestinationHigh() : flow.getSourceHigh();
+        long sourceLow = reverse ? flow.getDestinationLow() : flow.getSourceLow();
+        long destinationHigh = reverse ? flow.getSourceHigh() : flow.getDestinationHigh();
+        long destinationLow = reverse ? flow.getSourceLow() : flow.getDestinationLow();
+        putAddress(ipv6, sourceHigh, sourceLow);
+        putAddress(ipv6, destinationHigh, destinationLow);
+        buffer.putShort((short) (reverse ? flow.getDestinationPort() : flow.getSourcePort()));
+        buffer.putShort((short) (reverse ? flow.getSourcePort() : flow.getDestinationPort()));
+        buffer.put((byte) flow.getIpProtocol());
+        buffer.put((byte) flow.getTcpFlags()); // both directions combined
+        buffer.putLong(reverse ? flow.getPacketsIn() : flow.getPacketsOut());
+        buffer.putLong(reverse ? flow.getBytesIn() : flow.getBytesOut());
+
+        long startMillis = flow.getFirstSeenNanos() / 1_000_000;
+        long endMillis = flow.getLastSeenNanos() / 1_000_000;
+        if (format == ExportFormat.IPFIX) {
+            buffer.putLong(startMillis);
+            buffer.putLong(endMillis);
+            buffer.put((byte) endReason(flow.getEndReason()));
+        } else {
+            // Replayed flows older than the exporter wrap around; v9 has no absolute time field
+            buffer.putInt((int) (startMillis - bootMillis));
+            buffer.putInt((int) (endMillis - bootMillis));
+        }
+        recordCount++;
+        dataRecordCount++;
+    }
+
+    private void putAddress(boolean ipv6, long high, long low) {
+        if (ipv6) {
+            buffer.putLong(high);
+            buffer.putLong(low);
+        } else {
+            buffer.putInt((int) low);
+        }
+    }
+
+    private static int endReason(String reason) {
+        switch (reason) {
+            case FlowRecord.END_IDLE: return END_IDLE_TIMEOUT;
+            case FlowRecord.END_ACTIVE: return END_ACTIVE_TIMEOUT;
+            case FlowRecord.END_FIN:
+            case FlowRecord.END_RST: return END_OF_FLOW;
+            default: return END_FORCED;
+        }
+    }
+
+    private void openSet(int id) {
+        if (setId == id) {
+            return;
+        }
+        closeSet();
+        setStart = buffer.position();
+        setId = id;
+        buffer.putInt(id << 16); // length filled in by closeSet
+    }
+
+    /**
+     * Pad the current set to 32 bits and write its length
+     */
+    private void closeSet() {
+        if (setStart < 0) {
+            return;
+        }
+        while ((buffer.position() - setStart) % 4 != 0) {
+            buffer.put((byte) 0);
+        }
+        buffer.putShort(setStart + 2, (short) (buffer.position() - setStart));
+        setStart = -1;
+        setId = -1;
+    }
+
+    /**
+     * Write the message header and send the datagram, if it holds anything
+     */
+    private void send() {
+        closeSet();
+        if (recordCount == 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int length = buffer.position();
+        buffer.putShort(0, (short) format.getVersion());
+        if (format == ExportFormat.IPFIX) {
+            // Sequence number counts the data records sent before this message
+            buffer.putShort(2, (short) length);
+            buffer.putInt(4, (int) (now / 1000));
+            buffer.putInt(8, (int) sequence);
+            buffer.putInt(12, observationDomainId);
+            sequence += dataRecordCount;
+        } else {
+            // Sequence number counts export packets
+            buffer.putShort(2, (short) recordCount);
+            buffer.putInt(4, (int) (now - bootMillis));
+            buffer.putInt(8, (int) (now / 1000));
+            buffer.putInt(12, (int) sequence);
+            buffer.putInt(16, observationDomainId);
+            sequence++;
+        }
+        buffer.flip();
+
+        try {
+            channel.write(buffer);
+            datagramsSent++;
+            if (failing) {
+                System.out.println("Flow export to " + collector + " resumed");
+                failing = false;
+            }
+        } catch (IOException e) {
+            datagramsFailed++;
+            if (!failing) {
+                System.err.println("Failed to export flows to " + collector + ": " + e.getMessage());
+                failing = true;
+            }
+        }
+        recordCount = 0;
+    }
+
+    public ExportFormat getFormat() {
+        return format;
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent;
+    }
+
+    public long getDatagramsFailed() {
+        return datagramsFailed;
+    }
+
+    /**
+     * Data records sent, one per flow direction with packets
+     */
+    public long getRecordsExported() {
+        return recordsExported;
+    }
+}
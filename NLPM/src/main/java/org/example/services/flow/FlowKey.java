@@ -0,0 +1,67 @@
+package org.example.services.flow;
+
+import org.example.services.capture.HeaderDecoder;
+
+/**
+ * Direction-independent five-tuple: the lower endpoint always comes first,
+ * so both directions of a conversation map to the same key. Lookups reuse
+ * a mutable probe per thread; only new flows allocate a key.
+ */
+class FlowKey {
+    private long lowHigh, lowLow, highHigh, highLow;
+    private int ports;
+    private int protocol;
+
+    FlowKey set(HeaderDecoder headers) {
+        long srcHigh = headers.getSourceHigh(), srcLow = headers.getSourceLow();
+        long dstHigh = headers.getDestinationHigh(), dstLow = headers.getDestinationLow();
+        int srcPort = headers.getSourcePort(), dstPort = headers.getDestinationPort();
+
+        int order = Long.compareUnsigned(srcHigh, dstHigh);
+        if (order == 0) {
+            order = Long.compareUnsigned(srcLow, dstLow);
+        }
+        if (order == 0) {
+            order = Integer.compare(srcPort, dstPort);
+        }
+        if (order <= 0) {
+            lowHigh = srcHigh; lowLow = srcLow; highHigh = dstHigh; highLow = dstLow;
+            ports = srcPort << 16 | dstPort;
+        } else {
+            lowHigh = dstHigh; lowLow = dstLow; highHigh = srcHigh; highLow = srcLow;
+            ports = dstPort << 16 | srcPort;
+        }
+        protocol = headers.getProtocol() << 4 | (headers.isIpv4() ? 4 : 6);
+        return this;
+    }
+
+    FlowKey copy() {
+        FlowKey key = new FlowKey();
+        key.lowHigh = lowHigh;
+        key.lowLow = lowLow;
+        key.highHigh = highHigh;
+        key.highLow = highLow;
+        key.ports = ports;
+        key.protocol = protocol;
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FlowKey)) {
+            return false;
+        }
+        FlowKey other = (FlowKey) o;
+        return lowLow == other.lowLow && highLow == other.highLow && ports == other.ports &&
+                protocol == other.protocol && lowHigh == other.lowHigh && highHigh == other.highHigh;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(lowHigh) * 31 + Long.hashCode(lowLow);
+        h = h * 31 + Long.hashCode(highHigh);
+        h = h * 31 + Long.hashCode(highLow);
+        h = h * 31 + ports;
+        return h * 31 + protocol;
+    }
+}
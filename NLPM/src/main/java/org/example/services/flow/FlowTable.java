@@ -0,0 +1,309 @@
+package org.example.services.flow;
+
+import org.example.models.FlowRecord;
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.HeaderDecoder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bidirectional flow table in the capture path.
+ * Packets of both directions update one entry keyed by the five-tuple; a
+ * record is emitted to the listeners when the flow ends:
+ * - TCP FIN in both directions or RST, after a short linger for the last ACKs
+ * - no packet for the idle timeout
+ * - capture stops
+ * Flows lasting longer than the active timeout emit an interim record and
+ * keep counting from zero. Timeouts follow packet time, so replayed files
+ * expire flows as they did on the wire.
+ * Shared by all pipeline workers: the two directions of a conversation
+ * are usually sharded to different workers.
+ */
+public class FlowTable {
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final Map<FlowKey, Flow> flows = new ConcurrentHashMap<>();
+    private final int maxFlows;
+    private final long idleTimeoutNanos;
+    private final long activeTimeoutNanos;
+    private final long tcpEndTimeoutNanos;
+    private final List<Consumer<FlowRecord>> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<FlowKey> probe = ThreadLocal.withInitial(FlowKey::new);
+    private ScheduledExecutorService sweeper;
+
+    // Packet-time clock: latest packet timestamp plus wall time since it was seen
+    private volatile long clockNanos = 0;
+    private volatile long clockUpdatedAt = System.nanoTime();
+
+    private final LongAdder flowsCreated = new LongAdder();
+    private final LongAdder recordsEmitted = new LongAdder();
+    private final LongAdder flowsRejected = new LongAdder();
+
+    public FlowTable(int maxFlows, long idleTimeoutNanos, long activeTimeoutNanos, long tcpEndTimeoutNanos) {
+        this.maxFlows = maxFlows;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.activeTimeoutNanos = activeTimeoutNanos;
+        this.tcpEndTimeoutNanos = tcpEndTimeoutNanos;
+    }
+
+    /**
+     * Build a flow table from capture.properties
+     */
+    public static FlowTable fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        return new FlowTable(
+                config.getInt("flows.max-flows", 200_000),
+                config.getLong("flows.idle-timeout-seconds", 30) * 1_000_000_000L,
+                config.getLong("flows.active-timeout-seconds", 300) * 1_000_000_000L,
+                config.getLong("flows.tcp-end-timeout-seconds", 5) * 1_000_000_000L);
+    }
+
+    /**
+     * Receive every emitted flow record (called from worker and sweeper threads)
+     */
+    public void addListener(Consumer<FlowRecord> listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "flow-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                System.err.println("Error expiring flows: " + e.getMessage());
+            }
+        }, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop expiring flows and emit everything still open
+     */
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        flush(FlowRecord.END_CAPTURE_STOP);
+    }
+
+    /**
+     * Account one IP packet (headers decoded from it) to its flow
+     */
+    public void update(HeaderDecoder headers, String protocol, int length, int weight, long timestampNanos) {
+        advanceClock(timestampNanos);
+
+        FlowKey key = probe.get().set(headers);
+        while (true) {
+            Flow flow = flows.get(key);
+            if (flow == null) {
+                if (flows.size() >= maxFlows) {
+                    flowsRejected.increment();
+                    return;
+                }
+                Flow created = new Flow(headers, protocol, timestampNanos);
+                flow = flows.putIfAbsent(key.copy(), created);
+                if (flow == null) {
+                    flow = created;
+                    flowsCreated.increment();
+                }
+            }
+            // A flow emitted by the sweeper meanwhile is gone, start a new one
+            if (flow.add(headers, length, weight, timestampNanos)) {
+                return;
+            }
+        }
+    }
+
+    private void advanceClock(long timestampNanos) {
+        if (timestampNanos > clockNanos) {
+            clockNanos = timestampNanos;
+            clockUpdatedAt = System.nanoTime();
+        }
+    }
+
+    private long now() {
+        return clockNanos + (System.nanoTime() - clockUpdatedAt);
+    }
+
+    /**
+     * Emit flows that ended or hit the active timeout
+     */
+    void sweep() {
+        long now = now();
+        for (Map.Entry<FlowKey, Flow> entry : flows.entrySet()) {
+            Flow flow = entry.getValue();
+            FlowRecord record = flow.expire(now);
+            if (record == null) {
+                continue;
+            }
+            if (flow.emitted) {
+                flows.remove(entry.getKey(), flow);
+            }
+            emit(record);
+        }
+    }
+
+    /**
+     * Emit every open flow, e.g. when capture stops
+     */
+    public void flush(String reason) {
+        for (Map.Entry<FlowKey, Flow> entry : flows.entrySet()) {
+            Flow flow = entry.getValue();
+            FlowRecord record = flow.close(reason);
+            flows.remove(entry.getKey(), flow);
+            if (record != null) {
+                emit(record);
+            }
+        }
+    }
+
+    private void emit(FlowRecord record) {
+        recordsEmitted.increment();
+        for (Consumer<FlowRecord> listener : listeners) {
+            try {
+                listener.accept(record);
+            } catch (Exception e) {
+                System.err.println("Error handling flow record: " + e.getMessage());
+            }
+        }
+    }
+
+    public int getActiveFlows() {
+        return flows.size();
+    }
+
+    public long getFlowsCreated() {
+        return flowsCreated.sum();
+    }
+
+    public long getRecordsEmitted() {
+        return recordsEmitted.sum();
+    }
+
+    /**
+     * New flows not tracked because the table was full
+     */
+    public long getFlowsRejected() {
+        return flowsRejected.sum();
+    }
+
+    /**
+     * One conversation. The endpoint that sent the first packet is the
+     * initiator; its packets count as "out".
+     */
+    private class Flow {
+        private final int ipVersion;
+        private final long srcHigh, srcLow, dstHigh, dstLow;
+        private final int srcPort, dstPort;
+        private final int ipProtocol;
+        private final String protocol;
+
+        private long packetsOut, bytesOut, packetsIn, bytesIn;
+        private int tcpFlags;
+        private long firstSeen, lastSeen;
+        private boolean finOut, finIn;
+        private long endedAt = -1; // FIN both ways or RST
+        private boolean emitted;
+
+        Flow(HeaderDecoder headers, String protocol, long timestampNanos) {
+            this.ipVersion = headers.isIpv4() ? 4 : 6;
+            this.srcHigh = headers.getSourceHigh();
+            this.srcLow = headers.getSourceLow();
+            this.dstHigh = headers.getDestinationHigh();
+            this.dstLow = headers.getDestinationLow();
+            this.srcPort = headers.getSourcePort();
+            this.dstPort = headers.getDestinationPort();
+            this.ipProtocol = headers.getProtocol();
+            this.protocol = protocol;
+            this.firstSeen = timestampNanos;
+            this.lastSeen = timestampNanos;
+        }
+
+        /**
+         * Returns false if the flow was already emitted and removed
+         */
+        synchronized boolean add(HeaderDecoder headers, int length, int weight, long timestampNanos) {
+            if (emitted) {
+                return false;
+            }
+            boolean out = headers.getSourceLow() == srcLow && headers.getSourceHigh() == srcHigh &&
+                    headers.getSourcePort() == srcPort;
+            if (out) {
+                packetsOut += weight;
+                bytesOut += (long) length * weight;
+            } else {
+                packetsIn += weight;
+                bytesIn += (long) length * weight;
+            }
+            lastSeen = Math.max(lastSeen, timestampNanos);
+
+            if (ipProtocol == HeaderDecoder.PROTO_TCP && headers.hasTransport()) {
+                int flags = headers.getTcpFlags();
+                tcpFlags |= flags;
+                if ((flags & HeaderDecoder.TCP_FIN) != 0) {
+                    if (out) {
+                        finOut = true;
+                    } else {
+                        finIn = true;
+                    }
+                }
+                if (endedAt < 0 && ((flags & HeaderDecoder.TCP_RST) != 0 || (finOut && finIn))) {
+                    endedAt = timestampNanos;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Record to emit at this time, or null. Sets emitted when the
+         * flow is finished; after an active timeout it keeps running.
+         */
+        synchronized FlowRecord expire(long now) {
+            if (emitted) {
+                return null;
+            }
+            if (endedAt >= 0 && now - lastSeen >= tcpEndTimeoutNanos) {
+                return finish((tcpFlags & HeaderDecoder.TCP_RST) != 0 && !(finOut && finIn) ?
+                        FlowRecord.END_RST : FlowRecord.END_FIN);
+            }
+            if (now - lastSeen >= idleTimeoutNanos) {
+                return finish(FlowRecord.END_IDLE);
+            }
+            if (now - firstSeen >= activeTimeoutNanos) {
+                FlowRecord record = toRecord(FlowRecord.END_ACTIVE);
+                packetsOut = bytesOut = packetsIn = bytesIn = 0;
+                tcpFlags = 0;
+                firstSeen = now;
+                return record;
+            }
+            return null;
+        }
+
+        synchronized FlowRecord close(String reason) {
+            return emitted ? null : finish(reason);
+        }
+
+        private FlowRecord finish(String reason) {
+            emitted = true;
+            return toRecord(reason);
+        }
+
+        private FlowRecord toRecord(String reason) {
+            return new FlowRecord(ipVersion, srcHigh, srcLow, dstHigh, dstLow, srcPort, dstPort,
+                    ipProtocol, protocol, packetsOut, bytesOut, packetsIn, bytesIn, tcpFlags,
+                    firstSeen, Math.max(firstSeen, lastSeen), reason);
+        }
+    }
+}
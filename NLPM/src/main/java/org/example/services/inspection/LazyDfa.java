@@ -0,0 +1,236 @@
+package org.example.services.inspection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * DFA of a {@link RegexSet}, built lazily by one worker. A DFA state is
+ * the set of NFA states active after the bytes read so far; its
+ * transitions are computed the first time a byte class is seen and cached,
+ * so scanning costs one table lookup per byte once the traffic's states
+ * exist. Building a state is bounded by the NFA size, so a scan is linear
+ * in the payload length whatever the patterns or payload (no backtracking).
+ * When the states would exceed the cache size the cache is cleared and
+ * rebuilt from the current state on.
+ * Not thread-safe: one instance per worker.
+ */
+public class LazyDfa {
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    // Rough heap cost of a state besides its transition row and node list
+    private static final int STATE_OVERHEAD = 96;
+    private static final int[] NONE = new int[0];
+
+    private final RegexSet regexes;
+    private final int classes;
+    private final long cacheBytes;
+
+    // Row offset of the target (state * classes), bitwise not when the
+    // target completes a match, UNKNOWN until computed
+    private int[] table;
+    private int[][] stateNodes;
+    private int[][] stateMatches;
+    private int[][] stateEndMatches;
+    private int stateCount = 0;
+    private long memoryUsed = 0;
+    private final Map<StateKey, Integer> stateIndex = new HashMap<>();
+    private int startRow = -1;
+    private int flushCount = 0;
+
+    private final NfaClosure closure;
+
+    LazyDfa(RegexSet regexes) {
+        this.regexes = regexes;
+        this.classes = regexes.classes;
+        this.cacheBytes = regexes.getCacheBytes();
+        this.table = new int[16 * classes];
+        this.stateNodes = new int[16][];
+        this.stateMatches = new int[16][];
+        this.stateEndMatches = new int[16][];
+        this.closure = new NfaClosure(regexes, regexes.nodeCount);
+    }
+
+    /**
+     * Scan one payload; ^ and $ refer to its first and last byte.
+     * Matched signatures are added to matches.
+     */
+    public void scan(byte[] data, int offset, int length, SignatureMatches matches) {
+        if (length <= 0 || regexes.entries.length == 0) {
+            return;
+        }
+        if (startRow < 0) {
+            startRow = startState();
+        }
+        int[] byteClass = regexes.byteClass;
+        int[] table = this.table;
+        int row = startRow;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int cls = byteClass[data[i] & 0xff];
+            int next = table[row + cls];
+            if (next == UNKNOWN) {
+                next = transition(row, cls);
+                table = this.table;
+            }
+            if (next < 0) {
+                next = ~next;
+                report(stateMatches[next / classes], matches);
+            }
+            row = next;
+        }
+        report(stateEndMatches[row / classes], matches);
+    }
+
+    private static void report(int[] signatureIds, SignatureMatches matches) {
+        for (int id : signatureIds) {
+            matches.add(id, id);
+        }
+    }
+
+    private int startState() {
+        closure.begin(0);
+        for (int entry : regexes.entries) {
+            closure.add(entry, true);
+        }
+        return stateFor(closure.sortedNodes());
+    }
+
+    private int transition(int row, int cls) {
+        int state = row / classes;
+        int b = regexes.classByte[cls];
+        closure.begin(0);
+        for (int node : stateNodes[state]) {
+            if (regexes.type[node] == RegexSet.CHAR && regexes.testsByte(node, b)) {
+                closure.add(regexes.out1[node], false);
+            }
+        }
+        // Unanchored search: a match can start at the next byte
+        for (int entry : regexes.entries) {
+            closure.add(entry, false);
+        }
+        int flushes = flushCount;
+        int target = stateFor(closure.sortedNodes());
+        int encoded = stateMatches[target / classes].length > 0 ? ~target : target;
+        // After a flush the source row belongs to another state or none
+        if (flushCount == flushes) {
+            table[row + cls] = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Row of the state with these NFA states, built if new
+     */
+    private int stateFor(int[] nodes) {
+        StateKey key = new StateKey(nodes);
+        Integer existing = stateIndex.get(key);
+        if (existing != null) {
+            return existing * classes;
+        }
+
+        long cost = 4L * (classes + nodes.length) + STATE_OVERHEAD;
+        if (stateCount > 0 && memoryUsed + cost > cacheBytes) {
+            flush();
+        }
+        if (stateCount == stateNodes.length) {
+            int capacity = stateCount * 2;
+            table = Arrays.copyOf(table, capacity * classes);
+            stateNodes = Arrays.copyOf(stateNodes, capacity);
+            stateMatches = Arrays.copyOf(stateMatches, capacity);
+            stateEndMatches = Arrays.copyOf(stateEndMatches, capacity);
+        }
+        int state = stateCount++;
+        Arrays.fill(table, state * classes, (state + 1) * classes, UNKNOWN);
+        stateNodes[state] = nodes;
+        stateMatches[state] = matchesOf(nodes);
+        stateEndMatches[state] = endMatchesOf(nodes);
+        stateIndex.put(key, state);
+        memoryUsed += cost;
+        regexes.statesBuilt.increment();
+        return state * classes;
+    }
+
+    private void flush() {
+        flushCount++;
+        regexes.cacheFlushes.increment();
+        stateIndex.clear();
+        Arrays.fill(stateNodes, 0, stateCount, null);
+        Arrays.fill(stateMatches, 0, stateCount, null);
+        Arrays.fill(stateEndMatches, 0, stateCount, null);
+        stateCount = 0;
+        memoryUsed = 0;
+        startRow = -1;
+    }
+
+    private int[] matchesOf(int[] nodes) {
+        int count = 0;
+        for (int node : nodes) {
+            if (regexes.type[node] == RegexSet.MATCH) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NONE;
+        }
+        int[] ids = new int[count];
+        count = 0;
+        for (int node : nodes) {
+            if (regexes.type[node] == RegexSet.MATCH) {
+                ids[count++] = regexes.out1[node];
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Signatures matched if the payload ends in this state: the $ anchors
+     * held in the state are passed
+     */
+    private int[] endMatchesOf(int[] nodes) {
+        boolean anyEnd = false;
+        for (int node : nodes) {
+            anyEnd |= regexes.type[node] == RegexSet.END;
+        }
+        if (!anyEnd) {
+            return NONE;
+        }
+        closure.begin(0);
+        for (int node : nodes) {
+            if (regexes.type[node] == RegexSet.END) {
+                closure.addAtEnd(regexes.out1[node]);
+            }
+        }
+        return matchesOf(closure.sortedNodes());
+    }
+
+    /**
+     * DFA states currently cached
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public long getMemoryUsage() {
+        return memoryUsed;
+    }
+
+    private static final class StateKey {
+        private final int[] nodes;
+        private final int hash;
+
+        StateKey(int[] nodes) {
+            this.nodes = nodes;
+            this.hash = Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StateKey && Arrays.equals(nodes, ((StateKey) other).nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.services.inspection;
+
+import java.util.Arrays;
+
+/**
+ * Epsilon closures over the NFA of a {@link RegexSet}: collects the
+ * byte-consuming, match and $ states reachable without reading a byte.
+ * Scratch space for nodes base..base+size, the whole NFA for a
+ * {@link LazyDfa} or one signature's nodes for a {@link NfaMatcher}.
+ */
+final class NfaClosure {
+    private final RegexSet regexes;
+    // Visited marks, valid where the generation stamp is the current one
+    private final int[] visitedGeneration;
+    private int generation = 0;
+    private int base;
+    private int[] stack;
+    private final int[] collected;
+    private int count;
+
+    NfaClosure(RegexSet regexes, int size) {
+        this.regexes = regexes;
+        this.visitedGeneration = new int[size];
+        this.stack = new int[Math.max(16, size)];
+        this.collected = new int[Math.max(16, size)];
+    }
+
+    /**
+     * Start a new closure over the nodes from base on
+     */
+    void begin(int base) {
+        this.base = base;
+        if (++generation == 0) {
+            Arrays.fill(visitedGeneration, 0);
+            generation = 1;
+        }
+        count = 0;
+    }
+
+    /**
+     * Add the closure of node; ^ passes only at the payload start
+     */
+    void add(int node, boolean atStart) {
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int current = stack[--top];
+            if (visitedGeneration[current - base] == generation) {
+                continue;
+            }
+            visitedGeneration[current - base] = generation;
+            switch (regexes.type[current]) {
+                case RegexSet.SPLIT:
+                    top = push(top, regexes.out2[current]);
+                    top = push(top, regexes.out1[current]);
+                    break;
+                case RegexSet.BEGIN:
+                    if (atStart) {
+                        top = push(top, regexes.out1[current]);
+                    }
+                    break;
+                default:
+                    collected[count++] = current;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Add the match states reachable from node at the end of the payload:
+     * $ passes, nothing else is read
+     */
+    void addAtEnd(int node) {
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int current = stack[--top];
+            if (visitedGeneration[current - base] == generation) {
+                continue;
+            }
+            visitedGeneration[current - base] = generation;
+            switch (regexes.type[current]) {
+                case RegexSet.SPLIT:
+                    top = push(top, regexes.out2[current]);
+                    top = push(top, regexes.out1[current]);
+                    break;
+                case RegexSet.END:
+                    top = push(top, regexes.out1[current]);
+                    break;
+                case RegexSet.MATCH:
+                    collected[count++] = current;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private int push(int top, int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top] = node;
+        return top + 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int get(int i) {
+        return collected[i];
+    }
+
+    /**
+     * The collected states, sorted
+     */
+    int[] sortedNodes() {
+        int[] nodes = Arrays.copyOf(collected, count);
+        Arrays.sort(nodes);
+        return nodes;
+    }
+}
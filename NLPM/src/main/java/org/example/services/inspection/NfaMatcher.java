@@ -0,0 +1,85 @@
+package org.example.services.inspection;
+
+/**
+ * Matches one signature of a {@link RegexSet} at a time by running its
+ * NFA states over the payload, without a DFA cache. For large sets whose
+ * regexes are each only checked now and then, e.g. to confirm a content
+ * match: a {@link LazyDfa} over all of them would carry every regex in
+ * every state. Linear in the payload times the regex's active states,
+ * and stops at the first match or once an anchored regex can no longer
+ * match.
+ * Not thread-safe: one instance per worker.
+ */
+public class NfaMatcher {
+    private final RegexSet regexes;
+    private final NfaClosure closure;
+    private final int[] active;
+
+    NfaMatcher(RegexSet regexes) {
+        this.regexes = regexes;
+        this.closure = new NfaClosure(regexes, regexes.maxSignatureNodes);
+        this.active = new int[Math.max(16, regexes.maxSignatureNodes)];
+    }
+
+    /**
+     * True if the signature (index in {@link RegexSet#getSignatures()})
+     * matches the payload; ^ and $ refer to its first and last byte
+     */
+    public boolean matches(int signature, byte[] data, int offset, int length) {
+        int entry = regexes.signatureEntry[signature];
+        if (entry < 0 || length <= 0) {
+            return false;
+        }
+        int base = regexes.signatureFirst[signature];
+        closure.begin(base);
+        closure.add(entry, true);
+        int count = collect();
+        if (count < 0) {
+            return true;
+        }
+
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = data[i] & 0xff;
+            closure.begin(base);
+            for (int n = 0; n < count; n++) {
+                int node = active[n];
+                if (regexes.type[node] == RegexSet.CHAR && regexes.testsByte(node, b)) {
+                    closure.add(regexes.out1[node], false);
+                }
+            }
+            // Unanchored search: a match can start at the next byte
+            closure.add(entry, false);
+            count = collect();
+            if (count < 0) {
+                return true;
+            }
+            if (count == 0) {
+                return false;
+            }
+        }
+
+        closure.begin(base);
+        for (int n = 0; n < count; n++) {
+            if (regexes.type[active[n]] == RegexSet.END) {
+                closure.addAtEnd(regexes.out1[active[n]]);
+            }
+        }
+        return closure.size() > 0;
+    }
+
+    /**
+     * Copy the closure into the active states; -1 if it holds the match
+     */
+    private int collect() {
+        int count = closure.size();
+        for (int n = 0; n < count; n++) {
+            int node = closure.get(n);
+            if (regexes.type[node] == RegexSet.MATCH) {
+                return -1;
+            }
+            active[n] = node;
+        }
+        return count;
+    }
+}
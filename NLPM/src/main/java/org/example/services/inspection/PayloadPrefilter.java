@@ -0,0 +1,246 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.CaptureConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the places in a payload where a signature could match, so the
+ * automaton only runs around them. Each pattern is anchored at its rarest
+ * byte pair (by byte and bigram frequencies of typical HTTP/text traffic);
+ * a position is a candidate when the two bytes there form one of these
+ * pairs and, for patterns of four bytes or more, the four bytes from there
+ * hash into the table of anchor quads. Comparisons are case-insensitive.
+ * This class checks one position at a time against 64K-bit tables;
+ * {@link VectorPrefilter} tests a whole vector of positions at once. It is
+ * opt-in (mode VECTOR): it needs the incubating jdk.incubator.vector module
+ * at run time, for about 1.2x the scalar throughput on typical traffic.
+ */
+public class PayloadPrefilter {
+
+    public enum Mode {
+        /** SIMD candidate search, scalar when the Vector API is not available; opt-in */
+        VECTOR,
+        /** Scalar candidate search */
+        SCALAR,
+        /** No prefilter, the automaton reads every byte */
+        OFF
+    }
+
+    // Most frequent bytes in HTTP headers and text bodies, most common first;
+    // bytes not listed count as rare
+    private static final String COMMON_BYTES =
+            " etaoinsrhldcumfpgwybvkx0123456789/.-:=,&_\r\n\"?%jqz";
+    // Frequent letter pairs, scored as common whatever their bytes
+    private static final String[] COMMON_BIGRAMS = (
+            "th he in er an re on at en nd ti es or te of ed is it al ar st to nt ng se ha as ou io le " +
+            "ve co me de hi ri ro ic ne ea ra ce li ch ll be ma si om ur ca el ta la ns ge ly ei di ec " +
+            "ho ac et pe ss ct ut ol ad ap ex id ty yp ep pt tp tt ml js un ui us ue ht ow lo no").split(" ");
+    private static final int QUAD = 4;
+
+    private static final int[] FOLD = new int[256];
+    private static final int[] RARITY = new int[256];
+    private static final long[] COMMON_PAIRS = new long[65536 / 64];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            FOLD[i] = i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i;
+        }
+        for (int i = 0; i < 256; i++) {
+            int rank = COMMON_BYTES.indexOf(FOLD[i]);
+            RARITY[i] = rank >= 0 ? rank : COMMON_BYTES.length() + 16;
+        }
+        for (String bigram : COMMON_BIGRAMS) {
+            int key = (bigram.charAt(0) << 8) | bigram.charAt(1);
+            COMMON_PAIRS[key >>> 6] |= 1L << key;
+        }
+    }
+
+    private static boolean vectorUnavailableReported = false;
+
+    private final long[] pairs = new long[65536 / 64];
+    // Pairs of patterns shorter than a quad, a pair hit is enough
+    private final long[] shortPairs = new long[65536 / 64];
+    private final long[] quads = new long[65536 / 64];
+    private final int maxPairOffset;
+    private final int pairCount;
+
+    // Anchor buckets by nibble, for the vector search: a position can start
+    // an anchor of bucket k if bit k is set in the low and high nibble
+    // lookups of its first three bytes
+    final byte[][] lowNibbles = new byte[3][16];
+    final byte[][] highNibbles = new byte[3][16];
+
+    /**
+     * Patterns are lower case and at least two bytes long
+     */
+    PayloadPrefilter(List<byte[]> patterns) {
+        Map<Integer, List<int[]>> anchorsByFirst = new LinkedHashMap<>();
+        int maxOffset = 0;
+        int count = 0;
+        for (byte[] pattern : patterns) {
+            int offset = anchor(pattern);
+            maxOffset = Math.max(maxOffset, offset);
+            int first = pattern[offset] & 0xff;
+            int second = pattern[offset + 1] & 0xff;
+            int key = (first << 8) | second;
+            if (pattern.length < QUAD) {
+                shortPairs[key >>> 6] |= 1L << key;
+            } else {
+                int quad = quadHash(pattern[offset], pattern[offset + 1], pattern[offset + 2], pattern[offset + 3]);
+                quads[quad >>> 6] |= 1L << quad;
+            }
+            if ((pairs[key >>> 6] & (1L << key)) == 0) {
+                pairs[key >>> 6] |= 1L << key;
+                count++;
+            }
+            // A pattern ending with its pair matches whatever follows
+            int third = offset + 2 < pattern.length ? pattern[offset + 2] & 0xff : -1;
+            anchorsByFirst.computeIfAbsent(first, b -> new ArrayList<>()).add(new int[]{first, second, third});
+        }
+        this.maxPairOffset = maxOffset;
+        this.pairCount = count;
+
+        // Anchors with the same first byte share a bucket, first bytes are
+        // spread round-robin over the 8 buckets
+        int bucket = 0;
+        for (List<int[]> anchors : anchorsByFirst.values()) {
+            byte bit = (byte) (1 << (bucket++ & 7));
+            for (int[] anchor : anchors) {
+                for (int position = 0; position < 3; position++) {
+                    if (anchor[position] < 0) {
+                        for (int nibble = 0; nibble < 16; nibble++) {
+                            lowNibbles[position][nibble] |= bit;
+                            highNibbles[position][nibble] |= bit;
+                        }
+                        continue;
+                    }
+                    for (int b : caseVariants(anchor[position])) {
+                        lowNibbles[position][b & 0x0f] |= bit;
+                        highNibbles[position][b >>> 4] |= bit;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Prefilter for the given lower-case patterns, null if mode is OFF or
+     * some pattern is shorter than a pair
+     */
+    static PayloadPrefilter create(List<byte[]> patterns, Mode mode) {
+        if (mode == Mode.OFF || patterns.isEmpty()) {
+            return null;
+        }
+        for (byte[] pattern : patterns) {
+            if (pattern.length < 2) {
+                return null;
+            }
+        }
+        if (mode == Mode.VECTOR) {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    // Loaded by name: the class links against the incubator module
+                    return (PayloadPrefilter) Class.forName(PayloadPrefilter.class.getPackageName() + ".VectorPrefilter")
+                            .getDeclaredConstructor(List.class)
+                            .newInstance(patterns);
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    System.err.println("Vector prefilter failed to load, using scalar: " + e);
+                }
+            } else {
+                reportVectorUnavailable();
+            }
+        }
+        return new PayloadPrefilter(patterns);
+    }
+
+    private static synchronized void reportVectorUnavailable() {
+        if (!vectorUnavailableReported) {
+            vectorUnavailableReported = true;
+            System.out.println("Vector API not available (start with --add-modules jdk.incubator.vector), " +
+                    "using scalar payload prefilter");
+        }
+    }
+
+    public static Mode configuredMode() {
+        return CaptureConfig.getInstance().getEnum("inspection.prefilter", Mode.class, Mode.SCALAR);
+    }
+
+    /**
+     * Offset of the rarest pair that still leaves a full quad when the
+     * pattern is long enough for one
+     */
+    private static int anchor(byte[] pattern) {
+        int last = pattern.length >= QUAD ? pattern.length - QUAD : pattern.length - 2;
+        int best = 0;
+        int bestScore = Integer.MIN_VALUE;
+        for (int i = 0; i <= last; i++) {
+            int key = ((pattern[i] & 0xff) << 8) | (pattern[i + 1] & 0xff);
+            int score = RARITY[pattern[i] & 0xff] + RARITY[pattern[i + 1] & 0xff];
+            if ((COMMON_PAIRS[key >>> 6] & (1L << key)) != 0) {
+                score -= COMMON_BYTES.length();
+            }
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static int[] caseVariants(int b) {
+        return b >= 'a' && b <= 'z' ? new int[]{b, b - ('a' - 'A')} : new int[]{b};
+    }
+
+    private static int quadHash(int b0, int b1, int b2, int b3) {
+        int word = (FOLD[b0 & 0xff] << 24) | (FOLD[b1 & 0xff] << 16) | (FOLD[b2 & 0xff] << 8) | FOLD[b3 & 0xff];
+        return (word * 0x9e3779b1) >>> 16;
+    }
+
+    /**
+     * First candidate position p in [from, end - 1), or -1. A pattern whose
+     * anchor runs past end is not reported: it cannot end inside the data.
+     */
+    public int next(byte[] data, int from, int end) {
+        for (int p = from; p < end - 1; p++) {
+            if (isCandidate(data, p, end)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    final boolean isCandidate(byte[] data, int p, int end) {
+        int key = (FOLD[data[p] & 0xff] << 8) | FOLD[data[p + 1] & 0xff];
+        long bit = 1L << key;
+        if ((pairs[key >>> 6] & bit) == 0) {
+            return false;
+        }
+        if ((shortPairs[key >>> 6] & bit) != 0) {
+            return true;
+        }
+        if (p + QUAD > end) {
+            return false;
+        }
+        int quad = quadHash(data[p], data[p + 1], data[p + 2], data[p + 3]);
+        return (quads[quad >>> 6] & (1L << quad)) != 0;
+    }
+
+    /**
+     * How far before its candidate pair a pattern can start
+     */
+    public int getMaxPairOffset() {
+        return maxPairOffset;
+    }
+
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    public boolean isVectorized() {
+        return false;
+    }
+}
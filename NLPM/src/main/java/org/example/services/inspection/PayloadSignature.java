@@ -0,0 +1,31 @@
+package org.example.services.inspection;
+
+import java.util.List;
+
+/**
+ * A group of payload patterns raising one kind of alert, matched
+ * case-insensitively
+ */
+public class PayloadSignature {
+    private final String key;
+    private final String alertType;
+    private final String severity;
+    private final String description;
+    private final List<String> patterns;
+
+    public PayloadSignature(String key, String alertType, String severity, String description,
+                            String... patterns) {
+        this.key = key;
+        this.alertType = alertType;
+        this.severity = severity;
+        this.description = description;
+        this.patterns = List.of(patterns);
+    }
+
+    /** Rate-limiting key of the alert */
+    public String getKey() { return key; }
+    public String getAlertType() { return alertType; }
+    public String getSeverity() { return severity; }
+    public String getDescription() { return description; }
+    public List<String> getPatterns() { return patterns; }
+}
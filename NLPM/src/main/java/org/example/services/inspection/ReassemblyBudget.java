@@ -0,0 +1,108 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.CaptureConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory limits and counters shared by the TCP reassemblers of all
+ * pipeline workers
+ */
+public class ReassemblyBudget {
+    private final long memoryCap;
+    private final int maxStreams;
+    private final int streamDepth;
+    private final int maxPendingPerStream;
+    private final long idleTimeoutNanos;
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    final LongAdder streamsCreated = new LongAdder();
+    final LongAdder streamsEvicted = new LongAdder();
+    final LongAdder streamsTimedOut = new LongAdder();
+    final LongAdder segmentsOutOfOrder = new LongAdder();
+    final LongAdder segmentsDropped = new LongAdder();
+    final LongAdder overlaps = new LongAdder();
+    final LongAdder gapsSkipped = new LongAdder();
+    final LongAdder depthReached = new LongAdder();
+
+    public ReassemblyBudget(long memoryCap, int maxStreams, int streamDepth,
+                            int maxPendingPerStream, long idleTimeoutNanos) {
+        this.memoryCap = memoryCap;
+        this.maxStreams = maxStreams;
+        this.streamDepth = streamDepth;
+        this.maxPendingPerStream = maxPendingPerStream;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    /**
+     * Build limits from capture.properties
+     */
+    public static ReassemblyBudget fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        return new ReassemblyBudget(
+                config.getLong("reassembly.memory-cap-mb", 64) * 1024 * 1024,
+                config.getInt("reassembly.max-streams", 100_000),
+                config.getInt("reassembly.stream-depth", 1024 * 1024),
+                config.getInt("reassembly.max-pending-per-stream", 64 * 1024),
+                config.getLong("reassembly.idle-timeout-seconds", 120) * 1_000_000_000L);
+    }
+
+    /**
+     * Reserve memory, false if it would exceed the global cap
+     */
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long used = memoryUsed.get();
+            if (used + bytes > memoryCap) {
+                return false;
+            }
+            if (memoryUsed.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long bytes) {
+        memoryUsed.addAndGet(-bytes);
+    }
+
+    boolean tryOpenStream() {
+        while (true) {
+            int active = activeStreams.get();
+            if (active >= maxStreams) {
+                return false;
+            }
+            if (activeStreams.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void closeStream() {
+        activeStreams.decrementAndGet();
+    }
+
+    int getStreamDepth() { return streamDepth; }
+    int getMaxPendingPerStream() { return maxPendingPerStream; }
+    long getIdleTimeoutNanos() { return idleTimeoutNanos; }
+
+    public long getMemoryCap() { return memoryCap; }
+    public long getMemoryUsed() { return memoryUsed.get(); }
+    public int getActiveStreams() { return activeStreams.get(); }
+    public long getStreamsCreated() { return streamsCreated.sum(); }
+    /** Streams dropped to stay under the memory or stream-count limit */
+    public long getStreamsEvicted() { return streamsEvicted.sum(); }
+    public long getStreamsTimedOut() { return streamsTimedOut.sum(); }
+    public long getSegmentsOutOfOrder() { return segmentsOutOfOrder.sum(); }
+    /** Out-of-order segments that could not be buffered */
+    public long getSegmentsDropped() { return segmentsDropped.sum(); }
+    /** Retransmitted or overlapping segments (first copy of a byte wins) */
+    public long getOverlaps() { return overlaps.sum(); }
+    /** Holes in a stream skipped because the missing data never arrived */
+    public long getGapsSkipped() { return gapsSkipped.sum(); }
+    public long getDepthReached() { return depthReached.sum(); }
+}
@@ -0,0 +1,430 @@
+package org.example.services.inspection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for the regex subset of payload rules, over bytes:
+ * literals and escapes (\n \r \t \f \v \xHH, escaped punctuation),
+ * '.', classes [a-z0-9_] and [^...], \d \w \s and their negations,
+ * groups (...) and (?:...), alternation, * + ? {n} {n,} {n,m}, the anchors
+ * ^ and $ (start and end of the payload) and a leading (?i) for
+ * case-insensitive matching. Back-references, lookaround and \b are not
+ * supported: they cannot be matched by a DFA in linear time.
+ * Errors throw IllegalArgumentException naming the position.
+ */
+class RegexParser {
+    static final int MAX_REPEAT = 1000;
+
+    private final String pattern;
+    private boolean caseInsensitive;
+    private int position = 0;
+
+    /** AST node of a parsed regex */
+    abstract static class Node {
+    }
+
+    /** One byte out of a set */
+    static final class ByteSet extends Node {
+        final long[] bits = new long[4];
+
+        void add(int b) {
+            bits[b >>> 6] |= 1L << b;
+        }
+
+        void addRange(int from, int to) {
+            for (int b = from; b <= to; b++) {
+                add(b);
+            }
+        }
+
+        void addAll(ByteSet other) {
+            for (int i = 0; i < 4; i++) {
+                bits[i] |= other.bits[i];
+            }
+        }
+
+        void invert() {
+            for (int i = 0; i < 4; i++) {
+                bits[i] = ~bits[i];
+            }
+        }
+
+        boolean contains(int b) {
+            return (bits[b >>> 6] & (1L << b)) != 0;
+        }
+    }
+
+    static final class Concat extends Node {
+        final List<Node> items;
+
+        Concat(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    static final class Alternation extends Node {
+        final List<Node> choices;
+
+        Alternation(List<Node> choices) {
+            this.choices = choices;
+        }
+    }
+
+    /** max < 0 means unbounded */
+    static final class Repeat extends Node {
+        final Node item;
+        final int min;
+        final int max;
+
+        Repeat(Node item, int min, int max) {
+            this.item = item;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    static final class Anchor extends Node {
+        final boolean start;
+
+        Anchor(boolean start) {
+            this.start = start;
+        }
+    }
+
+    private RegexParser(String pattern) {
+        this.pattern = pattern;
+    }
+
+    static Node parse(String pattern) {
+        RegexParser parser = new RegexParser(pattern);
+        if (pattern.startsWith("(?i)")) {
+            parser.caseInsensitive = true;
+            parser.position = 4;
+        }
+        Node node = parser.alternation();
+        if (parser.position < pattern.length()) {
+            throw parser.error("unbalanced ')'");
+        }
+        return node;
+    }
+
+    private Node alternation() {
+        List<Node> choices = new ArrayList<>();
+        choices.add(concat());
+        while (peek() == '|') {
+            position++;
+            choices.add(concat());
+        }
+        return choices.size() == 1 ? choices.get(0) : new Alternation(choices);
+    }
+
+    private Node concat() {
+        List<Node> items = new ArrayList<>();
+        while (position < pattern.length() && peek() != '|' && peek() != ')') {
+            items.add(repeat());
+        }
+        return items.size() == 1 ? items.get(0) : new Concat(items);
+    }
+
+    private Node repeat() {
+        int atomStart = position;
+        Node node = atom();
+        while (position < pattern.length()) {
+            char c = peek();
+            int min;
+            int max;
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                position++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                position++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                position++;
+            } else if (c == '{' && isBound()) {
+                position++;
+                min = number();
+                max = min;
+                if (peek() == ',') {
+                    position++;
+                    max = peek() == '}' ? -1 : number();
+                }
+                position++; // '}'
+                if (max >= 0 && max < min) {
+                    throw error("repetition {" + min + "," + max + "} has max below min");
+                }
+                if (Math.max(min, max) > MAX_REPEAT) {
+                    throw error("repetition count above " + MAX_REPEAT);
+                }
+            } else {
+                break;
+            }
+            if (node instanceof Anchor) {
+                throw error("anchor at " + atomStart + " cannot be repeated");
+            }
+            // Lazy quantifiers find the same matches here
+            if (position < pattern.length() && peek() == '?') {
+                position++;
+            }
+            node = new Repeat(node, min, max);
+        }
+        return node;
+    }
+
+    private boolean isBound() {
+        int i = position + 1;
+        int digits = 0;
+        while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < pattern.length() && pattern.charAt(i) == ',') {
+            i++;
+            while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                i++;
+            }
+        }
+        return i < pattern.length() && pattern.charAt(i) == '}';
+    }
+
+    private int number() {
+        int start = position;
+        while (position < pattern.length() && Character.isDigit(peek())) {
+            position++;
+        }
+        try {
+            return Integer.parseInt(pattern.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("repetition count too large");
+        }
+    }
+
+    private Node atom() {
+        char c = pattern.charAt(position++);
+        switch (c) {
+            case '(': {
+                if (pattern.startsWith("?:", position)) {
+                    position += 2;
+                } else if (position < pattern.length() && peek() == '?') {
+                    throw error("unsupported group construct");
+                }
+                Node inner = alternation();
+                if (position >= pattern.length() || peek() != ')') {
+                    throw error("missing ')'");
+                }
+                position++;
+                return inner;
+            }
+            case '[':
+                return byteClass();
+            case '.': {
+                ByteSet any = new ByteSet();
+                any.addRange(0, 255);
+                any.bits['\n' >>> 6] &= ~(1L << '\n');
+                return any;
+            }
+            case '^':
+                return new Anchor(true);
+            case '$':
+                return new Anchor(false);
+            case '\\':
+                return escape(false);
+            case '*':
+            case '+':
+            case '?':
+                throw error("nothing to repeat");
+            default:
+                return literal(c);
+        }
+    }
+
+    private Node literal(char c) {
+        if (c > 0xff) {
+            // Matched as its UTF-8 bytes
+            List<Node> bytes = new ArrayList<>();
+            for (byte b : String.valueOf(c).getBytes(StandardCharsets.UTF_8)) {
+                bytes.add(single(b & 0xff));
+            }
+            return new Concat(bytes);
+        }
+        return single(c);
+    }
+
+    private ByteSet single(int b) {
+        ByteSet set = new ByteSet();
+        set.add(b);
+        if (caseInsensitive) {
+            foldCase(set);
+        }
+        return set;
+    }
+
+    private static void foldCase(ByteSet set) {
+        for (int b = 'a'; b <= 'z'; b++) {
+            int upper = b - ('a' - 'A');
+            if (set.contains(b) || set.contains(upper)) {
+                set.add(b);
+                set.add(upper);
+            }
+        }
+    }
+
+    private ByteSet byteClass() {
+        ByteSet set = new ByteSet();
+        boolean negated = position < pattern.length() && peek() == '^';
+        if (negated) {
+            position++;
+        }
+        boolean first = true;
+        while (true) {
+            if (position >= pattern.length()) {
+                throw error("missing ']'");
+            }
+            char c = pattern.charAt(position++);
+            if (c == ']' && !first) {
+                break;
+            }
+            first = false;
+            int low;
+            if (c == '\\') {
+                ByteSet escaped = escape(true);
+                if (!isSingle(escaped)) {
+                    set.addAll(escaped);
+                    continue;
+                }
+                low = singleValue(escaped);
+            } else {
+                low = checkByte(c);
+            }
+            if (position + 1 < pattern.length() && peek() == '-' && pattern.charAt(position + 1) != ']') {
+                position++;
+                char d = pattern.charAt(position++);
+                int high = d == '\\' ? singleValue(escape(true)) : checkByte(d);
+                if (high < low) {
+                    throw error("class range out of order");
+                }
+                set.addRange(low, high);
+            } else {
+                set.add(low);
+            }
+        }
+        if (caseInsensitive) {
+            foldCase(set);
+        }
+        if (negated) {
+            set.invert();
+        }
+        return set;
+    }
+
+    private int checkByte(char c) {
+        if (c > 0xff) {
+            throw error("character classes hold single bytes only");
+        }
+        return c;
+    }
+
+    private static boolean isSingle(ByteSet set) {
+        return Long.bitCount(set.bits[0]) + Long.bitCount(set.bits[1]) +
+                Long.bitCount(set.bits[2]) + Long.bitCount(set.bits[3]) == 1;
+    }
+
+    private int singleValue(ByteSet set) {
+        if (!isSingle(set)) {
+            throw error("class shorthand cannot bound a range");
+        }
+        for (int i = 0; i < 4; i++) {
+            if (set.bits[i] != 0) {
+                return i * 64 + Long.numberOfTrailingZeros(set.bits[i]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * After a backslash; inside a class case folding is applied to the
+     * whole class afterwards
+     */
+    private ByteSet escape(boolean inClass) {
+        if (position >= pattern.length()) {
+            throw error("trailing backslash");
+        }
+        char c = pattern.charAt(position++);
+        ByteSet set = new ByteSet();
+        switch (c) {
+            case 'd':
+            case 'D':
+                set.addRange('0', '9');
+                break;
+            case 'w':
+            case 'W':
+                set.addRange('0', '9');
+                set.addRange('a', 'z');
+                set.addRange('A', 'Z');
+                set.add('_');
+                break;
+            case 's':
+            case 'S':
+                set.add(' ');
+                set.addRange('\t', '\r');
+                break;
+            case 'n':
+                set.add('\n');
+                return set;
+            case 'r':
+                set.add('\r');
+                return set;
+            case 't':
+                set.add('\t');
+                return set;
+            case 'f':
+                set.add('\f');
+                return set;
+            case 'v':
+                set.add(0x0b);
+                return set;
+            case 'x': {
+                if (position + 2 > pattern.length()) {
+                    throw error("\\x needs two hex digits");
+                }
+                try {
+                    set.add(Integer.parseInt(pattern.substring(position, position + 2), 16));
+                } catch (NumberFormatException e) {
+                    throw error("\\x needs two hex digits");
+                }
+                position += 2;
+                return set;
+            }
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw error("unsupported escape \\" + c);
+                }
+                set.add(checkByte(c));
+                if (caseInsensitive && !inClass) {
+                    foldCase(set);
+                }
+                return set;
+        }
+        if (Character.isUpperCase(c)) {
+            set.invert();
+        }
+        return set;
+    }
+
+    private char peek() {
+        return position < pattern.length() ? pattern.charAt(position) : '\0';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid regex \"" + pattern + "\" at " + position + ": " + message);
+    }
+}
@@ -0,0 +1,343 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.CaptureConfig;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Regex signatures compiled into one Thompson NFA over byte classes.
+ * Matching runs on a {@link LazyDfa} per worker, which builds DFA states
+ * from NFA state sets as the payloads need them; the NFA itself is
+ * immutable and shared. Every regex is searched unanchored (a match may
+ * start anywhere) unless it begins with ^.
+ * Large sets whose regexes are each only checked now and then (after a
+ * content match) are matched one signature at a time by a
+ * {@link NfaMatcher} instead.
+ * A pattern that fails to compile is reported and skipped, the others
+ * keep working.
+ */
+public class RegexSet {
+    static final int CHAR = 0;
+    static final int SPLIT = 1;
+    static final int BEGIN = 2;
+    static final int END = 3;
+    static final int MATCH = 4;
+
+    static final int MAX_NODES = 200_000;
+
+    private final List<RegexSignature> signatures;
+    private final long cacheBytes;
+    private final int maxNodes;
+
+    // NFA: node type, epsilon or byte successors; CHAR nodes test their
+    // byte set (4 longs in byteSets, shared by equal sets), MATCH nodes
+    // hold the signature index
+    int[] type = new int[256];
+    int[] out1 = new int[256];
+    int[] out2 = new int[256];
+    int[] charSet = new int[256];
+    long[] byteSets = new long[64 * 4];
+    int nodeCount = 0;
+    // First node of the signature being compiled
+    private int signatureStart = 0;
+    private int byteSetCount = 0;
+    private final Map<ByteSetKey, Integer> byteSetIds = new HashMap<>();
+    final int[] entries;
+    // Per signature its entry node and its nodes first..end (exclusive),
+    // -1 if it did not compile
+    final int[] signatureEntry;
+    final int[] signatureFirst;
+    final int[] signatureEnd;
+    final int maxSignatureNodes;
+
+    final int[] byteClass = new int[256];
+    final int classes;
+    final int[] classByte;
+
+    final LongAdder statesBuilt = new LongAdder();
+    final LongAdder cacheFlushes = new LongAdder();
+
+    public RegexSet(List<RegexSignature> signatures) {
+        this(signatures, CaptureConfig.getInstance().getLong("inspection.regex.dfa-cache-kb", 1024) * 1024);
+    }
+
+    public RegexSet(List<RegexSignature> signatures, long cacheBytes) {
+        this(signatures, cacheBytes, MAX_NODES);
+    }
+
+    /**
+     * maxNodes caps the whole NFA; each signature stays capped at
+     * MAX_NODES. Sets matched by a {@link NfaMatcher} only can be larger
+     * than a DFA could handle.
+     */
+    public RegexSet(List<RegexSignature> signatures, long cacheBytes, int maxNodes) {
+        this.signatures = List.copyOf(signatures);
+        this.cacheBytes = cacheBytes;
+        this.maxNodes = maxNodes;
+
+        int[] compiled = new int[signatures.size()];
+        this.signatureEntry = new int[signatures.size()];
+        this.signatureFirst = new int[signatures.size()];
+        this.signatureEnd = new int[signatures.size()];
+        int count = 0;
+        int largest = 0;
+        for (int i = 0; i < signatures.size(); i++) {
+            int mark = nodeCount;
+            try {
+                int entry = compileSignature(i, signatures.get(i).getPattern());
+                compiled[count++] = entry;
+                signatureEntry[i] = entry;
+                signatureFirst[i] = mark;
+                signatureEnd[i] = nodeCount;
+                largest = Math.max(largest, nodeCount - mark);
+            } catch (IllegalArgumentException e) {
+                nodeCount = mark;
+                signatureEntry[i] = -1;
+                signatureFirst[i] = -1;
+                signatureEnd[i] = -1;
+                System.err.println("Skipping regex signature " + signatures.get(i).getKey() + ": " + e.getMessage());
+            }
+        }
+        this.entries = Arrays.copyOf(compiled, count);
+        this.maxSignatureNodes = largest;
+        type = Arrays.copyOf(type, nodeCount);
+        out1 = Arrays.copyOf(out1, nodeCount);
+        out2 = Arrays.copyOf(out2, nodeCount);
+        charSet = Arrays.copyOf(charSet, nodeCount);
+        byteSets = Arrays.copyOf(byteSets, byteSetCount * 4);
+
+        // Bytes no byte set tells apart share a class
+        int classCount = 1;
+        for (int set = 0; set < byteSetCount; set++) {
+            int[] split = new int[classCount * 2];
+            Arrays.fill(split, -1);
+            int refined = 0;
+            for (int b = 0; b < 256; b++) {
+                int key = byteClass[b] * 2 + ((byteSets[set * 4 + (b >>> 6)] & (1L << b)) != 0 ? 1 : 0);
+                if (split[key] < 0) {
+                    split[key] = refined++;
+                }
+                byteClass[b] = split[key];
+            }
+            classCount = refined;
+        }
+        this.classes = classCount;
+        this.classByte = new int[classCount];
+        for (int b = 255; b >= 0; b--) {
+            classByte[byteClass[b]] = b;
+        }
+    }
+
+    /**
+     * Throws IllegalArgumentException naming the problem if pattern cannot
+     * be matched by a RegexSet
+     */
+    public static void validate(String pattern) {
+        new RegexSet(List.of(), 0).compileSignature(0, pattern);
+    }
+
+    private int compileSignature(int index, String pattern) {
+        int first = nodeCount;
+        signatureStart = first;
+        int match = add(MATCH, -1, -1);
+        out1[match] = index;
+        int entry = compile(RegexParser.parse(pattern), match);
+        if (matchesEmpty(entry, first)) {
+            throw new IllegalArgumentException("Regex \"" + pattern + "\" matches an empty payload");
+        }
+        return entry;
+    }
+
+    private int add(int nodeType, int next1, int next2) {
+        if (nodeCount == maxNodes) {
+            throw new IllegalArgumentException("Regex signatures exceed " + maxNodes + " NFA states");
+        }
+        if (nodeCount - signatureStart == MAX_NODES) {
+            throw new IllegalArgumentException("Regex exceeds " + MAX_NODES + " NFA states");
+        }
+        if (nodeCount == type.length) {
+            int capacity = Math.max(256, type.length * 2);
+            type = Arrays.copyOf(type, capacity);
+            out1 = Arrays.copyOf(out1, capacity);
+            out2 = Arrays.copyOf(out2, capacity);
+            charSet = Arrays.copyOf(charSet, capacity);
+        }
+        int node = nodeCount++;
+        type[node] = nodeType;
+        out1[node] = next1;
+        out2[node] = next2;
+        return node;
+    }
+
+    /**
+     * Build the NFA of node in front of next, returns its entry
+     */
+    private int compile(RegexParser.Node node, int next) {
+        if (node instanceof RegexParser.ByteSet) {
+            int state = add(CHAR, next, -1);
+            charSet[state] = byteSet(((RegexParser.ByteSet) node).bits);
+            return state;
+        }
+        if (node instanceof RegexParser.Concat) {
+            List<RegexParser.Node> items = ((RegexParser.Concat) node).items;
+            for (int i = items.size() - 1; i >= 0; i--) {
+                next = compile(items.get(i), next);
+            }
+            return next;
+        }
+        if (node instanceof RegexParser.Alternation) {
+            List<RegexParser.Node> choices = ((RegexParser.Alternation) node).choices;
+            int entry = compile(choices.get(choices.size() - 1), next);
+            for (int i = choices.size() - 2; i >= 0; i--) {
+                entry = add(SPLIT, compile(choices.get(i), next), entry);
+            }
+            return entry;
+        }
+        if (node instanceof RegexParser.Anchor) {
+            return add(((RegexParser.Anchor) node).start ? BEGIN : END, next, -1);
+        }
+        RegexParser.Repeat repeat = (RegexParser.Repeat) node;
+        int tail = next;
+        if (repeat.max < 0) {
+            int loop = add(SPLIT, -1, next);
+            int body = compile(repeat.item, loop);
+            out1[loop] = body;
+            tail = loop;
+        } else {
+            for (int i = repeat.min; i < repeat.max; i++) {
+                tail = add(SPLIT, compile(repeat.item, tail), next);
+            }
+        }
+        for (int i = 0; i < repeat.min; i++) {
+            tail = compile(repeat.item, tail);
+        }
+        return tail;
+    }
+
+    private int byteSet(long[] bits) {
+        return byteSetIds.computeIfAbsent(new ByteSetKey(bits), key -> {
+            if ((byteSetCount + 1) * 4 > byteSets.length) {
+                byteSets = Arrays.copyOf(byteSets, Math.max(64 * 4, byteSets.length * 2));
+            }
+            System.arraycopy(bits, 0, byteSets, byteSetCount * 4, 4);
+            return byteSetCount++;
+        });
+    }
+
+    /**
+     * The nodes of the signature are first..nodeCount
+     */
+    private boolean matchesEmpty(int entry, int first) {
+        int[] stack = new int[2 * (nodeCount - first) + 1];
+        boolean[] seen = new boolean[nodeCount - first];
+        int top = 0;
+        stack[top++] = entry;
+        while (top > 0) {
+            int node = stack[--top];
+            if (node < 0 || seen[node - first]) {
+                continue;
+            }
+            seen[node - first] = true;
+            switch (type[node]) {
+                case MATCH:
+                    return true;
+                case SPLIT:
+                    stack[top++] = out2[node];
+                    stack[top++] = out1[node];
+                    break;
+                case BEGIN:
+                case END:
+                    stack[top++] = out1[node];
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    final boolean testsByte(int node, int b) {
+        return (byteSets[charSet[node] * 4 + (b >>> 6)] & (1L << b)) != 0;
+    }
+
+    public List<RegexSignature> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Signatures that compiled and are matched
+     */
+    public int getActiveCount() {
+        return entries.length;
+    }
+
+    public int getNfaSize() {
+        return nodeCount;
+    }
+
+    public int getByteClasses() {
+        return classes;
+    }
+
+    long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * DFA states built by all workers, including rebuilds after a flush
+     */
+    public long getStatesBuilt() {
+        return statesBuilt.sum();
+    }
+
+    /**
+     * Times a worker's DFA cache reached its cap and was cleared
+     */
+    public long getCacheFlushes() {
+        return cacheFlushes.sum();
+    }
+
+    /**
+     * DFA cache for one worker
+     */
+    public LazyDfa newMatcher() {
+        return new LazyDfa(this);
+    }
+
+    /**
+     * Single-signature matcher for one worker
+     */
+    public NfaMatcher newSignatureMatcher() {
+        return new NfaMatcher(this);
+    }
+
+    /**
+     * Match collector for one worker; signature and pattern ID are both
+     * the index in {@link #getSignatures()}
+     */
+    public SignatureMatches newMatches() {
+        return new SignatureMatches(signatures.size());
+    }
+
+    private static final class ByteSetKey {
+        private final long[] bits;
+
+        ByteSetKey(long[] bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ByteSetKey && Arrays.equals(bits, ((ByteSetKey) other).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
+        }
+    }
+}
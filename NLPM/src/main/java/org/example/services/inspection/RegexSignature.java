@@ -0,0 +1,28 @@
+package org.example.services.inspection;
+
+/**
+ * A payload regex raising one kind of alert, see {@link RegexParser} for
+ * the supported syntax
+ */
+public class RegexSignature {
+    private final String key;
+    private final String alertType;
+    private final String severity;
+    private final String description;
+    private final String pattern;
+
+    public RegexSignature(String key, String alertType, String severity, String description, String pattern) {
+        this.key = key;
+        this.alertType = alertType;
+        this.severity = severity;
+        this.description = description;
+        this.pattern = pattern;
+    }
+
+    /** Rate-limiting key of the alert */
+    public String getKey() { return key; }
+    public String getAlertType() { return alertType; }
+    public String getSeverity() { return severity; }
+    public String getDescription() { return description; }
+    public String getPattern() { return pattern; }
+}
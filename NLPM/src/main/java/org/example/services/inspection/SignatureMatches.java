@@ -0,0 +1,72 @@
+package org.example.services.inspection;
+
+import java.util.Arrays;
+
+/**
+ * Signatures matched by one scan, each with the first pattern that hit it.
+ * A signature is reported once however often its patterns occur.
+ * Reused by one worker: clear it before each packet.
+ */
+public class SignatureMatches {
+    private long[] seen;
+    private int[] signatureIds = new int[8];
+    private int[] patternIds = new int[8];
+    private int count = 0;
+
+    SignatureMatches(int signatureCount) {
+        this.seen = new long[Math.max(1, (signatureCount + 63) >>> 6)];
+    }
+
+    void add(int patternId, int signatureId) {
+        int word = signatureId >>> 6;
+        if (word >= seen.length) {
+            seen = Arrays.copyOf(seen, word + 1);
+        }
+        long bit = 1L << signatureId;
+        if ((seen[word] & bit) != 0) {
+            return;
+        }
+        seen[word] |= bit;
+        if (count == signatureIds.length) {
+            signatureIds = Arrays.copyOf(signatureIds, count * 2);
+            patternIds = Arrays.copyOf(patternIds, count * 2);
+        }
+        signatureIds[count] = signatureId;
+        patternIds[count] = patternId;
+        count++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            seen[signatureIds[i] >>> 6] = 0;
+        }
+        count = 0;
+    }
+
+    public boolean contains(int signatureId) {
+        int word = signatureId >>> 6;
+        return word < seen.length && (seen[word] & (1L << signatureId)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Index of the i-th matched signature in {@link SignatureSet#getSignatures()}
+     */
+    public int getSignature(int i) {
+        return signatureIds[i];
+    }
+
+    /**
+     * Pattern ID (see {@link SignatureSet#getPattern(int)}) that matched the i-th signature
+     */
+    public int getPattern(int i) {
+        return patternIds[i];
+    }
+}
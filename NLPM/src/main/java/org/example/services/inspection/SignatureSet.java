@@ -0,0 +1,301 @@
+package org.example.services.inspection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Payload signatures compiled once into a case-insensitive Aho-Corasick
+ * automaton over bytes. The failure links are folded into a complete
+ * transition table, so a scan is one table lookup per payload byte however
+ * many patterns there are, and the payload is read in place.
+ * Bytes are first mapped to classes (upper and lower case letters share
+ * one, bytes that occur in no pattern share class 0) to keep rows short.
+ * Longer payloads are first searched by a {@link PayloadPrefilter} and
+ * the automaton only reads the windows around candidate positions.
+ * Immutable and shared by all workers; the scan state lives in the caller.
+ */
+public class SignatureSet {
+    /** Scan state before any byte has been read */
+    public static final int START = 0;
+
+    private final List<PayloadSignature> signatures;
+    private final String[] patterns;
+    private final int[] patternSignature;
+
+    private final int[] byteClass = new int[256];
+    private final int classes;
+    // Row offset of the next state (state * classes); bitwise not when
+    // the next state ends at least one pattern
+    private final int[] transitions;
+    // Patterns ending in each state: matchIds[matchStart[s] .. matchStart[s + 1])
+    private final int[] matchStart;
+    private final int[] matchIds;
+
+    private final int maxPatternLength;
+    private final PayloadPrefilter prefilter;
+    private final int prefilterMinLength;
+
+    public SignatureSet(List<PayloadSignature> signatures) {
+        this(signatures, PayloadPrefilter.configuredMode());
+    }
+
+    public SignatureSet(List<PayloadSignature> signatures, PayloadPrefilter.Mode prefilterMode) {
+        this.signatures = List.copyOf(signatures);
+
+        List<String> patternList = new ArrayList<>();
+        List<byte[]> patternBytes = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int i = 0; i < signatures.size(); i++) {
+            for (String pattern : signatures.get(i).getPatterns()) {
+                byte[] bytes = pattern.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.ISO_8859_1);
+                if (bytes.length == 0) {
+                    continue;
+                }
+                patternList.add(pattern);
+                patternBytes.add(bytes);
+                owners.add(i);
+            }
+        }
+        this.patterns = patternList.toArray(new String[0]);
+        this.patternSignature = owners.stream().mapToInt(Integer::intValue).toArray();
+        this.maxPatternLength = patternBytes.stream().mapToInt(bytes -> bytes.length).max().orElse(1);
+        this.prefilter = PayloadPrefilter.create(patternBytes, prefilterMode);
+        // Below this a window would cover most of the payload anyway
+        this.prefilterMinLength = 4 * maxPatternLength;
+
+        int count = 1;
+        for (byte[] bytes : patternBytes) {
+            for (byte b : bytes) {
+                if (byteClass[b & 0xff] == 0) {
+                    byteClass[b & 0xff] = count++;
+                }
+            }
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            byteClass[c] = byteClass[c + ('a' - 'A')];
+        }
+        this.classes = count;
+
+        // Trie, -1 marks a missing edge
+        int[] next = new int[Math.max(16, patternBytes.size() * 8) * classes];
+        Arrays.fill(next, -1);
+        int states = 1;
+        List<int[]> ending = new ArrayList<>();
+        ending.add(null);
+        for (int p = 0; p < patternBytes.size(); p++) {
+            int state = 0;
+            for (byte b : patternBytes.get(p)) {
+                int edge = state * classes + byteClass[b & 0xff];
+                if (next[edge] < 0) {
+                    if ((states + 1) * classes > next.length) {
+                        int oldLength = next.length;
+                        next = Arrays.copyOf(next, oldLength * 2);
+                        Arrays.fill(next, oldLength, next.length, -1);
+                    }
+                    next[edge] = states++;
+                    ending.add(null);
+                }
+                state = next[edge];
+            }
+            ending.set(state, append(ending.get(state), p));
+        }
+
+        // Breadth-first: complete each row from the row of its failure state
+        // and inherit the patterns ending there
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classes; c++) {
+            int child = next[c];
+            if (child < 0) {
+                next[c] = 0;
+            } else {
+                failure[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < classes; c++) {
+                int edge = state * classes + c;
+                int child = next[edge];
+                int fallback = next[failure[state] * classes + c];
+                if (child < 0) {
+                    next[edge] = fallback;
+                } else {
+                    failure[child] = fallback;
+                    int[] inherited = ending.get(fallback);
+                    if (inherited != null) {
+                        for (int p : inherited) {
+                            ending.set(child, append(ending.get(child), p));
+                        }
+                    }
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        this.matchStart = new int[states + 1];
+        for (int s = 0; s < states; s++) {
+            int[] ids = ending.get(s);
+            matchStart[s + 1] = matchStart[s] + (ids != null ? ids.length : 0);
+        }
+        this.matchIds = new int[matchStart[states]];
+        for (int s = 0; s < states; s++) {
+            int[] ids = ending.get(s);
+            if (ids != null) {
+                System.arraycopy(ids, 0, matchIds, matchStart[s], ids.length);
+            }
+        }
+
+        this.transitions = new int[states * classes];
+        for (int i = 0; i < transitions.length; i++) {
+            int target = next[i];
+            transitions[i] = matchStart[target] != matchStart[target + 1] ? ~(target * classes) : target * classes;
+        }
+    }
+
+    private static int[] append(int[] ids, int id) {
+        if (ids == null) {
+            return new int[]{id};
+        }
+        int[] grown = Arrays.copyOf(ids, ids.length + 1);
+        grown[ids.length] = id;
+        return grown;
+    }
+
+    public List<PayloadSignature> getSignatures() {
+        return signatures;
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * Pattern text as given in its signature
+     */
+    public String getPattern(int patternId) {
+        return patterns[patternId];
+    }
+
+    /**
+     * Index in {@link #getSignatures()} of the signature a pattern belongs to
+     */
+    public int getSignatureOf(int patternId) {
+        return patternSignature[patternId];
+    }
+
+    /**
+     * Prefilter in use, null if every byte goes through the automaton
+     */
+    public PayloadPrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    public int getStateCount() {
+        return matchStart.length - 1;
+    }
+
+    /**
+     * Approximate heap size of the automaton in bytes
+     */
+    public long getMemoryUsage() {
+        return 4L * (transitions.length + matchStart.length + matchIds.length + byteClass.length);
+    }
+
+    /**
+     * Match state for one stream
+     */
+    public StreamMatcher newMatcher() {
+        return new StreamMatcher(this);
+    }
+
+    /**
+     * Match collector for one worker
+     */
+    public SignatureMatches newMatches() {
+        return new SignatureMatches(signatures.size());
+    }
+
+    /**
+     * Scan a self-contained payload (datagrams, non-reassembled traffic)
+     */
+    public void scan(byte[] data, int offset, int length, SignatureMatches matches) {
+        scan(START, data, offset, length, matches);
+    }
+
+    /**
+     * Continue a scan from a state returned by the previous call, so
+     * patterns split between calls are found. Returns the state after
+     * the last byte.
+     */
+    public int scan(int state, byte[] data, int offset, int length, SignatureMatches matches) {
+        if (prefilter == null || length < prefilterMinLength) {
+            return run(state, data, offset, offset + length, matches);
+        }
+
+        // Every match contains its pattern's candidate pair at most
+        // maxPairOffset bytes from its start, so it lies inside the window
+        // [candidate - maxPairOffset, candidate + maxPatternLength).
+        // Windows that overlap are read as one run of the automaton.
+        int end = offset + length;
+        int runStart = offset;
+        int scanned = offset;
+        if (state != START) {
+            // Patterns begun in the previous data end within maxPatternLength - 1 bytes
+            scanned = Math.min(end, offset + maxPatternLength - 1);
+            state = run(state, data, offset, scanned, matches);
+        }
+        int before = prefilter.getMaxPairOffset();
+        int candidate = prefilter.next(data, offset, end);
+        while (candidate >= 0) {
+            int windowStart = Math.max(offset, candidate - before);
+            int windowEnd = Math.min(end, candidate + maxPatternLength);
+            if (windowStart > scanned) {
+                state = START;
+                runStart = windowStart;
+                scanned = windowStart;
+            }
+            if (windowEnd > scanned) {
+                state = run(state, data, scanned, windowEnd, matches);
+                scanned = windowEnd;
+            }
+            candidate = prefilter.next(data, candidate + 1, end);
+        }
+
+        // The state handed to the next call depends on the last
+        // maxPatternLength - 1 bytes only; read them unless the last run
+        // already covered them
+        int tailStart = Math.max(offset, end - (maxPatternLength - 1));
+        if (runStart > tailStart || scanned < tailStart) {
+            state = START;
+            scanned = tailStart;
+        }
+        return run(state, data, scanned, end, matches);
+    }
+
+    private int run(int state, byte[] data, int offset, int end, SignatureMatches matches) {
+        int[] transitions = this.transitions;
+        int[] byteClass = this.byteClass;
+        for (int i = offset; i < end; i++) {
+            state = transitions[state + byteClass[data[i] & 0xff]];
+            if (state < 0) {
+                state = ~state;
+                report(state / classes, matches);
+            }
+        }
+        return state;
+    }
+
+    private void report(int state, SignatureMatches matches) {
+        for (int i = matchStart[state]; i < matchStart[state + 1]; i++) {
+            int patternId = matchIds[i];
+            matches.add(patternId, patternSignature[patternId]);
+        }
+    }
+}
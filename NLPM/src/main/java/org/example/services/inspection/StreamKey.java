@@ -0,0 +1,49 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.HeaderDecoder;
+
+/**
+ * One direction of a TCP connection. Lookups reuse a mutable probe so
+ * no key is allocated for packets of known streams.
+ */
+class StreamKey {
+    private long srcHigh, srcLow, dstHigh, dstLow;
+    private int ports;
+
+    StreamKey set(HeaderDecoder headers) {
+        srcHigh = headers.getSourceHigh();
+        srcLow = headers.getSourceLow();
+        dstHigh = headers.getDestinationHigh();
+        dstLow = headers.getDestinationLow();
+        ports = headers.getSourcePort() << 16 | headers.getDestinationPort();
+        return this;
+    }
+
+    StreamKey copy() {
+        StreamKey key = new StreamKey();
+        key.srcHigh = srcHigh;
+        key.srcLow = srcLow;
+        key.dstHigh = dstHigh;
+        key.dstLow = dstLow;
+        key.ports = ports;
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StreamKey)) {
+            return false;
+        }
+        StreamKey other = (StreamKey) o;
+        return srcLow == other.srcLow && dstLow == other.dstLow && ports == other.ports &&
+                srcHigh == other.srcHigh && dstHigh == other.dstHigh;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(srcHigh) * 31 + Long.hashCode(srcLow);
+        h = h * 31 + Long.hashCode(dstHigh);
+        h = h * 31 + Long.hashCode(dstLow);
+        return h * 31 + ports;
+    }
+}
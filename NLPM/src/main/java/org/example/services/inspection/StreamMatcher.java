@@ -0,0 +1,39 @@
+package org.example.services.inspection;
+
+/**
+ * Streaming signature matcher for one direction of a connection.
+ * The automaton state carries partial matches from one segment to the
+ * next, so a pattern split across segments is found without keeping any
+ * stream bytes and no byte is scanned twice.
+ */
+public class StreamMatcher {
+    private final SignatureSet signatures;
+    private int state = SignatureSet.START;
+
+    StreamMatcher(SignatureSet signatures) {
+        this.signatures = signatures;
+    }
+
+    /**
+     * Feed the next in-order bytes, matched signatures are added to matches
+     */
+    public void scan(byte[] data, int offset, int length, SignatureMatches matches) {
+        if (length > 0) {
+            state = signatures.scan(state, data, offset, length, matches);
+        }
+    }
+
+    /**
+     * Forget partial matches after a gap in the stream
+     */
+    public void reset() {
+        state = SignatureSet.START;
+    }
+
+    /**
+     * Bytes held by this matcher
+     */
+    public int getMemoryUsage() {
+        return Integer.BYTES;
+    }
+}
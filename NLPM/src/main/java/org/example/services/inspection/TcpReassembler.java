@@ -0,0 +1,286 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.HeaderDecoder;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * TCP stream reassembly for one pipeline worker.
+ * Segments of each connection direction are put back in sequence order and
+ * fed to a streaming matcher; only out-of-order data is buffered. Overlaps
+ * and retransmissions keep the bytes seen first. Memory is bounded by the
+ * shared budget: streams stop being inspected after the depth limit, idle
+ * streams time out, and the least recently used streams are evicted when
+ * the stream count or memory cap is reached.
+ * Not thread-safe: sharding keeps every connection direction on one worker.
+ */
+public class TcpReassembler {
+    // Rough heap cost of a stream entry besides its buffered segments
+    private static final int STREAM_OVERHEAD = 256;
+
+    private final SignatureSet signatures;
+    private final ReassemblyBudget budget;
+    private final LinkedHashMap<StreamKey, Stream> streams = new LinkedHashMap<>(1024, 0.75f, true);
+    private final StreamKey probe = new StreamKey();
+
+    public TcpReassembler(SignatureSet signatures, ReassemblyBudget budget) {
+        this.signatures = signatures;
+        this.budget = budget;
+    }
+
+    /**
+     * Process one TCP segment, adds the signatures matched by the stream
+     * data this segment made available to matches
+     */
+    public void process(HeaderDecoder headers, long timestampNanos, SignatureMatches matches) {
+        if (!headers.hasTransport() || headers.getProtocol() != HeaderDecoder.PROTO_TCP) {
+            return;
+        }
+
+        expireIdle(timestampNanos);
+
+        int flags = headers.getTcpFlags();
+        int seq = (int) headers.getTcpSequence();
+        int length = headers.getPayloadLength();
+        Stream stream = streams.get(probe.set(headers));
+
+        if (stream == null) {
+            if ((flags & HeaderDecoder.TCP_RST) != 0 || (length == 0 && (flags & HeaderDecoder.TCP_SYN) == 0)) {
+                return;
+            }
+            stream = open(seq, flags, timestampNanos);
+            if (stream == null) {
+                return;
+            }
+        }
+        stream.lastSeenNanos = timestampNanos;
+
+        if (length > 0 && !stream.finished) {
+            stream.segment(seq, headers.getData(), headers.getPayloadOffset(), length, matches);
+        }
+
+        if ((flags & HeaderDecoder.TCP_RST) != 0) {
+            remove(probe);
+            return;
+        }
+        // A FIN can overtake the data before it: keep the stream until
+        // everything up to the FIN was delivered (or idles out)
+        if ((flags & HeaderDecoder.TCP_FIN) != 0) {
+            stream.finAt = (seq - stream.baseSeq) + (long) length;
+        }
+        if (stream.finAt >= 0 && (stream.finished || stream.next >= stream.finAt)) {
+            remove(probe);
+        }
+    }
+
+    private Stream open(int seq, int flags, long now) {
+        // Make room under the stream-count and memory limits
+        while (!budget.tryOpenStream() || !reserve(STREAM_OVERHEAD)) {
+            if (!evictEldest()) {
+                budget.segmentsDropped.increment();
+                return null;
+            }
+        }
+
+        // Streams picked up mid-connection start at the first segment seen
+        boolean syn = (flags & HeaderDecoder.TCP_SYN) != 0;
+        Stream stream = new Stream(syn ? seq + 1 : seq, now);
+        streams.put(probe.copy(), stream);
+        budget.streamsCreated.increment();
+        return stream;
+    }
+
+    private boolean reserve(long bytes) {
+        if (budget.tryReserve(bytes)) {
+            return true;
+        }
+        // Stream slot was taken by tryOpenStream, give it back
+        budget.closeStream();
+        return false;
+    }
+
+    private void expireIdle(long now) {
+        Iterator<Stream> iterator = streams.values().iterator();
+        while (iterator.hasNext()) {
+            Stream eldest = iterator.next();
+            if (now - eldest.lastSeenNanos < budget.getIdleTimeoutNanos()) {
+                return;
+            }
+            iterator.remove();
+            eldest.release();
+            budget.streamsTimedOut.increment();
+        }
+    }
+
+    private boolean evictEldest() {
+        Iterator<Stream> iterator = streams.values().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        Stream eldest = iterator.next();
+        iterator.remove();
+        eldest.release();
+        budget.streamsEvicted.increment();
+        return true;
+    }
+
+    private void remove(StreamKey key) {
+        Stream stream = streams.remove(key);
+        if (stream != null) {
+            stream.release();
+        }
+    }
+
+    /**
+     * Drop all streams of this worker and return their memory
+     */
+    public void clear() {
+        for (Stream stream : streams.values()) {
+            stream.release();
+        }
+        streams.clear();
+    }
+
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * One direction of a connection. Positions are stream offsets relative
+     * to the initial sequence number, so sequence wrap-around is harmless
+     * (the depth limit keeps them far below 2^31).
+     */
+    private class Stream {
+        private final int baseSeq;
+        private final StreamMatcher matcher = signatures.newMatcher();
+        private final TreeMap<Long, byte[]> pending = new TreeMap<>();
+        private long next = 0;
+        // Stream offset of the FIN, -1 until one was seen
+        private long finAt = -1;
+        private int pendingBytes = 0;
+        private long lastSeenNanos;
+        private boolean finished = false;
+
+        Stream(int baseSeq, long now) {
+            this.baseSeq = baseSeq;
+            this.lastSeenNanos = now;
+        }
+
+        void segment(int seq, byte[] data, int offset, int length, SignatureMatches matches) {
+            long start = seq - baseSeq; // signed 32-bit distance
+            long end = start + length;
+
+            // A hole that is never filled (lost packet) must not pin memory
+            // forever: skip to the buffered data and restart matching there
+            if (start > next && pendingBytes + length > budget.getMaxPendingPerStream()) {
+                skipGap(start, matches);
+                if (finished) {
+                    return;
+                }
+            }
+
+            if (end <= next) {
+                budget.overlaps.increment(); // retransmission of delivered data
+                return;
+            }
+            if (start > next) {
+                buffer(start, Arrays.copyOfRange(data, offset, offset + length));
+                return;
+            }
+
+            // Overlap with delivered data: first copy wins, skip the prefix
+            if (start < next) {
+                budget.overlaps.increment();
+                int skip = (int) (next - start);
+                offset += skip;
+                length -= skip;
+            }
+            deliver(data, offset, length, matches);
+            deliverPending(matches);
+        }
+
+        private void buffer(long start, byte[] bytes) {
+            budget.segmentsOutOfOrder.increment();
+            if (pending.containsKey(start)) {
+                budget.overlaps.increment();
+                return;
+            }
+            if (pendingBytes + bytes.length > budget.getMaxPendingPerStream()) {
+                budget.segmentsDropped.increment();
+                return;
+            }
+            // Over the global cap: evict least recently used streams (this one
+            // was just accessed, so it is the most recent)
+            while (!budget.tryReserve(bytes.length)) {
+                if (streams.size() <= 1 || !evictEldest()) {
+                    budget.segmentsDropped.increment();
+                    return;
+                }
+            }
+            pending.put(start, bytes);
+            pendingBytes += bytes.length;
+        }
+
+        private void skipGap(long start, SignatureMatches matches) {
+            budget.gapsSkipped.increment();
+            next = pending.isEmpty() ? start : pending.firstKey();
+            matcher.reset();
+            deliverPending(matches);
+        }
+
+        private void deliverPending(SignatureMatches matches) {
+            while (!pending.isEmpty() && !finished) {
+                Map.Entry<Long, byte[]> first = pending.firstEntry();
+                long start = first.getKey();
+                if (start > next) {
+                    break;
+                }
+                byte[] bytes = first.getValue();
+                pending.pollFirstEntry();
+                pendingBytes -= bytes.length;
+                budget.release(bytes.length);
+
+                long end = start + bytes.length;
+                if (end <= next) {
+                    budget.overlaps.increment();
+                    continue;
+                }
+                int skip = (int) (next - start);
+                if (skip > 0) {
+                    budget.overlaps.increment();
+                }
+                deliver(bytes, skip, bytes.length - skip, matches);
+            }
+        }
+
+        private void deliver(byte[] data, int offset, int length, SignatureMatches matches) {
+            long remaining = budget.getStreamDepth() - next;
+            if (length >= remaining) {
+                length = (int) remaining;
+                finished = true;
+                budget.depthReached.increment();
+            }
+            next += length;
+            matcher.scan(data, offset, length, matches);
+            if (finished) {
+                releasePending();
+            }
+        }
+
+        private void releasePending() {
+            budget.release(pendingBytes);
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        void release() {
+            releasePending();
+            budget.release(STREAM_OVERHEAD);
+            budget.closeStream();
+        }
+    }
+}
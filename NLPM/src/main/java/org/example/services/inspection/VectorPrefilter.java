@@ -0,0 +1,82 @@
+package org.example.services.inspection;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * Candidate search over a full vector of positions per step (16 to 64
+ * bytes, whatever the CPU offers). Every byte is looked up by its low and
+ * high nibble in small tables of bucket bits, as the first, second and
+ * third byte of an anchor; positions where all six lookups share a bucket
+ * are confirmed against the exact pair and quad tables. Only instantiated by
+ * {@link PayloadPrefilter#create} when jdk.incubator.vector is present.
+ */
+final class VectorPrefilter extends PayloadPrefilter {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final ByteVector firstLow;
+    private final ByteVector firstHigh;
+    private final ByteVector secondLow;
+    private final ByteVector secondHigh;
+    private final ByteVector thirdLow;
+    private final ByteVector thirdHigh;
+
+    VectorPrefilter(List<byte[]> patterns) {
+        super(patterns);
+        this.firstLow = table(lowNibbles[0]);
+        this.firstHigh = table(highNibbles[0]);
+        this.secondLow = table(lowNibbles[1]);
+        this.secondHigh = table(highNibbles[1]);
+        this.thirdLow = table(lowNibbles[2]);
+        this.thirdHigh = table(highNibbles[2]);
+    }
+
+    private static ByteVector table(byte[] nibbles) {
+        // Repeated in every 16 lanes, nibble indexes stay below 16
+        byte[] lanes = new byte[SPECIES.length()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = nibbles[i & 0x0f];
+        }
+        return ByteVector.fromArray(SPECIES, lanes, 0);
+    }
+
+    @Override
+    public int next(byte[] data, int from, int end) {
+        int lanes = SPECIES.length();
+        int p = from;
+        // The third vector reads two bytes further and must end inside the
+        // data; the last positions are left to the scalar check
+        for (; p + lanes + 2 <= end; p += lanes) {
+            ByteVector buckets = lookup(ByteVector.fromArray(SPECIES, data, p), firstLow, firstHigh)
+                    .and(lookup(ByteVector.fromArray(SPECIES, data, p + 1), secondLow, secondHigh))
+                    .and(lookup(ByteVector.fromArray(SPECIES, data, p + 2), thirdLow, thirdHigh));
+            VectorMask<Byte> hits = buckets.compare(VectorOperators.NE, (byte) 0);
+            if (hits.anyTrue()) {
+                long bits = hits.toLong();
+                while (bits != 0) {
+                    int candidate = p + Long.numberOfTrailingZeros(bits);
+                    if (isCandidate(data, candidate, end)) {
+                        return candidate;
+                    }
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return super.next(data, p, end);
+    }
+
+    private static ByteVector lookup(ByteVector bytes, ByteVector lowTable, ByteVector highTable) {
+        ByteVector low = bytes.and((byte) 0x0f);
+        ByteVector high = bytes.lanewise(VectorOperators.LSHR, 4);
+        return low.selectFrom(lowTable).and(high.selectFrom(highTable));
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package org.example.services.rules;
+
+import org.example.models.IpAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Addresses of a rule as Snort writes them: networks and nested lists,
+ * each of which may be negated. An address is in the set if it is in one
+ * of the listed elements (or nothing but negations is listed) and in none
+ * of the negated ones.
+ */
+public final class AddressSet {
+    private final List<Network> networks;
+    private final List<AddressSet> included;
+    private final List<AddressSet> excluded;
+
+    AddressSet(List<Network> networks, List<AddressSet> included, List<AddressSet> excluded) {
+        this.networks = List.copyOf(networks);
+        this.included = List.copyOf(included);
+        this.excluded = List.copyOf(excluded);
+    }
+
+    /**
+     * Every address but those of set
+     */
+    static AddressSet not(AddressSet set) {
+        return new AddressSet(List.of(), List.of(), List.of(set));
+    }
+
+    /**
+     * Address held as in {@link org.example.models.TrafficData}: IPv4 in
+     * the low 32 bits of low
+     */
+    public boolean contains(int version, long high, long low) {
+        boolean listed = networks.isEmpty() && included.isEmpty();
+        for (int i = 0; i < networks.size() && !listed; i++) {
+            listed = networks.get(i).contains(version, high, low);
+        }
+        for (int i = 0; i < included.size() && !listed; i++) {
+            listed = included.get(i).contains(version, high, low);
+        }
+        if (!listed) {
+            return false;
+        }
+        for (AddressSet set : excluded) {
+            if (set.contains(version, high, low)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof AddressSet)) {
+            return false;
+        }
+        AddressSet set = (AddressSet) other;
+        return networks.equals(set.networks) && included.equals(set.included) && excluded.equals(set.excluded);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(networks, included, excluded);
+    }
+
+    @Override
+    public String toString() {
+        List<String> elements = new ArrayList<>();
+        networks.forEach(network -> elements.add(network.toString()));
+        included.forEach(set -> elements.add(set.toString()));
+        excluded.forEach(set -> elements.add("!" + set));
+        return elements.size() == 1 ? elements.get(0) : elements.toString().replace(" ", "");
+    }
+
+    /**
+     * An address with a prefix length, e.g. 10.0.0.0/8 or 2001:db8::/32
+     */
+    static final class Network {
+        private final int version;
+        private final long high;
+        private final long low;
+        private final int prefix;
+        private final long highMask;
+        private final long lowMask;
+
+        private Network(int version, long high, long low, int prefix) {
+            this.version = version;
+            this.prefix = prefix;
+            if (version == 4) {
+                this.highMask = 0;
+                this.lowMask = prefix == 0 ? 0 : (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+            } else {
+                this.highMask = prefix == 0 ? 0 : prefix >= 64 ? -1L : -1L << (64 - prefix);
+                this.lowMask = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+            }
+            this.high = high & highMask;
+            this.low = low & lowMask;
+        }
+
+        /**
+         * address or address/prefix; throws IllegalArgumentException
+         */
+        static Network parse(String text) {
+            int slash = text.indexOf('/');
+            byte[] address = IpAddress.parse(slash < 0 ? text : text.substring(0, slash));
+            int bits = address.length * 8;
+            int prefix = bits;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(text.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+                if (prefix < 0 || prefix > bits) {
+                    throw new IllegalArgumentException("invalid prefix length: " + text);
+                }
+            }
+            return address.length == 4 ? new Network(4, 0, IpAddress.toLong(address, 0), prefix)
+                    : new Network(6, IpAddress.toLong(address, 0), IpAddress.toLong(address, 8), prefix);
+        }
+
+        boolean contains(int version, long high, long low) {
+            return version == this.version && ((high & highMask) == this.high) && ((low & lowMask) == this.low);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Network)) {
+                return false;
+            }
+            Network network = (Network) other;
+            return version == network.version && high == network.high && low == network.low &&
+                    prefix == network.prefix;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(version, high, low, prefix);
+        }
+
+        @Override
+        public String toString() {
+            return (version == 4 ? IpAddress.formatIpv4((int) low) : IpAddress.formatIpv6(high, low)) + "/" +
+                    prefix;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+
+import java.util.Objects;
+
+/**
+ * Windowed aggregate of a rule: the packets (count) or the distinct values
+ * of a field (distinct) per source or destination address. The rule fires
+ * when the aggregate reaches the threshold, and the aggregate of that
+ * address starts over. Without a window it lasts until the rule fires.
+ * A limit counts packets too, but fires for the first threshold packets of
+ * the window only (Snort's threshold type limit).
+ */
+public final class Aggregate {
+    public enum Kind { COUNT, DISTINCT, LIMIT }
+
+    public enum Field {
+        SRC("src"), DST("dst"), SRC_PORT("src.port"), DST_PORT("dst.port");
+
+        private final String keyword;
+
+        Field(String keyword) {
+            this.keyword = keyword;
+        }
+
+        static Field of(String keyword) {
+            for (Field field : values()) {
+                if (field.keyword.equals(keyword)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Value of the field: a HostKey for addresses, an Integer for ports
+         */
+        Object of(TrafficData traffic) {
+            switch (this) {
+                case SRC: return traffic.getSourceKey();
+                case DST: return traffic.getDestinationKey();
+                case SRC_PORT: return traffic.getSourcePort();
+                default: return traffic.getDestinationPort();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return keyword;
+        }
+    }
+
+    private final Kind kind;
+    private final Field distinctField;
+    private final Field groupBy;
+    private final long threshold;
+    private final long windowMs;
+
+    Aggregate(Kind kind, Field distinctField, Field groupBy, long threshold, long windowMs) {
+        this.kind = kind;
+        this.distinctField = distinctField;
+        this.groupBy = groupBy;
+        this.threshold = threshold;
+        this.windowMs = windowMs;
+    }
+
+    public Kind getKind() { return kind; }
+    /** Field counted by DISTINCT, null for COUNT */
+    public Field getDistinctField() { return distinctField; }
+    /** SRC or DST */
+    public Field getGroupBy() { return groupBy; }
+    public long getThreshold() { return threshold; }
+    /** 0 when the aggregate has no window */
+    public long getWindowMs() { return windowMs; }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Aggregate)) {
+            return false;
+        }
+        Aggregate aggregate = (Aggregate) other;
+        return kind == aggregate.kind && distinctField == aggregate.distinctField &&
+                groupBy == aggregate.groupBy && threshold == aggregate.threshold &&
+                windowMs == aggregate.windowMs;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, distinctField, groupBy, threshold, windowMs);
+    }
+
+    @Override
+    public String toString() {
+        String measure = kind == Kind.COUNT ? "count >= " : kind == Kind.LIMIT ? "limit " : "distinct " +
+                distinctField + " >= ";
+        return measure + threshold + " by " + groupBy + (windowMs > 0 ? " within " + windowMs + "ms" : "");
+    }
+}
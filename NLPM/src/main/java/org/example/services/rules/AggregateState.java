@@ -0,0 +1,152 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-address windows of one rule's aggregate. Shared between workers
+ * (the pipeline need not shard by the grouped address) and carried over
+ * to a reloaded rule set when the rule and its aggregate are unchanged.
+ */
+final class AggregateState {
+    private final Aggregate aggregate;
+    private final ConcurrentHashMap<Object, Window> windows = new ConcurrentHashMap<>();
+
+    AggregateState(Aggregate aggregate) {
+        this.aggregate = aggregate;
+    }
+
+    /**
+     * Record a packet standing for weight packets, returns the aggregate
+     * of its address
+     */
+    long add(TrafficData traffic, long time, int weight) {
+        Window window = windows.computeIfAbsent(aggregate.getGroupBy().of(traffic),
+                key -> new Window(aggregate.getKind() == Aggregate.Kind.DISTINCT));
+        if (aggregate.getKind() != Aggregate.Kind.DISTINCT) {
+            return window.count(time, weight, aggregate.getWindowMs());
+        }
+        return window.distinct(time, aggregate.getDistinctField().of(traffic), weight, aggregate.getWindowMs());
+    }
+
+    void reset(TrafficData traffic) {
+        Window window = windows.get(aggregate.getGroupBy().of(traffic));
+        if (window != null) {
+            window.clear();
+        }
+    }
+
+    /**
+     * Drop what left the window and addresses with nothing left
+     */
+    void prune(long now) {
+        if (aggregate.getWindowMs() > 0) {
+            windows.forEach((address, window) -> window.prune(now, aggregate.getWindowMs()));
+        }
+        windows.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    }
+
+    void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Packets or field values of one address; entries are only kept when
+     * the aggregate has a window. Under sampling a value seen once stands
+     * for weight values (a scan shows about 1 in N of its ports), a value
+     * seen again is a single busy one; total holds that estimate.
+     */
+    private static final class Window {
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final Map<Object, Seen> values = new HashMap<>();
+        private final boolean distinct;
+        private long total = 0;
+
+        Window(boolean distinct) {
+            this.distinct = distinct;
+        }
+
+        synchronized long count(long time, int weight, long windowMs) {
+            total += weight;
+            if (windowMs > 0) {
+                entries.addLast(new Entry(time, weight, null));
+                prune(time, windowMs);
+            }
+            return total;
+        }
+
+        synchronized long distinct(long time, Object value, int weight, long windowMs) {
+            Seen seen = values.computeIfAbsent(value, key -> new Seen());
+            total -= seen.estimate();
+            seen.count++;
+            seen.weight = weight;
+            total += seen.estimate();
+            if (windowMs > 0) {
+                entries.addLast(new Entry(time, 0, value));
+                prune(time, windowMs);
+            }
+            return total;
+        }
+
+        synchronized void prune(long now, long windowMs) {
+            while (!entries.isEmpty() && now - entries.peekFirst().time > windowMs) {
+                Entry entry = entries.pollFirst();
+                if (distinct) {
+                    // Entries leave oldest first, so a value left with one
+                    // entry keeps the weight of its latest
+                    Seen seen = values.get(entry.value);
+                    total -= seen.estimate();
+                    if (--seen.count == 0) {
+                        values.remove(entry.value);
+                    } else {
+                        total += seen.estimate();
+                    }
+                } else {
+                    total -= entry.weight;
+                }
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            values.clear();
+            total = 0;
+        }
+
+        synchronized boolean isEmpty() {
+            return total == 0 && values.isEmpty();
+        }
+    }
+
+    /**
+     * Packets of one distinct value in a window and the weight of the latest
+     */
+    private static final class Seen {
+        private int count;
+        private int weight;
+
+        long estimate() {
+            return count == 1 ? weight : count > 1 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Packet in a window: its weight when counting, its field value when
+     * counting distinct values
+     */
+    private static final class Entry {
+        private final long time;
+        private final long weight;
+        private final Object value;
+
+        Entry(long time, long weight, Object value) {
+            this.time = time;
+            this.weight = weight;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+import org.example.services.capture.HeaderDecoder;
+
+import java.util.Objects;
+
+/**
+ * A test on the packet headers. Equal predicates of different rules are
+ * compiled into one and evaluated once per packet.
+ */
+public final class HeaderPredicate {
+    public enum Field {
+        SIZE("size"), PAYLOAD_SIZE("payload.size"), TTL("ttl"), ICMP_TYPE("icmp.type"),
+        ICMP_CODE("icmp.code"), SRC_PORT("src.port"), TCP_FLAGS("flags"), SRC_ADDRESS("src"),
+        DST_ADDRESS("dst");
+
+        private final String keyword;
+
+        Field(String keyword) {
+            this.keyword = keyword;
+        }
+
+        public String getKeyword() {
+            return keyword;
+        }
+
+        /**
+         * Field of a rule keyword, or null
+         */
+        static Field of(String keyword) {
+            for (Field field : values()) {
+                if (field.keyword.equals(keyword)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Op {
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("="), NE("!=");
+
+        private final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Op of(String symbol) {
+            for (Op op : values()) {
+                if (op.symbol.equals(symbol)) {
+                    return op;
+                }
+            }
+            return null;
+        }
+
+        boolean test(long left, long right) {
+            switch (this) {
+                case LT: return left < right;
+                case LE: return left <= right;
+                case GT: return left > right;
+                case GE: return left >= right;
+                case EQ: return left == right;
+                default: return left != right;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return symbol;
+        }
+    }
+
+    private final Field field;
+    private final Op op;
+    // Compared value, or for TCP_FLAGS the flags required within the mask
+    private final long value;
+    private final int mask;
+    private final PortSet ports;
+    private final AddressSet addresses;
+
+    private HeaderPredicate(Field field, Op op, long value, int mask, PortSet ports, AddressSet addresses) {
+        this.field = field;
+        this.op = op;
+        this.value = value;
+        this.mask = mask;
+        this.ports = ports;
+        this.addresses = addresses;
+    }
+
+    static HeaderPredicate compare(Field field, Op op, long value) {
+        return new HeaderPredicate(field, op, value, 0, null, null);
+    }
+
+    static HeaderPredicate sourcePorts(PortSet ports) {
+        return new HeaderPredicate(Field.SRC_PORT, null, 0, 0, ports, null);
+    }
+
+    static HeaderPredicate sourceAddresses(AddressSet addresses) {
+        return new HeaderPredicate(Field.SRC_ADDRESS, null, 0, 0, null, addresses);
+    }
+
+    static HeaderPredicate destinationAddresses(AddressSet addresses) {
+        return new HeaderPredicate(Field.DST_ADDRESS, null, 0, 0, null, addresses);
+    }
+
+    /**
+     * TCP segments whose flags within mask are exactly value
+     */
+    static HeaderPredicate tcpFlags(int mask, int value) {
+        return new HeaderPredicate(Field.TCP_FLAGS, null, value, mask, null, null);
+    }
+
+    public boolean test(TrafficData traffic, HeaderDecoder headers) {
+        switch (field) {
+            case SIZE:
+                return op.test(traffic.getPacketSize(), value);
+            case PAYLOAD_SIZE:
+                return op.test(headers.getPayloadLength(), value);
+            case TTL:
+                return op.test(headers.getTtl(), value);
+            case ICMP_TYPE:
+                return isIcmp(headers) && op.test(headers.getIcmpType(), value);
+            case ICMP_CODE:
+                return isIcmp(headers) && op.test(headers.getIcmpCode(), value);
+            case SRC_PORT:
+                return ports.contains(traffic.getSourcePort());
+            case SRC_ADDRESS:
+                return addresses.contains(traffic.getIpVersion(), traffic.getSourceHigh(), traffic.getSourceLow());
+            case DST_ADDRESS:
+                return addresses.contains(traffic.getIpVersion(), traffic.getDestinationHigh(),
+                        traffic.getDestinationLow());
+            default:
+                return headers.hasTransport() && headers.getProtocol() == HeaderDecoder.PROTO_TCP &&
+                        (headers.getTcpFlags() & mask) == value;
+        }
+    }
+
+    private static boolean isIcmp(HeaderDecoder headers) {
+        return headers.hasTransport() && (headers.getProtocol() == HeaderDecoder.PROTO_ICMP ||
+                headers.getProtocol() == HeaderDecoder.PROTO_ICMPV6);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Ports of a SRC_PORT predicate, null otherwise
+     */
+    PortSet getPorts() {
+        return ports;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof HeaderPredicate)) {
+            return false;
+        }
+        HeaderPredicate predicate = (HeaderPredicate) other;
+        return field == predicate.field && op == predicate.op && value == predicate.value &&
+                mask == predicate.mask && Objects.equals(ports, predicate.ports) &&
+                Objects.equals(addresses, predicate.addresses);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(field, op, value, mask, ports, addresses);
+    }
+
+    @Override
+    public String toString() {
+        if (field == Field.SRC_PORT) {
+            return "src.port " + ports;
+        }
+        if (field == Field.SRC_ADDRESS || field == Field.DST_ADDRESS) {
+            return field.keyword + " " + addresses;
+        }
+        if (field == Field.TCP_FLAGS) {
+            return "flags " + Integer.toHexString((int) value) + "/" + Integer.toHexString(mask);
+        }
+        return field.keyword + " " + op + " " + value;
+    }
+}
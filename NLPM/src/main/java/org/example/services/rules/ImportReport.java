@@ -0,0 +1,74 @@
+package org.example.services.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of importing a Snort rule file: the rules imported, the rules
+ * skipped with the reason, and the options that were imported loosely
+ * (the rule can match more than under Snort)
+ */
+public class ImportReport {
+    private final String source;
+    private final List<Rule> rules = new ArrayList<>();
+    private final List<String> skipped = new ArrayList<>();
+    private final Map<String, Integer> skipReasons = new TreeMap<>();
+    private final Map<String, Integer> relaxed = new TreeMap<>();
+
+    ImportReport(String source) {
+        this.source = source;
+    }
+
+    void imported(Rule rule) {
+        rules.add(rule);
+    }
+
+    void skip(int line, String sid, String reason) {
+        skipped.add(source + ":" + line + (sid != null ? " sid " + sid : "") + ": " + reason);
+        // Count by the reason without its details
+        int detail = reason.indexOf(':');
+        skipReasons.merge(detail > 0 ? reason.substring(0, detail) : reason, 1, Integer::sum);
+    }
+
+    void relax(String option) {
+        relaxed.merge(option, 1, Integer::sum);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * One line per skipped rule: source, line, sid and reason
+     */
+    public List<String> getSkipped() {
+        return skipped;
+    }
+
+    public Map<String, Integer> getSkipReasons() {
+        return skipReasons;
+    }
+
+    /**
+     * Imported rules per option matched more loosely than Snort does
+     */
+    public Map<String, Integer> getRelaxed() {
+        return relaxed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder()
+                .append("Imported ").append(rules.size()).append(" of ").append(rules.size() + skipped.size())
+                .append(" Snort rules from ").append(source);
+        if (!skipped.isEmpty()) {
+            text.append("\n  skipped ").append(skipped.size()).append(": ").append(skipReasons);
+        }
+        if (!relaxed.isEmpty()) {
+            text.append("\n  matched loosely: ").append(relaxed);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+import org.example.services.capture.HeaderDecoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Alert description of a rule with {placeholders}:
+ * {count} the aggregate, {src} {dst} {src.port} {dst.port} {size}
+ * {payload.size}, {match} the matched content (or the pcre of the rule)
+ * and {sampling}, a note when the count is estimated under sampling.
+ */
+final class MessageTemplate {
+    private static final List<String> PLACEHOLDERS = List.of(
+            "count", "src", "dst", "src.port", "dst.port", "size", "payload.size", "match", "sampling");
+
+    private final String text;
+    // Literal text before each placeholder, then the text after the last
+    private final String[] literals;
+    private final int[] placeholders;
+
+    /**
+     * Throws IllegalArgumentException on an unknown or unclosed placeholder
+     */
+    MessageTemplate(String text) {
+        this.text = text;
+        List<String> literalList = new ArrayList<>();
+        List<Integer> placeholderList = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int open = text.indexOf('{', position);
+            if (open < 0) {
+                break;
+            }
+            int close = text.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("unclosed placeholder in message \"" + text + "\"");
+            }
+            int placeholder = PLACEHOLDERS.indexOf(text.substring(open + 1, close));
+            if (placeholder < 0) {
+                throw new IllegalArgumentException("unknown placeholder " + text.substring(open, close + 1) +
+                        ", expected one of " + PLACEHOLDERS);
+            }
+            literalList.add(text.substring(position, open));
+            placeholderList.add(placeholder);
+            position = close + 1;
+        }
+        literalList.add(text.substring(position));
+        this.literals = literalList.toArray(new String[0]);
+        this.placeholders = placeholderList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private MessageTemplate(String text, String[] literals, int[] placeholders) {
+        this.text = text;
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * A message without placeholders, braces are kept as they are
+     */
+    static MessageTemplate literal(String text) {
+        return new MessageTemplate(text, new String[] {text}, new int[0]);
+    }
+
+    String render(TrafficData traffic, HeaderDecoder headers, long count, int weight, String match) {
+        StringBuilder message = new StringBuilder(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            switch (placeholders[i]) {
+                case 0: message.append(count); break;
+                case 1: message.append(traffic.getSourceIP()); break;
+                case 2: message.append(traffic.getDestinationIP()); break;
+                case 3: message.append(traffic.getSourcePort()); break;
+                case 4: message.append(traffic.getDestinationPort()); break;
+                case 5: message.append(traffic.getPacketSize()); break;
+                case 6: message.append(headers.getPayloadLength()); break;
+                case 7: message.append(match); break;
+                default:
+                    if (weight > 1) {
+                        message.append(" (estimated, sampling 1 in ").append(weight).append(')');
+                    }
+                    break;
+            }
+            message.append(literals[i + 1]);
+        }
+        return message.toString();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.services.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ports and port ranges of a rule, kept as sorted, merged ranges
+ */
+public final class PortSet {
+    // from, to pairs (inclusive)
+    private final int[] ranges;
+
+    PortSet(List<int[]> ranges) {
+        List<int[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] merged = new int[sorted.size() * 2];
+        int count = 0;
+        for (int[] range : sorted) {
+            if (count > 0 && range[0] <= merged[count - 1] + 1) {
+                merged[count - 1] = Math.max(merged[count - 1], range[1]);
+            } else {
+                merged[count++] = range[0];
+                merged[count++] = range[1];
+            }
+        }
+        this.ranges = Arrays.copyOf(merged, count);
+    }
+
+    public boolean contains(int port) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (port < ranges[i]) {
+                return false;
+            }
+            if (port <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inclusive from, to pairs in ascending order
+     */
+    int[] getRanges() {
+        return ranges;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PortSet && Arrays.equals(ranges, ((PortSet) other).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                text.append('-').append(ranges[i + 1]);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.services.rules;
+
+import java.util.List;
+
+/**
+ * One parsed detection rule, see {@link RuleParser} for the syntax.
+ * A rule fires when every condition holds: protocol, destination port,
+ * header predicates, all content groups (any pattern of a group) and all
+ * pcres, and then its aggregate, if any, reaches the threshold.
+ */
+public class Rule {
+    public enum Protocol { ANY, TCP, UDP, ICMP }
+
+    private final String key;
+    private final String alertType;
+    private final String severity;
+    private final Protocol protocol;
+    private final PortSet destinationPorts;
+    private final List<HeaderPredicate> predicates;
+    private final List<List<String>> contents;
+    private final List<String> pcres;
+    private final Aggregate aggregate;
+    private final MessageTemplate message;
+    private final boolean blacklist;
+
+    Rule(String key, String alertType, String severity, Protocol protocol, PortSet destinationPorts,
+         List<HeaderPredicate> predicates, List<List<String>> contents, List<String> pcres,
+         Aggregate aggregate, MessageTemplate message, boolean blacklist) {
+        this.key = key;
+        this.alertType = alertType;
+        this.severity = severity;
+        this.protocol = protocol;
+        this.destinationPorts = destinationPorts;
+        this.predicates = List.copyOf(predicates);
+        this.contents = List.copyOf(contents);
+        this.pcres = List.copyOf(pcres);
+        this.aggregate = aggregate;
+        this.message = message;
+        this.blacklist = blacklist;
+    }
+
+    /** Rule name, also the rate-limiting key of its alerts */
+    public String getKey() { return key; }
+    public String getAlertType() { return alertType; }
+    public String getSeverity() { return severity; }
+    public Protocol getProtocol() { return protocol; }
+    /** null when the rule applies to any port */
+    public PortSet getDestinationPorts() { return destinationPorts; }
+    public List<HeaderPredicate> getPredicates() { return predicates; }
+    /** Content groups, matched case-insensitively */
+    public List<List<String>> getContents() { return contents; }
+    public List<String> getPcres() { return pcres; }
+    /** null when the rule fires on every matching packet */
+    public Aggregate getAggregate() { return aggregate; }
+    public String getMessage() { return message.toString(); }
+    /** Blacklist the source for the rest of the session when the rule fires */
+    public boolean isBlacklist() { return blacklist; }
+
+    MessageTemplate getMessageTemplate() {
+        return message;
+    }
+
+    boolean hasPayloadConditions() {
+        return !contents.isEmpty() || !pcres.isEmpty();
+    }
+}
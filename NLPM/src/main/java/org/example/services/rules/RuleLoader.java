@@ -0,0 +1,131 @@
+package org.example.services.rules;
+
+import org.example.services.capture.CaptureConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Where the detection rules come from: the rule file named by
+ * detection.rules.file, or the built-in detection.rules on the classpath,
+ * followed by the rules imported from the Snort rule files listed in
+ * detection.rules.snort-files. Rule files are checked for changes by
+ * modification time and size.
+ */
+public class RuleLoader {
+    static final String BUILT_IN = "detection.rules";
+
+    private final Path file;
+    private final List<Path> snortFiles;
+    private volatile String loadedStamp;
+
+    /**
+     * file null for the built-in rules
+     */
+    public RuleLoader(Path file) {
+        this(file, List.of());
+    }
+
+    public RuleLoader(Path file, List<Path> snortFiles) {
+        this.file = file;
+        this.snortFiles = List.copyOf(snortFiles);
+    }
+
+    public static RuleLoader fromConfig() {
+        CaptureConfig config = CaptureConfig.getInstance();
+        String file = config.getString("detection.rules.file", "").trim();
+        List<Path> snortFiles = config.getList("detection.rules.snort-files").stream().map(Paths::get).toList();
+        return new RuleLoader(file.isEmpty() ? null : Paths.get(file), snortFiles);
+    }
+
+    /**
+     * Read and parse the rules; throws IllegalArgumentException on a
+     * syntax error
+     */
+    public List<Rule> load() throws IOException {
+        // Stamp first: an edit made while reading is picked up next time
+        String stamp = stamp();
+        List<Rule> rules = new ArrayList<>(file != null
+                ? RuleParser.parse(Files.readString(file, StandardCharsets.UTF_8), file.toString())
+                : loadBuiltIn());
+        // Snort rules that cannot be imported are skipped and reported,
+        // they do not fail the load
+        for (Path snortFile : snortFiles) {
+            ImportReport report = SnortImporter.importFile(snortFile);
+            System.out.println(report);
+            rules.addAll(report.getRules());
+        }
+        loadedStamp = stamp;
+        return rules;
+    }
+
+    /**
+     * True if the rule file changed since it was last loaded (never for
+     * the built-in rules)
+     */
+    public boolean hasChanged() {
+        if (!isFile()) {
+            return false;
+        }
+        try {
+            return !stamp().equals(loadedStamp);
+        } catch (IOException e) {
+            // Missing while being replaced, or gone: keep the current rules
+            return false;
+        }
+    }
+
+    private String stamp() throws IOException {
+        StringBuilder stamp = new StringBuilder();
+        if (file != null) {
+            stamp(file, stamp);
+        }
+        for (Path snortFile : snortFiles) {
+            stamp(snortFile, stamp);
+        }
+        return stamp.toString();
+    }
+
+    private static void stamp(Path path, StringBuilder stamp) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        stamp.append(attributes.lastModifiedTime().toMillis()).append(':').append(attributes.size()).append(' ');
+    }
+
+    /**
+     * True if rules are read from files, which can change
+     */
+    public boolean isFile() {
+        return file != null || !snortFiles.isEmpty();
+    }
+
+    public String getSource() {
+        String source = file != null ? file.toString() : BUILT_IN + " (built-in)";
+        if (snortFiles.isEmpty()) {
+            return source;
+        }
+        return source + " + " + snortFiles.stream().map(Path::toString).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * The rules shipped on the classpath
+     */
+    public static List<Rule> loadBuiltIn() {
+        try (InputStream input = RuleLoader.class.getClassLoader().getResourceAsStream(BUILT_IN)) {
+            if (input == null) {
+                throw new IllegalStateException(BUILT_IN + " not found on the classpath");
+            }
+            return RuleParser.parse(new String(input.readAllBytes(), StandardCharsets.UTF_8), BUILT_IN);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package org.example.services.rules;
+
+import org.example.services.inspection.RegexSet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parser for detection rule files. A rule is a block of clauses, one per
+ * line; # starts a comment:
+ * <pre>
+ * rule BruteForce "Brute Force" High {
+ *     proto tcp
+ *     dst.port 21-23, 3389
+ *     count >= 10 by src within 60s
+ *     message "Brute force attack detected on port {dst.port}: {count} attempts"
+ * }
+ * </pre>
+ * The header names the rule (its rate-limiting key), the alert type and
+ * the severity (Critical, High, Medium, Low or Info). Clauses:
+ * <ul>
+ * <li>proto tcp|udp|icmp|any, dst.port and src.port with ports and ranges</li>
+ * <li>size, payload.size, ttl, icmp.type, icmp.code compared with
+ *     &lt; &lt;= &gt; &gt;= = != to a number</li>
+ * <li>flags with TCP flag letters FSRPAU: exactly these, or with a
+ *     trailing + at least these</li>
+ * <li>content "a", "b": any of the strings, case-insensitive, \" \\ and
+ *     \xHH escapes; every content line of a rule must match. TCP content
+ *     is matched on the reassembled stream</li>
+ * <li>pcre /regex/ or /regex/i, see {@link RegexSet}; matched on the
+ *     packet payload</li>
+ * <li>count &gt;= N by src|dst [within 60s] and
+ *     distinct src|dst|src.port|dst.port &gt;= N by src|dst [within 5m]
+ *     (ms, s, m, h); at most one per rule</li>
+ * <li>message "...", see {@link MessageTemplate} for its placeholders</li>
+ * <li>blacklist: blacklist the source for the session when the rule fires</li>
+ * </ul>
+ * Errors throw IllegalArgumentException naming the source and line.
+ */
+public class RuleParser {
+    private static final List<String> SEVERITIES = List.of("Critical", "High", "Medium", "Low", "Info");
+    private static final String TCP_FLAG_LETTERS = "FSRPAU";
+
+    private final String source;
+    private int lineNumber;
+
+    private RuleParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parse the rules of text; source names it in error messages
+     */
+    public static List<Rule> parse(String text, String source) {
+        return new RuleParser(source).parse(text);
+    }
+
+    private List<Rule> parse(String text) {
+        List<Rule> rules = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        RuleBuilder rule = null;
+        String[] lines = text.split("\r?\n", -1);
+        for (lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            Line line = tokenize(lines[lineNumber - 1]);
+            if (line.atEnd()) {
+                continue;
+            }
+            if (rule == null) {
+                rule = header(line);
+                if (!keys.add(rule.key)) {
+                    throw error("duplicate rule " + rule.key);
+                }
+            } else if (line.peekSymbol("}")) {
+                line.next();
+                line.end();
+                rules.add(rule.build());
+                rule = null;
+            } else {
+                clause(line, rule);
+            }
+        }
+        if (rule != null) {
+            throw error("rule " + rule.key + " is missing its closing '}'");
+        }
+        return rules;
+    }
+
+    private RuleBuilder header(Line line) {
+        if (!"rule".equals(line.word())) {
+            throw error("expected 'rule <Name> \"<Alert type>\" <Severity> {'");
+        }
+        RuleBuilder rule = new RuleBuilder(line.word(), line.string(), severity(line.word()));
+        line.symbol("{");
+        line.end();
+        return rule;
+    }
+
+    private String severity(String word) {
+        for (String severity : SEVERITIES) {
+            if (severity.equalsIgnoreCase(word)) {
+                return severity;
+            }
+        }
+        throw error("unknown severity " + word + ", expected one of " + SEVERITIES);
+    }
+
+    private void clause(Line line, RuleBuilder rule) {
+        String keyword = line.word();
+        switch (keyword) {
+            case "proto":
+                if (rule.protocol != null) {
+                    throw error("proto given twice");
+                }
+                String protocol = line.word();
+                try {
+                    rule.protocol = Rule.Protocol.valueOf(protocol.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw error("unknown protocol " + protocol + ", expected tcp, udp, icmp or any");
+                }
+                break;
+            case "dst.port":
+                if (rule.destinationPorts != null) {
+                    throw error("dst.port given twice");
+                }
+                rule.destinationPorts = ports(line);
+                break;
+            case "src.port":
+                rule.predicates.add(HeaderPredicate.sourcePorts(ports(line)));
+                break;
+            case "flags":
+                rule.predicates.add(flags(line.word()));
+                break;
+            case "content": {
+                List<String> group = new ArrayList<>();
+                group.add(content(line.string()));
+                while (line.peekSymbol(",")) {
+                    line.next();
+                    group.add(content(line.string()));
+                }
+                rule.contents.add(group);
+                break;
+            }
+            case "pcre": {
+                String pcre = line.regex();
+                try {
+                    RegexSet.validate(pcre);
+                } catch (IllegalArgumentException e) {
+                    throw error(e.getMessage());
+                }
+                rule.pcres.add(pcre);
+                break;
+            }
+            case "count":
+            case "distinct": {
+                if (rule.aggregate != null) {
+                    throw error("a rule has at most one count or distinct");
+                }
+                Aggregate.Field field = keyword.equals("distinct") ? aggregateField(line.word(), false) : null;
+                line.symbol(">=");
+                long threshold = line.number();
+                if (threshold < 1) {
+                    throw error("threshold must be at least 1");
+                }
+                if (!"by".equals(line.word())) {
+                    throw error("expected 'by src' or 'by dst'");
+                }
+                Aggregate.Field groupBy = aggregateField(line.word(), true);
+                long windowMs = 0;
+                if (!line.atEnd()) {
+                    if (!"within".equals(line.word())) {
+                        throw error("expected 'within <duration>'");
+                    }
+                    windowMs = duration(line.word());
+                }
+                rule.aggregate = new Aggregate(keyword.equals("count") ? Aggregate.Kind.COUNT :
+                        Aggregate.Kind.DISTINCT, field, groupBy, threshold, windowMs);
+                break;
+            }
+            case "message":
+                try {
+                    rule.message = new MessageTemplate(line.string());
+                } catch (IllegalArgumentException e) {
+                    throw error(e.getMessage());
+                }
+                break;
+            case "blacklist":
+                rule.blacklist = true;
+                break;
+            default:
+                HeaderPredicate.Field field = HeaderPredicate.Field.of(keyword);
+                if (field == null || field == HeaderPredicate.Field.SRC_PORT ||
+                        field == HeaderPredicate.Field.TCP_FLAGS || field == HeaderPredicate.Field.SRC_ADDRESS ||
+                        field == HeaderPredicate.Field.DST_ADDRESS) {
+                    throw error("unknown clause " + keyword);
+                }
+                String symbol = line.operator();
+                HeaderPredicate.Op op = HeaderPredicate.Op.of(symbol);
+                if (op == null) {
+                    throw error("unknown comparison " + symbol);
+                }
+                rule.predicates.add(HeaderPredicate.compare(field, op, line.number()));
+                break;
+        }
+        line.end();
+    }
+
+    private PortSet ports(Line line) {
+        List<int[]> ranges = new ArrayList<>();
+        do {
+            if (!ranges.isEmpty()) {
+                line.next();
+            }
+            String item = line.word();
+            int dash = item.indexOf('-');
+            int from = port(dash < 0 ? item : item.substring(0, dash));
+            int to = dash < 0 ? from : port(item.substring(dash + 1));
+            if (to < from) {
+                throw error("port range " + item + " is out of order");
+            }
+            ranges.add(new int[]{from, to});
+        } while (line.peekSymbol(","));
+        return new PortSet(ranges);
+    }
+
+    private int port(String text) {
+        try {
+            int port = Integer.parseInt(text);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error("invalid port " + text);
+    }
+
+    private HeaderPredicate flags(String spec) {
+        boolean atLeast = spec.endsWith("+");
+        String letters = atLeast ? spec.substring(0, spec.length() - 1) : spec;
+        int value = 0;
+        for (char letter : letters.toUpperCase().toCharArray()) {
+            int bit = TCP_FLAG_LETTERS.indexOf(letter);
+            if (bit < 0) {
+                throw error("unknown TCP flag " + letter + ", expected letters of " + TCP_FLAG_LETTERS);
+            }
+            value |= 1 << bit;
+        }
+        if (value == 0 && atLeast) {
+            throw error("flags + needs at least one flag");
+        }
+        return HeaderPredicate.tcpFlags(atLeast ? value : (1 << TCP_FLAG_LETTERS.length()) - 1, value);
+    }
+
+    private String content(String text) {
+        if (text.isEmpty()) {
+            throw error("content must not be empty");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xff) {
+                throw error("content holds single bytes only, use \\xHH");
+            }
+        }
+        return text;
+    }
+
+    private Aggregate.Field aggregateField(String word, boolean address) {
+        Aggregate.Field field = Aggregate.Field.of(word);
+        if (field == null || address && field != Aggregate.Field.SRC && field != Aggregate.Field.DST) {
+            throw error("unknown " + (address ? "address " : "field ") + word);
+        }
+        return field;
+    }
+
+    private long duration(String text) {
+        int unit = 0;
+        while (unit < text.length() && Character.isDigit(text.charAt(unit))) {
+            unit++;
+        }
+        long scale;
+        switch (text.substring(unit)) {
+            case "ms": scale = 1; break;
+            case "s": scale = 1000; break;
+            case "m": scale = 60_000; break;
+            case "h": scale = 3_600_000; break;
+            default: throw error("invalid duration " + text + ", expected e.g. 500ms, 60s, 5m or 1h");
+        }
+        try {
+            long value = Long.parseLong(text.substring(0, unit)) * scale;
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error("invalid duration " + text);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(source + ":" + lineNumber + ": " + message);
+    }
+
+    private enum TokenType { WORD, STRING, REGEX, SYMBOL }
+
+    private static final class Token {
+        final TokenType type;
+        final String text;
+
+        Token(TokenType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    private Line tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= text.length()) {
+                        throw error("unterminated string");
+                    }
+                    char d = text.charAt(i++);
+                    if (d == '"') {
+                        break;
+                    }
+                    if (d == '\\' && i < text.length()) {
+                        char escaped = text.charAt(i++);
+                        if (escaped == 'x') {
+                            try {
+                                value.append((char) Integer.parseInt(text.substring(i, i + 2), 16));
+                            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                                throw error("\\x needs two hex digits");
+                            }
+                            i += 2;
+                        } else if (escaped == '"' || escaped == '\\') {
+                            value.append(escaped);
+                        } else {
+                            value.append('\\').append(escaped);
+                        }
+                    } else {
+                        value.append(d);
+                    }
+                }
+                tokens.add(new Token(TokenType.STRING, value.toString()));
+            } else if (c == '/' && !tokens.isEmpty() && tokens.get(tokens.size() - 1).text.equals("pcre")) {
+                // Kept as written: \/ is a valid regex escape for '/'
+                int start = ++i;
+                while (i < text.length() && text.charAt(i) != '/') {
+                    i += text.charAt(i) == '\\' ? 2 : 1;
+                }
+                if (i >= text.length()) {
+                    throw error("unterminated pcre");
+                }
+                String regex = text.substring(start, i++);
+                while (i < text.length() && Character.isLetter(text.charAt(i))) {
+                    if (text.charAt(i++) != 'i') {
+                        throw error("unsupported pcre flag " + text.charAt(i - 1));
+                    }
+                    if (!regex.startsWith("(?i)")) {
+                        regex = "(?i)" + regex;
+                    }
+                }
+                tokens.add(new Token(TokenType.REGEX, regex));
+            } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                int end = i + 1 < text.length() && text.charAt(i + 1) == '=' ? i + 2 : i + 1;
+                tokens.add(new Token(TokenType.SYMBOL, text.substring(i, end)));
+                i = end;
+            } else if (c == ',' || c == '{' || c == '}') {
+                tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c)));
+                i++;
+            } else {
+                int start = i;
+                while (i < text.length() && isWordChar(text.charAt(i))) {
+                    i++;
+                }
+                if (i == start) {
+                    throw error("unexpected character '" + c + "'");
+                }
+                tokens.add(new Token(TokenType.WORD, text.substring(start, i)));
+            }
+        }
+        return new Line(tokens);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-' || c == '+';
+    }
+
+    /**
+     * Tokens of one line, consumed left to right
+     */
+    private final class Line {
+        private final List<Token> tokens;
+        private int position = 0;
+
+        Line(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean atEnd() {
+            return position == tokens.size();
+        }
+
+        Token next() {
+            if (atEnd()) {
+                throw error("unexpected end of line");
+            }
+            return tokens.get(position++);
+        }
+
+        private String next(TokenType type, String expected) {
+            Token token = next();
+            if (token.type != type) {
+                throw error("expected " + expected + " but found '" + token.text + "'");
+            }
+            return token.text;
+        }
+
+        String word() {
+            return next(TokenType.WORD, "a word");
+        }
+
+        String string() {
+            return next(TokenType.STRING, "a quoted string");
+        }
+
+        String regex() {
+            return next(TokenType.REGEX, "/regex/");
+        }
+
+        String operator() {
+            return next(TokenType.SYMBOL, "a comparison");
+        }
+
+        long number() {
+            String word = word();
+            try {
+                return Long.parseLong(word);
+            } catch (NumberFormatException e) {
+                throw error("expected a number but found '" + word + "'");
+            }
+        }
+
+        void symbol(String symbol) {
+            if (!next(TokenType.SYMBOL, "'" + symbol + "'").equals(symbol)) {
+                throw error("expected '" + symbol + "'");
+            }
+        }
+
+        boolean peekSymbol(String symbol) {
+            return !atEnd() && tokens.get(position).type == TokenType.SYMBOL &&
+                    tokens.get(position).text.equals(symbol);
+        }
+
+        void end() {
+            if (!atEnd()) {
+                throw error("unexpected '" + tokens.get(position).text + "'");
+            }
+        }
+    }
+
+    /**
+     * Clauses of the rule being parsed
+     */
+    private final class RuleBuilder {
+        final String key;
+        final String alertType;
+        final String severity;
+        Rule.Protocol protocol;
+        PortSet destinationPorts;
+        final List<HeaderPredicate> predicates = new ArrayList<>();
+        final List<List<String>> contents = new ArrayList<>();
+        final List<String> pcres = new ArrayList<>();
+        Aggregate aggregate;
+        MessageTemplate message;
+        boolean blacklist;
+
+        RuleBuilder(String key, String alertType, String severity) {
+            this.key = key;
+            this.alertType = alertType;
+            this.severity = severity;
+        }
+
+        Rule build() {
+            if (protocol == null && destinationPorts == null && predicates.isEmpty() && contents.isEmpty() &&
+                    pcres.isEmpty() && aggregate == null) {
+                throw error("rule " + key + " has no condition and would fire on every packet");
+            }
+            return new Rule(key, alertType, severity, protocol != null ? protocol : Rule.Protocol.ANY,
+                    destinationPorts, predicates, contents, pcres, aggregate,
+                    message != null ? message : new MessageTemplate(alertType + " detected"), blacklist);
+        }
+    }
+}
@@ -0,0 +1,726 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+import org.example.services.capture.CapturedPacket;
+import org.example.services.capture.HeaderDecoder;
+import org.example.services.inspection.LazyDfa;
+import org.example.services.inspection.NfaMatcher;
+import org.example.services.inspection.PayloadSignature;
+import org.example.services.inspection.ReassemblyBudget;
+import org.example.services.inspection.RegexSet;
+import org.example.services.inspection.RegexSignature;
+import org.example.services.inspection.SignatureMatches;
+import org.example.services.inspection.SignatureSet;
+import org.example.services.inspection.TcpReassembler;
+import org.pcap4j.packet.Packet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Detection rules compiled into an evaluation plan. Rules are grouped by
+ * protocol and destination port ahead of time, so a packet only visits the
+ * rules that can apply to it, in file order. Equal header predicates are
+ * evaluated once per packet; all content groups are matched by one
+ * automaton scan (TCP on the reassembled stream) and the pcres of rules
+ * without content by one DFA scan, done only when a candidate rule needs
+ * them. Rules with content are not grouped by port: each is triggered by
+ * its most selective content group, as Snort's fast pattern is, and only
+ * visited when that group matched. Their pcres confirm them: each is run
+ * on its own, once the rule's contents matched, so large imported rule
+ * sets do not put every regex into every DFA state.
+ * Immutable apart from the aggregate windows and per-worker scan state;
+ * a reload compiles a new set and swaps it in as a whole.
+ */
+public class RuleSet {
+    // Dispatch groups
+    private static final int TCP_GROUP = 0;
+    private static final int UDP_GROUP = 1;
+    private static final int ICMP_GROUP = 2;
+    private static final int OTHER_GROUP = 3;
+    private static final int PROTOCOLS = 4;
+    // Bounds the NFA of the confirming pcres (16 bytes a state)
+    private static final int MAX_CONFIRMATION_NODES = 8_000_000;
+
+    /**
+     * Receives the alerts of fired rules
+     */
+    public interface AlertSink {
+        /** Rate limiting: false drops the alert and keeps the rule's aggregate */
+        boolean shouldAlert(TrafficData traffic, Rule rule);
+
+        void alert(Rule rule, TrafficData traffic, String description);
+    }
+
+    private final String source;
+    private final List<Rule> rules;
+
+    private final HeaderPredicate[] predicates;
+    private final int[][] rulePredicates;
+    private final SignatureSet contents;
+    private final int[][] ruleContents;
+    // Per content group, the rules it triggers in file order: a rule with
+    // content is indexed under its most selective group only, and visited
+    // when that group matched
+    private final int[][] contentRules;
+    private final RegexSet pcres;
+    private final int[][] rulePcres;
+    private final RegexSet confirmations;
+    private final int[][] ruleConfirmations;
+    private final AggregateState[] ruleAggregates;
+    // By rule key and aggregate, to carry windows over to a reloaded set
+    private final Map<String, AggregateState> aggregateStates = new HashMap<>();
+    // Ports named by the rules that read payloads; whether one names none
+    private final List<int[]> payloadRanges = new ArrayList<>();
+    private boolean anyPortPayload = false;
+
+    // Per protocol: the rules without content for any port, the bucket of
+    // each destination port (null when no rule of the protocol names ports,
+    // everything is bucket 0) and the indexes of the rules without content
+    // naming the ports of each bucket; flagged if a rule with content
+    // applies to the bucket's ports, which then need the content scan
+    private final int[][] anyPortRules = new int[PROTOCOLS][];
+    private final char[][] portBuckets = new char[PROTOCOLS][];
+    private final int[][][] buckets = new int[PROTOCOLS][][];
+    private final boolean[][] bucketScansContent = new boolean[PROTOCOLS][];
+
+    private volatile ReassemblyBudget reassemblyBudget;
+    private volatile ThreadLocal<Worker> workers;
+
+    private RuleSet(List<Rule> rules, String source, RuleSet previous, ReassemblyBudget budget) {
+        this.source = source;
+        this.rules = List.copyOf(rules);
+        int count = rules.size();
+
+        Map<HeaderPredicate, Integer> predicateIds = new LinkedHashMap<>();
+        Map<List<String>, Integer> contentIds = new LinkedHashMap<>();
+        List<PayloadSignature> contentSignatures = new ArrayList<>();
+        Map<String, Integer> pcreIds = new LinkedHashMap<>();
+        List<RegexSignature> pcreSignatures = new ArrayList<>();
+        Map<String, Integer> confirmationIds = new LinkedHashMap<>();
+        List<RegexSignature> confirmationSignatures = new ArrayList<>();
+        this.rulePredicates = new int[count][];
+        this.ruleContents = new int[count][];
+        this.rulePcres = new int[count][];
+        this.ruleConfirmations = new int[count][];
+        this.ruleAggregates = new AggregateState[count];
+
+        for (int r = 0; r < count; r++) {
+            Rule rule = rules.get(r);
+            rulePredicates[r] = rule.getPredicates().stream()
+                    .mapToInt(predicate -> predicateIds.computeIfAbsent(predicate, key -> predicateIds.size()))
+                    .distinct().toArray();
+            ruleContents[r] = new int[rule.getContents().size()];
+            for (int i = 0; i < ruleContents[r].length; i++) {
+                List<String> group = rule.getContents().get(i);
+                ruleContents[r][i] = contentIds.computeIfAbsent(group, key -> {
+                    contentSignatures.add(contentSignature(rule, group));
+                    return contentSignatures.size() - 1;
+                });
+            }
+            boolean confirming = !rule.getContents().isEmpty();
+            Map<String, Integer> ids = confirming ? confirmationIds : pcreIds;
+            List<RegexSignature> signatures = confirming ? confirmationSignatures : pcreSignatures;
+            int[] pcres = new int[rule.getPcres().size()];
+            for (int i = 0; i < pcres.length; i++) {
+                String pcre = rule.getPcres().get(i);
+                pcres[i] = ids.computeIfAbsent(pcre, key -> {
+                    signatures.add(new RegexSignature(rule.getKey(), rule.getAlertType(), rule.getSeverity(),
+                            rule.getMessage(), pcre));
+                    return signatures.size() - 1;
+                });
+            }
+            rulePcres[r] = confirming ? new int[0] : pcres;
+            ruleConfirmations[r] = confirming ? pcres : new int[0];
+            addPayloadPorts(rule);
+            if (rule.getAggregate() != null) {
+                String stateKey = rule.getKey() + " " + rule.getAggregate();
+                AggregateState state = previous != null ? previous.aggregateStates.get(stateKey) : null;
+                ruleAggregates[r] = state != null ? state : new AggregateState(rule.getAggregate());
+                aggregateStates.put(stateKey, ruleAggregates[r]);
+            }
+        }
+        this.predicates = predicateIds.keySet().toArray(new HeaderPredicate[0]);
+        this.contents = new SignatureSet(contentSignatures);
+        this.contentRules = indexContentRules(contentSignatures.size());
+        this.pcres = new RegexSet(pcreSignatures);
+        this.confirmations = new RegexSet(confirmationSignatures, 0, MAX_CONFIRMATION_NODES);
+
+        for (int protocol = 0; protocol < PROTOCOLS; protocol++) {
+            dispatch(protocol);
+        }
+        resetStreams(budget);
+    }
+
+    /**
+     * Compile rules; windows of rules whose aggregate is unchanged from the
+     * previous set (may be null) are kept
+     */
+    public static RuleSet compile(List<Rule> rules, String source, RuleSet previous, ReassemblyBudget budget) {
+        return new RuleSet(rules, source, previous, budget);
+    }
+
+    /**
+     * Content groups of rules as payload signatures, one per distinct group
+     */
+    public static List<PayloadSignature> contentSignatures(List<Rule> rules) {
+        Map<List<String>, PayloadSignature> signatures = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            for (List<String> group : rule.getContents()) {
+                signatures.computeIfAbsent(group, key -> contentSignature(rule, group));
+            }
+        }
+        return new ArrayList<>(signatures.values());
+    }
+
+    private static PayloadSignature contentSignature(Rule rule, List<String> group) {
+        return new PayloadSignature(rule.getKey(), rule.getAlertType(), rule.getSeverity(), rule.getMessage(),
+                group.toArray(new String[0]));
+    }
+
+    /**
+     * Record the ports of a rule that reads the payload (content, pcre or
+     * payload.size): its destination and source ports, either of which
+     * the packets it fires on carry
+     */
+    private void addPayloadPorts(Rule rule) {
+        boolean readsPayload = !rule.getContents().isEmpty() || !rule.getPcres().isEmpty();
+        List<PortSet> ports = new ArrayList<>();
+        if (rule.getDestinationPorts() != null) {
+            ports.add(rule.getDestinationPorts());
+        }
+        for (HeaderPredicate predicate : rule.getPredicates()) {
+            readsPayload |= predicate.getField() == HeaderPredicate.Field.PAYLOAD_SIZE;
+            if (predicate.getPorts() != null) {
+                ports.add(predicate.getPorts());
+            }
+        }
+        if (!readsPayload) {
+            return;
+        }
+        if (ports.isEmpty()) {
+            anyPortPayload = true;
+        }
+        for (PortSet set : ports) {
+            int[] ranges = set.getRanges();
+            for (int i = 0; i < ranges.length; i += 2) {
+                payloadRanges.add(new int[]{ranges[i], ranges[i + 1]});
+            }
+        }
+    }
+
+    /**
+     * Index each rule with content under the group whose shortest pattern
+     * is longest: the one that matches least often on unrelated traffic
+     */
+    private int[][] indexContentRules(int groups) {
+        List<List<Integer>> triggered = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            triggered.add(new ArrayList<>());
+        }
+        for (int r = 0; r < ruleContents.length; r++) {
+            int best = -1;
+            int bestLength = -1;
+            for (int group : ruleContents[r]) {
+                int length = Integer.MAX_VALUE;
+                for (String pattern : contents.getSignatures().get(group).getPatterns()) {
+                    length = Math.min(length, pattern.length());
+                }
+                if (length > bestLength) {
+                    best = group;
+                    bestLength = length;
+                }
+            }
+            if (best >= 0) {
+                triggered.get(best).add(r);
+            }
+        }
+        int[][] index = new int[groups][];
+        for (int g = 0; g < groups; g++) {
+            index[g] = triggered.get(g).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return index;
+    }
+
+    private static boolean appliesTo(Rule rule, int protocol) {
+        switch (rule.getProtocol()) {
+            case TCP: return protocol == TCP_GROUP;
+            case UDP: return protocol == UDP_GROUP;
+            case ICMP: return protocol == ICMP_GROUP;
+            default: return true;
+        }
+    }
+
+    /**
+     * Split the port space of a protocol into runs with the same rules
+     */
+    private void dispatch(int protocol) {
+        List<Integer> anyPort = new ArrayList<>();
+        boolean anyPortScansContent = false;
+        TreeMap<Integer, List<Integer>> starting = new TreeMap<>();
+        TreeMap<Integer, List<Integer>> ending = new TreeMap<>();
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            if (!appliesTo(rule, protocol)) {
+                continue;
+            }
+            if (rule.getDestinationPorts() == null) {
+                if (ruleContents[r].length > 0) {
+                    anyPortScansContent = true;
+                } else {
+                    anyPort.add(r);
+                }
+                continue;
+            }
+            int[] ranges = rule.getDestinationPorts().getRanges();
+            for (int i = 0; i < ranges.length; i += 2) {
+                starting.computeIfAbsent(ranges[i], port -> new ArrayList<>()).add(r);
+                ending.computeIfAbsent(ranges[i + 1] + 1, port -> new ArrayList<>()).add(r);
+            }
+        }
+
+        anyPortRules[protocol] = anyPort.stream().mapToInt(Integer::intValue).toArray();
+
+        // Keyed by the rules without content, and the content flag
+        Map<List<Integer>, Integer> bucketIds = new LinkedHashMap<>();
+        List<Boolean> scansContent = new ArrayList<>();
+        if (starting.isEmpty()) {
+            bucketIds.put(List.of(), 0);
+            scansContent.add(anyPortScansContent);
+        } else {
+            char[] ports = new char[65536];
+            TreeSet<Integer> boundaries = new TreeSet<>(starting.keySet());
+            boundaries.addAll(ending.keySet());
+            boundaries.add(0);
+            boundaries.remove(65536);
+            TreeSet<Integer> active = new TreeSet<>();
+            int activeWithContent = 0;
+            for (int from : boundaries) {
+                for (int r : ending.getOrDefault(from, List.of())) {
+                    if (ruleContents[r].length > 0) {
+                        activeWithContent--;
+                    } else {
+                        active.remove(r);
+                    }
+                }
+                for (int r : starting.getOrDefault(from, List.of())) {
+                    if (ruleContents[r].length > 0) {
+                        activeWithContent++;
+                    } else {
+                        active.add(r);
+                    }
+                }
+                boolean scan = anyPortScansContent || activeWithContent > 0;
+                List<Integer> key = new ArrayList<>(active);
+                if (scan) {
+                    // Rule indexes are never negative
+                    key.add(-1);
+                }
+                int id = bucketIds.computeIfAbsent(key, k -> {
+                    scansContent.add(scan);
+                    return bucketIds.size();
+                });
+                if (id > Character.MAX_VALUE) {
+                    throw new IllegalArgumentException(source + ": too many distinct port groups");
+                }
+                Integer to = boundaries.higher(from);
+                Arrays.fill(ports, from, to != null ? to : 65536, (char) id);
+            }
+            portBuckets[protocol] = ports;
+        }
+
+        buckets[protocol] = new int[bucketIds.size()][];
+        bucketScansContent[protocol] = new boolean[bucketIds.size()];
+        for (Map.Entry<List<Integer>, Integer> bucket : bucketIds.entrySet()) {
+            int id = bucket.getValue();
+            buckets[protocol][id] = bucket.getKey().stream().mapToInt(Integer::intValue).filter(r -> r >= 0)
+                    .toArray();
+            bucketScansContent[protocol][id] = scansContent.get(id);
+        }
+    }
+
+    /**
+     * Run the rules that apply to a packet; time is its packet time in
+     * epoch millis and the packet stands for weight packets under sampling
+     */
+    public void evaluate(TrafficData traffic, CapturedPacket packet, HeaderDecoder headers, long time,
+                         AlertSink sink) {
+        int protocol = protocolOf(headers);
+        char[] ports = portBuckets[protocol];
+        int bucket = ports != null ? ports[traffic.getDestinationPort() & 0xffff] : 0;
+        int[] named = buckets[protocol][bucket];
+        int[] anyPort = anyPortRules[protocol];
+        // Header-only captures hold at most a truncated prefix, so payload
+        // conditions do not match them
+        boolean inspect = packet.isPayloadCaptured();
+        boolean scan = inspect && bucketScansContent[protocol][bucket];
+        if (named.length == 0 && anyPort.length == 0 && !scan) {
+            return;
+        }
+
+        Worker worker = workers.get();
+        worker.begin(packet, headers);
+        int triggered = 0;
+        if (scan) {
+            worker.scanContents();
+            triggered = trigger(worker, protocol, traffic.getDestinationPort() & 0xffff);
+        }
+
+        int weight = packet.getSampleWeight();
+        // The three lists are disjoint and in file order, run them merged
+        int[] triggeredRules = worker.triggeredRules;
+        for (int i = 0, j = 0, k = 0; ; ) {
+            int r = Integer.MAX_VALUE;
+            if (i < named.length) {
+                r = named[i];
+            }
+            if (j < anyPort.length && anyPort[j] < r) {
+                r = anyPort[j];
+            }
+            if (k < triggered && triggeredRules[k] < r) {
+                r = triggeredRules[k];
+            }
+            if (r == Integer.MAX_VALUE) {
+                break;
+            }
+            if (i < named.length && named[i] == r) {
+                i++;
+            } else if (j < anyPort.length && anyPort[j] == r) {
+                j++;
+            } else {
+                k++;
+            }
+            if (!matches(r, worker, traffic, headers, inspect)) {
+                continue;
+            }
+            Rule rule = rules.get(r);
+            AggregateState aggregate = ruleAggregates[r];
+            long count = 0;
+            boolean limit = aggregate != null && rule.getAggregate().getKind() == Aggregate.Kind.LIMIT;
+            if (aggregate != null) {
+                count = aggregate.add(traffic, time, weight);
+                // A limit fires while the packet is among its first threshold
+                if (limit ? count - weight >= rule.getAggregate().getThreshold()
+                        : count < rule.getAggregate().getThreshold()) {
+                    continue;
+                }
+            }
+            if (!sink.shouldAlert(traffic, rule)) {
+                continue;
+            }
+            sink.alert(rule, traffic, rule.getMessageTemplate().render(traffic, headers, count, weight,
+                    matchText(r, worker)));
+            if (aggregate != null && !limit) {
+                aggregate.reset(traffic);
+            }
+        }
+    }
+
+    /**
+     * Collect the rules triggered by the matched content groups that apply
+     * to the packet's protocol and port into the worker, sorted; returns
+     * their count
+     */
+    private int trigger(Worker worker, int protocol, int port) {
+        SignatureMatches matches = worker.contentMatches;
+        int count = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            for (int r : contentRules[matches.getSignature(i)]) {
+                Rule rule = rules.get(r);
+                PortSet ports = rule.getDestinationPorts();
+                if (appliesTo(rule, protocol) && (ports == null || ports.contains(port))) {
+                    count = worker.addTriggered(count, r);
+                }
+            }
+        }
+        Arrays.sort(worker.triggeredRules, 0, count);
+        return count;
+    }
+
+    private boolean matches(int r, Worker worker, TrafficData traffic, HeaderDecoder headers, boolean inspect) {
+        for (int predicate : rulePredicates[r]) {
+            if (!worker.test(predicate, traffic, headers)) {
+                return false;
+            }
+        }
+        if (ruleContents[r].length == 0 && rulePcres[r].length == 0) {
+            return true;
+        }
+        if (!inspect) {
+            return false;
+        }
+        for (int content : ruleContents[r]) {
+            if (!worker.contentMatches.contains(content)) {
+                return false;
+            }
+        }
+        if (rulePcres[r].length > 0) {
+            worker.scanPcres();
+            for (int pcre : rulePcres[r]) {
+                if (!worker.pcreMatches.contains(pcre)) {
+                    return false;
+                }
+            }
+        }
+        for (int pcre : ruleConfirmations[r]) {
+            if (!worker.confirm(pcre)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Text for {match}: the pattern that matched the rule's first content
+     * group, else its first pcre
+     */
+    private String matchText(int r, Worker worker) {
+        if (ruleContents[r].length > 0) {
+            SignatureMatches matches = worker.contentMatches;
+            for (int i = 0; i < matches.size(); i++) {
+                if (matches.getSignature(i) == ruleContents[r][0]) {
+                    return contents.getPattern(matches.getPattern(i));
+                }
+            }
+        }
+        return rulePcres[r].length > 0 ? pcres.getSignatures().get(rulePcres[r][0]).getPattern() : "";
+    }
+
+    private static int protocolOf(HeaderDecoder headers) {
+        switch (headers.getProtocol()) {
+            case HeaderDecoder.PROTO_TCP: return TCP_GROUP;
+            case HeaderDecoder.PROTO_UDP: return UDP_GROUP;
+            case HeaderDecoder.PROTO_ICMP:
+            case HeaderDecoder.PROTO_ICMPV6: return ICMP_GROUP;
+            default: return OTHER_GROUP;
+        }
+    }
+
+    /**
+     * Drop the windows of windowed aggregates older than now, and addresses
+     * with nothing counted
+     */
+    public void cleanup(long now) {
+        aggregateStates.values().forEach(state -> state.prune(now));
+    }
+
+    /**
+     * Forget all aggregates, e.g. when a new capture session starts
+     */
+    public void clearState() {
+        aggregateStates.values().forEach(AggregateState::clear);
+    }
+
+    /**
+     * Drop all reassembled TCP streams and start over on budget
+     */
+    public void resetStreams(ReassemblyBudget budget) {
+        reassemblyBudget = budget;
+        HeaderPredicate[] predicates = this.predicates;
+        SignatureSet contents = this.contents;
+        RegexSet pcres = this.pcres;
+        RegexSet confirmations = this.confirmations;
+        workers = ThreadLocal.withInitial(() -> new Worker(predicates, contents, pcres, confirmations, budget));
+    }
+
+    public ReassemblyBudget getReassemblyBudget() {
+        return reassemblyBudget;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Where the rules were loaded from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Distinct header predicates, each evaluated at most once per packet
+     */
+    public int getPredicateCount() {
+        return predicates.length;
+    }
+
+    public SignatureSet getContents() {
+        return contents;
+    }
+
+    /**
+     * pcres of rules without content, matched together
+     */
+    public RegexSet getPcres() {
+        return pcres;
+    }
+
+    /**
+     * pcres of rules with content, each matched after the contents
+     */
+    public RegexSet getConfirmations() {
+        return confirmations;
+    }
+
+    /**
+     * Ports whose payload the rules read, as port specs (80, 6660-6669)
+     * for the adaptive capture profile. Rules reading payloads on any port
+     * are given the unrestricted specs, the ports worth inspecting for them.
+     */
+    public List<String> getPayloadPorts(List<String> unrestricted) {
+        List<int[]> ranges = new ArrayList<>(payloadRanges);
+        if (anyPortPayload) {
+            for (String spec : unrestricted) {
+                String[] bounds = spec.trim().split("-");
+                int low = Integer.parseInt(bounds[0].trim());
+                int high = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : low;
+                ranges.add(new int[]{low, high});
+            }
+        }
+        int[] merged = new PortSet(ranges).getRanges();
+        List<String> specs = new ArrayList<>();
+        for (int i = 0; i < merged.length; i += 2) {
+            specs.add(merged[i] == merged[i + 1] ? String.valueOf(merged[i]) : merged[i] + "-" + merged[i + 1]);
+        }
+        return specs;
+    }
+
+    @Override
+    public String toString() {
+        return rules.size() + " rules from " + source + " (" + predicates.length + " header predicates, " +
+                contents.getSignatures().size() + " content groups, " +
+                (pcres.getSignatures().size() + confirmations.getSignatures().size()) + " pcres)";
+    }
+
+    /**
+     * Scan state of one pipeline worker. Holds no reference to the rule
+     * set, so a replaced set is not kept alive by the thread-local.
+     */
+    private static final class Worker {
+        private final HeaderPredicate[] predicates;
+        private final SignatureSet contents;
+        private final TcpReassembler reassembler;
+        private final SignatureMatches contentMatches;
+        private final LazyDfa pcreMatcher;
+        private final SignatureMatches pcreMatches;
+        private final NfaMatcher confirmer;
+        // Predicate results of the current packet, valid where the
+        // generation stamp is the current one
+        private final boolean[] predicateResults;
+        private final int[] predicateGenerations;
+        private final boolean[] confirmationResults;
+        private final int[] confirmationGenerations;
+        private int generation = 0;
+        private int[] triggeredRules = new int[16];
+
+        private CapturedPacket packet;
+        private HeaderDecoder headers;
+        private boolean pcresScanned;
+        // Payload of the current packet, once resolved
+        private byte[] data;
+        private int offset;
+        private int length = -1;
+
+        Worker(HeaderPredicate[] predicates, SignatureSet contents, RegexSet pcres, RegexSet confirmations,
+               ReassemblyBudget budget) {
+            this.predicates = predicates;
+            this.contents = contents;
+            this.reassembler = new TcpReassembler(contents, budget);
+            this.contentMatches = contents.newMatches();
+            this.pcreMatcher = pcres.newMatcher();
+            this.pcreMatches = pcres.newMatches();
+            this.predicateResults = new boolean[predicates.length];
+            this.predicateGenerations = new int[predicates.length];
+            this.confirmer = confirmations.newSignatureMatcher();
+            this.confirmationResults = new boolean[confirmations.getSignatures().size()];
+            this.confirmationGenerations = new int[confirmations.getSignatures().size()];
+        }
+
+        void begin(CapturedPacket packet, HeaderDecoder headers) {
+            this.packet = packet;
+            this.headers = headers;
+            if (++generation == 0) {
+                Arrays.fill(predicateGenerations, 0);
+                Arrays.fill(confirmationGenerations, 0);
+                generation = 1;
+            }
+            contentMatches.clear();
+            pcresScanned = false;
+            data = null;
+            length = -1;
+        }
+
+        boolean test(int predicate, TrafficData traffic, HeaderDecoder headers) {
+            if (predicateGenerations[predicate] != generation) {
+                predicateResults[predicate] = predicates[predicate].test(traffic, headers);
+                predicateGenerations[predicate] = generation;
+            }
+            return predicateResults[predicate];
+        }
+
+        void scanContents() {
+            if (headers.hasTransport() && headers.getProtocol() == HeaderDecoder.PROTO_TCP) {
+                // Matched on the reassembled stream, so patterns split
+                // across segments are found and no segment is rescanned
+                reassembler.process(headers, packet.getTimestampNanos(), contentMatches);
+            } else if (resolvePayload() > 0) {
+                contents.scan(data, offset, length, contentMatches);
+            }
+        }
+
+        void scanPcres() {
+            if (!pcresScanned) {
+                pcresScanned = true;
+                pcreMatches.clear();
+                // pcres run on each packet's payload, ^ and $ are its bounds
+                if (resolvePayload() > 0) {
+                    pcreMatcher.scan(data, offset, length, pcreMatches);
+                }
+            }
+        }
+
+        /**
+         * Match a confirming pcre on the packet payload, once per packet
+         */
+        boolean confirm(int pcre) {
+            if (confirmationGenerations[pcre] != generation) {
+                confirmationResults[pcre] = resolvePayload() > 0 && confirmer.matches(pcre, data, offset, length);
+                confirmationGenerations[pcre] = generation;
+            }
+            return confirmationResults[pcre];
+        }
+
+        int addTriggered(int count, int rule) {
+            if (count == triggeredRules.length) {
+                triggeredRules = Arrays.copyOf(triggeredRules, count * 2);
+            }
+            triggeredRules[count] = rule;
+            return count + 1;
+        }
+
+        private int resolvePayload() {
+            if (length >= 0) {
+                return length;
+            }
+            if (headers.hasTransport()) {
+                data = headers.getData();
+                offset = headers.getPayloadOffset();
+                length = headers.getPayloadLength();
+            } else {
+                // Transport header not decoded, fall back to the full pcap4j decode
+                Packet decoded = packet.getPacket();
+                data = decoded.getPayload() != null ? decoded.getPayload().getRawData() : null;
+                offset = 0;
+                length = data != null ? data.length : 0;
+            }
+            return length;
+        }
+    }
+}
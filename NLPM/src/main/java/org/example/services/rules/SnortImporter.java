@@ -0,0 +1,1013 @@
+package org.example.services.rules;
+
+import org.example.services.capture.CaptureConfig;
+import org.example.services.capture.HeaderDecoder;
+import org.example.services.inspection.RegexSet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Importer for the common subset of Snort (2.9) and Suricata rules:
+ * <pre>
+ * alert tcp $EXTERNAL_NET any -&gt; $HTTP_SERVERS $HTTP_PORTS (msg:"..."; flow:to_server,established;
+ *     content:"/cgi-bin/"; nocase; content:"|2e 2e 2f|"; distance:0; within:64;
+ *     pcre:"/cmd=[^&amp;]{200}/i"; threshold:type both, track by_src, count 5, seconds 60;
+ *     classtype:web-application-attack; sid:1000001; rev:2;)
+ * </pre>
+ * Rules translate into {@link Rule}s and so compile into the same
+ * dispatch tables, content automaton and DFA as the native rules:
+ * <ul>
+ * <li>alert rules for tcp, udp, icmp and ip; address and port lists,
+ *     ranges, negation and variables (var, ipvar and portvar lines of the
+ *     file, or the Snort defaults). $HOME_NET is filter.home-networks,
+ *     $EXTERNAL_NET every other address and the server variables
+ *     $HOME_NET</li>
+ * <li>content with |hex| bytes; every content feeds the content automaton,
+ *     which is case-insensitive. Contents with offset, depth, distance or
+ *     within, and contents without nocase that hold letters, are checked
+ *     as a regex over the packet payload</li>
+ * <li>pcre when the regex is DFA-compatible (see {@link RegexSet}), with
+ *     the i, s, m (without ^ or $), A, E, G, O and B flags</li>
+ * <li>flow: established on tcp requires ACK, stateless; to_server,
+ *     from_client, to_client and from_server are taken as the direction of
+ *     the rule header (relaxed: the side that opened the connection is not
+ *     checked); rules with other stream state are skipped</li>
+ * <li>threshold (type threshold, both or limit) and detection_filter
+ *     become a count or limit aggregate</li>
+ * <li>dsize, itype, icode, ttl and flags as header predicates</li>
+ * <li>msg, sid, classtype and priority name the rule and its severity</li>
+ * </ul>
+ * Rules using anything else are skipped, see {@link ImportReport}.
+ */
+public class SnortImporter {
+    // Positional windows above this are left open instead of being counted
+    // out byte by byte in the NFA
+    static final int MAX_WINDOW = 256;
+
+    private static final Map<String, String> DEFAULT_VARIABLES = Map.ofEntries(
+            Map.entry("HTTP_PORTS", "[80,81,311,383,591,593,901,1220,1414,1741,1830,2301,2381,2809,3037,3128," +
+                    "3702,4343,4848,5250,6988,7000,7001,7144,7145,7510,7777,7779,8000,8008,8014,8028,8080,8085," +
+                    "8088,8090,8118,8123,8180,8181,8243,8280,8300,8800,8888,8899,9000,9060,9080,9090,9091,9443," +
+                    "9999,11371,34443,34444,41080,50002,55555]"),
+            Map.entry("SHELLCODE_PORTS", "!80"),
+            Map.entry("ORACLE_PORTS", "1024:"),
+            Map.entry("SSH_PORTS", "22"),
+            Map.entry("FTP_PORTS", "[21,2100,3535]"),
+            Map.entry("SIP_PORTS", "[5060,5061,5600]"),
+            Map.entry("FILE_DATA_PORTS", "[$HTTP_PORTS,110,143]"),
+            Map.entry("GTP_PORTS", "[2123,2152,3386]"),
+            Map.entry("HTTP_SERVERS", "$HOME_NET"),
+            Map.entry("SMTP_SERVERS", "$HOME_NET"),
+            Map.entry("SQL_SERVERS", "$HOME_NET"),
+            Map.entry("DNS_SERVERS", "$HOME_NET"),
+            Map.entry("TELNET_SERVERS", "$HOME_NET"),
+            Map.entry("SSH_SERVERS", "$HOME_NET"),
+            Map.entry("FTP_SERVERS", "$HOME_NET"),
+            Map.entry("SIP_SERVERS", "$HOME_NET"));
+    private static final AddressSet ANY_ADDRESS = new AddressSet(List.of(), List.of(), List.of());
+
+    // classification.config priorities; other classtypes are priority 2
+    private static final Set<String> PRIORITY_1 = Set.of(
+            "attempted-admin", "attempted-user", "inappropriate-content", "policy-violation", "shellcode-detect",
+            "successful-admin", "successful-user", "trojan-activity", "unsuccessful-user",
+            "web-application-attack", "file-format", "malware-cnc", "exploit-kit", "command-and-control",
+            "targeted-activity", "credential-theft", "domain-c2", "social-engineering");
+    private static final Set<String> PRIORITY_3 = Set.of(
+            "icmp-event", "misc-activity", "network-scan", "not-suspicious", "protocol-command-decode",
+            "string-detect", "unknown", "external-ip-check", "pup-activity");
+    private static final Set<String> IGNORED_OPTIONS = Set.of(
+            "rev", "gid", "reference", "metadata", "fast_pattern", "rawbytes", "pkt_data", "target");
+    private static final String TCP_FLAG_LETTERS = "FSRPAU";
+
+    private final String source;
+    private final ImportReport report;
+    private final Map<String, String> variables = new HashMap<>(DEFAULT_VARIABLES);
+    private final Set<String> sids = new HashSet<>();
+    // Parsed port and address specs; variables make a few specs very common
+    private final Map<String, PortSet> portSets = new HashMap<>();
+    private final Map<String, AddressSet> addressSets = new HashMap<>();
+
+    // Of the rule being imported
+    private int lineNumber;
+    private String sid;
+    private final Set<String> relaxed = new LinkedHashSet<>();
+
+    private SnortImporter(String source, List<String> homeNetworks) {
+        this.source = source;
+        this.report = new ImportReport(source);
+        if (homeNetworks.isEmpty()) {
+            variables.put("HOME_NET", "any");
+            variables.put("EXTERNAL_NET", "any");
+        } else {
+            variables.put("HOME_NET", "[" + String.join(",", homeNetworks) + "]");
+            variables.put("EXTERNAL_NET", "!$HOME_NET");
+        }
+    }
+
+    /**
+     * Import the rules of text; source names it in the report. $HOME_NET
+     * is filter.home-networks unless the text defines it.
+     */
+    public static ImportReport importRules(String text, String source) {
+        return importRules(text, source, CaptureConfig.getInstance().getList("filter.home-networks"));
+    }
+
+    /**
+     * Import with $HOME_NET set to homeNetworks (empty: any)
+     */
+    public static ImportReport importRules(String text, String source, List<String> homeNetworks) {
+        return new SnortImporter(source, homeNetworks).importAll(text);
+    }
+
+    public static ImportReport importFile(Path file) throws IOException {
+        return importRules(Files.readString(file, StandardCharsets.UTF_8), file.toString());
+    }
+
+    private ImportReport importAll(String text) {
+        String[] lines = text.split("\r?\n", -1);
+        StringBuilder rule = new StringBuilder();
+        int ruleLine = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (rule.length() == 0) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                ruleLine = i + 1;
+            }
+            // A trailing backslash continues the rule on the next line
+            if (line.endsWith("\\")) {
+                rule.append(line, 0, line.length() - 1).append(' ');
+                continue;
+            }
+            rule.append(line);
+            lineNumber = ruleLine;
+            statement(rule.toString());
+            rule.setLength(0);
+        }
+        if (rule.length() > 0) {
+            lineNumber = ruleLine;
+            statement(rule.toString());
+        }
+        return report;
+    }
+
+    private void statement(String text) {
+        String[] words = text.split("\\s+", 3);
+        switch (words[0]) {
+            case "var":
+            case "portvar":
+            case "ipvar":
+                if (words.length == 3) {
+                    variables.put(words[1], words[2].trim());
+                    portSets.clear();
+                    addressSets.clear();
+                }
+                return;
+            case "include":
+            case "config":
+                return;
+            default:
+                break;
+        }
+        sid = null;
+        relaxed.clear();
+        try {
+            Rule rule = rule(text);
+            if (!sids.add(sid)) {
+                throw new IllegalArgumentException("duplicate sid");
+            }
+            report.imported(rule);
+            relaxed.forEach(report::relax);
+        } catch (IllegalArgumentException e) {
+            report.skip(lineNumber, sid, e.getMessage());
+        }
+    }
+
+    /**
+     * Note an option the rule matches more loosely than Snort
+     */
+    private void relax(String option) {
+        relaxed.add(option);
+    }
+
+    /** One content option with its modifiers */
+    private static final class Content {
+        final String bytes;
+        boolean nocase;
+        Integer offset;
+        Integer depth;
+        Integer distance;
+        Integer within;
+
+        Content(String bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean isRelative() {
+            return distance != null || within != null;
+        }
+
+        boolean isPositioned() {
+            return offset != null || depth != null || isRelative();
+        }
+
+        /**
+         * True if the automaton, which ignores case, can match bytes this
+         * content does not
+         */
+        boolean isCaseSensitive() {
+            if (nocase) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length(); i++) {
+                if (Character.isLetter(bytes.charAt(i)) && bytes.charAt(i) < 0x80) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private Rule rule(String text) {
+        int open = text.indexOf('(');
+        int close = text.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            throw new IllegalArgumentException("not a rule: expected '<action> <header> (<options>)'");
+        }
+        List<String[]> options = options(text.substring(open + 1, close));
+        // The sid first, so every later error names the rule
+        for (String[] option : options) {
+            if (option[0].equals("sid")) {
+                sid = option[1];
+            }
+        }
+        if (sid == null) {
+            throw new IllegalArgumentException("no sid");
+        }
+
+        String[] header = text.substring(0, open).trim().split("\\s+");
+        if (header.length != 7) {
+            throw new IllegalArgumentException("not a rule: expected '<action> <proto> <src> <port> -> <dst> <port>'");
+        }
+        if (!header[0].equals("alert")) {
+            throw new IllegalArgumentException("action " + header[0] + ": only alert rules are imported");
+        }
+        Rule.Protocol protocol = protocol(header[1]);
+        if (header[4].equals("<>")) {
+            throw new IllegalArgumentException("bidirectional rule");
+        } else if (!header[4].equals("->")) {
+            throw new IllegalArgumentException("not a rule: unknown direction " + header[4]);
+        }
+        List<HeaderPredicate> predicates = new ArrayList<>();
+        AddressSet sourceAddresses = addresses(header[2]);
+        if (sourceAddresses != null) {
+            predicates.add(HeaderPredicate.sourceAddresses(sourceAddresses));
+        }
+        AddressSet destinationAddresses = addresses(header[5]);
+        if (destinationAddresses != null) {
+            predicates.add(HeaderPredicate.destinationAddresses(destinationAddresses));
+        }
+        PortSet sourcePorts = ports(header[3]);
+        if (sourcePorts != null) {
+            predicates.add(HeaderPredicate.sourcePorts(sourcePorts));
+        }
+        PortSet destinationPorts = ports(header[6]);
+
+        String message = null;
+        String classtype = null;
+        Integer priority = null;
+        Aggregate aggregate = null;
+        List<Content> contents = new ArrayList<>();
+        List<String> pcres = new ArrayList<>();
+        for (String[] option : options) {
+            String name = option[0];
+            String value = option[1];
+            Content last = contents.isEmpty() ? null : contents.get(contents.size() - 1);
+            switch (name) {
+                case "msg":
+                    message = unquote(value);
+                    break;
+                case "sid":
+                    break;
+                case "classtype":
+                    classtype = value;
+                    break;
+                case "priority":
+                    priority = number(name, value);
+                    break;
+                case "content":
+                    contents.add(new Content(content(value)));
+                    break;
+                case "nocase":
+                    modified(name, last).nocase = true;
+                    break;
+                case "offset":
+                    modified(name, last).offset = number(name, value);
+                    break;
+                case "depth":
+                    modified(name, last).depth = number(name, value);
+                    break;
+                case "distance":
+                    modified(name, last).distance = number(name, value);
+                    break;
+                case "within":
+                    modified(name, last).within = number(name, value);
+                    break;
+                case "pcre":
+                    pcres.add(pcre(value));
+                    break;
+                case "flow":
+                    flow(value, protocol, predicates);
+                    break;
+                case "threshold":
+                case "detection_filter":
+                    aggregate = threshold(name, value);
+                    break;
+                case "dsize":
+                    compare(HeaderPredicate.Field.PAYLOAD_SIZE, name, value, predicates);
+                    break;
+                case "itype":
+                    compare(HeaderPredicate.Field.ICMP_TYPE, name, value, predicates);
+                    break;
+                case "icode":
+                    compare(HeaderPredicate.Field.ICMP_CODE, name, value, predicates);
+                    break;
+                case "ttl":
+                    compare(HeaderPredicate.Field.TTL, name, value, predicates);
+                    break;
+                case "flags":
+                    predicates.add(flags(value));
+                    break;
+                default:
+                    if (!IGNORED_OPTIONS.contains(name)) {
+                        throw new IllegalArgumentException("unsupported option " + name);
+                    }
+                    break;
+            }
+        }
+
+        // Every content is a literal of the content automaton; positioned
+        // and case-sensitive chains are confirmed by a regex on the packet
+        // payload
+        Set<List<String>> groups = new LinkedHashSet<>();
+        for (Content content : contents) {
+            groups.add(List.of(content.bytes));
+        }
+        List<String> allPcres = new ArrayList<>();
+        for (int start = 0; start < contents.size(); ) {
+            int end = start + 1;
+            while (end < contents.size() && contents.get(end).isRelative()) {
+                end++;
+            }
+            if (end - start > 1 || contents.get(start).isPositioned() || contents.get(start).isCaseSensitive()) {
+                allPcres.add(chain(contents.subList(start, end)));
+            }
+            start = end;
+        }
+        allPcres.addAll(pcres);
+
+        if (predicates.isEmpty() && groups.isEmpty() && allPcres.isEmpty() && destinationPorts == null) {
+            throw new IllegalArgumentException("no condition: the rule would fire on every packet");
+        }
+        String alertType = classtype != null ? title(classtype) : "Snort Rule";
+        if (message == null) {
+            message = alertType + " (sid " + sid + ")";
+        }
+        return new Rule("sid:" + sid, alertType, severity(classtype, priority), protocol, destinationPorts,
+                predicates, new ArrayList<>(groups), allPcres, aggregate, MessageTemplate.literal(message), false);
+    }
+
+    /**
+     * Split options at semicolons outside quotes into name, value pairs
+     */
+    private static List<String[]> options(String text) {
+        List<String[]> options = new ArrayList<>();
+        StringBuilder option = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                option.append(c).append(text.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                addOption(options, option.toString());
+                option.setLength(0);
+                continue;
+            }
+            option.append(c);
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated string in options");
+        }
+        addOption(options, option.toString());
+        return options;
+    }
+
+    private static void addOption(List<String[]> options, String option) {
+        option = option.trim();
+        if (option.isEmpty()) {
+            return;
+        }
+        int colon = option.indexOf(':');
+        options.add(colon < 0 ? new String[] {option, ""}
+                : new String[] {option.substring(0, colon).trim(), option.substring(colon + 1).trim()});
+    }
+
+    private static Rule.Protocol protocol(String name) {
+        switch (name) {
+            case "tcp": return Rule.Protocol.TCP;
+            case "udp": return Rule.Protocol.UDP;
+            case "icmp": return Rule.Protocol.ICMP;
+            case "ip": return Rule.Protocol.ANY;
+            default: throw new IllegalArgumentException("protocol " + name);
+        }
+    }
+
+    /**
+     * Address spec to an address set, null for any address
+     */
+    private AddressSet addresses(String spec) {
+        if (spec.equals("any")) {
+            return null;
+        }
+        AddressSet parsed = addressSets.get(spec);
+        if (parsed == null) {
+            parsed = addressSet(spec, 0);
+            addressSets.put(spec, parsed);
+        }
+        return parsed.equals(ANY_ADDRESS) ? null : parsed;
+    }
+
+    private AddressSet addressSet(String spec, int depth) {
+        spec = spec.trim();
+        if (depth > 8) {
+            throw new IllegalArgumentException("recursive address variable: " + spec);
+        }
+        if (spec.startsWith("!")) {
+            return AddressSet.not(addressSet(spec.substring(1), depth + 1));
+        }
+        if (spec.equals("any")) {
+            return ANY_ADDRESS;
+        }
+        if (spec.startsWith("$")) {
+            String value = variables.get(spec.substring(1));
+            if (value == null) {
+                throw new IllegalArgumentException("undefined variable: " + spec);
+            }
+            return addressSet(value, depth + 1);
+        }
+        if (spec.startsWith("[") && spec.endsWith("]")) {
+            List<AddressSet.Network> networks = new ArrayList<>();
+            List<AddressSet> included = new ArrayList<>();
+            List<AddressSet> excluded = new ArrayList<>();
+            for (String element : split(spec.substring(1, spec.length() - 1))) {
+                if (element.startsWith("!")) {
+                    excluded.add(addressSet(element.substring(1), depth + 1));
+                } else if (element.startsWith("[") || element.startsWith("$") || element.equals("any")) {
+                    included.add(addressSet(element, depth + 1));
+                } else {
+                    networks.add(network(element));
+                }
+            }
+            return new AddressSet(networks, included, excluded);
+        }
+        return new AddressSet(List.of(network(spec)), List.of(), List.of());
+    }
+
+    private static AddressSet.Network network(String text) {
+        try {
+            return AddressSet.Network.parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid address: " + text);
+        }
+    }
+
+    /**
+     * Port spec to a port set, null for any port
+     */
+    private PortSet ports(String spec) {
+        if (spec.equals("any")) {
+            return null;
+        }
+        PortSet parsed = portSets.get(spec);
+        if (parsed == null) {
+            parsed = parsePorts(spec);
+            portSets.put(spec, parsed);
+        }
+        return parsed;
+    }
+
+    private PortSet parsePorts(String spec) {
+        BitSet ports = portBits(spec, 0);
+        if (ports.cardinality() == 65536) {
+            return null;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (int from = ports.nextSetBit(0); from >= 0; ) {
+            int to = ports.nextClearBit(from);
+            ranges.add(new int[] {from, to - 1});
+            from = to < 65536 ? ports.nextSetBit(to) : -1;
+        }
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("no port: " + spec);
+        }
+        return new PortSet(ranges);
+    }
+
+    private BitSet portBits(String spec, int depth) {
+        spec = spec.trim();
+        if (depth > 8) {
+            throw new IllegalArgumentException("recursive port variable: " + spec);
+        }
+        BitSet ports = new BitSet(65536);
+        if (spec.startsWith("!")) {
+            ports.set(0, 65536);
+            ports.andNot(portBits(spec.substring(1), depth + 1));
+        } else if (spec.equals("any")) {
+            ports.set(0, 65536);
+        } else if (spec.startsWith("$")) {
+            String value = variables.get(spec.substring(1));
+            if (value == null) {
+                throw new IllegalArgumentException("undefined variable: " + spec);
+            }
+            ports.or(portBits(value, depth + 1));
+        } else if (spec.startsWith("[") && spec.endsWith("]")) {
+            boolean positive = false;
+            BitSet excluded = new BitSet(65536);
+            for (String element : split(spec.substring(1, spec.length() - 1))) {
+                if (element.startsWith("!")) {
+                    excluded.or(portBits(element.substring(1), depth + 1));
+                } else {
+                    ports.or(portBits(element, depth + 1));
+                    positive = true;
+                }
+            }
+            if (!positive) {
+                ports.set(0, 65536);
+            }
+            ports.andNot(excluded);
+        } else {
+            int colon = spec.indexOf(':');
+            int from = colon < 0 ? port(spec) : colon == 0 ? 0 : port(spec.substring(0, colon));
+            int to = colon < 0 ? from : colon == spec.length() - 1 ? 65535 : port(spec.substring(colon + 1));
+            if (to < from) {
+                throw new IllegalArgumentException("port range out of order: " + spec);
+            }
+            ports.set(from, to + 1);
+        }
+        return ports;
+    }
+
+    /**
+     * Split a list at commas outside nested brackets
+     */
+    private static List<String> split(String list) {
+        List<String> elements = new ArrayList<>();
+        int nesting = 0;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '[') {
+                nesting++;
+            } else if (c == ']') {
+                nesting--;
+            } else if (c == ',' && nesting == 0) {
+                elements.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        elements.add(list.substring(start).trim());
+        return elements;
+    }
+
+    private static int port(String text) {
+        try {
+            int port = Integer.parseInt(text.trim());
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid port: " + text);
+    }
+
+    private static int number(String option, String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("unsupported " + option + " value: " + text);
+        }
+    }
+
+    private static Content modified(String modifier, Content content) {
+        if (content == null) {
+            throw new IllegalArgumentException("unsupported option " + modifier + " without a content");
+        }
+        return content;
+    }
+
+    private static String unquote(String text) {
+        if (text.length() < 2 || text.charAt(0) != '"' || text.charAt(text.length() - 1) != '"') {
+            return text;
+        }
+        StringBuilder unquoted = new StringBuilder();
+        for (int i = 1; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length() - 1) {
+                c = text.charAt(++i);
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    /**
+     * Content bytes, one char per byte: text (UTF-8 encoded) and |hex| runs
+     */
+    private static String content(String value) {
+        if (value.startsWith("!")) {
+            throw new IllegalArgumentException("negated content");
+        }
+        if (value.length() < 3 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+            throw new IllegalArgumentException("unsupported content: " + value);
+        }
+        StringBuilder text = new StringBuilder();
+        StringBuilder bytes = new StringBuilder();
+        boolean hex = false;
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '|') {
+                hex = !hex;
+            } else if (hex) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                if (i + 1 >= value.length() - 1 || Character.digit(c, 16) < 0 ||
+                        Character.digit(value.charAt(i + 1), 16) < 0) {
+                    throw new IllegalArgumentException("invalid hex in content: " + value);
+                }
+                flush(text, bytes);
+                bytes.append((char) Integer.parseInt(value.substring(i, i + 2), 16));
+                i++;
+            } else {
+                if (c == '\\' && i + 1 < value.length() - 1) {
+                    c = value.charAt(++i);
+                }
+                text.append(c);
+            }
+        }
+        if (hex) {
+            throw new IllegalArgumentException("unterminated hex in content: " + value);
+        }
+        flush(text, bytes);
+        return bytes.toString();
+    }
+
+    private static void flush(StringBuilder text, StringBuilder bytes) {
+        for (byte b : text.toString().getBytes(StandardCharsets.UTF_8)) {
+            bytes.append((char) (b & 0xff));
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Regex of a content chain: the first content at its offset and depth
+     * from the payload start, each further one at its distance from the
+     * end of the one before and within bytes from there
+     */
+    private String chain(List<Content> chain) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < chain.size(); i++) {
+            Content content = chain.get(i);
+            int length = content.bytes.length();
+            if (i > 0 || content.isPositioned()) {
+                // A leading relative content is relative to the payload start
+                int min = i == 0 && content.offset != null ? content.offset
+                        : content.distance != null ? content.distance : 0;
+                Integer window = i == 0 && content.depth != null ? content.depth : content.within;
+                if (window != null && window < length) {
+                    throw new IllegalArgumentException("depth or within shorter than its content");
+                }
+                if (i == 0) {
+                    regex.append('^');
+                }
+                gap(regex, min, window != null ? (Integer) (min + window - length) : null);
+            }
+            for (int b = 0; b < length; b++) {
+                literal(regex, content.bytes.charAt(b), content.nocase);
+            }
+        }
+        return regex.toString();
+    }
+
+    private void gap(StringBuilder regex, int min, Integer max) {
+        if (min < 0) {
+            throw new IllegalArgumentException("negative distance");
+        }
+        if (min > MAX_WINDOW) {
+            relax("offset or distance over " + MAX_WINDOW);
+            min = MAX_WINDOW;
+            max = null;
+        } else if (max != null && max > MAX_WINDOW) {
+            relax("depth or within over " + MAX_WINDOW);
+            max = null;
+        }
+        if (max == null) {
+            regex.append(min == 0 ? "[\\x00-\\xff]*" : "[\\x00-\\xff]{" + min + ",}");
+        } else if (max > 0) {
+            regex.append("[\\x00-\\xff]{").append(min).append(max > min ? "," + max : "").append('}');
+        }
+    }
+
+    private static void literal(StringBuilder regex, char b, boolean nocase) {
+        if (nocase && Character.isLetter(b) && b < 0x80) {
+            regex.append('[').append(Character.toLowerCase(b)).append(Character.toUpperCase(b)).append(']');
+        } else if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+            regex.append(b);
+        } else {
+            regex.append(String.format("\\x%02x", (int) b));
+        }
+    }
+
+    /**
+     * pcre:"/regex/flags" as a regex of the DFA subset
+     */
+    private String pcre(String value) {
+        if (value.startsWith("!")) {
+            throw new IllegalArgumentException("negated pcre");
+        }
+        int open = value.indexOf('"');
+        int close = value.lastIndexOf('"');
+        String quoted = open >= 0 && close > open ? value.substring(open + 1, close) : value;
+        int slash = quoted.lastIndexOf('/');
+        if (!quoted.startsWith("/") || slash == 0) {
+            throw new IllegalArgumentException("unsupported pcre: " + value);
+        }
+        String regex = quoted.substring(1, slash);
+        String flags = quoted.substring(slash + 1);
+        boolean caseInsensitive = false;
+        for (char flag : flags.toCharArray()) {
+            switch (flag) {
+                case 'i':
+                    caseInsensitive = true;
+                    break;
+                case 's':
+                    regex = dotAll(regex);
+                    break;
+                case 'm':
+                    if (hasAnchor(regex)) {
+                        throw new IllegalArgumentException("pcre flag m with ^ or $");
+                    }
+                    break;
+                case 'A':
+                    regex = "^(?:" + regex + ")";
+                    break;
+                case 'R':
+                    relax("pcre R (relative) flag");
+                    break;
+                case 'E':
+                case 'G':
+                case 'O':
+                case 'B':
+                    break;
+                case 'U': case 'I': case 'P': case 'H': case 'D': case 'M': case 'C': case 'K': case 'S':
+                case 'Y':
+                    throw new IllegalArgumentException("pcre buffer flag " + flag);
+                default:
+                    throw new IllegalArgumentException("pcre flag " + flag);
+            }
+        }
+        if (caseInsensitive) {
+            regex = "(?i)" + regex;
+        }
+        try {
+            RegexSet.validate(regex);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("pcre not DFA-compatible: " + e.getMessage());
+        }
+        return regex;
+    }
+
+    /**
+     * Rewrite '.' outside classes to match any byte, as under the s flag
+     */
+    private static String dotAll(String regex) {
+        StringBuilder rewritten = new StringBuilder();
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                rewritten.append(c).append(regex.charAt(++i));
+                continue;
+            }
+            if (inClass) {
+                inClass = c != ']' || rewritten.charAt(rewritten.length() - 1) == '[';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '.') {
+                rewritten.append("[\\x00-\\xff]");
+                continue;
+            }
+            rewritten.append(c);
+        }
+        return rewritten.toString();
+    }
+
+    private static boolean hasAnchor(String regex) {
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (!inClass && (c == '^' || c == '$')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * flow: established on tcp (the ACK flag), stateless, and directions
+     * as the header's src -&gt; dst; the other keywords need connection
+     * state the engine does not keep
+     */
+    private void flow(String value, Rule.Protocol protocol, List<HeaderPredicate> predicates) {
+        for (String keyword : value.split(",")) {
+            switch (keyword.trim()) {
+                case "established":
+                    if (protocol != Rule.Protocol.TCP) {
+                        throw new IllegalArgumentException("unsupported flow established: not a tcp rule");
+                    }
+                    // Every segment of an established connection but the
+                    // handshake's SYN carries ACK
+                    predicates.add(HeaderPredicate.tcpFlags(HeaderDecoder.TCP_ACK, HeaderDecoder.TCP_ACK));
+                    relax("flow established");
+                    break;
+                case "to_server":
+                case "from_client":
+                case "to_client":
+                case "from_server":
+                    // Rules are written so that the header's source is the
+                    // sender of these packets; which side opened the
+                    // connection is not checked
+                    relax("flow direction");
+                    break;
+                case "stateless":
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported flow " + keyword.trim());
+            }
+        }
+    }
+
+    private Aggregate threshold(String option, String value) {
+        String type = option.equals("detection_filter") ? "threshold" : null;
+        Aggregate.Field groupBy = null;
+        Integer count = null;
+        Integer seconds = null;
+        for (String part : value.split(",")) {
+            String[] words = part.trim().split("\\s+");
+            if (words.length != 2) {
+                throw new IllegalArgumentException("unsupported " + option + ": " + value);
+            }
+            switch (words[0]) {
+                case "type": type = words[1]; break;
+                case "track": groupBy = words[1].equals("by_src") ? Aggregate.Field.SRC
+                        : words[1].equals("by_dst") ? Aggregate.Field.DST : null; break;
+                case "count": count = number(option, words[1]); break;
+                case "seconds": seconds = number(option, words[1]); break;
+                default: throw new IllegalArgumentException("unsupported " + option + ": " + value);
+            }
+        }
+        if (type == null || groupBy == null || count == null || seconds == null || count < 1) {
+            throw new IllegalArgumentException("unsupported " + option + ": " + value);
+        }
+        if (type.equals("limit")) {
+            return new Aggregate(Aggregate.Kind.LIMIT, null, groupBy, count, seconds * 1000L);
+        }
+        if (!type.equals("threshold") && !type.equals("both")) {
+            throw new IllegalArgumentException("unsupported " + option + ": " + value);
+        }
+        return new Aggregate(Aggregate.Kind.COUNT, null, groupBy, count, seconds * 1000L);
+    }
+
+    /**
+     * dsize, itype, icode and ttl: N, &lt;N, &gt;N, &lt;=N, &gt;=N, !N,
+     * N&lt;&gt;M (exclusive) and N-M (inclusive)
+     */
+    private static void compare(HeaderPredicate.Field field, String option, String value,
+                                List<HeaderPredicate> predicates) {
+        String text = value.replace(" ", "");
+        int between = text.indexOf("<>");
+        int dash = text.indexOf('-', 1);
+        if (between > 0) {
+            predicates.add(HeaderPredicate.compare(field, HeaderPredicate.Op.GT,
+                    number(option, text.substring(0, between))));
+            predicates.add(HeaderPredicate.compare(field, HeaderPredicate.Op.LT,
+                    number(option, text.substring(between + 2))));
+            return;
+        }
+        if (dash > 0) {
+            predicates.add(HeaderPredicate.compare(field, HeaderPredicate.Op.GE,
+                    number(option, text.substring(0, dash))));
+            predicates.add(HeaderPredicate.compare(field, HeaderPredicate.Op.LE,
+                    number(option, text.substring(dash + 1))));
+            return;
+        }
+        String symbol;
+        if (text.startsWith("<=") || text.startsWith(">=") || text.startsWith("!=")) {
+            symbol = text.substring(0, 2);
+        } else if (text.startsWith("<") || text.startsWith(">") || text.startsWith("=")) {
+            symbol = text.substring(0, 1);
+        } else {
+            symbol = text.startsWith("!") ? "!" : "";
+        }
+        String number = text.substring(symbol.length());
+        symbol = symbol.equals("!") ? "!=" : symbol.isEmpty() ? "=" : symbol;
+        predicates.add(HeaderPredicate.compare(field, HeaderPredicate.Op.of(symbol), number(option, number)));
+    }
+
+    /**
+     * flags: letters FSRPAU (0 for none), + for at least these; the
+     * ECN and reserved bits (C E 1 2) and a mask after the comma are
+     * ignored
+     */
+    private static HeaderPredicate flags(String value) {
+        String letters = value.split(",")[0].trim();
+        if (letters.contains("*") || letters.contains("!")) {
+            throw new IllegalArgumentException("unsupported flags: " + value);
+        }
+        boolean atLeast = letters.contains("+");
+        int flags = 0;
+        for (char c : letters.replace("+", "").toUpperCase(Locale.ROOT).toCharArray()) {
+            int bit = TCP_FLAG_LETTERS.indexOf(c);
+            if (bit >= 0) {
+                flags |= 1 << bit;
+            } else if ("CE120".indexOf(c) < 0) {
+                throw new IllegalArgumentException("unsupported flags: " + value);
+            }
+        }
+        int all = (1 << TCP_FLAG_LETTERS.length()) - 1;
+        if (value.contains(",")) {
+            for (char c : value.substring(value.indexOf(',') + 1).trim().toUpperCase(Locale.ROOT).toCharArray()) {
+                int bit = TCP_FLAG_LETTERS.indexOf(c);
+                if (bit >= 0) {
+                    all &= ~(1 << bit);
+                }
+            }
+        }
+        return HeaderPredicate.tcpFlags(atLeast ? flags : all, flags & all);
+    }
+
+    private static String severity(String classtype, Integer priority) {
+        int level = priority != null ? priority
+                : classtype == null ? 2
+                : PRIORITY_1.contains(classtype) ? 1
+                : PRIORITY_3.contains(classtype) ? 3
+                : classtype.equals("tcp-connection") ? 4 : 2;
+        switch (level) {
+            case 1: return "High";
+            case 2: return "Medium";
+            case 3: return "Low";
+            default: return level < 1 ? "Critical" : "Info";
+        }
+    }
+
+    /**
+     * web-application-attack to Web Application Attack
+     */
+    private static String title(String classtype) {
+        StringBuilder title = new StringBuilder();
+        for (String word : classtype.split("[-_]")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (title.length() > 0) {
+                title.append(' ');
+            }
+            title.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HostKeyTest {
+
+    @Test
+    void ipv6HostsThatFoldToTheSame64BitsStayApart() {
+        // Equal under high * 0x9e3779b97f4a7c15 ^ low, the key used before
+        long multiplier = 0x9e3779b97f4a7c15L;
+        long high = 0x20010db800000000L;
+        long low = 1;
+        long otherHigh = high + 1;
+        long otherLow = low ^ high * multiplier ^ otherHigh * multiplier;
+        HostKey key = HostKey.of(6, high, low);
+        HostKey other = HostKey.of(6, otherHigh, otherLow);
+
+        assertNotEquals(key, other);
+        Map<HostKey, String> map = new HashMap<>();
+        map.put(key, "a");
+        map.put(other, "b");
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void versionsAndParsedLiteralsMatchDecodedAddresses() {
+        assertEquals(HostKey.of(4, 0, 0xc0000201L), HostKey.parse("192.0.2.1"));
+        assertEquals(HostKey.of(4, 99, 0xffffffffc0000201L), HostKey.parse("192.0.2.1"));
+        assertNotEquals(HostKey.of(4, 0, 1), HostKey.of(6, 0, 1));
+        assertEquals(HostKey.of(6, 0x20010db800000000L, 1), HostKey.parse("2001:db8::1"));
+        assertEquals("2001:db8::1", HostKey.parse("2001:db8::1").toString());
+        assertThrows(IllegalArgumentException.class, () -> HostKey.parse("example.org"));
+    }
+
+    @Test
+    void ordersByVersionThenAddress() {
+        assertEquals(-1, Integer.signum(HostKey.parse("255.255.255.255").compareTo(HostKey.parse("::"))));
+        assertEquals(-1, Integer.signum(HostKey.parse("::1").compareTo(HostKey.parse("8000::"))));
+        assertEquals(0, HostKey.parse("10.0.0.1").compareTo(HostKey.parse("10.0.0.1")));
+    }
+}
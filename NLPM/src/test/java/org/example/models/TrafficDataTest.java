@@ -0,0 +1,43 @@
+package org.example.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficDataTest {
+
+    private static boolean local(String source) {
+        String destination = source.contains(":") ? "2001:db8::1" : "198.51.100.2";
+        return TrafficData.fromRow(TrafficProtocol.TCP, source, 40000, destination, 80, 60,
+                Instant.EPOCH, "").isSourceLocal();
+    }
+
+    @Test
+    void privateIpv4RangesAreLocal() {
+        assertTrue(local("10.1.2.3"));
+        assertTrue(local("127.0.0.1"));
+        assertTrue(local("192.168.1.1"));
+        assertTrue(local("172.16.0.1"));
+        assertTrue(local("172.31.255.254"));
+        assertTrue(local("169.254.10.20"));
+        assertFalse(local("172.32.0.1"));
+        assertFalse(local("172.15.255.255"));
+        assertFalse(local("169.255.0.1"));
+        assertFalse(local("192.0.2.1"));
+    }
+
+    @Test
+    void ipv6LoopbackLinkLocalAndUniqueLocalAreLocal() {
+        assertTrue(local("::1"));
+        assertTrue(local("fe80::1"));
+        assertTrue(local("febf::1"));
+        assertTrue(local("fc00::1"));
+        assertTrue(local("fd12:3456::1"));
+        assertFalse(local("fec0::1"));
+        assertFalse(local("fe00::1"));
+        assertFalse(local("2001:db8::1"));
+    }
+}
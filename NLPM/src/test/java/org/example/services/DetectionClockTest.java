@@ -0,0 +1,67 @@
+package org.example.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DetectionClockTest {
+
+    private static long millis(long millis) {
+        return millis * 1_000_000L;
+    }
+
+    @Test
+    void noWatermarkBeforeTheFirstPacket() {
+        DetectionClock clock = new DetectionClock.EventTimeClock(5_000);
+        assertEquals(Long.MIN_VALUE, clock.watermark());
+        clock.observe(millis(1_000));
+        assertEquals(-4_000, clock.watermark());
+    }
+
+    @Test
+    void watermarkTrailsTheLatestPacketByTheLateness() {
+        DetectionClock clock = new DetectionClock.EventTimeClock(5_000);
+        clock.observe(millis(100_000));
+        assertEquals(95_000, clock.watermark());
+        clock.observe(millis(100_250));
+        assertEquals(95_250, clock.watermark());
+        assertEquals(100_250, clock.packetTime(millis(100_250) + 999_999));
+    }
+
+    @Test
+    void outOfOrderPacketsDoNotMoveTheWatermarkBack() {
+        DetectionClock clock = new DetectionClock.EventTimeClock(5_000);
+        clock.observe(millis(100_000));
+        clock.observe(millis(97_000));
+        assertEquals(95_000, clock.watermark());
+        // A late packet is still judged by its own time
+        assertEquals(97_000, clock.packetTime(millis(97_000)));
+    }
+
+    @Test
+    void negativeLatenessCountsAsNone() {
+        DetectionClock clock = new DetectionClock.EventTimeClock(-1);
+        clock.observe(millis(100_000));
+        assertEquals(100_000, clock.watermark());
+    }
+
+    @Test
+    void openSourcesHoldTheWatermarkBack() {
+        DetectionClock clock = new DetectionClock.EventTimeClock(100);
+        DetectionClock.Source old = clock.openSource(millis(1_000));
+        DetectionClock.Source recent = clock.openSource(millis(50_000));
+        clock.observe(millis(50_000));
+        assertEquals(900, clock.watermark());
+
+        old.advance(millis(2_000));
+        assertEquals(1_900, clock.watermark());
+        // Read further than the workers got: the packets seen still bound it
+        old.advance(millis(60_000));
+        assertEquals(49_900, clock.watermark());
+
+        old.close();
+        recent.close();
+        clock.observe(millis(70_000));
+        assertEquals(69_900, clock.watermark());
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BpfFilterBuilderTest {
+
+    @Test
+    void clausesAreJoinedInOrderWithTheVlanFirst() {
+        String filter = new BpfFilterBuilder()
+                .excludeSourceNetworks(List.of("10.0.0.0/8", "172.16.0.0/12", "fd00::/8"))
+                .ports(List.of("22", "1000-2000"))
+                .protocols(List.of("TCP", "udp"))
+                .vlan(10)
+                .build();
+        assertEquals("vlan 10 and (tcp or udp) and (port 22 or portrange 1000-2000) and " +
+                "not (src net 10.0.0.0/8 or src net 172.16.0.0/12 or src net fd00::/8)", filter);
+    }
+
+    @Test
+    void singleTermsAreNotParenthesized() {
+        assertEquals("", new BpfFilterBuilder().build());
+        assertEquals("icmp", new BpfFilterBuilder().protocols(List.of("icmp")).build());
+        assertEquals("port 443", new BpfFilterBuilder().ports(List.of("443-443")).build());
+        assertEquals("not src net 192.168.0.0/16",
+                new BpfFilterBuilder().excludeSourceNetworks(List.of("192.168.0.0/16")).build());
+    }
+
+    @Test
+    void onlyOneVlanIdCanBeFilteredOn() {
+        // "vlan 10 or vlan 20" would read the second id from a QinQ inner tag
+        BpfFilterBuilder builder = new BpfFilterBuilder().vlan(10);
+        assertThrows(IllegalArgumentException.class, () -> builder.vlan(20));
+        assertEquals("vlan 10", builder.vlan(10).build());
+        assertThrows(IllegalArgumentException.class, () -> new BpfFilterBuilder().vlan(4096));
+        assertThrows(IllegalArgumentException.class, () -> new BpfFilterBuilder().vlan(-1));
+    }
+
+    @Test
+    void invalidSettingsAreRejected() {
+        BpfFilterBuilder builder = new BpfFilterBuilder();
+        assertThrows(IllegalArgumentException.class, () -> builder.protocols(List.of("sctp")));
+        assertThrows(IllegalArgumentException.class, () -> builder.ports(List.of("65536")));
+        assertThrows(IllegalArgumentException.class, () -> builder.ports(List.of("http")));
+        assertThrows(IllegalArgumentException.class, () -> builder.ports(List.of("2000-1000")));
+        assertThrows(IllegalArgumentException.class, () -> builder.ports(List.of("1-2-3")));
+        assertThrows(IllegalArgumentException.class, () -> builder.excludeSourceNetworks(List.of("10.0.0.256/8")));
+        assertThrows(IllegalArgumentException.class, () -> builder.excludeSourceNetworks(List.of("10.0.0.0/33")));
+        assertThrows(IllegalArgumentException.class, () -> builder.excludeSourceNetworks(List.of("fd00::/129")));
+        assertThrows(IllegalArgumentException.class, () -> builder.excludeSourceNetworks(List.of("example.org")));
+        assertEquals("", builder.build());
+    }
+
+    @Test
+    void andSkipsEmptyExpressions() {
+        assertEquals("tcp", BpfFilterBuilder.and("", "tcp", null));
+        assertEquals("(tcp) and (port 80 or port 443)", BpfFilterBuilder.and("tcp", "port 80 or port 443"));
+    }
+
+    @Test
+    void ethernetFiltersAlsoMatchTaggedFrames() {
+        String filter = new BpfFilterBuilder().protocols(List.of("tcp", "udp")).build();
+        assertEquals("(tcp or udp)", filter);
+        assertEquals("((tcp or udp)) or (vlan and ((tcp or udp)))",
+                BpfFilterBuilder.withVlanTags(filter, HeaderDecoder.DLT_EN10MB));
+    }
+
+    @Test
+    void filtersNamingVlansAndOtherLinkTypesStayAsTheyAre() {
+        String tagged = new BpfFilterBuilder().vlan(10).protocols(List.of("tcp")).build();
+        assertEquals("vlan 10 and tcp", BpfFilterBuilder.withVlanTags(tagged, HeaderDecoder.DLT_EN10MB));
+        assertEquals("tcp", BpfFilterBuilder.withVlanTags("tcp", HeaderDecoder.DLT_RAW));
+        assertEquals("", BpfFilterBuilder.withVlanTags("", HeaderDecoder.DLT_EN10MB));
+        // A host named like the keyword is not the keyword
+        assertEquals("(host vlanserver) or (vlan and (host vlanserver))",
+                BpfFilterBuilder.withVlanTags("host vlanserver", HeaderDecoder.DLT_EN10MB));
+    }
+}
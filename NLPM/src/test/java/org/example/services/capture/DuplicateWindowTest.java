@@ -0,0 +1,75 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicateWindowTest {
+
+    private static final long MILLI = 1_000_000L;
+
+    private final DuplicateFilter filter = new DuplicateFilter(1024, 20 * MILLI, 16);
+    private final DuplicateWindow window = new DuplicateWindow(filter);
+
+    /**
+     * IPv4 TCP segment with a timestamp option and 8 payload bytes
+     */
+    private static byte[] tcp(int ttl, int window, int timestamp) {
+        ByteBuffer ip = ByteBuffer.allocate(20 + 32 + 8);
+        ip.put((byte) 0x45).put((byte) 0).putShort((short) ip.capacity()).putShort((short) 7)
+                .putShort((short) 0x4000).put((byte) ttl).put((byte) HeaderDecoder.PROTO_TCP).putShort((short) ttl)
+                .putInt(0xc0000201).putInt(0xc6336402);
+        ip.putShort((short) 40000).putShort((short) 443).putInt(1000).putInt(2000)
+                .put((byte) 0x80).put((byte) HeaderDecoder.TCP_ACK).putShort((short) window).putInt(0)
+                .put(new byte[]{1, 1, 8, 10}).putInt(timestamp).putInt(0);
+        ip.putLong(0x0102030405060708L);
+        return ip.array();
+    }
+
+    /**
+     * IPv6 UDP datagram with a 64-byte payload ending in last
+     */
+    private static byte[] udp6(int flowLabel, byte last) {
+        ByteBuffer ip = ByteBuffer.allocate(40 + 8 + 64);
+        ip.putInt(0x60000000 | flowLabel).putShort((short) 72).put((byte) HeaderDecoder.PROTO_UDP).put((byte) 64)
+                .putLong(0x20010db800000000L).putLong(1).putLong(0x20010db800000000L).putLong(2);
+        ip.putShort((short) 5000).putShort((short) 53).putShort((short) 72).putShort((short) 0);
+        ip.put(111, last);
+        return ip.array();
+    }
+
+    private boolean seen(byte[] frame, long nanos) {
+        CapturedPacket packet = new CapturedPacket(frame, frame.length, HeaderDecoder.DLT_RAW, nanos);
+        HeaderDecoder headers = new HeaderDecoder();
+        assertTrue(headers.decode(frame, frame.length, HeaderDecoder.DLT_RAW));
+        return window.isDuplicate(packet, headers);
+    }
+
+    @Test
+    void routedCopyWithinTheWindowIsADuplicate() {
+        assertFalse(seen(tcp(64, 512, 1), 0));
+        // TTL and IP checksum change on the way
+        assertTrue(seen(tcp(63, 512, 1), 5 * MILLI));
+        assertFalse(seen(tcp(64, 512, 1), 100 * MILLI));
+        assertEquals(1, filter.getSuppressed());
+    }
+
+    @Test
+    void tcpSegmentsDifferingInWindowOrOptionsAreKept() {
+        assertFalse(seen(tcp(64, 512, 1), 0));
+        assertFalse(seen(tcp(64, 1024, 1), MILLI));
+        assertFalse(seen(tcp(64, 512, 2), 2 * MILLI));
+    }
+
+    @Test
+    void ipv6PacketsDifferingPastThePrefixOrInTheFlowLabelAreKept() {
+        assertFalse(seen(udp6(1, (byte) 0), 0));
+        assertFalse(seen(udp6(1, (byte) 1), MILLI));
+        assertFalse(seen(udp6(2, (byte) 1), 2 * MILLI));
+        assertTrue(seen(udp6(2, (byte) 1), 3 * MILLI));
+    }
+}
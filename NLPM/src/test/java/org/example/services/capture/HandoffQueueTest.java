@@ -0,0 +1,99 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandoffQueueTest {
+
+    private static List<Integer> drain(HandoffQueue<Integer> queue) {
+        List<Integer> items = new ArrayList<>();
+        queue.drainTo(items, Integer.MAX_VALUE);
+        return items;
+    }
+
+    private static void assertCounts(HandoffQueue<?> queue, long offered, long accepted, long dropped) {
+        assertEquals(offered, queue.getOffered(), "offered");
+        assertEquals(accepted, queue.getAccepted(), "accepted");
+        assertEquals(dropped, queue.getDropped(), "dropped");
+    }
+
+    @Test
+    void dropNewestRejectsTheIncomingItem() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>("test", 8, OverflowPolicy.DROP_NEWEST, 1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i < 8, queue.offer(i));
+        }
+        assertCounts(queue, 10, 8, 2);
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), drain(queue));
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheIncomingItem() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>("test", 8, OverflowPolicy.DROP_OLDEST, 1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertCounts(queue, 10, 10, 2);
+        assertEquals(List.of(2, 3, 4, 5, 6, 7, 8, 9), drain(queue));
+    }
+
+    @Test
+    void sampleKeepsOneInRateItemsPastHalfFull() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>("test", 8, OverflowPolicy.SAMPLE, 3);
+        for (int i = 0; i < 16; i++) {
+            queue.offer(i);
+        }
+        // 0-3 below half full, then every third of 4-15, then full
+        assertCounts(queue, 16, 8, 8);
+        assertFalse(queue.offer(16));
+        assertFalse(queue.offer(17));
+        assertFalse(queue.offer(18)); // its turn, but the ring is full
+        assertCounts(queue, 19, 8, 11);
+        assertEquals(List.of(0, 1, 2, 3, 6, 9, 12, 15), drain(queue));
+    }
+
+    @Test
+    void blockWaitsForSpaceAndCloseReleasesTheProducer() throws InterruptedException {
+        HandoffQueue<Integer> queue = new HandoffQueue<>("test", 4, OverflowPolicy.BLOCK, 1);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+
+        AtomicBoolean queued = new AtomicBoolean();
+        Thread producer = new Thread(() -> queued.set(queue.offer(4)));
+        producer.start();
+        Thread.sleep(50);
+        assertTrue(producer.isAlive());
+        assertEquals(0, queue.poll());
+        producer.join(5000);
+        assertTrue(queued.get());
+        assertCounts(queue, 5, 5, 0);
+
+        Thread blocked = new Thread(() -> queued.set(queue.offer(5)));
+        blocked.start();
+        Thread.sleep(50);
+        queue.close();
+        blocked.join(5000);
+        assertFalse(blocked.isAlive());
+        assertFalse(queued.get());
+        assertCounts(queue, 6, 5, 1);
+        assertEquals(List.of(1, 2, 3, 4), drain(queue));
+    }
+
+    @Test
+    void putWaitsWhateverThePolicyUntilToldToStop() {
+        HandoffQueue<Integer> queue = new HandoffQueue<>("test", 4, OverflowPolicy.DROP_NEWEST, 1);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.put(i, () -> true));
+        }
+        assertFalse(queue.put(4, () -> false));
+        assertCounts(queue, 5, 4, 1);
+    }
+}
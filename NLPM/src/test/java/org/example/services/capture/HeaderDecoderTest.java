@@ -0,0 +1,141 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeaderDecoderTest {
+
+    private final HeaderDecoder decoder = new HeaderDecoder();
+
+    /**
+     * IPv4 TCP segment 192.0.2.1:40000 -> 198.51.100.2:80 with options
+     * (data offset 8 words) and the given payload
+     */
+    private static byte[] ipv4Tcp(int flags, byte[] payload) {
+        ByteBuffer ip = ByteBuffer.allocate(20 + 32 + payload.length);
+        ip.put((byte) 0x45).put((byte) 0).putShort((short) ip.capacity()).putShort((short) 0x1234)
+                .putShort((short) 0x4000).put((byte) 57).put((byte) HeaderDecoder.PROTO_TCP).putShort((short) 0)
+                .put(new byte[]{(byte) 192, 0, 2, 1}).put(new byte[]{(byte) 198, 51, 100, 2});
+        ip.putShort((short) 40000).putShort((short) 80).putInt(0xfffffff0).putInt(7)
+                .put((byte) 0x80).put((byte) flags).putShort((short) 65535).putInt(0)
+                .put(new byte[12]).put(payload);
+        return ip.array();
+    }
+
+    private static byte[] ethernet(int[] tags, byte[] ip, int etherType, int padding) {
+        ByteBuffer frame = ByteBuffer.allocate(14 + 4 * tags.length + ip.length + padding);
+        frame.put(new byte[12]);
+        for (int tag : tags) {
+            frame.putShort((short) (tag >>> 16)).putShort((short) tag);
+        }
+        frame.putShort((short) etherType).put(ip);
+        return frame.array();
+    }
+
+    @Test
+    void decodesTcpOverEthernetAndIgnoresPadding() {
+        byte[] frame = ethernet(new int[0], ipv4Tcp(HeaderDecoder.TCP_PSH | HeaderDecoder.TCP_ACK, new byte[]{1, 2, 3}),
+                0x0800, 6);
+        assertTrue(decoder.decode(frame, frame.length, HeaderDecoder.DLT_EN10MB));
+
+        assertTrue(decoder.isIpv4());
+        assertEquals(14, decoder.getIpOffset());
+        assertEquals("192.0.2.1", decoder.formatSourceIp());
+        assertEquals("198.51.100.2", decoder.formatDestinationIp());
+        assertEquals(HeaderDecoder.PROTO_TCP, decoder.getProtocol());
+        assertEquals(57, decoder.getTtl());
+        assertFalse(decoder.isFragment());
+        assertEquals(40000, decoder.getSourcePort());
+        assertEquals(80, decoder.getDestinationPort());
+        assertEquals(0xfffffff0L, decoder.getTcpSequence());
+        assertEquals(HeaderDecoder.TCP_PSH | HeaderDecoder.TCP_ACK, decoder.getTcpFlags());
+        // Payload starts after the options and stops before the Ethernet padding
+        assertEquals(14 + 20 + 32, decoder.getPayloadOffset());
+        assertEquals(3, decoder.getPayloadLength());
+    }
+
+    @Test
+    void skipsStackedVlanTagsAndKeepsTheOuterId() {
+        byte[] frame = ethernet(new int[]{0x88a8_0064, 0x8100_0fff}, ipv4Tcp(HeaderDecoder.TCP_SYN, new byte[0]),
+                0x0800, 0);
+        assertTrue(decoder.decode(frame, frame.length, HeaderDecoder.DLT_EN10MB));
+
+        assertEquals(100, decoder.getVlanId());
+        assertEquals(22, decoder.getIpOffset());
+        assertEquals(80, decoder.getDestinationPort());
+    }
+
+    @Test
+    void walksIpv6ExtensionHeadersToTheTransport() {
+        // Hop-by-hop options, then a first fragment carrying UDP
+        ByteBuffer ip = ByteBuffer.allocate(40 + 8 + 8 + 8 + 4);
+        ip.putInt(0x60000000).putShort((short) (ip.capacity() - 40)).put((byte) 0).put((byte) 255);
+        ip.putLong(0x20010db800000000L).putLong(1).putLong(0x20010db800000000L).putLong(2);
+        ip.put((byte) 44).put((byte) 0).put(new byte[6]);
+        ip.put((byte) HeaderDecoder.PROTO_UDP).put((byte) 0).putShort((short) 1).putInt(0xabcdef01);
+        ip.putShort((short) 5353).putShort((short) 53).putShort((short) 12).putShort((short) 0).putInt(0x01020304);
+        byte[] frame = ip.array();
+        assertTrue(decoder.decode(frame, frame.length, HeaderDecoder.DLT_RAW));
+
+        assertTrue(decoder.isIpv6());
+        assertEquals("2001:db8::1", decoder.formatSourceIp());
+        assertEquals(HeaderDecoder.PROTO_UDP, decoder.getProtocol());
+        assertEquals(56, decoder.getIpHeaderLength());
+        assertTrue(decoder.isFragment());
+        assertEquals(0xabcdef01, decoder.getIpId());
+        assertEquals(53, decoder.getDestinationPort());
+        assertEquals(4, decoder.getPayloadLength());
+    }
+
+    @Test
+    void nonFirstFragmentsHaveNoTransportHeader() {
+        byte[] ip = ipv4Tcp(0, new byte[0]);
+        ip[6] = 0x20;
+        ip[7] = 10; // offset 80, more fragments
+        assertTrue(decoder.decode(ip, ip.length, HeaderDecoder.DLT_RAW));
+
+        assertEquals(80, decoder.getFragmentOffset());
+        assertTrue(decoder.hasMoreFragments());
+        assertFalse(decoder.hasTransport());
+        assertEquals(0, decoder.getDestinationPort());
+    }
+
+    @Test
+    void rejectsTruncatedAndMalformedFrames() {
+        byte[] ip = ipv4Tcp(0, new byte[0]);
+        assertFalse(decoder.decode(ip, 19, HeaderDecoder.DLT_RAW));
+        assertFalse(decoder.decode(new byte[10], 10, HeaderDecoder.DLT_EN10MB));
+
+        ip[0] = 0x44; // IHL of 16 bytes
+        assertFalse(decoder.decode(ip, ip.length, HeaderDecoder.DLT_RAW));
+        assertFalse(decoder.isIpv4());
+
+        byte[] arp = ethernet(new int[0], new byte[28], 0x0806, 0);
+        assertFalse(decoder.decode(arp, arp.length, HeaderDecoder.DLT_EN10MB));
+        assertFalse(decoder.decode(ip, ip.length, 9999));
+    }
+
+    @Test
+    void rawIpUnderEveryLinkTypeNumber() {
+        byte[] ip = ipv4Tcp(0, new byte[0]);
+        for (int linkType : new int[]{HeaderDecoder.DLT_RAW, HeaderDecoder.DLT_RAW_BSD, HeaderDecoder.DLT_RAW_OPENBSD}) {
+            assertTrue(decoder.decode(ip, ip.length, linkType));
+            assertTrue(decoder.isIpv4());
+        }
+    }
+
+    @Test
+    void truncatedTcpHeaderKeepsTheIpFields() {
+        byte[] ip = ipv4Tcp(0, new byte[0]);
+        assertTrue(decoder.decode(ip, 30, HeaderDecoder.DLT_RAW));
+
+        assertTrue(decoder.isIpv4());
+        assertEquals(HeaderDecoder.PROTO_TCP, decoder.getProtocol());
+        assertFalse(decoder.hasTransport());
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Ipv4DefragmenterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final FragmentBudget budget = new FragmentBudget(64, 1 << 20, 1 << 20, 30 * SECOND);
+    private final Ipv4Defragmenter defragmenter = new Ipv4Defragmenter(budget);
+
+    /**
+     * Raw IPv4 UDP fragment from 192.0.2.1 to 198.51.100.2
+     */
+    private static CapturedPacket fragment(int id, int offset, boolean more, byte[] payload, long nanos) {
+        byte[] frame = new byte[20 + payload.length];
+        frame[0] = 0x45;
+        frame[2] = (byte) (frame.length >>> 8);
+        frame[3] = (byte) frame.length;
+        frame[4] = (byte) (id >>> 8);
+        frame[5] = (byte) id;
+        int flagsFragment = (more ? 0x2000 : 0) | offset / 8;
+        frame[6] = (byte) (flagsFragment >>> 8);
+        frame[7] = (byte) flagsFragment;
+        frame[8] = 64;
+        frame[9] = HeaderDecoder.PROTO_UDP;
+        byte[] addresses = {(byte) 192, 0, 2, 1, (byte) 198, 51, 100, 2};
+        System.arraycopy(addresses, 0, frame, 12, addresses.length);
+        System.arraycopy(payload, 0, frame, 20, payload.length);
+        return new CapturedPacket(frame, frame.length, HeaderDecoder.DLT_RAW, nanos);
+    }
+
+    private CapturedPacket add(CapturedPacket packet) {
+        HeaderDecoder headers = new HeaderDecoder();
+        assertTrue(headers.decode(packet.getData(), packet.getCapturedLength(), packet.getLinkType()));
+        return defragmenter.add(packet, headers);
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static byte[] payloadOf(CapturedPacket datagram) {
+        return Arrays.copyOfRange(datagram.getData(), 20, datagram.getCapturedLength());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        byte[] all = new byte[0];
+        for (byte[] part : parts) {
+            int length = all.length;
+            all = Arrays.copyOf(all, length + part.length);
+            System.arraycopy(part, 0, all, length, part.length);
+        }
+        return all;
+    }
+
+    @Test
+    void reassemblesFragmentsInAnyOrder() {
+        assertNull(add(fragment(1, 16, false, bytes(5, 'c'), 0)));
+        assertNull(add(fragment(1, 0, true, bytes(8, 'a'), 0)));
+        CapturedPacket datagram = add(fragment(1, 8, true, bytes(8, 'b'), 0));
+
+        assertNotNull(datagram);
+        assertArrayEquals(concat(bytes(8, 'a'), bytes(8, 'b'), bytes(5, 'c')), payloadOf(datagram));
+        assertFalse(datagram.hasConflictingFragments());
+
+        HeaderDecoder headers = new HeaderDecoder();
+        assertTrue(headers.decode(datagram.getData(), datagram.getCapturedLength(), datagram.getLinkType()));
+        assertFalse(headers.isFragment());
+        assertEquals(41, headers.getIpTotalLength());
+        assertEquals(1, budget.datagramsReassembled.sum());
+    }
+
+    @Test
+    void ignoresExactDuplicates() {
+        assertNull(add(fragment(2, 0, true, bytes(8, 'a'), 0)));
+        assertNull(add(fragment(2, 0, true, bytes(8, 'a'), 0)));
+        CapturedPacket datagram = add(fragment(2, 8, false, bytes(4, 'b'), 0));
+
+        assertNotNull(datagram);
+        assertFalse(datagram.hasConflictingFragments());
+        assertEquals(1, budget.duplicates.sum());
+        assertEquals(0, budget.overlaps.sum());
+    }
+
+    @Test
+    void identicalPartialOverlapIsNotAConflict() {
+        assertNull(add(fragment(3, 0, true, bytes(16, 'a'), 0)));
+        CapturedPacket datagram = add(fragment(3, 8, false, concat(bytes(8, 'a'), bytes(4, 'b')), 0));
+
+        assertNotNull(datagram);
+        assertArrayEquals(concat(bytes(16, 'a'), bytes(4, 'b')), payloadOf(datagram));
+        assertFalse(datagram.hasConflictingFragments());
+    }
+
+    @Test
+    void conflictingOverlapKeepsFirstBytesAndIsMarked() {
+        assertNull(add(fragment(4, 0, true, bytes(16, 'a'), 0)));
+        // Rewrites the second block and adds the tail
+        CapturedPacket datagram = add(fragment(4, 8, false, concat(bytes(8, 'x'), bytes(4, 'b')), 0));
+
+        assertNotNull(datagram);
+        assertArrayEquals(concat(bytes(16, 'a'), bytes(4, 'b')), payloadOf(datagram));
+        assertTrue(datagram.hasConflictingFragments());
+        assertEquals(1, budget.overlaps.sum());
+    }
+
+    @Test
+    void conflictingEndKeepsTheFirstOne() {
+        assertNull(add(fragment(5, 8, false, bytes(8, 'b'), 0)));
+        assertNull(add(fragment(5, 8, false, bytes(4, 'b'), 0)));
+        CapturedPacket datagram = add(fragment(5, 0, true, bytes(8, 'a'), 0));
+
+        assertNotNull(datagram);
+        assertArrayEquals(concat(bytes(8, 'a'), bytes(8, 'b')), payloadOf(datagram));
+        assertTrue(datagram.hasConflictingFragments());
+    }
+
+    @Test
+    void dataPastTheEndIsIgnored() {
+        assertNull(add(fragment(6, 8, false, bytes(4, 'b'), 0)));
+        assertNull(add(fragment(6, 8, true, bytes(16, 'x'), 0)));
+        CapturedPacket datagram = add(fragment(6, 0, true, bytes(8, 'a'), 0));
+
+        assertNotNull(datagram);
+        assertArrayEquals(concat(bytes(8, 'a'), bytes(4, 'b')), payloadOf(datagram));
+        assertTrue(datagram.hasConflictingFragments());
+    }
+
+    @Test
+    void rejectsFragmentsBeyondTheMaximumDatagram() {
+        assertNull(add(fragment(7, 65528, false, bytes(8, 'a'), 0)));
+        assertEquals(1, budget.invalid.sum());
+    }
+
+    @Test
+    void expiresIncompleteDatagrams() {
+        assertNull(add(fragment(8, 0, true, bytes(8, 'a'), 0)));
+        assertNull(add(fragment(8, 8, false, bytes(4, 'b'), 31 * SECOND)));
+
+        assertEquals(1, budget.timeouts.sum());
+        assertEquals(0, budget.datagramsReassembled.sum());
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcapBulkIngestTest {
+
+    private static final int CHUNK = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    private final List<Long> seconds = new CopyOnWriteArrayList<>();
+    private PacketPipeline pipeline;
+
+    @AfterEach
+    void stopPipeline() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    private static void record(ByteBuffer buffer, long time, byte[] data) {
+        buffer.putInt((int) time).putInt(0).putInt(data.length).putInt(data.length).put(data);
+    }
+
+    /**
+     * Raw IPv4 header of a UDP packet from 10.0.0.x
+     */
+    private static byte[] ip(long time) {
+        byte[] ip = new byte[20];
+        ip[0] = 0x45;
+        ip[3] = 20;
+        ip[8] = 64;
+        ip[9] = HeaderDecoder.PROTO_UDP;
+        ip[12] = 10;
+        ip[15] = (byte) time;
+        ip[16] = 10;
+        ip[19] = 1;
+        return ip;
+    }
+
+    private PcapBulkIngest ingest(byte[] file) throws Exception {
+        Path path = directory.resolve("bulk.pcap");
+        Files.write(path, file);
+        pipeline = new PacketPipeline(1, 64, ShardKey.SOURCE_IP, OverflowPolicy.BLOCK, 10,
+                (packet, headers) -> seconds.add(packet.getTimestampNanos() / 1_000_000_000L));
+        pipeline.start();
+        PcapBulkIngest ingest = new PcapBulkIngest(path.toString(), 2, CHUNK);
+        assertTrue(ingest.open());
+        ingest.ingest(pipeline);
+        return ingest;
+    }
+
+    private void await(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (seconds.size() < count) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void boundaryInsideARecordIsCaughtAndTheNextChunkParsedAgain() throws Exception {
+        // A record larger than the chunk whose payload, at the nominal split
+        // offset, holds three plausible record headers in a row
+        int nominal = 24 + CHUNK;
+        byte[] large = new byte[CHUNK + 4096];
+        System.arraycopy(ip(1), 0, large, 0, 20);
+        ByteBuffer fake = ByteBuffer.wrap(large, nominal - 24 - 16, 3 * 36).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 3; i++) {
+            record(fake, 99, ip(99));
+        }
+
+        ByteBuffer file = ByteBuffer.allocate(24 + 16 + large.length + 4 * 36).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(4 << 20).putInt(HeaderDecoder.DLT_RAW);
+        record(file, 1, large);
+        for (long time = 2; time <= 5; time++) {
+            record(file, time, ip(time));
+        }
+
+        PcapBulkIngest ingest = ingest(file.array());
+        await(5);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), seconds.subList(0, 5));
+        assertEquals(2, ingest.getChunkCount());
+        assertEquals(1, ingest.getChunksReparsed());
+        assertEquals(5, ingest.getPacketsRead());
+        assertEquals(file.capacity() - 24, ingest.getBytesRead());
+    }
+
+    @Test
+    void unreadableRecordLosesOnlyTheRestOfItsChunk() throws Exception {
+        // Small records past two chunks, one of them with a negative length
+        int count = 3 * CHUNK / 36;
+        ByteBuffer file = ByteBuffer.allocate(24 + count * 36).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(65535).putInt(HeaderDecoder.DLT_RAW);
+        for (int i = 0; i < count; i++) {
+            record(file, 1, ip(1));
+        }
+        int corrupt = 100;
+        file.putInt(24 + corrupt * 36 + 8, -1);
+
+        PcapBulkIngest ingest = ingest(file.array());
+        assertEquals(3, ingest.getChunkCount());
+        assertEquals(0, ingest.getChunksReparsed());
+        // The second chunk starts at the first record past the chunk size
+        int firstChunk = (CHUNK + 35) / 36;
+        assertEquals(corrupt + count - firstChunk, ingest.getPacketsRead());
+        await(corrupt + count - firstChunk);
+        assertEquals(file.capacity() - 24, ingest.getBytesRead());
+    }
+}
@@ -0,0 +1,171 @@
+package org.example.services.capture;
+
+import org.example.services.DetectionClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcapDirectoryIngestTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<Long> seconds = new CopyOnWriteArrayList<>();
+    private final List<PcapDirectoryIngest> ingests = new ArrayList<>();
+    private final List<PacketPipeline> pipelines = new ArrayList<>();
+
+    @AfterEach
+    void stopAll() {
+        ingests.forEach(PcapDirectoryIngest::stop);
+        pipelines.forEach(PacketPipeline::stop);
+    }
+
+    /**
+     * Classic pcap records of raw IPv4 headers, one per capture second
+     */
+    private static byte[] records(long... times) {
+        ByteBuffer buffer = ByteBuffer.allocate(times.length * 36).order(ByteOrder.LITTLE_ENDIAN);
+        for (long time : times) {
+            buffer.putInt((int) time).putInt(0).putInt(20).putInt(20);
+            byte[] ip = new byte[20];
+            ip[0] = 0x45;
+            ip[3] = 20;
+            ip[8] = 64;
+            ip[9] = HeaderDecoder.PROTO_UDP;
+            ip[12] = 10;
+            ip[15] = (byte) time;
+            ip[16] = 10;
+            ip[19] = 1;
+            buffer.put(ip);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] pcap(long... times) {
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(65535).putInt(HeaderDecoder.DLT_RAW);
+        byte[] records = records(times);
+        byte[] file = new byte[24 + records.length];
+        System.arraycopy(header.array(), 0, file, 0, 24);
+        System.arraycopy(records, 0, file, 24, records.length);
+        return file;
+    }
+
+    private PcapDirectoryIngest start(PacketHandler handler) {
+        PacketPipeline pipeline = new PacketPipeline(1, 64, ShardKey.SOURCE_IP, OverflowPolicy.BLOCK, 10, handler);
+        pipeline.start();
+        pipelines.add(pipeline);
+        PcapDirectoryIngest ingest = new PcapDirectoryIngest(directory, directory.resolve(".checkpoints"),
+                "*.pcap", 1, 0, 0);
+        assertTrue(ingest.open());
+        ingest.start(pipeline, new DetectionClock.WallClock());
+        ingests.add(ingest);
+        return ingest;
+    }
+
+    private PcapDirectoryIngest start() {
+        return start((packet, headers) -> seconds.add(packet.getTimestampNanos() / 1_000_000_000L));
+    }
+
+    private void stop(PcapDirectoryIngest ingest) {
+        ingest.stop();
+        ingests.remove(ingest);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private String checkpoint(String name) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(".checkpoints"))) {
+            properties.load(in);
+        }
+        return properties.getProperty(name);
+    }
+
+    @Test
+    void finishedFileIsReadOnceAndResumedAtItsEndWhenItGrows() throws Exception {
+        Path file = directory.resolve("a.pcap");
+        Files.write(file, pcap(1, 2, 3));
+        PcapDirectoryIngest ingest = start();
+        await(() -> ingest.getFilesCompleted() == 1);
+        stop(ingest);
+        assertEquals(List.of(1L, 2L, 3L), seconds);
+        assertTrue(checkpoint("a.pcap").startsWith("done 132 "));
+
+        seconds.clear();
+        Files.write(file, records(4, 5), StandardOpenOption.APPEND);
+        PcapDirectoryIngest restarted = start();
+        await(() -> restarted.getFilesCompleted() == 1);
+        assertEquals(List.of(4L, 5L), seconds);
+    }
+
+    @Test
+    void newFileUnderAFinishedNameIsReadFromTheStart() throws Exception {
+        Path file = directory.resolve("a.pcap");
+        Files.write(file, pcap(1, 2, 3));
+        PcapDirectoryIngest ingest = start();
+        await(() -> ingest.getFilesCompleted() == 1);
+        stop(ingest);
+
+        // Rotation: same name, new file, and more records than the old one
+        seconds.clear();
+        Files.delete(file);
+        Files.write(file, pcap(7, 8, 9, 10));
+        PcapDirectoryIngest restarted = start();
+        await(() -> restarted.getFilesCompleted() == 1);
+        assertEquals(List.of(7L, 8L, 9L, 10L), seconds);
+    }
+
+    @Test
+    void checkpointStopsAtTheFirstRecordNotProcessed() throws Exception {
+        Files.write(directory.resolve("a.pcap"), pcap(1, 2, 3));
+        CountDownLatch release = new CountDownLatch(1);
+        PcapDirectoryIngest ingest = start((packet, headers) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        await(() -> ingest.getPacketsRead() == 3);
+        stop(ingest);
+        release.countDown();
+
+        // All three were queued, none processed
+        assertTrue(checkpoint("a.pcap").startsWith("open 24 "));
+    }
+
+    @Test
+    void filesAreReadInCaptureOrder() throws Exception {
+        Files.write(directory.resolve("b.pcap"), pcap(1, 2));
+        Files.write(directory.resolve("a.pcap"), pcap(5, 6));
+        PcapDirectoryIngest ingest = start();
+        await(() -> ingest.getFilesCompleted() == 2);
+        assertEquals(List.of(1L, 2L, 5L, 6L), seconds);
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcapReplaySourceTest {
+
+    private static final long FIRST = 1_700_000_000_000_000_000L;
+
+    /**
+     * Wall-clock millis a replay takes to pace packets captured at these
+     * offsets (millis) from the first
+     */
+    private static long pacedMillis(ReplayMode mode, double speed, long... offsets) {
+        PcapReplaySource source = new PcapReplaySource("unused.pcap", mode, speed);
+        source.begin();
+        long start = System.nanoTime();
+        for (long offset : offsets) {
+            source.pace(FIRST + TimeUnit.MILLISECONDS.toNanos(offset));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    void realTimeKeepsTheCaptureGaps() {
+        long elapsed = pacedMillis(ReplayMode.REAL_TIME, 4.0, 0, 100, 200, 300);
+        assertTrue(elapsed >= 300, "elapsed " + elapsed);
+    }
+
+    @Test
+    void multipliedDividesTheGapsBySpeed() {
+        long elapsed = pacedMillis(ReplayMode.MULTIPLIED, 4.0, 0, 200, 400, 800);
+        assertTrue(elapsed >= 200 && elapsed < 700, "elapsed " + elapsed);
+    }
+
+    @Test
+    void asFastAsPossibleDoesNotWait() {
+        long elapsed = pacedMillis(ReplayMode.AS_FAST_AS_POSSIBLE, 1.0, 0, 10_000, 20_000);
+        assertTrue(elapsed < 1_000, "elapsed " + elapsed);
+    }
+
+    @Test
+    void packetsBeforeTheFirstAreNotHeldBack() {
+        long elapsed = pacedMillis(ReplayMode.REAL_TIME, 1.0, 0, 150, -5_000, 150);
+        assertTrue(elapsed >= 150 && elapsed < 1_000, "elapsed " + elapsed);
+    }
+
+    @Test
+    void stopEndsTheWait() throws InterruptedException {
+        PcapReplaySource source = new PcapReplaySource("unused.pcap", ReplayMode.REAL_TIME, 1.0);
+        source.begin();
+        source.pace(FIRST);
+        Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            source.stop();
+        });
+        stopper.start();
+        long start = System.nanoTime();
+        source.pace(FIRST + TimeUnit.SECONDS.toNanos(60));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        stopper.join();
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.services.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SamplingControllerTest {
+
+    private static HeaderDecoder udp(int source, int sourcePort, int destination, int destinationPort) {
+        ByteBuffer ip = ByteBuffer.allocate(28);
+        ip.put((byte) 0x45).put((byte) 0).putShort((short) 28).putInt(0)
+                .put((byte) 64).put((byte) HeaderDecoder.PROTO_UDP).putShort((short) 0)
+                .putInt(source).putInt(destination)
+                .putShort((short) sourcePort).putShort((short) destinationPort).putShort((short) 8).putShort((short) 0);
+        HeaderDecoder headers = new HeaderDecoder();
+        assertTrue(headers.decode(ip.array(), 28, HeaderDecoder.DLT_RAW));
+        return headers;
+    }
+
+    @Test
+    void flowHashIsTheSameInBothDirections() {
+        Random random = new Random(11);
+        Set<Integer> hashes = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int client = random.nextInt();
+            int server = random.nextInt();
+            int clientPort = random.nextInt(65536);
+            int serverPort = random.nextInt(65536);
+            int hash = SamplingController.flowHash(udp(client, clientPort, server, serverPort));
+            assertEquals(hash, SamplingController.flowHash(udp(server, serverPort, client, clientPort)));
+            hashes.add(hash);
+        }
+        assertTrue(hashes.size() > 990);
+    }
+
+    @Test
+    void flowHashTellsEndpointsOfTheSameHostApart() {
+        // Same host pair, ports swapped between the two ends
+        assertTrue(SamplingController.flowHash(udp(1, 1000, 2, 2000)) !=
+                SamplingController.flowHash(udp(1, 2000, 2, 1000)));
+    }
+}
@@ -0,0 +1,217 @@
+package org.example.services.evidence;
+
+import org.example.services.capture.CapturedPacket;
+import org.example.services.capture.HeaderDecoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcapRingTest {
+
+    private static final long SECOND = 1000;
+    // Packet times start a minute ago so nothing is past the age budget
+    private static final long BASE = System.currentTimeMillis() / 1000 * 1000 - 60 * SECOND;
+
+    @TempDir
+    Path directory;
+
+    private final List<PcapRing> rings = new ArrayList<>();
+
+    @AfterEach
+    void stopAll() {
+        rings.forEach(PcapRing::stop);
+    }
+
+    private PcapRing ring(long segmentBytes, long segmentMillis, long maxTotalBytes, long maxAgeMillis) {
+        PcapRing ring = new PcapRing(directory, segmentBytes, segmentMillis, maxTotalBytes, maxAgeMillis,
+                100, 2 * SECOND, SECOND);
+        ring.start();
+        rings.add(ring);
+        return ring;
+    }
+
+    private PcapRing ring() {
+        return ring(1 << 20, 60 * SECOND, 64 << 20, 60 * 60 * SECOND);
+    }
+
+    /**
+     * A 100-byte packet whose first byte is its number
+     */
+    private static CapturedPacket packet(int number, long millis, int linkType) {
+        byte[] data = new byte[100];
+        data[0] = (byte) number;
+        return new CapturedPacket(data, 100, linkType, millis * 1_000_000L);
+    }
+
+    private static List<CapturedPacket> packets(int count, long stepMillis, int linkType) {
+        List<CapturedPacket> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            packets.add(packet(i, BASE + i * stepMillis, linkType));
+        }
+        return packets;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".pcap")).count();
+        }
+    }
+
+    /**
+     * Packet numbers of a classic pcap export, checking its link type
+     */
+    private static List<Integer> readPcap(Path file, int linkType) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(PcapSegment.PCAP_MAGIC, buffer.getInt(0));
+        assertEquals(linkType, buffer.getInt(20));
+        List<Integer> numbers = new ArrayList<>();
+        int position = PcapSegment.GLOBAL_HEADER_LENGTH;
+        while (position < buffer.limit()) {
+            int length = buffer.getInt(position + 8);
+            numbers.add((int) buffer.get(position + PcapSegment.RECORD_HEADER_LENGTH));
+            position += PcapSegment.RECORD_HEADER_LENGTH + length;
+        }
+        return numbers;
+    }
+
+    @Test
+    void segmentsRotateOnSizeAndAge() throws IOException {
+        // 116 bytes per record: four records fit a 500-byte segment
+        PcapRing bySize = ring(500, 60 * SECOND, 64 << 20, 60 * 60 * SECOND);
+        bySize.write(packets(10, 10, HeaderDecoder.DLT_EN10MB));
+        assertEquals(3, bySize.getSegmentCount());
+        bySize.stop();
+
+        PcapRing byAge = ring(1 << 20, SECOND, 64 << 20, 60 * 60 * SECOND);
+        byAge.write(packets(10, 300, HeaderDecoder.DLT_EN10MB));
+        // 0-900 ms, 1200-2100 ms and 2400-2700 ms
+        assertEquals(3 + 3, byAge.getSegmentCount());
+        assertEquals(6, segmentFiles());
+    }
+
+    @Test
+    void linkTypesKeepTheirOwnSegmentOpen() throws IOException {
+        PcapRing ring = ring();
+        List<CapturedPacket> mixed = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            mixed.add(packet(i, BASE + i * 10, i % 2 == 0 ? HeaderDecoder.DLT_EN10MB : HeaderDecoder.DLT_RAW));
+        }
+        ring.write(mixed);
+        assertEquals(2, ring.getSegmentCount());
+
+        // One link type in the window: classic pcap
+        Path ethernet = directory.resolve("ethernet.out");
+        assertEquals(1, ring.export(BASE, BASE + 5, ethernet));
+        assertEquals(List.of(0), readPcap(ethernet, HeaderDecoder.DLT_EN10MB));
+
+        // Both: pcapng with one interface per link type, in time order
+        Path both = directory.resolve("both.out");
+        assertEquals(20, ring.export(BASE, BASE + 1000, both));
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(both)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x0a0d0d0a, buffer.getInt(0));
+        int position = buffer.getInt(4);
+        List<Integer> linkTypes = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        List<Integer> interfaces = new ArrayList<>();
+        while (position < buffer.limit()) {
+            int type = buffer.getInt(position);
+            int length = buffer.getInt(position + 4);
+            assertEquals(length, buffer.getInt(position + length - 4));
+            if (type == 1) {
+                linkTypes.add((int) buffer.getShort(position + 8));
+            } else if (type == 6) {
+                interfaces.add(buffer.getInt(position + 8));
+                long micros = (long) buffer.getInt(position + 12) << 32 | buffer.getInt(position + 16) & 0xffffffffL;
+                int number = buffer.get(position + 28);
+                assertEquals((BASE + number * 10) * 1000, micros);
+                numbers.add(number);
+            }
+            position += length;
+        }
+        assertEquals(List.of(HeaderDecoder.DLT_EN10MB, HeaderDecoder.DLT_RAW), linkTypes);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, numbers.get(i));
+            assertEquals(i % 2, interfaces.get(i));
+        }
+    }
+
+    @Test
+    void budgetsDeleteTheOldestClosedSegments() throws IOException {
+        // 500-byte segments, at most 1200 bytes in all
+        PcapRing bySize = ring(500, 60 * SECOND, 1200, 60 * 60 * SECOND);
+        bySize.write(packets(20, 10, HeaderDecoder.DLT_EN10MB));
+        assertTrue(bySize.getSegmentsDeleted() > 0);
+        assertTrue(bySize.getTotalBytes() <= 1200 + 500, "total " + bySize.getTotalBytes());
+        assertEquals(bySize.getSegmentCount(), segmentFiles());
+        // The newest packets are still there
+        Path recent = directory.resolve("recent.out");
+        bySize.export(BASE + 190, BASE + 190, recent);
+        assertEquals(List.of(19), readPcap(recent, HeaderDecoder.DLT_EN10MB));
+        bySize.stop();
+
+        // Segments whose last packet is past the age budget go, the open one stays
+        PcapRing byAge = ring(1 << 20, SECOND, 64 << 20, 30 * SECOND);
+        byAge.write(List.of(packet(1, BASE - 60 * SECOND, HeaderDecoder.DLT_EN10MB),
+                packet(2, BASE, HeaderDecoder.DLT_EN10MB)));
+        assertEquals(1, byAge.getSegmentCount());
+        assertEquals(1, segmentFiles());
+    }
+
+    @Test
+    void segmentsOfAnEarlierRunAreReloaded() throws IOException {
+        PcapRing first = ring();
+        first.write(packets(10, 100, HeaderDecoder.DLT_EN10MB));
+        first.stop();
+        rings.remove(first);
+        // A crash loses the index: the segment is scanned instead
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path index : files.filter(path -> path.toString().endsWith(".idx")).toList()) {
+                Files.delete(index);
+            }
+        }
+
+        PcapRing second = ring();
+        assertEquals(1, second.getSegmentCount());
+        second.write(packets(1, 0, HeaderDecoder.DLT_RAW));
+        assertEquals(2, second.getSegmentCount());
+        assertEquals(2, segmentFiles());
+
+        Path output = directory.resolve("reloaded.out");
+        assertEquals(3, second.export(BASE + 300, BASE + 500, output));
+        assertEquals(List.of(3, 4, 5), readPcap(output, HeaderDecoder.DLT_EN10MB));
+    }
+
+    @Test
+    void exportWindowsAreInclusiveAndSeekFromTheIndex() throws IOException {
+        PcapRing ring = ring();
+        ring.write(packets(100, 25, HeaderDecoder.DLT_EN10MB));
+
+        Path output = directory.resolve("window.out");
+        assertEquals(9, ring.export(BASE + 1000, BASE + 1200, output));
+        assertEquals(List.of(40, 41, 42, 43, 44, 45, 46, 47, 48), readPcap(output, HeaderDecoder.DLT_EN10MB));
+        assertEquals(0, ring.export(BASE + 5000, BASE + 6000, output));
+
+        PcapSegment segment = new PcapSegment(0, directory.resolve("segment.pcap"), HeaderDecoder.DLT_EN10MB, 100);
+        for (int i = 0; i < 100; i++) {
+            segment.append(BASE + i * 25, 116);
+        }
+        // Index entries every 100 ms; the lookup starts one entry early
+        assertEquals(PcapSegment.GLOBAL_HEADER_LENGTH, segment.seek(BASE - 1));
+        assertEquals(PcapSegment.GLOBAL_HEADER_LENGTH, segment.seek(BASE + 150));
+        assertEquals(PcapSegment.GLOBAL_HEADER_LENGTH + 36 * 116, segment.seek(BASE + 1000));
+        assertTrue(segment.overlaps(BASE + 2475, BASE + 3000));
+        assertTrue(!segment.overlaps(BASE + 2476, BASE + 3000));
+    }
+}
@@ -0,0 +1,246 @@
+package org.example.services.flow;
+
+import org.example.models.FlowRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends flows to a socket bound in the test and decodes the datagrams the
+ * way a collector does: templates first, then data records by template.
+ */
+class FlowExporterTest {
+
+    private static final long HOUR = 3600_000_000_000L;
+
+    private final DatagramSocket collector;
+    private FlowExporter exporter;
+
+    FlowExporterTest() throws IOException {
+        collector = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        collector.setSoTimeout(5000);
+    }
+
+    @AfterEach
+    void close() {
+        if (exporter != null) {
+            exporter.stop();
+        }
+        collector.close();
+    }
+
+    private FlowExporter exporter(ExportFormat format) throws IOException {
+        exporter = new FlowExporter(format, (InetSocketAddress) collector.getLocalSocketAddress(), 42, HOUR, 1400);
+        return exporter;
+    }
+
+    private static FlowRecord ipv4Flow() {
+        // 192.0.2.1:40000 -> 198.51.100.2:443, 3 packets out and 2 back
+        return new FlowRecord(4, 0, 0xc0000201L, 0, 0xc6336402L, 40000, 443, 6, "TCP",
+                3, 300, 2, 1200, 0x1b, 1_700_000_000_000_000_000L, 1_700_000_001_500_000_000L,
+                FlowRecord.END_FIN);
+    }
+
+    private static FlowRecord ipv6Flow() {
+        // 2001:db8::1:53 -> 2001:db8::2:5353, outbound only
+        return new FlowRecord(6, 0x20010db800000000L, 1, 0x20010db800000000L, 2, 53, 5353, 17, "UDP",
+                1, 80, 0, 0, 0, 1_700_000_002_000_000_000L, 1_700_000_002_000_000_000L,
+                FlowRecord.END_IDLE);
+    }
+
+    private ByteBuffer receive() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[65535], 65535);
+        collector.receive(packet);
+        return ByteBuffer.wrap(packet.getData(), 0, packet.getLength()).slice();
+    }
+
+    /**
+     * One decoded message: header fields, the templates it announced and
+     * its data records (field id -> value bytes)
+     */
+    private static final class Message {
+        final ByteBuffer header;
+        final Map<Integer, int[][]> templates = new LinkedHashMap<>();
+        final List<Map<Integer, byte[]>> records = new ArrayList<>();
+        final List<Integer> recordTemplates = new ArrayList<>();
+
+        Message(ByteBuffer header) {
+            this.header = header;
+        }
+    }
+
+    private static Message decode(ByteBuffer datagram, ExportFormat format, Map<Integer, int[][]> known) {
+        Message message = new Message(datagram.duplicate());
+        int position = format.getHeaderLength();
+        while (position < datagram.limit()) {
+            int setId = Short.toUnsignedInt(datagram.getShort(position));
+            int setLength = Short.toUnsignedInt(datagram.getShort(position + 2));
+            assertTrue(setLength >= 4 && position + setLength <= datagram.limit(), "set length " + setLength);
+            assertEquals(0, setLength % 4, "sets are padded to 32 bits");
+            int end = position + setLength;
+            int offset = position + 4;
+            if (setId == format.getTemplateSetId()) {
+                while (offset + 4 <= end) {
+                    int templateId = Short.toUnsignedInt(datagram.getShort(offset));
+                    int count = Short.toUnsignedInt(datagram.getShort(offset + 2));
+                    int[][] fields = new int[count][2];
+                    for (int i = 0; i < count; i++) {
+                        fields[i][0] = Short.toUnsignedInt(datagram.getShort(offset + 4 + 4 * i));
+                        fields[i][1] = Short.toUnsignedInt(datagram.getShort(offset + 6 + 4 * i));
+                    }
+                    message.templates.put(templateId, fields);
+                    known.put(templateId, fields);
+                    offset += 4 + 4 * count;
+                }
+            } else {
+                int[][] fields = known.get(setId);
+                assertTrue(fields != null, "data set " + setId + " before its template");
+                int length = 0;
+                for (int[] field : fields) {
+                    length += field[1];
+                }
+                while (offset + length <= end) {
+                    Map<Integer, byte[]> record = new HashMap<>();
+                    for (int[] field : fields) {
+                        byte[] value = new byte[field[1]];
+                        datagram.get(offset, value);
+                        record.put(field[0], value);
+                        offset += field[1];
+                    }
+                    message.records.add(record);
+                    message.recordTemplates.add(setId);
+                }
+            }
+            position = end;
+        }
+        assertEquals(datagram.limit(), position);
+        return message;
+    }
+
+    private static long number(byte[] value) {
+        long number = 0;
+        for (byte b : value) {
+            number = number << 8 | (b & 0xff);
+        }
+        return number;
+    }
+
+    @Test
+    void ipfixMessagesCarryTemplatesAndOneRecordPerDirection() throws IOException {
+        FlowExporter exporter = exporter(ExportFormat.IPFIX);
+        exporter.write(List.of(ipv4Flow(), ipv6Flow()));
+
+        Map<Integer, int[][]> known = new HashMap<>();
+        ByteBuffer datagram = receive();
+        Message message = decode(datagram, ExportFormat.IPFIX, known);
+        assertEquals(10, message.header.getShort(0));
+        assertEquals(datagram.limit(), Short.toUnsignedInt(message.header.getShort(2)));
+        assertEquals(0, message.header.getInt(8)); // no data records before
+        assertEquals(42, message.header.getInt(12));
+
+        assertEquals(List.of(256, 257), new ArrayList<>(message.templates.keySet()));
+        int[][] ipv4 = message.templates.get(256);
+        assertArrayEquals(new int[]{8, 4}, ipv4[0]);   // sourceIPv4Address
+        assertArrayEquals(new int[]{12, 4}, ipv4[1]);  // destinationIPv4Address
+        assertArrayEquals(new int[]{152, 8}, ipv4[8]); // flowStartMilliseconds
+        assertArrayEquals(new int[]{27, 16}, message.templates.get(257)[0]);
+
+        assertEquals(List.of(256, 256, 257), message.recordTemplates);
+        Map<Integer, byte[]> out = message.records.get(0);
+        assertEquals(0xc0000201L, number(out.get(8)));
+        assertEquals(0xc6336402L, number(out.get(12)));
+        assertEquals(40000, number(out.get(7)));
+        assertEquals(443, number(out.get(11)));
+        assertEquals(6, number(out.get(4)));
+        assertEquals(0x1b, number(out.get(6)));
+        assertEquals(3, number(out.get(2)));
+        assertEquals(300, number(out.get(1)));
+        assertEquals(1_700_000_000_000L, number(out.get(152)));
+        assertEquals(1_700_000_001_500L, number(out.get(153)));
+        assertEquals(3, number(out.get(136))); // end of flow
+
+        Map<Integer, byte[]> back = message.records.get(1);
+        assertEquals(0xc6336402L, number(back.get(8)));
+        assertEquals(443, number(back.get(7)));
+        assertEquals(2, number(back.get(2)));
+        assertEquals(1200, number(back.get(1)));
+
+        Map<Integer, byte[]> ipv6 = message.records.get(2);
+        byte[] source = new byte[16];
+        source[0] = 0x20;
+        source[1] = 0x01;
+        source[2] = 0x0d;
+        source[3] = (byte) 0xb8;
+        source[15] = 1;
+        assertArrayEquals(source, ipv6.get(27));
+        assertEquals(1, number(ipv6.get(136))); // idle timeout
+
+        // Templates are not due again; the sequence counts data records
+        exporter.write(List.of(ipv6Flow()));
+        Message next = decode(receive(), ExportFormat.IPFIX, known);
+        assertTrue(next.templates.isEmpty());
+        assertEquals(3, next.header.getInt(8));
+        assertEquals(1, next.records.size());
+        assertEquals(4, exporter.getRecordsExported());
+    }
+
+    @Test
+    void netflowV9CountsRecordsAndPackets() throws IOException {
+        FlowExporter exporter = exporter(ExportFormat.NETFLOW_V9);
+        exporter.write(List.of(ipv4Flow()));
+
+        Map<Integer, int[][]> known = new HashMap<>();
+        Message message = decode(receive(), ExportFormat.NETFLOW_V9, known);
+        assertEquals(9, message.header.getShort(0));
+        assertEquals(4, message.header.getShort(2)); // two templates, two data records
+        assertEquals(0, message.header.getInt(12));
+        assertEquals(42, message.header.getInt(16));
+
+        int[][] ipv4 = message.templates.get(256);
+        assertArrayEquals(new int[]{22, 4}, ipv4[8]); // FIRST_SWITCHED
+        assertArrayEquals(new int[]{21, 4}, ipv4[9]); // LAST_SWITCHED
+        Map<Integer, byte[]> out = message.records.get(0);
+        assertEquals(1500, (int) number(out.get(21)) - (int) number(out.get(22)));
+        assertEquals(3, number(out.get(2)));
+
+        exporter.write(List.of(ipv4Flow()));
+        Message next = decode(receive(), ExportFormat.NETFLOW_V9, known);
+        assertEquals(2, next.header.getShort(2));
+        assertEquals(1, next.header.getInt(12)); // packets sent before
+    }
+
+    @Test
+    void fullDatagramsAreSplitAtRecordBoundaries() throws IOException {
+        FlowExporter exporter = exporter(ExportFormat.IPFIX);
+        List<FlowRecord> flows = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            flows.add(ipv4Flow());
+        }
+        exporter.write(flows);
+
+        Map<Integer, int[][]> known = new HashMap<>();
+        int records = 0;
+        while (records < 120) {
+            ByteBuffer datagram = receive();
+            assertTrue(datagram.limit() <= 1400);
+            records += decode(datagram, ExportFormat.IPFIX, known).records.size();
+        }
+        assertEquals(120, records);
+        assertTrue(exporter.getDatagramsSent() > 1);
+    }
+}
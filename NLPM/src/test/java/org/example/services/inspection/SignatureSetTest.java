@@ -0,0 +1,118 @@
+package org.example.services.inspection;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SignatureSetTest {
+
+    private static final List<PayloadSignature> SIGNATURES = List.of(
+            new PayloadSignature("sqli", "SQL Injection", "High", "SQL keywords", "union select", "' or 1=1"),
+            new PayloadSignature("traversal", "Path Traversal", "High", "Parent directory", "../"),
+            new PayloadSignature("shell", "Command Injection", "High", "Shell", "/bin/sh"),
+            new PayloadSignature("bin", "Suspicious Path", "Low", "Binary directory", "bin/"));
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean contains(SignatureMatches matches, int signature) {
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.getSignature(i) == signature) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SignatureMatches scan(SignatureSet set, String payload) {
+        SignatureMatches matches = set.newMatches();
+        byte[] data = bytes(payload);
+        set.scan(data, 0, data.length, matches);
+        return matches;
+    }
+
+    @Test
+    void findsEveryPatternCaseInsensitively() {
+        SignatureSet set = new SignatureSet(SIGNATURES);
+
+        SignatureMatches matches = scan(set, "GET /?id=1 UNION SeLeCt password FROM users");
+        assertTrue(contains(matches, 0));
+        assertFalse(contains(matches, 1));
+        assertFalse(contains(matches, 2));
+        assertTrue(contains(scan(set, "GET /../../etc/passwd"), 1));
+        assertTrue(scan(set, "nothing to see here").isEmpty());
+    }
+
+    @Test
+    void reportsPatternsThatEndInsideOthers() {
+        // "bin/" ends inside "/bin/sh": the failure links must report both
+        SignatureSet set = new SignatureSet(SIGNATURES);
+        SignatureMatches matches = scan(set, "x;/bin/sh");
+
+        assertTrue(contains(matches, 2));
+        assertTrue(contains(matches, 3));
+        assertEquals(2, matches.size());
+        assertEquals("/bin/sh", set.getPattern(matches.getPattern(1)));
+    }
+
+    @Test
+    void reportsEachSignatureOnce() {
+        SignatureSet set = new SignatureSet(SIGNATURES);
+        SignatureMatches matches = scan(set, "' OR 1=1 UNION SELECT ' or 1=1");
+
+        assertEquals(1, matches.size());
+        assertEquals(0, matches.getSignature(0));
+        assertEquals("' or 1=1", set.getPattern(matches.getPattern(0)));
+
+        matches.clear();
+        assertTrue(matches.isEmpty());
+        assertFalse(contains(matches, 0));
+    }
+
+    @Test
+    void streamingScanFindsPatternsSplitBetweenSegments() {
+        SignatureSet set = new SignatureSet(SIGNATURES);
+        SignatureMatches matches = set.newMatches();
+        byte[] first = bytes("id=1 uni");
+        byte[] second = bytes("on select 2");
+
+        int state = set.scan(SignatureSet.START, first, 0, first.length, matches);
+        assertTrue(matches.isEmpty());
+        set.scan(state, second, 0, second.length, matches);
+        assertTrue(contains(matches, 0));
+    }
+
+    @Test
+    void prefilterModesFindTheSameMatches() {
+        Random random = new Random(7);
+        SignatureSet plain = new SignatureSet(SIGNATURES);
+        SignatureSet scalar = new SignatureSet(SIGNATURES, PayloadPrefilter.Mode.SCALAR);
+        SignatureSet vector = new SignatureSet(SIGNATURES, PayloadPrefilter.Mode.VECTOR);
+        String[] inserts = {"UNION SELECT", "../", "/bin/sh", "' OR 1=1", "bin"};
+
+        for (int round = 0; round < 200; round++) {
+            StringBuilder payload = new StringBuilder();
+            while (payload.length() < 2000) {
+                payload.append((char) ('a' + random.nextInt(26)));
+                if (random.nextInt(300) == 0) {
+                    payload.append(inserts[random.nextInt(inserts.length)]);
+                }
+            }
+            String text = payload.toString();
+            SignatureMatches expected = scan(plain, text);
+            for (SignatureSet set : List.of(scalar, vector)) {
+                SignatureMatches actual = scan(set, text);
+                for (int sig = 0; sig < SIGNATURES.size(); sig++) {
+                    assertEquals(contains(expected, sig), contains(actual, sig), "signature " + sig + " in round " + round);
+                }
+            }
+        }
+    }
+}
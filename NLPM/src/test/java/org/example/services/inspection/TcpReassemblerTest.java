@@ -0,0 +1,170 @@
+package org.example.services.inspection;
+
+import org.example.services.capture.HeaderDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TcpReassemblerTest {
+
+    private static final int ISN = 0x7ffffff0; // data sequence numbers wrap past 2^31
+    private static final SignatureSet SIGNATURES = new SignatureSet(List.of(
+            new PayloadSignature("sqli", "SQL Injection", "High", "SQL keywords", "union select"),
+            new PayloadSignature("shell", "Command Injection", "High", "Shell", "/bin/sh")));
+
+    private final HeaderDecoder headers = new HeaderDecoder();
+    private final SignatureMatches matches = SIGNATURES.newMatches();
+
+    private static ReassemblyBudget budget(long memoryCap, int streamDepth, int maxPending) {
+        return new ReassemblyBudget(memoryCap, 16, streamDepth, maxPending, 60_000_000_000L);
+    }
+
+    /**
+     * Ethernet IPv4 TCP segment 192.0.2.1:sourcePort -> 198.51.100.2:80
+     * carrying payload at stream offset offset
+     */
+    private void segment(TcpReassembler reassembler, int sourcePort, int offset, int flags, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer frame = ByteBuffer.allocate(14 + 20 + 20 + data.length);
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (40 + data.length)).putShort((short) 0)
+                .putShort((short) 0x4000).put((byte) 64).put((byte) HeaderDecoder.PROTO_TCP).putShort((short) 0)
+                .put(new byte[]{(byte) 192, 0, 2, 1}).put(new byte[]{(byte) 198, 51, 100, 2});
+        int seq = (flags & HeaderDecoder.TCP_SYN) != 0 ? ISN : ISN + 1 + offset;
+        frame.putShort((short) sourcePort).putShort((short) 80).putInt(seq).putInt(0)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 65535).putInt(0).put(data);
+        assertTrue(headers.decode(frame.array(), frame.capacity(), HeaderDecoder.DLT_EN10MB));
+        matches.clear();
+        reassembler.process(headers, 0, matches);
+    }
+
+    private void syn(TcpReassembler reassembler, int sourcePort) {
+        segment(reassembler, sourcePort, 0, HeaderDecoder.TCP_SYN, "");
+    }
+
+    @Test
+    void matchesPatternsStraddlingSegments() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "id=1 union");
+        assertTrue(matches.isEmpty());
+        segment(reassembler, 40000, 10, HeaderDecoder.TCP_ACK, " select");
+        assertTrue(matches.contains(0));
+        assertEquals(0, budget.getSegmentsOutOfOrder());
+    }
+
+    @Test
+    void putsReorderedSegmentsBackInSequence() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 5, HeaderDecoder.TCP_ACK, " select");
+        assertTrue(matches.isEmpty());
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "unio");
+        assertTrue(matches.isEmpty());
+        segment(reassembler, 40000, 4, HeaderDecoder.TCP_ACK, "n");
+        assertTrue(matches.contains(0));
+        assertEquals(1, budget.getSegmentsOutOfOrder());
+    }
+
+    @Test
+    void overlappingBytesKeepTheFirstCopy() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "union sel");
+        // Rewrites "sel" and completes the stream as "union select"
+        segment(reassembler, 40000, 6, HeaderDecoder.TCP_ACK, "XXXect");
+        assertTrue(matches.contains(0));
+        assertEquals(1, budget.getOverlaps());
+
+        // A retransmission of delivered bytes changes nothing
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "/bin/sh");
+        assertTrue(matches.isEmpty());
+        assertEquals(2, budget.getOverlaps());
+    }
+
+    @Test
+    void skipsAGapThatIsNeverFilled() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 16);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 100, HeaderDecoder.TCP_ACK, "x;/bin/sh;");
+        assertTrue(matches.isEmpty());
+        // No room to buffer this one too: give up on the hole before 100
+        segment(reassembler, 40000, 200, HeaderDecoder.TCP_ACK, "0123456789");
+        assertTrue(matches.contains(1));
+        assertEquals(1, budget.getGapsSkipped());
+    }
+
+    @Test
+    void stopsInspectingAtTheDepthLimit() {
+        ReassemblyBudget budget = budget(1 << 20, 16, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "0123456789ab/bin/sh");
+        assertTrue(matches.isEmpty());
+        assertEquals(1, budget.getDepthReached());
+        segment(reassembler, 40000, 19, HeaderDecoder.TCP_ACK, "union select");
+        assertTrue(matches.isEmpty());
+        assertEquals(1, reassembler.getStreamCount());
+    }
+
+    @Test
+    void finKeepsTheStreamUntilTheDataBeforeItArrives() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 5, HeaderDecoder.TCP_FIN | HeaderDecoder.TCP_ACK, " select");
+        assertEquals(1, reassembler.getStreamCount());
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_ACK, "union");
+        assertTrue(matches.contains(0));
+        assertEquals(0, reassembler.getStreamCount());
+        assertEquals(0, budget.getActiveStreams());
+        assertEquals(0, budget.getMemoryUsed());
+    }
+
+    @Test
+    void rstRemovesTheStreamAtOnce() {
+        ReassemblyBudget budget = budget(1 << 20, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+
+        segment(reassembler, 40000, 5, HeaderDecoder.TCP_ACK, " select");
+        segment(reassembler, 40000, 0, HeaderDecoder.TCP_RST, "");
+        assertEquals(0, reassembler.getStreamCount());
+        assertEquals(0, budget.getMemoryUsed());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedStreamUnderTheMemoryCap() {
+        ReassemblyBudget budget = budget(2 * 256 + 64, 4096, 4096);
+        TcpReassembler reassembler = new TcpReassembler(SIGNATURES, budget);
+        syn(reassembler, 40000);
+        syn(reassembler, 40001);
+
+        // Buffering 100 bytes on the second stream does not fit beside the first
+        segment(reassembler, 40001, 100, HeaderDecoder.TCP_ACK, "x".repeat(100));
+        assertEquals(1, budget.getStreamsEvicted());
+        assertEquals(1, reassembler.getStreamCount());
+        assertEquals(256 + 100, budget.getMemoryUsed());
+
+        segment(reassembler, 40001, 0, HeaderDecoder.TCP_ACK, "/bin/sh" + "y".repeat(93));
+        assertTrue(matches.contains(1));
+        assertEquals(256, budget.getMemoryUsed());
+        assertFalse(budget.getMemoryUsed() > budget.getMemoryCap());
+    }
+}
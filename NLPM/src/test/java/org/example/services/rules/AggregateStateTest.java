@@ -0,0 +1,57 @@
+package org.example.services.rules;
+
+import org.example.models.TrafficData;
+import org.example.models.TrafficProtocol;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AggregateStateTest {
+
+    private static TrafficData packet(int port, long millis) {
+        return new TrafficData(4, 0, 0x0a000001L, 0, 0x0a000002L, 40000, port, TrafficProtocol.TCP,
+                60, millis * 1_000_000L, "");
+    }
+
+    private static AggregateState distinctPorts(long windowMs) {
+        return new AggregateState(new Aggregate(Aggregate.Kind.DISTINCT, Aggregate.Field.DST_PORT,
+                Aggregate.Field.SRC, 100, windowMs));
+    }
+
+    @Test
+    void distinctValuesAreExactWithoutSampling() {
+        AggregateState state = distinctPorts(1000);
+        state.add(packet(22, 0), 0, 1);
+        state.add(packet(22, 1), 1, 1);
+        assertEquals(2, state.add(packet(80, 2), 2, 1));
+    }
+
+    @Test
+    void sampledScanIsScaledByTheWeight() {
+        // 1 in 8 of a 64 port scan
+        AggregateState state = distinctPorts(1000);
+        long estimate = 0;
+        for (int port = 0; port < 64; port += 8) {
+            estimate = state.add(packet(port, port), port, 8);
+        }
+        assertEquals(64, estimate);
+    }
+
+    @Test
+    void valueSeenAgainCountsOnce() {
+        AggregateState state = distinctPorts(1000);
+        assertEquals(8, state.add(packet(443, 0), 0, 8));
+        assertEquals(1, state.add(packet(443, 1), 1, 8));
+        assertEquals(9, state.add(packet(22, 2), 2, 8));
+    }
+
+    @Test
+    void valuesLeavingTheWindowLeaveTheEstimate() {
+        AggregateState state = distinctPorts(100);
+        state.add(packet(443, 0), 0, 8);
+        state.add(packet(443, 50), 50, 4);
+        state.add(packet(22, 60), 60, 8);
+        // The first 443 left, the second stands for 4
+        assertEquals(13, state.add(packet(23, 120), 120, 1));
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.services.rules;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleParserTest {
+
+    private static final String RULES = String.join("\n",
+            "# Brute force against remote logins",
+            "rule BruteForce \"Brute Force\" high {",
+            "    proto tcp",
+            "    dst.port 21-23, 3389   # ftp, telnet, ssh, rdp",
+            "    flags S",
+            "    count >= 10 by src within 60s",
+            "    message \"Brute force on port {dst.port}: {count} attempts\"",
+            "    blacklist",
+            "}",
+            "",
+            "rule WebShell \"Web Attack\" Critical {",
+            "    content \"cmd=\", \"exec\\x3d\"",
+            "    content \"\\\"/bin\"",
+            "    pcre /\\.php\\?/i",
+            "    payload.size > 10",
+            "}",
+            "rule PortScan \"Port Scan\" Medium {",
+            "    distinct dst.port >= 20 by src within 5m",
+            "}");
+
+    private static IllegalArgumentException error(String text) {
+        return assertThrows(IllegalArgumentException.class, () -> RuleParser.parse(text, "test.rules"));
+    }
+
+    @Test
+    void parsesHeadersAndClauses() {
+        List<Rule> rules = RuleParser.parse(RULES, "test.rules");
+        assertEquals(3, rules.size());
+
+        Rule brute = rules.get(0);
+        assertEquals("BruteForce", brute.getKey());
+        assertEquals("Brute Force", brute.getAlertType());
+        assertEquals("High", brute.getSeverity());
+        assertEquals(Rule.Protocol.TCP, brute.getProtocol());
+        assertTrue(brute.getDestinationPorts().contains(22));
+        assertTrue(brute.getDestinationPorts().contains(3389));
+        assertFalse(brute.getDestinationPorts().contains(24));
+        assertEquals(1, brute.getPredicates().size());
+        assertEquals(Aggregate.Kind.COUNT, brute.getAggregate().getKind());
+        assertEquals(Aggregate.Field.SRC, brute.getAggregate().getGroupBy());
+        assertEquals(10, brute.getAggregate().getThreshold());
+        assertEquals(60_000, brute.getAggregate().getWindowMs());
+        assertTrue(brute.isBlacklist());
+
+        Rule shell = rules.get(1);
+        assertEquals(Rule.Protocol.ANY, shell.getProtocol());
+        assertNull(shell.getDestinationPorts());
+        assertEquals(List.of(List.of("cmd=", "exec="), List.of("\"/bin")), shell.getContents());
+        assertEquals(List.of("(?i)\\.php\\?"), shell.getPcres());
+        assertEquals("Web Attack detected", shell.getMessage());
+
+        Aggregate scan = rules.get(2).getAggregate();
+        assertEquals(Aggregate.Kind.DISTINCT, scan.getKind());
+        assertEquals(Aggregate.Field.DST_PORT, scan.getDistinctField());
+        assertEquals(300_000, scan.getWindowMs());
+    }
+
+    @Test
+    void errorsNameTheSourceAndLine() {
+        IllegalArgumentException e = error("rule A \"A\" High {\n    proto tcp\n    dst.port 70000\n}");
+        assertTrue(e.getMessage().startsWith("test.rules:3: "), e.getMessage());
+
+        assertTrue(error("rule A \"A\" Urgent {\n proto tcp\n}").getMessage().contains("unknown severity"));
+        assertTrue(error("rule A \"A\" High {\n proto tcp\n").getMessage().contains("missing its closing"));
+        assertTrue(error("rule A \"A\" High {\n}").getMessage().contains("fire on every packet"));
+    }
+
+    @Test
+    void rejectsInvalidClauses() {
+        String[] clauses = {
+                "proto sctp",
+                "dst.port 80-21",
+                "flags SX",
+                "content \"\"",
+                "pcre /(a)\\1/",
+                "count >= 0 by src",
+                "count >= 5 by dst.port",
+                "count >= 5 by src within 10 days",
+                "ttl ~ 5",
+                "src.addr 10.0.0.0/8",
+                "proto tcp\n    proto udp",
+                "count >= 5 by src\n    distinct dst.port >= 5 by src",
+        };
+        for (String clause : clauses) {
+            error("rule A \"A\" High {\n    " + clause + "\n}");
+        }
+        error("rule A \"A\" High {\n proto tcp\n}\nrule A \"B\" Low {\n proto udp\n}");
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.services.rules;
+
+import org.example.services.inspection.ReassemblyBudget;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RuleSetTest {
+
+    private static RuleSet compile(String text) {
+        return RuleSet.compile(RuleParser.parse(text, "test.rules"), "test.rules", null,
+                new ReassemblyBudget(1 << 20, 16, 4096, 4096, 60_000_000_000L));
+    }
+
+    @Test
+    void payloadPortsComeFromTheRulesReadingPayloads() {
+        RuleSet rules = compile(String.join("\n",
+                "rule Web \"Web\" High {",
+                "    dst.port 80, 8080-8081",
+                "    content \"cmd=\"",
+                "}",
+                "rule Banner \"Banner\" Low {",
+                "    src.port 21",
+                "    pcre /^220 /",
+                "}",
+                "rule Tiny \"Tiny\" Low {",
+                "    dst.port 53",
+                "    payload.size < 4",
+                "}",
+                "rule Brute \"Brute\" High {",
+                "    dst.port 22",
+                "    count >= 5 by src",
+                "}"));
+
+        assertEquals(List.of("21", "53", "80", "8080-8081"), rules.getPayloadPorts(List.of("443")));
+    }
+
+    @Test
+    void rulesNamingNoPortUseTheUnrestrictedPorts() {
+        RuleSet rules = compile(String.join("\n",
+                "rule Any \"Any\" High {",
+                "    content \"union select\"",
+                "}",
+                "rule Web \"Web\" High {",
+                "    dst.port 81",
+                "    content \"cmd=\"",
+                "}"));
+
+        assertEquals(List.of("25", "80-82"), rules.getPayloadPorts(List.of("80", "25", "82")));
+        assertEquals(List.of(), compile("rule Ttl \"Ttl\" Low {\n ttl < 2\n}").getPayloadPorts(List.of("80")));
+    }
+}
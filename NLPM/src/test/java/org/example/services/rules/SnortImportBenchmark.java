@@ -0,0 +1,132 @@
+package org.example.services.rules;
+
+import org.example.services.inspection.ReassemblyBudget;
+
+import java.util.Random;
+
+/**
+ * Load time and memory of a large Snort rule set: generates rules shaped
+ * like a community rule set (web attacks with URI contents and pcres,
+ * positioned binary contents, client-side content chains, thresholds, and
+ * about 10% with options the importer skips), then imports and compiles
+ * them as a reload would.
+ * Run from NLPM after mvn test-compile, with the dependency classpath of
+ * mvn dependency:build-classpath -Dmdep.outputFile=cp.txt:
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp target/test-classes:target/classes:$(cat cp.txt) \
+ *      org.example.services.rules.SnortImportBenchmark [rules] [runs]
+ * </pre>
+ */
+public class SnortImportBenchmark {
+    private static final String[] WORDS = {
+            "admin", "config", "upload", "shell", "login", "report", "export", "backup", "plugin", "module",
+            "query", "search", "portal", "viewer", "manager", "server", "account", "image", "gallery", "forum",
+            "invoice", "ticket", "proxy", "monitor", "device", "sensor", "cache", "theme", "widget", "catalog"
+    };
+    private static final String[] EXTENSIONS = {"php", "asp", "aspx", "jsp", "cgi", "pl", "do", "action"};
+    private static final String[] UNSUPPORTED = {
+            "content:\"%s\"; http_uri;",
+            "content:\"%s\"; byte_test:4,>,1000,0,relative;",
+            "flowbits:isset,file.%s; content:\"%<s\";",
+            "content:\"%s\"; pcre:\"/\\b%<s\\b/i\";",
+            "content:\"%s\"; pcre:\"/%<s(?!=)/\";",
+            "flow:not_established; content:\"%s\";"
+    };
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 30000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String text = generate(count, new Random(42));
+        System.out.printf("%d rules, %.1f MB of rule text%n", count, text.length() / 1e6);
+
+        ReassemblyBudget budget = ReassemblyBudget.fromConfig();
+        for (int run = 1; run <= runs; run++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            ImportReport report = SnortImporter.importRules(text, "generated.rules");
+            long imported = System.nanoTime();
+            RuleSet rules = RuleSet.compile(report.getRules(), "generated.rules", null, budget);
+            long compiled = System.nanoTime();
+            long retained = usedHeap() - before;
+
+            if (run == 1) {
+                System.out.println(report);
+                System.out.println(rules);
+                System.out.printf("content automaton: %d patterns, %d states, %.1f MB%n",
+                        rules.getContents().getPatternCount(), rules.getContents().getStateCount(),
+                        rules.getContents().getMemoryUsage() / 1e6);
+                System.out.printf("pcres: %d matched together (NFA %d states), %d confirming content " +
+                                "(NFA %d states)%n",
+                        rules.getPcres().getActiveCount(), rules.getPcres().getNfaSize(),
+                        rules.getConfirmations().getActiveCount(), rules.getConfirmations().getNfaSize());
+            }
+            System.out.printf("run %d: import %4d ms, compile %4d ms, total %4d ms, retained %.1f MB%n", run,
+                    (imported - start) / 1_000_000, (compiled - imported) / 1_000_000,
+                    (compiled - start) / 1_000_000, retained / 1e6);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String generate(int count, Random random) {
+        StringBuilder text = new StringBuilder("portvar WEB_PORTS [80,443,8080,8443]\n");
+        for (int sid = 1_000_001; sid <= 1_000_000 + count; sid++) {
+            int kind = random.nextInt(100);
+            String token = word(random) + Integer.toString(random.nextInt(1 << 20), 36);
+            String header;
+            String options;
+            if (kind < 45) {
+                String parameter = word(random) + "_" + Integer.toString(random.nextInt(1296), 36);
+                header = "alert tcp $EXTERNAL_NET any -> $HOME_NET $HTTP_PORTS";
+                options = String.format("msg:\"SERVER-WEBAPP %s %s access\"; flow:to_server,established; " +
+                                "content:\"/%s/%s.%s\"; nocase; content:\"%s=\"; distance:0; %s" +
+                                "classtype:web-application-attack;",
+                        word(random), token, word(random), token, EXTENSIONS[random.nextInt(EXTENSIONS.length)],
+                        parameter, random.nextInt(3) == 0 ?
+                                String.format("pcre:\"/%s=[^&\\s]{%d}/i\"; ", parameter, 64 + random.nextInt(200))
+                                : "");
+            } else if (kind < 60) {
+                header = "alert udp $EXTERNAL_NET any -> $HOME_NET " + (random.nextBoolean() ? "53" : "[161,162]");
+                options = String.format("msg:\"PROTOCOL-DNS %s overflow attempt\"; content:\"|%02x %02x %02x|\"; " +
+                                "offset:%d; depth:%d; content:\"%s\"; nocase; distance:0; classtype:attempted-admin;",
+                        token, random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(12),
+                        3 + random.nextInt(8), token);
+            } else if (kind < 75) {
+                header = "alert tcp $EXTERNAL_NET $FILE_DATA_PORTS -> $HOME_NET any";
+                options = String.format("msg:\"FILE-OTHER %s exploit attempt\"; flow:to_client,established; " +
+                                "content:\"%s\"; fast_pattern; content:\"|00 %02x 00|\"; within:%d; " +
+                                "classtype:attempted-user;",
+                        token, token, random.nextInt(256), 16 + random.nextInt(200));
+            } else if (kind < 85) {
+                header = "alert tcp $HOME_NET any -> $EXTERNAL_NET $WEB_PORTS";
+                options = String.format("msg:\"MALWARE-CNC %s outbound connection\"; " +
+                                "flow:to_server,established; content:\"|16 03|\"; depth:2; content:\"%s\"; " +
+                                "distance:0; classtype:trojan-activity;", token, token);
+            } else if (kind < 90) {
+                int port = 1 + random.nextInt(10000);
+                header = "alert tcp $EXTERNAL_NET any -> $HOME_NET " + port;
+                options = String.format("msg:\"INDICATOR-SCAN %s port %d\"; flags:S; " +
+                                "threshold:type threshold, track by_src, count %d, seconds 60; " +
+                                "classtype:attempted-recon;", token, port, 5 + random.nextInt(20));
+            } else {
+                header = "alert tcp $EXTERNAL_NET any -> $HOME_NET $HTTP_PORTS";
+                options = String.format("msg:\"SERVER-OTHER %s attempt\"; ", token) +
+                        String.format(UNSUPPORTED[random.nextInt(UNSUPPORTED.length)], token) +
+                        " classtype:attempted-admin;";
+            }
+            text.append(header).append(" (").append(options).append(" sid:").append(sid).append("; rev:1;)\n");
+        }
+        return text.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
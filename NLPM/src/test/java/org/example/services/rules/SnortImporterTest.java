@@ -0,0 +1,356 @@
+package org.example.services.rules;
+
+import org.example.models.IpAddress;
+import org.example.models.TrafficData;
+import org.example.models.TrafficProtocol;
+import org.example.services.inspection.NfaMatcher;
+import org.example.services.inspection.RegexSet;
+import org.example.services.inspection.RegexSignature;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnortImporterTest {
+
+    private static final List<String> HOME = List.of("10.0.0.0/8", "2001:db8::/32");
+
+    private static Rule importOne(String options) {
+        return importRule(rule(options));
+    }
+
+    private static Rule importRule(String text) {
+        ImportReport report = SnortImporter.importRules(text, "test.rules", HOME);
+        assertEquals(List.of(), report.getSkipped());
+        return report.getRules().get(0);
+    }
+
+    private static String skipReason(String options) {
+        return skipReasonOf(rule(options));
+    }
+
+    private static String skipReasonOf(String text) {
+        ImportReport report = SnortImporter.importRules(text, "test.rules", HOME);
+        assertEquals(1, report.getSkipped().size());
+        String skipped = report.getSkipped().get(0);
+        return skipped.substring(skipped.indexOf(": ") + 2);
+    }
+
+    private static String rule(String options) {
+        return "alert tcp any any -> any 80 (msg:\"test\"; " + options + " sid:1;)";
+    }
+
+    /**
+     * True if every pcre of the rule matches the payload, as RuleSet
+     * confirms a rule with content
+     */
+    private static boolean matches(Rule rule, String payload) {
+        List<RegexSignature> signatures = rule.getPcres().stream()
+                .map(pcre -> new RegexSignature(rule.getKey(), rule.getAlertType(), rule.getSeverity(),
+                        rule.getMessage(), pcre))
+                .toList();
+        NfaMatcher matcher = new RegexSet(signatures).newSignatureMatcher();
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < signatures.size(); i++) {
+            if (!matcher.matches(i, data, 0, data.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the rule's header predicates pass for a TCP packet between
+     * the two addresses
+     */
+    private static boolean matchesAddresses(Rule rule, String source, String destination) {
+        byte[] src = IpAddress.parse(source);
+        byte[] dst = IpAddress.parse(destination);
+        TrafficData traffic = src.length == 4
+                ? new TrafficData(4, 0, IpAddress.toLong(src, 0), 0, IpAddress.toLong(dst, 0), 40000, 80,
+                        TrafficProtocol.TCP, 60, 0, "Allowed")
+                : new TrafficData(6, IpAddress.toLong(src, 0), IpAddress.toLong(src, 8), IpAddress.toLong(dst, 0),
+                        IpAddress.toLong(dst, 8), 40000, 80, TrafficProtocol.TCP, 60, 0, "Allowed");
+        return rule.getPredicates().stream().allMatch(predicate -> predicate.test(traffic, null));
+    }
+
+    @Test
+    void nocaseContentIsOnlyAnAutomatonLiteral() {
+        Rule rule = importOne("content:\"abc\"; nocase;");
+
+        assertEquals(List.of(List.of("abc")), rule.getContents());
+        assertEquals(List.of(), rule.getPcres());
+    }
+
+    @Test
+    void contentWithoutLettersIsOnlyAnAutomatonLiteral() {
+        Rule rule = importOne("content:\"|00 01|../\";");
+
+        assertEquals(List.of(), rule.getPcres());
+    }
+
+    @Test
+    void contentWithoutNocaseIsConfirmedWithItsCase() {
+        Rule rule = importOne("content:\"Secret\";");
+
+        assertEquals(List.of(List.of("Secret")), rule.getContents());
+        assertEquals(List.of("Secret"), rule.getPcres());
+        assertTrue(matches(rule, "the Secret"));
+        assertFalse(matches(rule, "the secret"));
+        assertFalse(matches(rule, "the SECRET"));
+    }
+
+    @Test
+    void nocaseAppliesPerContentInAChain() {
+        Rule rule = importOne("content:\"user\"; nocase; content:\"Admin\"; distance:1;");
+
+        assertEquals(List.of("[uU][sS][eE][rR][\\x00-\\xff]{1,}Admin"), rule.getPcres());
+        assertTrue(matches(rule, "USER=Admin"));
+        assertFalse(matches(rule, "user=admin"));
+    }
+
+    @Test
+    void offsetAndDepthBoundTheFirstContent() {
+        Rule rule = importOne("content:\"abc\"; offset:2; depth:5;");
+
+        assertEquals(List.of("^[\\x00-\\xff]{2,4}abc"), rule.getPcres());
+        assertTrue(matches(rule, "xxabc"));
+        assertTrue(matches(rule, "xxxxabc"));
+        assertFalse(matches(rule, "xabc"));
+        assertFalse(matches(rule, "xxxxxabc"));
+    }
+
+    @Test
+    void depthWithoutOffsetStartsAtThePayload() {
+        Rule rule = importOne("content:\"GET\"; depth:3;");
+
+        assertEquals(List.of("^GET"), rule.getPcres());
+        assertTrue(matches(rule, "GET /"));
+        assertFalse(matches(rule, " GET /"));
+    }
+
+    @Test
+    void offsetWithoutDepthLeavesTheEndOpen() {
+        Rule rule = importOne("content:\"abc\"; offset:3;");
+
+        assertEquals(List.of("^[\\x00-\\xff]{3,}abc"), rule.getPcres());
+        assertTrue(matches(rule, "xxxxxxxxabc"));
+        assertFalse(matches(rule, "xxabc"));
+    }
+
+    @Test
+    void withinIsMeasuredFromTheDistance() {
+        Rule rule = importOne("content:\"ABC\"; content:\"EF\"; distance:2; within:4;");
+
+        assertEquals(List.of("ABC[\\x00-\\xff]{2,4}EF"), rule.getPcres());
+        assertTrue(matches(rule, "ABC..EF"));
+        assertTrue(matches(rule, "ABC....EF"));
+        assertFalse(matches(rule, "ABC.EF"));
+        assertFalse(matches(rule, "ABC.....EF"));
+    }
+
+    @Test
+    void withinShorterThanTheDistanceIsAccepted() {
+        Rule rule = importOne("content:\"abc\"; content:\"wxyz\"; distance:10; within:5;");
+
+        assertEquals(List.of("abc[\\x00-\\xff]{10,11}wxyz"), rule.getPcres());
+        assertTrue(matches(rule, "abc0123456789wxyz"));
+        assertTrue(matches(rule, "abc0123456789.wxyz"));
+        assertFalse(matches(rule, "abc012345678wxyz"));
+        assertFalse(matches(rule, "abc0123456789..wxyz"));
+    }
+
+    @Test
+    void withinWithoutDistanceFollowsThePreviousContent() {
+        Rule rule = importOne("content:\"abc\"; content:\"de\"; within:4;");
+
+        assertEquals(List.of("abc[\\x00-\\xff]{0,2}de"), rule.getPcres());
+        assertTrue(matches(rule, "abcde"));
+        assertTrue(matches(rule, "abc..de"));
+        assertFalse(matches(rule, "abc...de"));
+    }
+
+    @Test
+    void distanceWithoutWithinLeavesTheEndOpen() {
+        Rule rule = importOne("content:\"abc\"; content:\"de\"; distance:3;");
+
+        assertEquals(List.of("abc[\\x00-\\xff]{3,}de"), rule.getPcres());
+        assertTrue(matches(rule, "abc.........de"));
+        assertFalse(matches(rule, "abc..de"));
+    }
+
+    @Test
+    void chainedContentsAreAnchoredByTheFirstOne() {
+        Rule rule = importOne("content:\"|16 03|\"; depth:2; content:\"hello\"; distance:0;");
+
+        assertEquals(List.of("^\\x16\\x03[\\x00-\\xff]*hello"), rule.getPcres());
+        assertTrue(matches(rule, "\u0016\u0003....hello"));
+        assertFalse(matches(rule, ".\u0016\u0003hello"));
+    }
+
+    @Test
+    void nonRelativeContentStartsANewChain() {
+        Rule rule = importOne("content:\"GET\"; depth:3; content:\"admin\"; content:\"=\"; distance:0; within:8;");
+
+        assertEquals(List.of("^GET", "admin[\\x00-\\xff]{0,7}\\x3d"), rule.getPcres());
+        assertEquals(List.of(List.of("GET"), List.of("admin"), List.of("=")), rule.getContents());
+    }
+
+    @Test
+    void withinShorterThanItsContentIsSkipped() {
+        assertEquals("depth or within shorter than its content",
+                skipReason("content:\"abc\"; content:\"wxyz\"; distance:1; within:3;"));
+    }
+
+    @Test
+    void depthShorterThanItsContentIsSkipped() {
+        assertEquals("depth or within shorter than its content", skipReason("content:\"abcd\"; depth:3;"));
+    }
+
+    @Test
+    void negativeDistanceIsSkipped() {
+        assertEquals("negative distance", skipReason("content:\"abc\"; content:\"d\"; distance:-2;"));
+    }
+
+    @Test
+    void windowsOverTheLimitAreLeftOpenAndReported() {
+        ImportReport report = SnortImporter.importRules(rule("content:\"zz\"; offset:300;"), "test.rules");
+
+        assertEquals(List.of("^[\\x00-\\xff]{256,}zz"), report.getRules().get(0).getPcres());
+        assertEquals(1, report.getRelaxed().get("offset or distance over " + SnortImporter.MAX_WINDOW));
+    }
+
+    @Test
+    void addressVariablesResolveToTheHomeNetworks() {
+        Rule rule = importRule("alert tcp $EXTERNAL_NET any -> $HOME_NET 80 (content:\"a\"; nocase; sid:1;)");
+
+        assertTrue(matchesAddresses(rule, "8.8.8.8", "10.1.2.3"));
+        assertTrue(matchesAddresses(rule, "2001:db9::1", "2001:db8::5"));
+        assertFalse(matchesAddresses(rule, "10.0.0.5", "10.1.2.3"));
+        assertFalse(matchesAddresses(rule, "8.8.8.8", "192.168.1.1"));
+        assertFalse(matchesAddresses(rule, "8.8.8.8", "2001:db9::5"));
+    }
+
+    @Test
+    void serverVariablesDefaultToTheHomeNetworks() {
+        Rule rule = importRule("alert tcp any any -> $HTTP_SERVERS 80 (content:\"a\"; nocase; sid:1;)");
+
+        assertTrue(matchesAddresses(rule, "10.0.0.5", "10.1.2.3"));
+        assertFalse(matchesAddresses(rule, "10.0.0.5", "8.8.8.8"));
+    }
+
+    @Test
+    void ipvarLinesOverrideTheHomeNetworks() {
+        Rule rule = importRule("ipvar HOME_NET [192.168.0.0/16,!192.168.1.0/24]\n" +
+                "alert tcp $EXTERNAL_NET any -> $HOME_NET 80 (content:\"a\"; nocase; sid:1;)");
+
+        assertTrue(matchesAddresses(rule, "8.8.8.8", "192.168.2.1"));
+        assertFalse(matchesAddresses(rule, "8.8.8.8", "192.168.1.1"));
+        assertFalse(matchesAddresses(rule, "8.8.8.8", "10.1.2.3"));
+        assertTrue(matchesAddresses(rule, "192.168.1.1", "192.168.2.1"));
+    }
+
+    @Test
+    void literalAddressesAreMatched() {
+        Rule rule = importRule("alert tcp [1.2.3.4,5.6.0.0/16] any -> !10.0.0.1 80 (content:\"a\"; nocase; sid:1;)");
+
+        assertTrue(matchesAddresses(rule, "5.6.7.8", "10.0.0.2"));
+        assertFalse(matchesAddresses(rule, "1.2.3.5", "10.0.0.2"));
+        assertFalse(matchesAddresses(rule, "1.2.3.4", "10.0.0.1"));
+    }
+
+    @Test
+    void anyAddressAddsNoPredicate() {
+        Rule rule = importRule("alert tcp any any -> any 80 (content:\"a\"; nocase; sid:1;)");
+
+        assertEquals(List.of(), rule.getPredicates());
+    }
+
+    @Test
+    void emptyHomeNetworksMatchEveryAddress() {
+        ImportReport report = SnortImporter.importRules(
+                "alert tcp $EXTERNAL_NET any -> $HOME_NET 80 (content:\"a\"; nocase; sid:1;)", "test.rules", List.of());
+
+        assertEquals(List.of(), report.getRules().get(0).getPredicates());
+    }
+
+    @Test
+    void undefinedAndInvalidAddressesAreSkipped() {
+        assertEquals("undefined variable: $DMZ",
+                skipReasonOf("alert tcp $DMZ any -> any 80 (content:\"a\"; sid:1;)"));
+        assertEquals("invalid address: 10.0.0.0/33",
+                skipReasonOf("alert tcp 10.0.0.0/33 any -> any 80 (content:\"a\"; sid:1;)"));
+    }
+
+    @Test
+    void establishedRequiresAck() {
+        Rule rule = importOne("flow:established; content:\"a\"; nocase;");
+
+        assertEquals("[flags 10/10]", rule.getPredicates().toString());
+    }
+
+    @Test
+    void statelessAddsNoCondition() {
+        Rule rule = importOne("flow:stateless; content:\"a\"; nocase;");
+
+        assertEquals(List.of(), rule.getPredicates());
+    }
+
+    @Test
+    void flowDirectionIsTheHeaderDirection() {
+        Rule rule = importOne("flow:to_server,established; content:\"a\"; nocase;");
+        assertEquals("[flags 10/10]", rule.getPredicates().toString());
+
+        ImportReport report = SnortImporter.importRules(rule("flow:to_server; content:\"a\";") + "\n" +
+                rule("flow:from_server,established; content:\"b\";").replace("sid:1", "sid:2"), "test.rules", HOME);
+        assertEquals(2, report.getRules().size());
+        assertEquals(2, report.getRelaxed().get("flow direction"));
+    }
+
+    @Test
+    void flowStateTheEngineDoesNotTrackIsSkipped() {
+        assertEquals("unsupported flow not_established", skipReason("flow:not_established; content:\"a\";"));
+        assertEquals("unsupported flow only_stream", skipReason("flow:to_server,only_stream; content:\"a\";"));
+        assertEquals("unsupported flow established: not a tcp rule",
+                skipReasonOf("alert udp any any -> any 53 (flow:established; content:\"a\"; sid:1;)"));
+    }
+
+    @Test
+    void flowSkipsAreCountedLikeOtherUnsupportedOptions() {
+        ImportReport report = SnortImporter.importRules(rule("flow:no_stream; content:\"a\";") + "\n" +
+                rule("flow:no_stream; content:\"b\";").replace("sid:1", "sid:2"), "test.rules", HOME);
+
+        assertEquals(2, report.getSkipReasons().get("unsupported flow no_stream"));
+        assertTrue(report.getRules().isEmpty());
+    }
+
+    @Test
+    void thresholdTypesBecomeAggregates() {
+        Aggregate threshold = importOne("flags:S; threshold:type threshold, track by_src, count 5, seconds 60;")
+                .getAggregate();
+        Aggregate limit = importOne("flags:S; threshold:type limit, track by_dst, count 1, seconds 30;")
+                .getAggregate();
+
+        assertEquals(Aggregate.Kind.COUNT, threshold.getKind());
+        assertEquals(5, threshold.getThreshold());
+        assertEquals(Aggregate.Kind.LIMIT, limit.getKind());
+        assertEquals(Aggregate.Field.DST, limit.getGroupBy());
+        assertEquals(1, limit.getThreshold());
+        assertEquals(30_000, limit.getWindowMs());
+    }
+
+    @Test
+    void importedRulesAreNotReportedAsLoose() {
+        ImportReport report = SnortImporter.importRules(
+                "alert tcp $EXTERNAL_NET any -> $HOME_NET 80 (content:\"Secret\"; sid:1;)", "test.rules", HOME);
+
+        assertEquals(1, report.getRules().size());
+        assertNull(report.getRelaxed().get("address variables"));
+        assertNull(report.getRelaxed().get("case-sensitive content"));
+    }
+}